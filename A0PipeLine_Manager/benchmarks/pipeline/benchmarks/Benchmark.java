@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.benchmarks;
+
+/**
+ * A piece of code whose running time is measured by {@link BenchmarkRunner}. {@link #setUp} is called once, before
+ * warmup, and is not timed. {@link #run} is called repeatedly; it should return something computed from its results
+ * so that the JIT compiler cannot discard the work.
+ *
+ */
+public abstract class Benchmark {
+
+	private final String name;
+	private final String parameters;
+
+	/**
+	 * @param name
+	 *            Identifies the benchmark across runs; should not change when the implementation changes
+	 * @param parameters
+	 *            Description of the input (e.g. stack dimensions), reported alongside the results
+	 */
+	protected Benchmark(String name, String parameters) {
+		this.name = name;
+		this.parameters = parameters;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getParameters() {
+		return parameters;
+	}
+
+	public void setUp() throws Exception {
+	}
+
+	public abstract Object run() throws Exception;
+
+	public void tearDown() throws Exception {
+	}
+}
@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+import pipeline.misc_util.Utils;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+
+/**
+ * Runs benchmarks in the manner of JMH: each benchmark is set up, run for a number of untimed warmup iterations, and
+ * then for a number of measurement iterations, each of which calls the benchmark repeatedly for a fixed time.
+ * Results are printed as a table and written to a JSON file in the format of JMH's JSON output, so that they can be
+ * compared across builds with the usual JMH tools. Benchmarks run one after the other in the same JVM; run with a
+ * fixed heap size (-Xms equal to -Xmx) for more reproducible results.
+ *
+ */
+public class BenchmarkRunner {
+
+	static class Arguments {
+		@Parameter(names = "-filter", description = "Regular expression; only benchmarks whose name matches are run",
+				required = false)
+		String filter = ".*";
+
+		@Parameter(names = "-warmupIterations", description = "Number of untimed iterations", required = false)
+		int warmupIterations = 3;
+
+		@Parameter(names = "-iterations", description = "Number of timed iterations", required = false)
+		int iterations = 10;
+
+		@Parameter(names = "-iterationTime", description = "Minimal duration of each iteration, in ms",
+				required = false)
+		int iterationTime = 1000;
+
+		@Parameter(names = "-width", description = "Width of synthetic stacks", required = false)
+		int width = 128;
+
+		@Parameter(names = "-height", description = "Height of synthetic stacks", required = false)
+		int height = 128;
+
+		@Parameter(names = "-depth", description = "Depth of synthetic stacks", required = false)
+		int depth = 32;
+
+		@Parameter(names = "-nCells", description = "Number of cells in synthetic cell lists", required = false)
+		int nCells = 10000;
+
+		@Parameter(names = "-logLevel", description = "1 for only critical messages, 8 for maximal verbosity",
+				required = false)
+		int logLevel = 1;
+
+		@Parameter(names = "-output", description = "JSON file to write results to", required = false)
+		String output = "benchmark_results.json";
+
+		@Parameter(names = "-help", help = true)
+		boolean help;
+	}
+
+	static class Result {
+		final Benchmark benchmark;
+		/**
+		 * Average time per call in each measurement iteration, in ms
+		 */
+		final double[] msPerOp;
+
+		Result(Benchmark benchmark, double[] msPerOp) {
+			this.benchmark = benchmark;
+			this.msPerOp = msPerOp;
+		}
+
+		double getMean() {
+			double sum = 0;
+			for (double d : msPerOp) {
+				sum += d;
+			}
+			return sum / msPerOp.length;
+		}
+
+		/**
+		 * @return Half-width of the 99.9% confidence interval of the mean, as reported by JMH, or NaN if there is only
+		 *         1 iteration
+		 */
+		double getError() {
+			int n = msPerOp.length;
+			if (n < 2)
+				return Double.NaN;
+			double mean = getMean();
+			double sumSquares = 0;
+			for (double d : msPerOp) {
+				sumSquares += (d - mean) * (d - mean);
+			}
+			double standardDeviation = Math.sqrt(sumSquares / (n - 1));
+			double t = new TDistribution(n - 1).inverseCumulativeProbability(1 - 0.001 / 2);
+			return t * standardDeviation / Math.sqrt(n);
+		}
+	}
+
+	/**
+	 * Written to so that the results of benchmarks are not dead code
+	 */
+	@SuppressWarnings("unused")
+	private static volatile int sink;
+
+	private static void consume(Object o) {
+		if (o != null)
+			sink += o.hashCode();
+	}
+
+	/**
+	 * Call benchmark repeatedly for at least durationNs.
+	 *
+	 * @return Average time per call, in ms
+	 */
+	private static double runIteration(Benchmark benchmark, long durationNs) throws Exception {
+		long start = System.nanoTime();
+		long elapsed;
+		int nCalls = 0;
+		do {
+			consume(benchmark.run());
+			nCalls++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < durationNs);
+		return elapsed / 1e6 / nCalls;
+	}
+
+	private static Result run(Benchmark benchmark, Arguments args) throws Exception {
+		System.gc();
+		benchmark.setUp();
+		try {
+			long durationNs = args.iterationTime * 1000000L;
+			for (int i = 0; i < args.warmupIterations; i++) {
+				runIteration(benchmark, durationNs);
+			}
+			double[] msPerOp = new double[args.iterations];
+			for (int i = 0; i < args.iterations; i++) {
+				msPerOp[i] = runIteration(benchmark, durationNs);
+			}
+			return new Result(benchmark, msPerOp);
+		} finally {
+			benchmark.tearDown();
+		}
+	}
+
+	private static String quote(String s) {
+		StringBuilder result = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\')
+				result.append('\\').append(c);
+			else if (c < 0x20)
+				result.append(String.format("\\u%04x", (int) c));
+			else
+				result.append(c);
+		}
+		return result.append('"').toString();
+	}
+
+	private static String number(double d) {
+		return Double.isNaN(d) ? "\"NaN\"" : String.format(Locale.US, "%.6g", d);
+	}
+
+	private static void writeJSON(List<Result> results, Arguments args, File f) throws IOException {
+		try (PrintWriter out =
+				new PrintWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8))) {
+			out.println("[");
+			for (int i = 0; i < results.size(); i++) {
+				Result r = results.get(i);
+				out.println("    {");
+				out.println("        \"benchmark\" : " + quote("pipeline.benchmarks." + r.benchmark.getName()) + ",");
+				out.println("        \"mode\" : \"avgt\",");
+				out.println("        \"threads\" : 1,");
+				out.println("        \"forks\" : 0,");
+				out.println("        \"jdkVersion\" : " + quote(System.getProperty("java.version")) + ",");
+				out.println("        \"vmName\" : " + quote(System.getProperty("java.vm.name")) + ",");
+				out.println("        \"availableProcessors\" : " + Runtime.getRuntime().availableProcessors() + ",");
+				out.println("        \"warmupIterations\" : " + args.warmupIterations + ",");
+				out.println("        \"warmupTime\" : \"" + args.iterationTime + " ms\",");
+				out.println("        \"measurementIterations\" : " + args.iterations + ",");
+				out.println("        \"measurementTime\" : \"" + args.iterationTime + " ms\",");
+				out.println("        \"params\" : {");
+				out.println("            \"input\" : " + quote(r.benchmark.getParameters()));
+				out.println("        },");
+				out.println("        \"primaryMetric\" : {");
+				out.println("            \"score\" : " + number(r.getMean()) + ",");
+				out.println("            \"scoreError\" : " + number(r.getError()) + ",");
+				out.println("            \"scoreUnit\" : \"ms/op\",");
+				StringBuilder rawData = new StringBuilder();
+				for (double d : r.msPerOp) {
+					if (rawData.length() > 0)
+						rawData.append(", ");
+					rawData.append(number(d));
+				}
+				out.println("            \"rawData\" : [ [ " + rawData + " ] ]");
+				out.println("        }");
+				out.println("    }" + (i < results.size() - 1 ? "," : ""));
+			}
+			out.println("]");
+		}
+	}
+
+	public static void main(String[] argStrings) throws Exception {
+		Arguments args = new Arguments();
+		JCommander commander = new JCommander(args);
+		commander.setAllowAbbreviatedOptions(false);
+		commander.parse(argStrings);
+		if (args.help) {
+			commander.usage();
+			return;
+		}
+		Utils.headless = true;
+		Utils.logLevelThreshold = args.logLevel;
+
+		List<Benchmark> benchmarks = new ArrayList<>();
+		benchmarks.addAll(PluginBenchmarks.create(args.width, args.height, args.depth));
+		benchmarks.addAll(DataAccessBenchmarks.create(args.width, args.height, args.depth, args.nCells));
+
+		Pattern filter = Pattern.compile(args.filter);
+		List<Result> results = new ArrayList<>();
+		for (Benchmark benchmark : benchmarks) {
+			if (!filter.matcher(benchmark.getName()).find())
+				continue;
+			System.out.println("Running " + benchmark.getName() + " (" + benchmark.getParameters() + ")");
+			Result result = run(benchmark, args);
+			results.add(result);
+			System.out.println(String.format(Locale.US, "    %.3f +/- %.3f ms/op", result.getMean(), result
+					.getError()));
+		}
+
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%-32s %-45s %12s %12s", "Benchmark", "Input", "ms/op", "Error"));
+		for (Result r : results) {
+			System.out.println(String.format(Locale.US, "%-32s %-45s %12.3f %12.3f", r.benchmark.getName(),
+					r.benchmark.getParameters(), r.getMean(), r.getError()));
+		}
+
+		File output = new File(args.output);
+		writeJSON(results, args, output);
+		System.out.println("Results written to " + output.getAbsolutePath());
+		System.exit(0);
+	}
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
+import pipeline.data.PixelIterator;
+import pipeline.data.PluginIOCells;
+import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.tiff_read_write.BareBonesFileInfoLongOffsets;
+import pipeline.data.tiff_read_write.TIFFFileAccessor;
+
+/**
+ * Benchmarks of pixel access, TIFF reading and writing, and cell list serialization.
+ *
+ */
+public class DataAccessBenchmarks {
+
+	private DataAccessBenchmarks() {
+	}
+
+	private static String compressionName(int compression) {
+		switch (compression) {
+			case BareBonesFileInfoLongOffsets.COMPRESSION_NONE:
+				return "none";
+			case BareBonesFileInfoLongOffsets.LZW:
+				return "lzw";
+			case BareBonesFileInfoLongOffsets.ZIP:
+				return "deflate";
+			default:
+				throw new IllegalArgumentException("Unknown compression " + compression);
+		}
+	}
+
+	private static void writeTIFF(IPluginIOStack stack, File f, int compression) throws Exception {
+		TIFFFileAccessor writer = new TIFFFileAccessor(f, stack.getName(), PixelType.FLOAT_TYPE, null, false);
+		writer.setCompression(compression);
+		writer.setDimensions(stack.getWidth(), stack.getHeight(), stack.getDepth(), 1, 1);
+		for (int z = 0; z < stack.getDepth(); z++) {
+			writer.copyPixelsIntoZSlice(stack.getPixels(z), z, ImageAccessor.DONT_CACHE_PIXELS);
+		}
+		writer.close();
+	}
+
+	private static File createTempFile() throws IOException {
+		File f = File.createTempFile("benchmark", ".tiff");
+		f.deleteOnExit();
+		return f;
+	}
+
+	public static List<Benchmark> create(int width, int height, int depth, final int nCells) {
+		List<Benchmark> result = new ArrayList<>();
+		final String size = width + "x" + height + "x" + depth;
+
+		result.add(new Benchmark("PluginIOStack.getFloat", size) {
+			IPluginIOStack stack;
+
+			@Override
+			public void setUp() throws Exception {
+				stack = SyntheticData.noiseStack("input", width, height, depth, 1);
+			}
+
+			@Override
+			public Object run() {
+				float sum = 0;
+				for (int z = 0; z < depth; z++) {
+					for (int y = 0; y < height; y++) {
+						for (int x = 0; x < width; x++) {
+							sum += stack.getFloat(x, y, z);
+						}
+					}
+				}
+				return sum;
+			}
+		});
+
+		result.add(new Benchmark("PluginIOStack.getBallIterator", size + " 1000 balls of radius 5") {
+			IPluginIOStack stack;
+			int[][] centers;
+
+			@Override
+			public void setUp() throws Exception {
+				stack = SyntheticData.noiseStack("input", width, height, depth, 1);
+				Random random = new Random(4);
+				centers = new int[1000][];
+				for (int i = 0; i < centers.length; i++) {
+					centers[i] =
+							new int[] { random.nextInt(width), random.nextInt(height), random.nextInt(depth) };
+				}
+			}
+
+			@Override
+			public Object run() {
+				float sum = 0;
+				for (int[] center : centers) {
+					PixelIterator it = stack.getBallIterator(center[0], center[1], center[2], 5);
+					while (it.hasNext()) {
+						sum += it.nextFloatValue();
+					}
+				}
+				return sum;
+			}
+		});
+
+		for (final int compression : new int[] { BareBonesFileInfoLongOffsets.COMPRESSION_NONE,
+				BareBonesFileInfoLongOffsets.LZW, BareBonesFileInfoLongOffsets.ZIP }) {
+			final String parameters = size + " float, compression " + compressionName(compression);
+
+			result.add(new Benchmark("TIFFFileAccessor.write", parameters) {
+				IPluginIOStack stack;
+				File f;
+
+				@Override
+				public void setUp() throws Exception {
+					stack = SyntheticData.noiseStack("input", width, height, depth, 1);
+					f = createTempFile();
+				}
+
+				@Override
+				public Object run() throws Exception {
+					if (!f.delete())
+						throw new IOException("Could not delete " + f);
+					writeTIFF(stack, f, compression);
+					return f.length();
+				}
+
+				@Override
+				public void tearDown() {
+					f.delete();
+				}
+			});
+
+			for (final boolean memoryMapping : new boolean[] { false, true }) {
+				if (memoryMapping && compression != BareBonesFileInfoLongOffsets.COMPRESSION_NONE)
+					// Compressed files are never memory mapped
+					continue;
+				result.add(new Benchmark("TIFFFileAccessor.read", parameters + (memoryMapping ? ", mapped" : "")) {
+					File f;
+
+					@Override
+					public void setUp() throws Exception {
+						f = createTempFile();
+						f.delete();
+						writeTIFF(SyntheticData.noiseStack("input", width, height, depth, 1), f, compression);
+					}
+
+					@Override
+					public Object run() throws Exception {
+						TIFFFileAccessor reader = new TIFFFileAccessor(f, "input");
+						reader.setUseMemoryMapping(memoryMapping);
+						reader.openForSequentialRead();
+						reader.setDefaultCachePolicy(ImageAccessor.DONT_CACHE_PIXELS);
+						float sum = 0;
+						for (int z = 0; z < depth; z++) {
+							float[] pixels = (float[]) reader.getPixelZSliceCopy(z, ImageAccessor.DONT_CACHE_PIXELS);
+							sum += pixels[z];
+						}
+						reader.close();
+						return sum;
+					}
+
+					@Override
+					public void tearDown() {
+						f.delete();
+					}
+				});
+			}
+		}
+
+		final String cellParameters = nCells + " cells, 10 properties";
+
+		result.add(new Benchmark("PluginIOCells.protobufWrite", cellParameters) {
+			PluginIOCells cells;
+
+			@Override
+			public void setUp() {
+				cells = SyntheticData.cells(nCells, width, height, depth, 10, 5);
+			}
+
+			@Override
+			public Object run() {
+				// Discard the serialized form cached by the previous call
+				cells.setProtobuf(null);
+				return cells.asProtobufBytes().length;
+			}
+		});
+
+		result.add(new Benchmark("PluginIOCells.protobufRead", cellParameters) {
+			byte[] bytes;
+
+			@Override
+			public void setUp() {
+				bytes = SyntheticData.cells(nCells, width, height, depth, 10, 5).asProtobufBytes();
+			}
+
+			@Override
+			public Object run() {
+				PluginIOCells cells = new PluginIOCells();
+				cells.setProperty("Protobuf", bytes);
+				return cells.getPoints().size();
+			}
+		});
+
+		return result;
+	}
+}
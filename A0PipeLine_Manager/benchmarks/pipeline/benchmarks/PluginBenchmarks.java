@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import pipeline.GUI_utils.ProgressSubrange;
+import pipeline.data.IPluginIO;
+import pipeline.data.IPluginIOStack;
+import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.PluginIOStack;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.plugins.ThreeDPlugin;
+import pipeline.plugins.image_processing.Blur3D;
+import pipeline.plugins.image_processing.FillHoles;
+import pipeline.plugins.image_processing.ImageMath;
+import pipeline.plugins.image_processing.LocalDiameter;
+import pipeline.plugins.image_processing.RankFilters;
+
+/**
+ * Benchmarks that call plugins directly on single channels, bypassing the pipeline and PluginShell, so that only the
+ * image processing itself is timed.
+ *
+ */
+public class PluginBenchmarks {
+
+	private PluginBenchmarks() {
+	}
+
+	private static final ProgressReporter noProgress = new ProgressSubrange(null, 1);
+
+	/**
+	 * Benchmark of a ThreeDPlugin that writes its output to a float stack of the same dimensions as its input.
+	 */
+	private static abstract class ChannelBenchmark extends Benchmark {
+		final int width, height, depth;
+		IPluginIOStack input, output;
+		ThreeDPlugin plugin;
+
+		ChannelBenchmark(String name, int width, int height, int depth) {
+			super(name, width + "x" + height + "x" + depth);
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+		}
+
+		abstract ThreeDPlugin createPlugin() throws Exception;
+
+		IPluginIOStack createInput() throws InterruptedException {
+			return SyntheticData.noiseStack("input", width, height, depth, 1);
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			input = createInput();
+			output = new PluginIOStack("output", width, height, depth, 1, input.getPixelType());
+			plugin = createPlugin();
+		}
+
+		@Override
+		public Object run() throws Exception {
+			plugin.runChannel(input, output, noProgress, null, true);
+			return output.getPixels(depth / 2);
+		}
+	}
+
+	public static List<Benchmark> create(int width, int height, int depth) {
+		List<Benchmark> result = new ArrayList<>();
+
+		result.add(new ChannelBenchmark("Blur3D", width, height, depth) {
+			@Override
+			ThreeDPlugin createPlugin() {
+				Blur3D blur = new Blur3D();
+				blur.sigma = 2;
+				return blur;
+			}
+		});
+
+		result.add(new Benchmark("RankFilters.median", width + "x" + height + "x" + depth + " radius 2") {
+			IPluginIOStack input, output;
+			RankFilters filter;
+
+			@Override
+			public void setUp() throws Exception {
+				input = SyntheticData.noiseStack("input", width, height, depth, 1);
+				output = new PluginIOStack("output", width, height, depth, 1, PixelType.FLOAT_TYPE);
+				filter = new RankFilters();
+				filter.getParameters()[0].setValue(new Object[] { "MEDIAN", 5 });
+				filter.getParameters()[1].setValue(new int[] { 2, 0, 20 });
+				filter.setParameters(filter.getParameters());
+			}
+
+			@Override
+			public Object run() throws Exception {
+				for (int z = 0; z < depth; z++) {
+					filter.runSlice(input.getPixelsAsProcessor(z), output.getPixelsAsProcessor(z), null);
+				}
+				return output.getPixels(depth / 2);
+			}
+		});
+
+		result.add(new ChannelBenchmark("FillHoles", width, height, depth) {
+			@Override
+			IPluginIOStack createInput() throws InterruptedException {
+				return SyntheticData.ballMask("input", width, height, depth, width * height * depth / 4000,
+						PixelType.BYTE_TYPE, 2);
+			}
+
+			@Override
+			ThreeDPlugin createPlugin() {
+				return new FillHoles();
+			}
+		});
+
+		result.add(new ChannelBenchmark("LocalDiameter", width, height, depth) {
+			@Override
+			IPluginIOStack createInput() throws InterruptedException {
+				return SyntheticData.ballMask("input", width, height, depth, width * height * depth / 4000,
+						PixelType.FLOAT_TYPE, 2);
+			}
+
+			@Override
+			ThreeDPlugin createPlugin() {
+				return new LocalDiameter();
+			}
+		});
+
+		result.add(new ChannelBenchmark("ImageMath.multiplication", width, height, depth) {
+			@Override
+			ThreeDPlugin createPlugin() throws InterruptedException {
+				ImageMath math = new ImageMath();
+				Map<String, IPluginIO> inputs = new HashMap<>();
+				// ImageMath checks that auxiliary stacks have the same name as the channel they are combined with
+				inputs.put("Input 2", SyntheticData.noiseStack("input", width, height, depth, 3));
+				math.getInputs(inputs);
+				return math;
+			}
+		});
+
+		return result;
+	}
+}
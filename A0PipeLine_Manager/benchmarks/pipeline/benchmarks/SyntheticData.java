@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.benchmarks;
+
+import ij.measure.Calibration;
+
+import java.util.Random;
+
+import pipeline.data.ClickedPoint;
+import pipeline.data.IPluginIOStack;
+import pipeline.data.PluginIOCells;
+import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.PluginIOStack;
+
+/**
+ * Inputs for benchmarks. All data are generated from a fixed seed, so that successive runs (and runs on different
+ * machines) time the same work.
+ *
+ */
+public class SyntheticData {
+
+	private SyntheticData() {
+	}
+
+	/**
+	 * @return Stack of smoothly varying intensities plus uniform noise, loosely resembling a fluorescence image
+	 */
+	public static IPluginIOStack noiseStack(String name, int width, int height, int depth, long seed)
+			throws InterruptedException {
+		Random random = new Random(seed);
+		PluginIOStack stack = new PluginIOStack(name, width, height, depth, 1, PixelType.FLOAT_TYPE);
+		stack.setCalibration(new Calibration());
+		for (int z = 0; z < depth; z++) {
+			float[] pixels = (float[]) stack.getPixels(z);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					float background = (float) (100 * (1 + Math.sin(x * 0.1) * Math.cos(y * 0.07 + z * 0.2)));
+					pixels[y * width + x] = background + 50 * random.nextFloat();
+				}
+			}
+		}
+		return stack;
+	}
+
+	/**
+	 * @return Stack of 0 background and 255-valued balls; one ball in three contains a hole of value 0 that does not
+	 *         touch the rest of the background
+	 */
+	public static IPluginIOStack ballMask(String name, int width, int height, int depth, int nBalls, PixelType pType,
+			long seed) throws InterruptedException {
+		Random random = new Random(seed);
+		PluginIOStack stack = new PluginIOStack(name, width, height, depth, 1, pType);
+		stack.setCalibration(new Calibration());
+		for (int i = 0; i < nBalls; i++) {
+			int radius = 3 + random.nextInt(6);
+			int xc = random.nextInt(width);
+			int yc = random.nextInt(height);
+			int zc = random.nextInt(depth);
+			int holeRadius = i % 3 == 0 ? radius / 2 : -1;
+			for (int z = Math.max(0, zc - radius); z <= Math.min(depth - 1, zc + radius); z++) {
+				for (int y = Math.max(0, yc - radius); y <= Math.min(height - 1, yc + radius); y++) {
+					for (int x = Math.max(0, xc - radius); x <= Math.min(width - 1, xc + radius); x++) {
+						int d2 = (x - xc) * (x - xc) + (y - yc) * (y - yc) + (z - zc) * (z - zc);
+						if (d2 <= holeRadius * holeRadius)
+							stack.setPixelValue(x, y, z, 0);
+						else if (d2 <= radius * radius)
+							stack.setPixelValue(x, y, z, 255);
+					}
+				}
+			}
+		}
+		return stack;
+	}
+
+	/**
+	 * @return Cells at random positions, each with a ball-shaped segmentation of radius 3 and nProperties quantified
+	 *         properties
+	 */
+	public static PluginIOCells cells(int nCells, int width, int height, int depth, int nProperties, long seed) {
+		Random random = new Random(seed);
+		PluginIOCells cells = new PluginIOCells("Synthetic cells");
+		cells.setWidth(width);
+		cells.setHeight(height);
+		cells.setDepth(depth);
+		for (int p = 0; p < nProperties; p++) {
+			cells.addQuantifiedPropertyName("property" + p);
+		}
+		final int radius = 3;
+		int ballSize = 0;
+		for (int dz = -radius; dz <= radius; dz++)
+			for (int dy = -radius; dy <= radius; dy++)
+				for (int dx = -radius; dx <= radius; dx++)
+					if (dx * dx + dy * dy + dz * dz <= radius * radius)
+						ballSize++;
+
+		for (int i = 0; i < nCells; i++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			int z = random.nextInt(depth);
+			ClickedPoint point = new ClickedPoint(x, y, z, 0, 0, 0);
+			point.linkToList(cells);
+			for (int p = 0; p < nProperties; p++) {
+				point.setQuantifiedProperty("property" + p, random.nextFloat());
+			}
+			point.imageFullSegCoordsX = new int[ballSize];
+			point.imageFullSegCoordsY = new int[ballSize];
+			point.imageFullSegCoordsZ = new int[ballSize];
+			int n = 0;
+			for (int dz = -radius; dz <= radius; dz++)
+				for (int dy = -radius; dy <= radius; dy++)
+					for (int dx = -radius; dx <= radius; dx++)
+						if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+							point.imageFullSegCoordsX[n] = x + dx;
+							point.imageFullSegCoordsY[n] = y + dy;
+							point.imageFullSegCoordsZ[n] = z + dz;
+							n++;
+						}
+			cells.getPoints().add(point);
+		}
+		return cells;
+	}
+}
@@ -0,0 +1,81 @@
+#!/bin/bash
+# Thin client for the pipeline server (java -jar A0PipeLine_Manager.jar server), so that Makefiles can keep calling
+# singleRun while the work is done by a JVM that stays up from one image to the next.
+#
+# Usage: pipeline_client.sh java [JVM options] -jar A0PipeLine_Manager.jar [options] singleRun table.xml
+#
+# If PIPELINE_SERVER_PORT is set and a server is listening on that port of localhost, the JVM options and the
+# arguments following the jar are sent to it, together with the secret the server wrote to
+# PIPELINE_SERVER_SECRET_FILE (default ~/.pipeline_server_<port>), and this script exits with the exit code of the job.
+# The server refuses jobs that would not run as they would in a JVM of their own (other commands than singleRun,
+# different working directory or JVM options), in which case, as when no server is available, the command is run as
+# is.
+
+run_locally() {
+	exec "$@"
+}
+
+[ -n "$PIPELINE_SERVER_PORT" ] || run_locally "$@"
+secret_file="${PIPELINE_SERVER_SECRET_FILE:-$HOME/.pipeline_server_$PIPELINE_SERVER_PORT}"
+[ -r "$secret_file" ] || run_locally "$@"
+
+# Split the command line into JVM options and the arguments following the jar
+jvm_options=()
+arguments=()
+state=jvm
+for arg in "${@:2}"; do
+	case "$arg" in
+		*$'\n'*)
+			run_locally "$@"
+			;;
+	esac
+	case "$state" in
+		jvm)
+			case "$arg" in
+				-jar) state=jar ;;
+				# Launcher options that the JVM does not report, and that do not change results
+				-server | -client) ;;
+				*) jvm_options+=("$arg") ;;
+			esac
+			;;
+		jar)
+			state=arguments
+			;;
+		arguments)
+			arguments+=("$arg")
+			;;
+	esac
+done
+[ "$state" = arguments ] || run_locally "$@"
+
+{ exec 3<>"/dev/tcp/127.0.0.1/$PIPELINE_SERVER_PORT"; } 2>/dev/null || run_locally "$@"
+{
+	printf 'secret %s\n' "$(cat "$secret_file")"
+	printf 'dir %s\n' "$PWD"
+	for option in "${jvm_options[@]}"; do
+		printf 'jvm %s\n' "$option"
+	done
+	for arg in "${arguments[@]}"; do
+		printf 'arg %s\n' "$arg"
+	done
+	printf 'end\n'
+} >&3
+if IFS=' ' read -r status rest <&3; then
+	exec 3>&-
+	case "$status" in
+		exit)
+			exit "$rest"
+			;;
+		refused)
+			echo "Pipeline server refused job ($rest); running it locally" >&2
+			run_locally "$@"
+			;;
+		*)
+			echo "Unexpected reply from pipeline server: $status $rest" >&2
+			exit 1
+			;;
+	esac
+else
+	echo "Lost connection to pipeline server while running $*" >&2
+	exit 1
+fi
@@ -51,7 +51,6 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -74,6 +73,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -120,6 +120,7 @@ import org.jdom.output.XMLOutputter;
 import org.xml.sax.InputSource;
 
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
 import com.sun.jna.Library;
 import com.sun.jna.NativeLong;
 import com.thoughtworks.xstream.XStream;
@@ -154,6 +155,7 @@ import pipeline.data.PluginIOCells;
 import pipeline.data.PluginIOHyperstack;
 import pipeline.data.PluginIOImage;
 import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.tiff_read_write.BareBonesFileInfoLongOffsets;
 import pipeline.data.tiff_read_write.TIFFFileAccessor;
 import pipeline.external_plugin_interfaces.LinkToExternalProgram;
 import pipeline.external_plugin_interfaces.RemoteMachine;
@@ -198,6 +200,7 @@ import pipeline.plugins.IPluginShell;
 import pipeline.plugins.MouseEventPlugin;
 import pipeline.plugins.PipelinePlugin;
 import pipeline.plugins.PluginHolder;
+import pipeline.plugins.PluginIndex;
 import pipeline.plugins.PluginInfo;
 import pipeline.plugins.ResettablePlugin;
 import pipeline.plugins.ThreeDPlugin;
@@ -295,6 +298,7 @@ public class A0PipeLine_Manager implements PlugIn {
 		private JTable table1;
 		private JScrollPane sp;
 		private JCheckBox updatePipelineButton;
+		private JCheckBox runRowsConcurrentlyButton;
 		private JCheckBox cancelUponChangeButton;
 		private JCheckBox updateCurrentStepButton;
 		private JCheckBox globalCancelUponChangeButton;
@@ -803,14 +807,16 @@ public class A0PipeLine_Manager implements PlugIn {
 							try {
 								tiffReader =
 										new TIFFFileAccessor(file, FileNameUtils.compactPath(originalCleanedUpName));
-								if (((MyTableModel) table1.getModel()).openUsingVirtualStacks)
+								if (((MyTableModel) table1.getModel()).openUsingVirtualStacks) {
 									tiffReader.setDefaultCachePolicy(ImageAccessor.DONT_CACHE_PIXELS);
-								else {
+									tiffReader.setUseMemoryMapping(true);
+								} else {
 									if (file.length() > 30000000000L) {
 										Utils.displayMessage("File " + file.getAbsolutePath()
 												+ " is over ~30GB; forcing opening as a virtual stack.", true,
 												LogLevel.INFO);
 										tiffReader.setDefaultCachePolicy(ImageAccessor.DONT_CACHE_PIXELS);
+										tiffReader.setUseMemoryMapping(true);
 									}
 								}
 								tiffReader.openForSequentialRead();
@@ -1114,6 +1120,9 @@ public class A0PipeLine_Manager implements PlugIn {
 				throw new IllegalArgumentException();
 			}
 
+			if (batchRun && batchCoordinator != null)
+				batchCoordinator.enterRow(modelRow, batchImageIndex);
+
 			Object[] pluginTableRow = (Object[]) data[modelRow];
 			if (((AtomicBoolean) pluginTableRow[IS_UPDATING]).get()) {
 				// The step is already being updated
@@ -1225,6 +1234,7 @@ public class A0PipeLine_Manager implements PlugIn {
 						int previousActiveRow = getPreviousActiveRow(modelRow);
 						Document doc = null;
 						if (previousActiveRow > -1) {
+							awaitRowMetadata(modelRow - 1);
 							doc = (Document) ((Object[]) data[modelRow - 1])[OUTPUT_XML];
 						} else
 							doc = plugin.getInput().getMetadata();
@@ -1236,7 +1246,9 @@ public class A0PipeLine_Manager implements PlugIn {
 						ParseImageMetadata.setPipelineProcessingMetadata((Document) pluginTableRow[OUTPUT_XML],
 								"ProcessingSteps", processing);
 
-						if (((MyTableModel) table1.getModel()).updatePipeline)
+						if (batchRun && batchCoordinator != null)
+							batchCoordinator.leaveRow(modelRow, batchImageIndex);
+						if (((MyTableModel) table1.getModel()).updatePipeline && rowScheduler.get() == null)
 							processStep(modelRow + 1, triggerRow, null, true, changedParameter, stayInCoreLoop, batchRun);
 						pluginTableRow[WORKER_THREAD] = null;
 					}
@@ -1250,7 +1262,7 @@ public class A0PipeLine_Manager implements PlugIn {
 					if (pluginTableRow[PLUGIN_INSTANCE] == null) {
 						if (pluginID > -1) { // Should this ever happen?
 							pluginTableRow[PLUGIN_INSTANCE] =
-									((PipelinePlugin) pluginObjects[pluginID]).getClass().newInstance();
+									((PipelinePlugin) getPluginObject(pluginID)).getClass().newInstance();
 							((PipelinePlugin) pluginTableRow[PLUGIN_INSTANCE])
 									.setpipeLineListener(new PluginCallBack());
 							((PipelinePlugin) pluginTableRow[PLUGIN_INSTANCE]).setRow(modelRow);
@@ -1314,27 +1326,30 @@ public class A0PipeLine_Manager implements PlugIn {
 								InputOutputDescription inputDescription = inputDescriptions.get(inputSet.getKey());
 								if ((inputDescription != null) && (inputSet.getValue() instanceof IPluginIOImage)) {
 									IPluginIOImage imageInput = (IPluginIOImage) inputSet.getValue();
-									if (!PluginIOImage.indexOf(inputDescription.acceptablePixelTypes, imageInput
-											.getPixelType())) {
-										// Attempt to convert output
-										// TODO Need better synchronization
-										PixelType[] canConvert = imageInput.canConvertTo();
-										boolean converted = false;
-										for (PixelType element : canConvert) {
-											if (PluginIOImage.indexOf(inputDescription.acceptablePixelTypes, element)) {
-												Utils.log("Converting input " + imageInput.getName() + " from "
-														+ imageInput.getPixelType() + " to " + element, LogLevel.DEBUG);
-												imageInput.convertTo(element);
-												converted = true;
+									// Rows that run concurrently may share this input
+									synchronized (imageInput) {
+										if (!PluginIOImage.indexOf(inputDescription.acceptablePixelTypes, imageInput
+												.getPixelType())) {
+											// Attempt to convert output
+											// TODO Need better synchronization
+											PixelType[] canConvert = imageInput.canConvertTo();
+											boolean converted = false;
+											for (PixelType element : canConvert) {
+												if (PluginIOImage.indexOf(inputDescription.acceptablePixelTypes, element)) {
+													Utils.log("Converting input " + imageInput.getName() + " from "
+															+ imageInput.getPixelType() + " to " + element, LogLevel.DEBUG);
+													imageInput.convertTo(element);
+													converted = true;
+												}
 											}
+											if (!converted)
+												throw new RuntimeException("Row " + modelRow + ": incompatible pixel type "
+														+ imageInput.getPixelType() + " in input " + imageInput.getName()
+														+ "; empty intersection between convertible set "
+														+ Utils.printPixelTypes(canConvert)
+														+ " and acceptable input types "
+														+ Utils.printPixelTypes(inputDescription.acceptablePixelTypes));
 										}
-										if (!converted)
-											throw new RuntimeException("Row " + modelRow + ": incompatible pixel type "
-													+ imageInput.getPixelType() + " in input " + imageInput.getName()
-													+ "; empty intersection between convertible set "
-													+ Utils.printPixelTypes(canConvert)
-													+ " and acceptable input types "
-													+ Utils.printPixelTypes(inputDescription.acceptablePixelTypes));
 									}
 								}
 							}
@@ -1478,6 +1493,7 @@ public class A0PipeLine_Manager implements PlugIn {
 													// from the file the input comes from
 
 						else if (previousActiveRow > -1) {
+							awaitRowMetadata(modelRow - 1);
 							doc = (Document) ((Object[]) data[modelRow - 1])[OUTPUT_XML];
 						} else
 							doc = plugin.getInput().getMetadata();
@@ -1535,19 +1551,24 @@ public class A0PipeLine_Manager implements PlugIn {
 
 			}
 
+			if (batchRun && batchCoordinator != null)
+				batchCoordinator.leaveRow(modelRow, batchImageIndex);
+
 			if (Utils.headless && ((Boolean) pluginTableRow[COMPUTING_ERROR])) {
 				String message = "Stopping command line run because of error. ";
 				message += "Arguments were: " + Utils.printStringArray(arguments);
 				Utils.log(message, LogLevel.ERROR);
-				// TODO throw an exception that will be caught later instead of exiting
-				System.exit(1);
+				// Caught by batch, which turns it into an error return value; exiting here would also kill
+				// any other jobs running in the same pipeline server
+				throw new PluginRuntimeException(message, false);
 			}
 
 			if (	(((MyTableModel) table1.getModel()).updatePipeline || batchRun)
 					&& (!(plugin instanceof Pause && !Utils.headless && !batchRun))
 					&& (!wasInterrupted)
 					&& !(((Boolean) pluginTableRow[COMPUTING_ERROR]) && stopOnError)
-					&& modelRow + 1 < data.length)
+					&& modelRow + 1 < data.length
+					&& rowScheduler.get() == null)
 				processStep(modelRow + 1, triggerRow, null, true, changedParameter, stayInCoreLoop, batchRun);
 
 			if (wasInterrupted)
@@ -1556,6 +1577,141 @@ public class A0PipeLine_Manager implements PlugIn {
 				throw new PluginRuntimeException("Pipeline run finishing with error", false);
 		}
 
+		/**
+		 * Set on the threads that run rows dispatched by a {@link RowDependencyScheduler}, in which case
+		 * {@link #processStep} does not propagate to the following rows itself.
+		 */
+		private final ThreadLocal<RowDependencyScheduler> rowScheduler = new ThreadLocal<>();
+
+		/**
+		 * When rows are run concurrently, wait for row to be done before reading the metadata it generated.
+		 *
+		 * @param row
+		 * @throws InterruptedException
+		 */
+		private void awaitRowMetadata(int row) throws InterruptedException {
+			RowDependencyScheduler scheduler = rowScheduler.get();
+			if (scheduler != null)
+				scheduler.awaitRow(row);
+		}
+
+		/**
+		 * Run the pipeline starting at startRow. If the user asked for independent rows to be run concurrently, rows
+		 * are dispatched onto the thread pool according to the dependency graph computed by
+		 * {@link #computeRowDependencies}; otherwise this is equivalent to {@link #processStep}.
+		 *
+		 * @param startRow
+		 * @param triggerRow
+		 * @param changedParameter
+		 * @param stayInCoreLoop
+		 * @param batchRun
+		 * @throws InterruptedException
+		 */
+		private void processRows(int startRow, int triggerRow, AbstractParameter changedParameter,
+				boolean stayInCoreLoop, boolean batchRun) throws InterruptedException {
+			MyTableModel model = (MyTableModel) table1.getModel();
+			if (!model.runIndependentRowsConcurrently || !(model.updatePipeline || batchRun)) {
+				processStep(startRow, triggerRow, null, true, changedParameter, stayInCoreLoop, batchRun);
+				return;
+			}
+
+			final Object[][] data = model.data;
+			final RowDependencyScheduler[] scheduler = new RowDependencyScheduler[1];
+			scheduler[0] = new RowDependencyScheduler(startRow, computeRowDependencies(startRow),
+					new RowDependencyScheduler.RowRunner() {
+						@Override
+						public void runRow(int row) throws InterruptedException {
+							rowScheduler.set(scheduler[0]);
+							try {
+								processStep(row, triggerRow, null, true, changedParameter, stayInCoreLoop, batchRun);
+							} finally {
+								rowScheduler.remove();
+								Thread.currentThread().setName("");
+							}
+						}
+
+						@Override
+						public boolean continueAfter(int row) {
+							return !(data[row][PLUGIN_INSTANCE] instanceof Pause && !Utils.headless && !batchRun);
+						}
+					});
+			scheduler[0].run(BasePipelinePlugin.threadPool);
+		}
+
+		/**
+		 * Work out which rows each row starting from startRow depends on, based on the references to other rows in
+		 * their input fields and auxiliary inputs (resolved the same way {@link #updateSourceFieldAtRow} does). A row
+		 * whose inputs are not all references to other rows (e.g. a file name, which might have been written by a
+		 * preceding row) depends on all preceding rows. Rows that cannot safely be reordered (inactive rows, pauses,
+		 * table saving, rows writing to an output they do not own, and rows referring to themselves or following rows)
+		 * act as barriers: they depend on all preceding rows and all following rows depend on them.
+		 *
+		 * @param startRow
+		 * @return For each row from startRow to the end of the table, the indices of the rows it depends on
+		 */
+		private int[][] computeRowDependencies(int startRow) {
+			Object[][] data = ((MyTableModel) table1.getModel()).data;
+			int[][] result = new int[data.length - startRow][];
+			int lastBarrier = -1;
+			for (int row = startRow; row < data.length; row++) {
+				Object[] theRow = data[row];
+				boolean barrier =
+						Boolean.FALSE.equals(theRow[USE_STEP]) || theRow[PLUGIN_INSTANCE] instanceof Pause
+								|| theRow[PLUGIN_INSTANCE] instanceof SaveTable
+								|| !"".equals(String.valueOf(theRow[OUTPUT_NAME_FIELD]));
+				boolean dependsOnAllPrevious = false;
+
+				List<String> references = new ArrayList<>();
+				if (theRow[INPUT_NAME_FIELD] != null)
+					references.add(theRow[INPUT_NAME_FIELD].toString());
+				if (theRow[AUXILIARY_INPUTS] != null) {
+					for (Object reference : ((TwoColumnTableParameter) theRow[AUXILIARY_INPUTS]).getSecondColumn()) {
+						if (reference != null)
+							references.add(reference.toString());
+					}
+				}
+
+				TreeSet<Integer> dependencies = new TreeSet<>();
+				for (String reference : references) {
+					if ("".equals(reference))
+						continue;
+					if (!(reference.indexOf('$') == 0 || Utils.isParsableToInt(reference))) {
+						// File or image name
+						dependsOnAllPrevious = true;
+						continue;
+					}
+					try {
+						int referencedRow = resolveRowReference(reference, row);
+						if (referencedRow >= row)
+							barrier = true;
+						else
+							dependencies.add(referencedRow);
+					} catch (RuntimeException e) {
+						Utils.log("Could not resolve reference " + reference + " at row " + row
+								+ "; treating it as a barrier", LogLevel.DEBUG);
+						barrier = true;
+					}
+				}
+				if (dependencies.isEmpty())
+					dependsOnAllPrevious = true;
+
+				if (barrier || dependsOnAllPrevious) {
+					dependencies.clear();
+					for (int i = startRow; i < row; i++) {
+						dependencies.add(i);
+					}
+				} else if (lastBarrier >= startRow) {
+					dependencies.add(lastBarrier);
+				}
+				if (barrier)
+					lastBarrier = row;
+
+				result[row - startRow] = dependencies.stream().mapToInt(Integer::intValue).toArray();
+				Utils.log("Row " + row + " depends on rows " + dependencies, LogLevel.DEBUG);
+			}
+			return result;
+		}
+
 		private HashMap<String, ImagePlus> computeImagePlusList() {
 			HashMap<String, ImagePlus> result = new HashMap<>();
 			int[] ImageIDList = WindowManager.getIDList();
@@ -1973,7 +2129,8 @@ public class A0PipeLine_Manager implements PlugIn {
 			PipelinePlugin p = (PipelinePlugin) table1.getModel().getValueAt(modelRow, PLUGIN_INSTANCE);
 			String pluginName = (String) table1.getModel().getValueAt(modelRow, modelCol);
 			int pluginID = Utils.indexOf(pluginNames, pluginName);
-			if (pluginObjects[pluginID] == null) {
+			Object pluginObject = getPluginObject(pluginID);
+			if (pluginObject == null) {
 				Utils.log("Null plugin class " + pluginID, LogLevel.ERROR);
 			}
 
@@ -1995,8 +2152,8 @@ public class A0PipeLine_Manager implements PlugIn {
 			table1.getModel().setValueAt(null, modelRow, AUXILIARY_INPUTS);
 			table1.getModel().setValueAt(null, modelRow, AUXILIARY_OUTPUTS);
 
-			if (pluginObjects[pluginID] instanceof AuxiliaryInputOutputPlugin) {
-				AuxiliaryInputOutputPlugin newPlugin = (AuxiliaryInputOutputPlugin) pluginObjects[pluginID];
+			if (pluginObject instanceof AuxiliaryInputOutputPlugin) {
+				AuxiliaryInputOutputPlugin newPlugin = (AuxiliaryInputOutputPlugin) pluginObject;
 				String [] inputValues = new String[newPlugin.getInputLabels().length];
 				for (int i = 0; i < newPlugin.getInputLabels().length; i++) {
 					inputValues[i] = "";
@@ -2023,7 +2180,7 @@ public class A0PipeLine_Manager implements PlugIn {
 
 			PipelinePlugin pi = null;
 			try {
-				pi = ((PipelinePlugin) pluginObjects[pluginID]).getClass().newInstance();
+				pi = ((PipelinePlugin) pluginObject).getClass().newInstance();
 			} catch (InstantiationException | IllegalAccessException e) {
 				throw new RuntimeException(e);
 			}
@@ -2038,7 +2195,7 @@ public class A0PipeLine_Manager implements PlugIn {
 				// time)
 				IPluginShell sh = null;
 				try {
-					sh = (IPluginShell) ((PipelinePlugin) pluginObjects[shell2Dindex]).getClass().newInstance();
+					sh = (IPluginShell) ((PipelinePlugin) getPluginObject(shell2Dindex)).getClass().newInstance();
 				} catch (InstantiationException | IllegalAccessException e) {
 					throw new RuntimeException(e);
 				}
@@ -2713,6 +2870,10 @@ public class A0PipeLine_Manager implements PlugIn {
 			openWithVirtualStacks.setSelected(false);
 			globalOptionPanel.add(openWithVirtualStacks);
 
+			runRowsConcurrentlyButton = addCheckBox("Run independent rows concurrently");
+			runRowsConcurrentlyButton.setSelected(false);
+			globalOptionPanel.add(runRowsConcurrentlyButton);
+
 			String hostName = "";
 			if (!IJ.isMacintosh())
 				try {
@@ -3227,37 +3388,39 @@ public class A0PipeLine_Manager implements PlugIn {
 			if (pluginNames == null)
 				throw new RuntimeException(
 						"No plugins identified, possibly because plugin directory could not be found");
+			pluginClassNames = pluginNames.clone();
 			pluginObjects = new Object[pluginNames.length];
 			pluginHash = new String[pluginNames.length];
 			longPluginNames = new String[pluginNames.length];
-			ParFor parFor = new ParFor(0, pluginNames.length - 1, null, BasePipelinePlugin.threadPool, true);
-
-			for (int i0 = 0; i0 < parFor.getNThreads(); i0++)
-				parFor.addLoopWorker((i, threadIndex) -> {
-					pluginObjects[i] = loadUserPlugIn(pluginNames[i]);
-					if (pluginObjects[i] == null) {
-						Utils.log("Could not load plugin " + pluginNames[i], LogLevel.ERROR);
-						return null;
-					}
-					pluginHash[i] = findHash(pluginNames[i]);
+			// Plugin classes are only loaded when first used (see getPluginObject)
+			for (int i = 0; i < pluginNames.length; i++) {
+				pluginHash[i] = findHash(pluginNames[i]);
 
-					if (pluginNames[i].equals("pipeline.plugins.PluginShell")) {
-						shell2Dindex = i;
-					}
+				if (pluginNames[i].equals("pipeline.plugins.PluginShell")) {
+					shell2Dindex = i;
+				}
 
-					String[] components = pluginNames[i].split("\\.");
-					String lastName = components[components.length - 1];
-					PluginHolder holder = plugins.get(lastName);
+				String[] components = pluginNames[i].split("\\.");
+				String lastName = components[components.length - 1];
+				PluginHolder holder = plugins.get(lastName);
 
-					pluginNames[i] = lastName;
-					longPluginNames[i] = holder.longName;
+				pluginNames[i] = lastName;
+				longPluginNames[i] = holder.longName;
+			}
+		}
 
-					return null;
-				});
-			try {
-				parFor.run(true);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+		/**
+		 * @return Instance of plugin pluginID, created the first time the plugin is used, or null if the plugin could
+		 *         not be loaded
+		 */
+		private Object getPluginObject(int pluginID) {
+			synchronized (pluginObjects) {
+				if (pluginObjects[pluginID] == null) {
+					pluginObjects[pluginID] = loadUserPlugIn(pluginClassNames[pluginID]);
+					if (pluginObjects[pluginID] == null)
+						Utils.log("Could not load plugin " + pluginClassNames[pluginID], LogLevel.ERROR);
+				}
+				return pluginObjects[pluginID];
 			}
 		}
 
@@ -3286,6 +3449,10 @@ public class A0PipeLine_Manager implements PlugIn {
 
 		private ConcurrentLinkedQueue<URL> jarFiles = new ConcurrentLinkedQueue<>();
 		private Object[] pluginObjects;
+		/**
+		 * Fully-qualified class names, in the same order as pluginNames
+		 */
+		private String[] pluginClassNames;
 		private Object[][] pluginHashes;
 		private String[] pluginHash;
 		private String pluginsPath;
@@ -3349,23 +3516,6 @@ public class A0PipeLine_Manager implements PlugIn {
 			}
 		}
 
-		private boolean isPlugin(Class<?> clazz) {
-			if (clazz.getName().contains("$"))
-				return false;
-
-			if ((!PipelinePlugin.class.isAssignableFrom(clazz) && !IPluginShell.class.isAssignableFrom(clazz))
-					|| Modifier.isAbstract(clazz.getModifiers()))
-				return false;
-
-			Utils.log("Found plugin " + clazz.getName(), LogLevel.DEBUG);
-			PluginInfo pluginInfo = clazz.getAnnotation(PluginInfo.class);
-			if (pluginInfo != null) {
-				Utils.log("Plugin " + clazz.getName() + " display =" + pluginInfo.displayToUser(),
-						LogLevel.DEBUG);
-			}
-			return true;
-		}
-
 		private String[] getOurPlugins() {
 			File f = pluginsPath != null ? new File(pluginsPath) : null;
 			if (f == null || (!f.isDirectory()))
@@ -3409,12 +3559,47 @@ public class A0PipeLine_Manager implements PlugIn {
 			return result;
 		}
 
+		private void addPlugin(PluginHolder holder, ConcurrentLinkedQueue<String> outPluginNames) {
+			holder.display =
+					holder.displayToUser && (!holder.obsolete)
+							&& (holder.displayToExpertLevel < PLUGIN_EXPERT_LEVEL_DISPLAY);
+			if (plugins.putIfAbsent(holder.name, holder) != null)
+				throw new IllegalStateException("Two plugins with the name " + holder.name);
+			outPluginNames.add(holder.className);
+		}
+
+		/**
+		 * Reads the list of plugins from the index stored in the jar at build time (see {@link PluginIndex}), without
+		 * loading any class; jars without an index are scanned.
+		 */
+		private void getPluginsInJar(String jarName, ConcurrentLinkedQueue<String> outPluginNames) {
+			try (JarFile jar = new JarFile(jarName)) {
+				JarEntry indexEntry = jar.getJarEntry(PluginIndex.RESOURCE_NAME);
+				if (indexEntry != null) {
+					List<PluginHolder> indexed;
+					try (InputStream in = jar.getInputStream(indexEntry)) {
+						indexed = PluginIndex.read(in);
+					}
+					for (PluginHolder holder : indexed) {
+						addPlugin(holder, outPluginNames);
+					}
+					Utils.log("Read " + indexed.size() + " plugins from index in " + jarName, LogLevel.DEBUG);
+					return;
+				}
+			} catch (IOException e) {
+				Utils.log("Could not read plugin index from " + jarName + "; scanning classes instead",
+						LogLevel.WARNING);
+				Utils.printStack(e, LogLevel.DEBUG);
+			}
+			scanJarForPlugins(jarName, outPluginNames);
+		}
+
 		// We're "leaking" a classloader but that's probably unavoidable since we store classes in a variable outside of
 		// the scope of this method
 		@SuppressWarnings("resource")
 		// Adapted from http://www.rgagnon.com/javadetails/java-0513.html
 				private
-				void getPluginsInJar(String jarName, ConcurrentLinkedQueue<String> outPluginNames) {
+				void scanJarForPlugins(String jarName, ConcurrentLinkedQueue<String> outPluginNames) {
 			boolean debug = false;
 
 			final ClassLoader loader =
@@ -3438,46 +3623,10 @@ public class A0PipeLine_Manager implements PlugIn {
 					if (!className.contains("pipeline"))
 						continue;
 					Class<?> jarClass = Class.forName(className, false, loader);
-					if (isPlugin(jarClass)) {
+					if (PluginIndex.isPlugin(jarClass)) {
 						if (debug)
 							Utils.log("Found " + className, LogLevel.DEBUG);
-						outPluginNames.add(className);
-
-						String[] components = className.split("\\.");
-						String lastName = components[components.length - 1];
-						String longName = components[components.length - 2] + "." + lastName;
-
-						String toolTip = null;
-						try {
-							toolTip = ((PipelinePlugin) jarClass.newInstance()).getToolTip();
-						} catch (IllegalAccessException | InstantiationException e) {
-							Utils.printStack(e, LogLevel.INFO);
-						}
-
-						PluginInfo pluginInfo = jarClass.getAnnotation(PluginInfo.class);
-
-						boolean obsolete, display;
-
-						if (pluginInfo != null) {
-							obsolete = pluginInfo.obsolete();
-							display =
-									pluginInfo.displayToUser() && (!obsolete)
-											&& (pluginInfo.displayToExpertLevel() < PLUGIN_EXPERT_LEVEL_DISPLAY);
-						} else {
-							obsolete = false;
-							display = true;
-						}
-
-						@SuppressWarnings("unchecked")
-						PluginHolder holder =
-								new PluginHolder((Class<? extends PipelinePlugin>) jarClass, lastName, longName,
-										toolTip, display, obsolete);
-
-						if (plugins.containsKey(lastName)) {
-							// XXX There is a race condition
-							throw new IllegalStateException("Two plugins with the name " + lastName);
-						}
-						plugins.put(lastName, holder);
+						addPlugin(PluginIndex.describe(jarClass), outPluginNames);
 					}
 				}
 			} catch (IOException | ClassNotFoundException | SecurityException e) {
@@ -3705,7 +3854,7 @@ public class A0PipeLine_Manager implements PlugIn {
 					try {
 						do {
 							try {
-								processStep(0, 0, null, true, null, false, true);
+								processRows(0, 0, null, false, true);
 							} catch (InterruptedException e) {
 								Utils.printStack(e, LogLevel.DEBUG);
 								doneOrInterrupted = "interrupted by user";
@@ -3759,6 +3908,95 @@ public class A0PipeLine_Manager implements PlugIn {
 			return returnValue.get();
 		}
 
+		/**
+		 * Set when this table is one of several copies running a pipelined batch; null otherwise.
+		 */
+		private BatchPipelineCoordinator batchCoordinator;
+
+		/**
+		 * Index, in the batch, of the image this table is currently working on; only used in pipelined batch runs.
+		 */
+		private int batchImageIndex;
+
+		/**
+		 * Pipelined counterpart to {@link #batch}: this table handles images firstImage, firstImage + nCopies,
+		 * firstImage + 2 * nCopies, etc. of the batch, while other copies of the same table handle the images in
+		 * between. coordinator makes sure each row only works on one image at a time, in the same order as a serial
+		 * batch run.
+		 *
+		 * @param coordinator
+		 * @param firstImage
+		 * @param nCopies
+		 *            Total number of copies of the table taking part in the batch
+		 * @param returnValue
+		 *            Set to an error code if this copy stops because of an error or interruption
+		 * @return The thread running the batch, already started
+		 */
+		private Thread pipelinedBatch(final BatchPipelineCoordinator coordinator, final int firstImage,
+				final int nCopies, final AtomicInteger returnValue) {
+			batchCoordinator = coordinator;
+			batchThread = new Thread("Batch thread " + firstImage) {
+				@Override
+				public void run() {
+					cleanUpAllPlugins();
+
+					final Object[][] data = ((MyTableModel) table1.getModel()).data;
+
+					for (Object[] aData : data) {
+						if (aData[PLUGIN_INSTANCE] instanceof BatchOpen)
+							((BatchOpen) aData[PLUGIN_INSTANCE]).prepareForBatchRun();
+						else if (aData[PLUGIN_INSTANCE] instanceof BatchOpenV2)
+							((BatchOpenV2) aData[PLUGIN_INSTANCE]).prepareForBatchRun();
+					}
+
+					int image = firstImage;
+					try {
+						for (int i = 0; i < firstImage; i++) {
+							openNext(false);
+						}
+						while (returnValue.get() == PipelinePlugin.NO_ERROR) {
+							coordinator.admitImage(image);
+							batchImageIndex = image;
+							Utils.CapturedLog log = new Utils.CapturedLog();
+							Utils.setLogCapture(log);
+							try {
+								processRows(0, 0, null, false, true);
+							} catch (InterruptedException e) {
+								Utils.printStack(e, LogLevel.DEBUG);
+								returnValue.compareAndSet(PipelinePlugin.NO_ERROR, PipelinePlugin.THREAD_INTERRUPTED);
+							} catch (Exception e) {
+								Utils.log("Exception during batch run; stopping", LogLevel.ERROR);
+								Utils.printStack(e);
+								returnValue.compareAndSet(PipelinePlugin.NO_ERROR, PipelinePlugin.ERROR);
+							} finally {
+								Utils.setLogCapture(null);
+								coordinator.finishImage(image, log);
+								Thread.currentThread().setName("Batch thread " + firstImage);
+							}
+							if (Thread.interrupted())
+								returnValue.compareAndSet(PipelinePlugin.NO_ERROR, PipelinePlugin.THREAD_INTERRUPTED);
+							if (returnValue.get() != PipelinePlugin.NO_ERROR) {
+								coordinator.abort();
+								break;
+							}
+							for (int i = 0; i < nCopies; i++) {
+								openNext(false);
+							}
+							image += nCopies;
+						}
+					} catch (Utils.ImageOpenFailed e) {
+						Utils.printStack(e, LogLevel.DEBUG);
+						// Expected once we have been through all the images
+					} catch (InterruptedException e) {
+						// Another copy aborted the batch run
+						Utils.printStack(e, LogLevel.DEBUG);
+					}
+				}
+			};
+			batchThread.start();
+			return batchThread;
+		}
+
 		/**
 		 * Make sure all threads get terminated.
 		 */
@@ -4133,6 +4371,16 @@ public class A0PipeLine_Manager implements PlugIn {
 		 * @throws IOException
 		 */
 		private void loadTable(String fileToReadFrom) throws IOException {
+			loadTable(fileToReadFrom, Collections.emptyMap());
+		}
+
+		/**
+		 * Reload pipeline from specified XML file, after replacing in the text of the file each key of substitutions
+		 * by the corresponding value (e.g. to point the table to a different input file).
+		 *
+		 * @throws IOException
+		 */
+		private void loadTable(String fileToReadFrom, Map<String, String> substitutions) throws IOException {
 			File f = new File(fileToReadFrom);
 			StringBuffer contents = new StringBuffer();
 
@@ -4143,9 +4391,13 @@ public class A0PipeLine_Manager implements PlugIn {
 				}
 			}
 
+			String s = contents.toString();
+			for (Entry<String, String> substitution : substitutions.entrySet()) {
+				s = s.replace(substitution.getKey(), substitution.getValue());
+			}
 			// Replacement is to ensure backwards compatibility with tables that had unfortunate
 			// references to anonymous classes
-			String s = contents.toString().replaceAll(pattern3, pattern4);
+			s = s.replaceAll(pattern3, pattern4);
 			Document doc;
 			try {
 				SAXBuilder builder = new SAXBuilder();
@@ -4366,7 +4618,7 @@ public class A0PipeLine_Manager implements PlugIn {
 								+ " while restoring settings", true);
 					}
 
-					Class<PipelinePlugin> pluginClass = (Class<PipelinePlugin>) (pluginObjects[pluginID]).getClass();
+					Class<PipelinePlugin> pluginClass = (Class<PipelinePlugin>) getPluginObject(pluginID).getClass();
 					PluginInfo pluginInfo = pluginClass.getAnnotation(PluginInfo.class);
 					if (pluginInfo != null) {
 						if (pluginInfo.obsolete()) {
@@ -4387,7 +4639,7 @@ public class A0PipeLine_Manager implements PlugIn {
 					if (pluginInstance instanceof ThreeDPlugin || pluginInstance instanceof TwoDPlugin) {
 						// Need to use a plugin wrapper (unless the source is not a stack, but we don't necessary know
 						// ahead of time)
-						sh = (IPluginShell) ((PipelinePlugin) pluginObjects[shell2Dindex]).getClass().newInstance();
+						sh = (IPluginShell) ((PipelinePlugin) getPluginObject(shell2Dindex)).getClass().newInstance();
 						((PipelinePlugin) sh).setpipeLineListener(new PluginCallBack());
 						((PipelinePlugin) sh).setRow(newRowPosition);
 						sh.setPlugin(pluginInstance);
@@ -4461,7 +4713,7 @@ public class A0PipeLine_Manager implements PlugIn {
 			@Override
 			public void run() {
 				try {
-					processStep(modelRow, modelRow, null, true, changedParameter, stayInCoreLoop, false);
+					processRows(modelRow, modelRow, changedParameter, stayInCoreLoop, false);
 				} catch (Exception e) {
 					Utils.printStack(e, LogLevel.DEBUG);
 				} finally {
@@ -4538,6 +4790,10 @@ public class A0PipeLine_Manager implements PlugIn {
 				case "Use virtual stacks to open files":
 					((MyTableModel) table1.getModel()).openUsingVirtualStacks = updatePipelineButton.isSelected();
 					break;
+				case "Run independent rows concurrently":
+					((MyTableModel) table1.getModel()).runIndependentRowsConcurrently =
+							runRowsConcurrentlyButton.isSelected();
+					break;
 				case "Update step upon param change":
 					((MyTableModel) table1.getModel()).updateCurrentStep = updateCurrentStepButton.isSelected();
 					break;
@@ -4817,7 +5073,7 @@ public class A0PipeLine_Manager implements PlugIn {
 							null, null, null, null, Boolean.FALSE, null, null, null, (long) 0, null // imp for display
 					} };
 			private boolean updatePipeline, updateCurrentStep, cancelUponChange, globalCancelUponChange,
-					openUsingVirtualStacks;
+					openUsingVirtualStacks, runIndependentRowsConcurrently;
 
 			public void externalClick(MouseEvent e, int ourColumn, int ourRow) {
 				// Duplicated from earlier
@@ -5450,11 +5706,7 @@ public class A0PipeLine_Manager implements PlugIn {
 					+ DylibInfo.getDylibInfo().directoryName + "/");
 
 			CommandLineArguments argValues = new CommandLineArguments();
-			JCommander commander = new JCommander();
-			commander.setAcceptUnknownOptions(true);
-			commander.setAllowAbbreviatedOptions(false);
-
-			commander.addObject(argValues);
+			JCommander commander = newArgumentParser(argValues);
 			commander.parse(args);
 
 			if (argValues.help) {
@@ -5462,14 +5714,8 @@ public class A0PipeLine_Manager implements PlugIn {
 				return;
 			}
 
-			Utils.logLevelThreshold = argValues.logLevel;
-
-			Utils.setLogFile(argValues.logFile);
-
-			if (argValues.suppressSaveTable == 1)
-				SaveTable.disableSaving = true;
-
 			String command = argValues.action.get(0);
+			applyGlobalOptions(argValues, isSingleRun(command));
 			switch (command) {
 				case "pipeline": {
 					A0PipeLine_Manager pipeline = new A0PipeLine_Manager();
@@ -5495,16 +5741,21 @@ public class A0PipeLine_Manager implements PlugIn {
 
 					table.loadTable(argValues.action.get(1));
 					table.createAndShowGUI();
+					((TableSelectionDemo.MyTableModel) table.table1.getModel()).runIndependentRowsConcurrently =
+							argValues.concurrentRows;
 
 					switch (command) {
 						case "singleRun":
 						case "singleRunLog":
-							if (argValues.suppressSaveTable == -1)
-								SaveTable.disableSaving = true;
 							returnValue = table.batch(true, true);
 							break;
 						case "batch":
-							returnValue = table.batch(true, false);
+							if (argValues.imagesInFlight > 1)
+								returnValue =
+										pipeline.pipelinedBatch(table, argValues.action.get(1),
+												argValues.imagesInFlight, argValues.batchMemoryBudget * 1_000_000L);
+							else
+								returnValue = table.batch(true, false);
 							break;
 						default:
 							throw new IllegalStateException();
@@ -5512,6 +5763,16 @@ public class A0PipeLine_Manager implements PlugIn {
 
 					break;
 				}
+				case "server": {
+					File secretFile =
+							argValues.serverSecretFile.isEmpty() ? new File(System.getProperty("user.home"),
+									".pipeline_server_" + argValues.serverPort) : new File(argValues.serverSecretFile);
+					PipelineServer server =
+							new PipelineServer(argValues.serverPort, argValues.serverJobs,
+									argValues.batchMemoryBudget * 1_000_000L, secretFile, ServerJob::new);
+					server.serve();
+					break;
+				}
 				default:
 					System.out.println("Unrecognized command " + command);
 					System.exit(1);
@@ -5524,6 +5785,139 @@ public class A0PipeLine_Manager implements PlugIn {
 			System.exit(returnValue);
 	}
 
+	/**
+	 * @return Parser that fills in argValues from command-line arguments
+	 */
+	private static JCommander newArgumentParser(CommandLineArguments argValues) {
+		JCommander commander = new JCommander();
+		commander.setAcceptUnknownOptions(true);
+		commander.setAllowAbbreviatedOptions(false);
+		commander.addObject(argValues);
+		return commander;
+	}
+
+	private static boolean isSingleRun(String command) {
+		return "singleRun".equals(command) || "singleRunLog".equals(command);
+	}
+
+	private static int parseTIFFCompression(String compression) {
+		switch (compression) {
+			case "none":
+				return BareBonesFileInfoLongOffsets.COMPRESSION_NONE;
+			case "lzw":
+				return BareBonesFileInfoLongOffsets.LZW;
+			case "deflate":
+				return BareBonesFileInfoLongOffsets.ZIP;
+			default:
+				throw new IllegalArgumentException("Unknown TIFF compression " + compression);
+		}
+	}
+
+	/**
+	 * Set the static fields controlled by command-line options.
+	 *
+	 * @param argValues
+	 * @param singleRun
+	 *            True if the table is only run once, in which case by default it is not saved
+	 */
+	private static void applyGlobalOptions(CommandLineArguments argValues, boolean singleRun) {
+		TIFFFileAccessor.defaultCompression = parseTIFFCompression(argValues.tiffCompression);
+		Utils.logLevelThreshold = argValues.logLevel;
+		Utils.setLogFile(argValues.logFile);
+		SaveTable.disableSaving =
+				argValues.suppressSaveTable == 1 || (singleRun && argValues.suppressSaveTable == -1);
+	}
+
+	/**
+	 * singleRun job received by the pipeline server, run with its own options as {@link #main} would run it.
+	 */
+	private static class ServerJob implements PipelineServer.Job {
+		private final String[] args;
+		private final CommandLineArguments argValues = new CommandLineArguments();
+		private final Map<String, String> substitutions;
+
+		ServerJob(List<String> arguments, Map<String, String> substitutions) {
+			args = arguments.toArray(new String[0]);
+			try {
+				newArgumentParser(argValues).parse(args);
+			} catch (ParameterException e) {
+				throw new IllegalArgumentException(e.getMessage(), e);
+			}
+			if (argValues.help || argValues.action.size() < 2 || !isSingleRun(argValues.action.get(0)))
+				throw new IllegalArgumentException("server only runs singleRun and singleRunLog jobs");
+			parseTIFFCompression(argValues.tiffCompression);
+			this.substitutions = substitutions;
+		}
+
+		@Override
+		public Object getSharedSettings() {
+			return Arrays.asList(argValues.tiffCompression, argValues.logLevel, argValues.logFile,
+					argValues.suppressSaveTable);
+		}
+
+		@Override
+		public void applySharedSettings() {
+			applyGlobalOptions(argValues, true);
+		}
+
+		@Override
+		public int run() throws IOException {
+			A0PipeLine_Manager pipeline = new A0PipeLine_Manager();
+			pipeline.arguments = args;
+			TableSelectionDemo table = pipeline.new TableSelectionDemo();
+			table.loadTable(argValues.action.get(1), substitutions);
+			table.createAndShowGUI();
+			((TableSelectionDemo.MyTableModel) table.table1.getModel()).runIndependentRowsConcurrently =
+					argValues.concurrentRows;
+			return table.batch(true, true);
+		}
+	}
+
+	/**
+	 * Run a batch with several images in flight at once, using nCopies copies of the table loaded from tablePath (the
+	 * first of which has already been loaded into table); see {@link BatchPipelineCoordinator}.
+	 *
+	 * @param table
+	 * @param tablePath
+	 * @param nCopies
+	 *            Maximal number of images in flight
+	 * @param memoryBudget
+	 *            In bytes; 0 for default
+	 * @return Same as {@link TableSelectionDemo#batch}
+	 * @throws IOException
+	 */
+	private int pipelinedBatch(TableSelectionDemo table, String tablePath, int nCopies, long memoryBudget)
+			throws IOException {
+		BatchPipelineCoordinator coordinator =
+				new BatchPipelineCoordinator(((TableSelectionDemo.MyTableModel) table.table1.getModel()).data.length,
+						memoryBudget);
+		AtomicInteger returnValue = new AtomicInteger(PipelinePlugin.NO_ERROR);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < nCopies; i++) {
+			TableSelectionDemo copy = table;
+			if (i > 0) {
+				copy = new TableSelectionDemo();
+				copy.loadTable(tablePath);
+				copy.createAndShowGUI();
+				((TableSelectionDemo.MyTableModel) copy.table1.getModel()).runIndependentRowsConcurrently =
+						((TableSelectionDemo.MyTableModel) table.table1.getModel()).runIndependentRowsConcurrently;
+			}
+			threads.add(copy.pipelinedBatch(coordinator, i, nCopies, returnValue));
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			coordinator.abort();
+			threads.forEach(Thread::interrupt);
+			throw new RuntimeException(e);
+		} finally {
+			coordinator.flushLogs();
+		}
+		return returnValue.get();
+	}
+
 	private static void addDir(String s) throws IOException {
 		try {
 			/**
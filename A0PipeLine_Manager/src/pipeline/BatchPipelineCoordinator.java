@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline;
+
+import java.util.TreeMap;
+
+import pipeline.misc_util.Utils;
+import pipeline.misc_util.Utils.LogLevel;
+
+/**
+ * Coordinates several copies of the same pipeline table that run a batch together, each copy working on a different
+ * image, like an assembly line. Image i is handled by copy i % nCopies. Each row of the table only works on one image at
+ * a time, and sees images in the same order as in a serial batch run, so that any side effects a row might have (e.g.
+ * appending to a file) happen in the same order. New images are only admitted while the heap is below a memory budget,
+ * which caps the number of images effectively in flight.
+ * Log messages emitted by the scheduling threads are buffered per image and written out in image order once each image
+ * is done.
+ *
+ */
+class BatchPipelineCoordinator {
+
+	/**
+	 * For each row, index of the next image allowed to go through it.
+	 */
+	private final int[] nextImageAtRow;
+
+	private final long memoryBudget;
+
+	private int imagesInFlight = 0;
+
+	private boolean aborted = false;
+
+	private final TreeMap<Integer, Utils.CapturedLog> pendingLogs = new TreeMap<>();
+
+	private int nextImageToLog = 0;
+
+	/**
+	 * @param nRows
+	 *            Number of rows in the pipeline table
+	 * @param memoryBudget
+	 *            Number of bytes of heap above which no new image is admitted, unless no image is in flight; if 0 or
+	 *            negative, 80% of the maximal heap size is used
+	 */
+	BatchPipelineCoordinator(int nRows, long memoryBudget) {
+		nextImageAtRow = new int[nRows];
+		this.memoryBudget = memoryBudget > 0 ? memoryBudget : (long) (Runtime.getRuntime().maxMemory() * 0.8);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Wait until there is enough memory to start working on a new image.
+	 *
+	 * @param image
+	 * @throws InterruptedException
+	 *             If the batch run was aborted
+	 */
+	synchronized void admitImage(int image) throws InterruptedException {
+		boolean triedGC = false;
+		while (!aborted && imagesInFlight > 0 && usedMemory() > memoryBudget) {
+			if (!triedGC) {
+				// Used memory might mostly be garbage
+				System.gc();
+				triedGC = true;
+				continue;
+			}
+			Utils.log("Image " + image + " waiting for memory to be freed up", LogLevel.DEBUG);
+			wait(1000);
+			triedGC = false;
+		}
+		if (aborted)
+			throw new InterruptedException("Batch run aborted");
+		imagesInFlight++;
+	}
+
+	/**
+	 * Wait until all images preceding image have gone through row.
+	 *
+	 * @param row
+	 * @param image
+	 * @throws InterruptedException
+	 *             If the batch run was aborted
+	 */
+	synchronized void enterRow(int row, int image) throws InterruptedException {
+		while (!aborted && nextImageAtRow[row] < image) {
+			wait();
+		}
+		if (aborted)
+			throw new InterruptedException("Batch run aborted");
+	}
+
+	/**
+	 * Let the image following image go through row. Calling this more than once has no effect.
+	 *
+	 * @param row
+	 * @param image
+	 */
+	synchronized void leaveRow(int row, int image) {
+		if (nextImageAtRow[row] <= image) {
+			nextImageAtRow[row] = image + 1;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Release all rows image might not have gone through (for example because it stopped early), and write out the
+	 * messages that were logged while it was processed once all preceding images have been logged.
+	 *
+	 * @param image
+	 * @param log
+	 *            Messages logged while processing image
+	 */
+	synchronized void finishImage(int image, Utils.CapturedLog log) {
+		for (int row = 0; row < nextImageAtRow.length; row++) {
+			if (nextImageAtRow[row] <= image)
+				nextImageAtRow[row] = image + 1;
+		}
+		imagesInFlight--;
+		pendingLogs.put(image, log);
+		while (pendingLogs.containsKey(nextImageToLog)) {
+			Utils.logCapturedMessages(pendingLogs.remove(nextImageToLog));
+			nextImageToLog++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Make all copies stop waiting and give up on admitting new images.
+	 */
+	synchronized void abort() {
+		aborted = true;
+		notifyAll();
+	}
+
+	/**
+	 * Write out any buffered messages that are still waiting for a preceding image, in image order. Called at the end of
+	 * the batch run.
+	 */
+	synchronized void flushLogs() {
+		pendingLogs.values().forEach(Utils::logCapturedMessages);
+		pendingLogs.clear();
+	}
+}
@@ -19,9 +19,43 @@ class CommandLineArguments {
 	@Parameter(names = "-logFile", description = "Path to file to which to append log messages", required = false)
 	String logFile = "pipeline_log.txt";
 
+	@Parameter(names = "-imagesInFlight",
+			description = "For batch runs, maximal number of images processed at the same time, each by a different"
+					+ " row of the pipeline", required = false)
+	int imagesInFlight = 1;
+
+	@Parameter(names = "-batchMemoryBudget",
+			description = "For batch runs with more than 1 image in flight, heap size in MB above which no new"
+					+ " image is started (0 for 80% of maximal heap size)", required = false)
+	long batchMemoryBudget = 0;
+
+	@Parameter(names = "-concurrentRows",
+			description = "Run rows that do not depend on each other's outputs concurrently", required = false)
+	boolean concurrentRows = false;
+
+	@Parameter(names = "-tiffCompression",
+			description = "Compression of TIFF files written by plugins: none, lzw or deflate "
+					+ "(the bundled ImageJ only opens lzw-compressed 8- and 16-bit files)", required = false)
+	String tiffCompression = "none";
+
+	@Parameter(names = "-serverPort", description = "For the server command, localhost TCP port to listen on",
+			required = false)
+	int serverPort = 4471;
+
+	@Parameter(names = "-serverJobs", description = "For the server command, maximal number of jobs run at the"
+			+ " same time (new jobs are also held back while the heap is above -batchMemoryBudget, or if their"
+			+ " -logLevel, -logFile, -suppressSaveTable or -tiffCompression differ from those of running jobs)",
+			required = false)
+	int serverJobs = 2;
+
+	@Parameter(names = "-serverSecretFile", description = "For the server command, file to which to write the secret"
+			+ " clients must send (default ~/.pipeline_server_<port>)", required = false)
+	String serverSecretFile = "";
+
 	@Parameter(description = "singleRun: single run on .xml file whose path follows\n"
-			+ "batchRun: batch run on .xml file whose path follows\n" + "worms: simulation of mutation accumulation\n"
-			+ "groovy: open Groovy console", required = true)
+			+ "batchRun: batch run on .xml file whose path follows\n"
+			+ "server: run singleRun jobs sent by pipeline_client.sh, without exiting\n"
+			+ "worms: simulation of mutation accumulation\n" + "groovy: open Groovy console", required = true)
 	List<String> action = new ArrayList<>();
 
 	@Parameter(names = "-help", help = true)
@@ -90,12 +90,46 @@ public class ImageCanvasWithAnnotations extends ImageCanvas implements MouseMoti
 	private static final int maxMouseDistanceToTip = 50;
 
 	private ClickedPoint cellAtPoint(int ox, int oy) {
+		if (!"getx".equals(xMethod.getName()) || !"gety".equals(yMethod.getName())) {
+			// Orthogonal view: the spatial index of the cells cannot be used with these axes
+			ClickedPoint cellOver = null;
+			List<ClickedPoint> pointCopy = new ArrayList<>(cells.getPoints());
+			for (ClickedPoint cell : pointCopy) {
+				if (pointWithinCell(ox, oy, cell)) {
+					cellOver = cell;
+					break;
+				}
+			}
+			return cellOver;
+		}
+
+		List<ClickedPoint> points = cells.getPoints();
+		if (points.isEmpty())
+			return null;
+		if (srcRect1 == null)
+			srcRect1 = getSrcRect();
+		initializeCalibrationCorrection(points.get(0));
+		// Only cells within this distance of the mouse, in calibration-corrected image units, can be accepted by
+		// pointWithinCell
+		double radius = unscaledLabelDepth * 0.5;
+		double centerX = ox / magnification + srcRect1.x;
+		double centerY = oy / magnification + srcRect1.y;
+		List<ClickedPoint> candidates =
+				cells.getCellsInBox((float) displayedT, (centerX - radius) / xCalibrationCorrection,
+						(centerX + radius) / xCalibrationCorrection, (centerY - radius) / yCalibrationCorrection,
+						(centerY + radius) / yCalibrationCorrection, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+		// If cells overlap, pick the one whose center is closest to the mouse
 		ClickedPoint cellOver = null;
-		List<ClickedPoint> pointCopy = new ArrayList<>(cells.getPoints());
-		for (ClickedPoint cell : pointCopy) {
-			if (pointWithinCell(ox, oy, cell)) {
+		double minDistanceSq = Double.MAX_VALUE;
+		for (ClickedPoint cell : candidates) {
+			if (!pointWithinCell(ox, oy, cell))
+				continue;
+			DoublePoint p = getCellGraphicCoordinates(cell);
+			double distanceSq = (p.x - ox) * (p.x - ox) + (p.y - oy) * (p.y - oy);
+			if (distanceSq < minDistanceSq) {
+				minDistanceSq = distanceSq;
 				cellOver = cell;
-				break;
 			}
 		}
 		return cellOver;
@@ -218,6 +252,7 @@ public class ImageCanvasWithAnnotations extends ImageCanvas implements MouseMoti
 			// draggedCell.y+=oy-dragYOrigin;
 			dragXOrigin = ox;
 			dragYOrigin = oy;
+			cells.cellMoved(draggedCell);
 			cells.fireValueChanged(true, false);
 			// this.repaint();
 			return;
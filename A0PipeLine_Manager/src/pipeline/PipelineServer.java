@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pipeline.misc_util.Utils;
+import pipeline.misc_util.Utils.LogLevel;
+import pipeline.plugins.PipelinePlugin;
+
+/**
+ * Long-lived pipeline process that runs singleRun jobs sent over a TCP socket bound to the loopback interface, so that
+ * jobs do not each pay for JVM startup, class loading and JIT compilation. Each job loads its table afresh (rows keep
+ * images and state from the runs they have been through), but classes, compiled code, the plugin index and the thread
+ * pools stay warm from one job to the next.
+ *
+ * Since any local user can connect to the port, the server only accepts requests that start with a secret it
+ * generates at startup and writes to a file only readable by its owner. The protocol is line-based (UTF-8). A client
+ * sends:
+ *
+ * <pre>
+ * secret contents of the secret file
+ * dir /working/directory/of/client
+ * jvm -Xmx32G            (repeated for each JVM option of the command line the job replaces)
+ * arg singleRun          (repeated for each argument following the jar on that command line)
+ * arg table.xml
+ * sub text	replacement   (optional, repeated; tab-separated; applied to the text of the table file)
+ * end
+ * </pre>
+ *
+ * and receives either "refused reason" if the job cannot be run by the server, or "exit code" once the job has run,
+ * code being the singleRun exit code. The server does not run jobs that would not behave as they would in a JVM of
+ * their own, so that the client can run those itself: jobs from a working directory other than that of the server
+ * (relative paths in tables are resolved against the working directory of the process), and jobs whose JVM options
+ * differ from those of the server. "ping" is answered by "pong", and "shutdown" makes the server stop accepting jobs
+ * and exit once running jobs are done.
+ *
+ * At most nSlots jobs run concurrently, in the order they were received. Jobs only run at the same time if their
+ * shared settings (options stored in static fields, such as the log level or TIFF compression) are the same, and a
+ * job only starts if other jobs are running while the heap is below the memory budget.
+ *
+ */
+class PipelineServer {
+
+	interface Job {
+		/**
+		 * @return Settings the job stores in static fields; jobs only run concurrently if their shared settings are
+		 *         equal
+		 */
+		Object getSharedSettings();
+
+		/**
+		 * Called before the job is run, while no job with different shared settings is running.
+		 */
+		void applySharedSettings();
+
+		/**
+		 * @return Exit code of the job, as for singleRun
+		 */
+		int run() throws Exception;
+	}
+
+	@FunctionalInterface
+	interface JobRunner {
+		/**
+		 * @param arguments
+		 *            Command-line arguments of the job
+		 * @param substitutions
+		 *            Replacements to apply to the text of the table
+		 * @return Job ready to be run
+		 * @throws IllegalArgumentException
+		 *             If the arguments do not describe a job the server can run
+		 */
+		Job prepare(List<String> arguments, Map<String, String> substitutions);
+	}
+
+	private final int port;
+	private final int nSlots;
+	private final long memoryBudget;
+	private final JobRunner runner;
+	private final String workingDirectory;
+	private final List<String> jvmOptions;
+	private final Path secretFile;
+	private byte[] secret;
+
+	private int jobsRunning = 0;
+	private Object runningSettings;
+	private long nextTicket = 0, nowServing = 0;
+	private final Set<Long> abandonedTickets = new HashSet<>();
+	private volatile boolean shuttingDown = false;
+	private final AtomicInteger jobCounter = new AtomicInteger();
+	private ServerSocket serverSocket;
+
+	/**
+	 * @param port
+	 * @param nSlots
+	 *            Maximal number of jobs running at the same time
+	 * @param memoryBudget
+	 *            Number of bytes of heap above which no new job is started, unless no job is running; if 0 or negative,
+	 *            80% of the maximal heap size is used
+	 * @param secretFile
+	 *            File to which the secret clients must send is written; deleted on shutdown
+	 * @param runner
+	 */
+	PipelineServer(int port, int nSlots, long memoryBudget, File secretFile, JobRunner runner) throws IOException {
+		if (nSlots < 1)
+			throw new IllegalArgumentException("Server must be able to run at least 1 job at a time");
+		this.port = port;
+		this.nSlots = nSlots;
+		this.memoryBudget = memoryBudget > 0 ? memoryBudget : (long) (Runtime.getRuntime().maxMemory() * 0.8);
+		this.runner = runner;
+		this.secretFile = secretFile.toPath();
+		workingDirectory = new File(".").getCanonicalPath();
+		jvmOptions = ManagementFactory.getRuntimeMXBean().getInputArguments();
+	}
+
+	/**
+	 * Generate a new secret and write it to a file created with owner-only permissions, replacing any file left over
+	 * by a previous server.
+	 */
+	private void writeSecret() throws IOException {
+		byte[] random = new byte[32];
+		new SecureRandom().nextBytes(random);
+		StringBuilder sb = new StringBuilder();
+		for (byte b : random) {
+			sb.append(String.format("%02x", b));
+		}
+		secret = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+		Files.deleteIfExists(secretFile);
+		try {
+			Files.createFile(secretFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions
+					.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			throw new IOException("Cannot restrict access to " + secretFile + " on this file system", e);
+		}
+		Files.write(secretFile, secret);
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Wait until all jobs received before this one have started, and for a free slot; if other jobs are running, also
+	 * wait until they have the same shared settings as this one and there is enough memory. Shared settings are
+	 * applied if no other job is running.
+	 */
+	private synchronized void admitJob(int jobNumber, Job job) throws InterruptedException {
+		long ticket = nextTicket++;
+		Object settings = job.getSharedSettings();
+		boolean triedGC = false;
+		try {
+			while (true) {
+				if (ticket == nowServing && jobsRunning < nSlots) {
+					if (jobsRunning == 0)
+						break;
+					if (settings.equals(runningSettings)) {
+						if (usedMemory() <= memoryBudget)
+							break;
+						if (!triedGC) {
+							// Used memory might mostly be garbage
+							System.gc();
+							triedGC = true;
+							continue;
+						}
+					}
+				}
+				Utils.log("Job " + jobNumber + " waiting for preceding jobs, a slot, or memory to be freed up",
+						LogLevel.DEBUG);
+				wait(1000);
+				triedGC = false;
+			}
+		} catch (InterruptedException e) {
+			if (ticket == nowServing)
+				serveNextTicket();
+			else
+				abandonedTickets.add(ticket);
+			throw e;
+		}
+		if (jobsRunning == 0) {
+			job.applySharedSettings();
+			runningSettings = settings;
+		}
+		jobsRunning++;
+		serveNextTicket();
+	}
+
+	private void serveNextTicket() {
+		nowServing++;
+		while (abandonedTickets.remove(nowServing)) {
+			nowServing++;
+		}
+		notifyAll();
+	}
+
+	private synchronized void finishJob() {
+		jobsRunning--;
+		notifyAll();
+	}
+
+	/**
+	 * Accept connections until a shutdown request is received, and wait for running jobs to finish.
+	 */
+	void serve() throws IOException, InterruptedException {
+		writeSecret();
+		try {
+			serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			Utils.log("Pipeline server listening on port " + serverSocket.getLocalPort() + " in " + workingDirectory
+					+ " with " + nSlots + " job slots; secret written to " + secretFile, LogLevel.INFO);
+			try {
+				while (!shuttingDown) {
+					final Socket socket;
+					try {
+						socket = serverSocket.accept();
+					} catch (SocketException e) {
+						if (shuttingDown)
+							break;
+						throw e;
+					}
+					Thread t = new Thread(() -> handleConnection(socket), "Pipeline server connection");
+					t.setDaemon(true);
+					t.start();
+				}
+			} finally {
+				serverSocket.close();
+			}
+			synchronized (this) {
+				while (jobsRunning > 0) {
+					wait();
+				}
+			}
+		} finally {
+			Files.deleteIfExists(secretFile);
+		}
+		Utils.log("Pipeline server shut down", LogLevel.INFO);
+	}
+
+	private void handleConnection(Socket socket) {
+		try (Socket s = socket;
+				BufferedReader in =
+						new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+			String line = in.readLine();
+			if (line == null)
+				return;
+			if (!line.startsWith("secret ")
+					|| !MessageDigest.isEqual(secret, line.substring(7).getBytes(StandardCharsets.UTF_8))) {
+				Utils.log("Pipeline server rejected connection with missing or wrong secret", LogLevel.WARNING);
+				reply(out, "refused wrong secret");
+				return;
+			}
+
+			String directory = null;
+			List<String> jobJvmOptions = new ArrayList<>();
+			List<String> arguments = new ArrayList<>();
+			Map<String, String> substitutions = new LinkedHashMap<>();
+			while ((line = in.readLine()) != null) {
+				int space = line.indexOf(' ');
+				String command = space < 0 ? line : line.substring(0, space);
+				String argument = space < 0 ? "" : line.substring(space + 1);
+				switch (command) {
+					case "ping":
+						reply(out, "pong " + workingDirectory);
+						continue;
+					case "shutdown":
+						shuttingDown = true;
+						serverSocket.close();
+						reply(out, "ok");
+						return;
+					case "dir":
+						directory = argument;
+						continue;
+					case "jvm":
+						jobJvmOptions.add(argument);
+						continue;
+					case "arg":
+						arguments.add(argument);
+						continue;
+					case "sub":
+						int tab = argument.indexOf('\t');
+						if (tab < 0) {
+							reply(out, "refused malformed substitution " + argument);
+							return;
+						}
+						substitutions.put(argument.substring(0, tab), argument.substring(tab + 1));
+						continue;
+					case "end":
+						break;
+					default:
+						reply(out, "refused unknown command " + command);
+						return;
+				}
+				break;
+			}
+			if (line == null)
+				return;
+			if (directory == null || !new File(directory).getCanonicalPath().equals(workingDirectory)) {
+				reply(out, "refused server working directory is " + workingDirectory);
+				return;
+			}
+			if (!jobJvmOptions.equals(jvmOptions)) {
+				reply(out, "refused server JVM options are " + jvmOptions);
+				return;
+			}
+			if (shuttingDown) {
+				reply(out, "refused server is shutting down");
+				return;
+			}
+			Job job;
+			try {
+				job = runner.prepare(arguments, substitutions);
+			} catch (IllegalArgumentException e) {
+				reply(out, "refused " + e.getMessage());
+				return;
+			}
+			reply(out, "exit " + runJob(job, arguments));
+		} catch (IOException e) {
+			Utils.printStack(e);
+		}
+	}
+
+	private static void reply(PrintWriter out, String message) {
+		out.print(message);
+		out.print('\n');
+		out.flush();
+	}
+
+	private int runJob(Job job, List<String> arguments) {
+		int jobNumber = jobCounter.incrementAndGet();
+		try {
+			admitJob(jobNumber, job);
+		} catch (InterruptedException e) {
+			return PipelinePlugin.THREAD_INTERRUPTED;
+		}
+		long startTime = System.currentTimeMillis();
+		int result;
+		try {
+			Utils.log("Starting job " + jobNumber + ": " + arguments, LogLevel.INFO);
+			result = job.run();
+		} catch (Throwable e) {
+			Utils.log("Job " + jobNumber + " failed", LogLevel.ERROR);
+			Utils.printStack(e);
+			result = 1;
+		} finally {
+			finishJob();
+		}
+		Utils.log("Job " + jobNumber + " done with exit code " + result + " in "
+				+ (System.currentTimeMillis() - startTime) + " ms", LogLevel.INFO);
+		return result;
+	}
+}
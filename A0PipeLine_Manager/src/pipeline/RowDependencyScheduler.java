@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import pipeline.misc_util.Utils;
+import pipeline.misc_util.Utils.LogLevel;
+
+/**
+ * Runs a range of pipeline rows as a directed acyclic graph: a row is dispatched onto the thread pool as soon as all the
+ * rows it depends on are done, so that rows that do not depend on each other (e.g. two quantification steps that read
+ * the same segmentation) run concurrently. Once a row fails or is interrupted (or once a row asks for the run to stop,
+ * as a Pause does), no further rows are dispatched, but rows already running are allowed to finish.
+ *
+ */
+class RowDependencyScheduler {
+
+	interface RowRunner {
+		/**
+		 * Run a single row, without propagating to the following rows.
+		 *
+		 * @param row
+		 * @throws InterruptedException
+		 */
+		void runRow(int row) throws InterruptedException;
+
+		/**
+		 * @param row
+		 * @return false if no further rows should be dispatched after row has run successfully
+		 */
+		boolean continueAfter(int row);
+	}
+
+	private final int firstRow;
+	private final int[][] dependencies;
+	private final List<List<Integer>> dependents = new ArrayList<>();
+	private final int[] nPendingDependencies;
+	/**
+	 * True once a row has run, or will never run in this pass.
+	 */
+	private final boolean[] done;
+	private final boolean[] dispatched;
+	private final RowRunner runner;
+	private final List<Future<?>> futures = new ArrayList<>();
+
+	private int nRunning = 0;
+	private boolean stopDispatching = false;
+	private boolean interrupted = false;
+	private Throwable firstError;
+
+	/**
+	 * @param firstRow
+	 *            Index of first row to run
+	 * @param dependencies
+	 *            dependencies[i] contains the indices of the rows that row firstRow + i depends on; those should be
+	 *            smaller than firstRow + i, and indices smaller than firstRow are ignored
+	 * @param runner
+	 */
+	RowDependencyScheduler(int firstRow, int[][] dependencies, RowRunner runner) {
+		this.firstRow = firstRow;
+		this.dependencies = dependencies;
+		this.runner = runner;
+		int n = dependencies.length;
+		nPendingDependencies = new int[n];
+		done = new boolean[n];
+		dispatched = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			dependents.add(new ArrayList<>());
+		}
+		for (int i = 0; i < n; i++) {
+			for (int dep : dependencies[i]) {
+				int depIndex = dep - firstRow;
+				if (depIndex < 0)
+					continue;
+				if (depIndex >= i)
+					throw new IllegalArgumentException("Row " + (firstRow + i) + " depends on later row " + dep);
+				nPendingDependencies[i]++;
+				dependents.get(depIndex).add(i);
+			}
+		}
+	}
+
+	/**
+	 * Run all rows, and return once none is running anymore.
+	 *
+	 * @param pool
+	 * @throws InterruptedException
+	 *             If a row was interrupted, or if the calling thread was interrupted while waiting
+	 */
+	void run(ExecutorService pool) throws InterruptedException {
+		synchronized (this) {
+			for (int i = 0; i < dependencies.length; i++) {
+				if (nPendingDependencies[i] == 0)
+					dispatch(i, pool);
+			}
+			try {
+				while (nRunning > 0) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				stopDispatching = true;
+				futures.forEach(f -> f.cancel(true));
+				throw e;
+			}
+			cancelUndispatchedRows();
+		}
+		if (interrupted)
+			throw new InterruptedException();
+		if (firstError instanceof RuntimeException)
+			throw (RuntimeException) firstError;
+		if (firstError instanceof Error)
+			throw (Error) firstError;
+	}
+
+	private void dispatch(final int index, ExecutorService pool) {
+		dispatched[index] = true;
+		nRunning++;
+		futures.add(pool.submit(() -> {
+			final int row = firstRow + index;
+			boolean succeeded = false;
+			try {
+				runner.runRow(row);
+				succeeded = true;
+			} catch (InterruptedException e) {
+				Utils.printStack(e, LogLevel.DEBUG);
+				synchronized (RowDependencyScheduler.this) {
+					interrupted = true;
+				}
+			} catch (Throwable t) {
+				synchronized (RowDependencyScheduler.this) {
+					if (firstError == null)
+						firstError = t;
+				}
+			} finally {
+				rowFinished(index, succeeded && runner.continueAfter(row), pool);
+			}
+		}));
+	}
+
+	private synchronized void rowFinished(int index, boolean succeeded, ExecutorService pool) {
+		done[index] = true;
+		nRunning--;
+		if (!succeeded)
+			stopDispatching = true;
+		if (stopDispatching) {
+			cancelUndispatchedRows();
+		} else {
+			for (int dependent : dependents.get(index)) {
+				if (--nPendingDependencies[dependent] == 0)
+					dispatch(dependent, pool);
+			}
+		}
+		notifyAll();
+	}
+
+	private void cancelUndispatchedRows() {
+		for (int i = 0; i < done.length; i++) {
+			if (!dispatched[i])
+				done[i] = true;
+		}
+	}
+
+	/**
+	 * Wait until row is done (or is known not to run in this pass). Rows outside of the range handled by this
+	 * scheduler are considered done.
+	 *
+	 * @param row
+	 * @throws InterruptedException
+	 */
+	synchronized void awaitRow(int row) throws InterruptedException {
+		int index = row - firstRow;
+		if (index < 0 || index >= done.length)
+			return;
+		while (!done[index]) {
+			wait();
+		}
+	}
+}
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Uniform grid over the x, y, z coordinates of a list of cells, with one grid per time point, used by
+ * {@link PluginIOCells} to answer box, radius and nearest-neighbour queries without scanning all cells. Cells are
+ * bucketed according to their coordinates at the time they were inserted or last reported as moved; since plugins can
+ * change cell coordinates in place without reporting it, {@link #updateMovedCells} must be called before queries that
+ * might follow such changes. Distances are computed on raw coordinates, as in {@link ClickedPoint#distanceTo}.
+ *
+ */
+final class CellSpatialIndex {
+
+	/**
+	 * Bits used to store each of the 3 bucket coordinates in a long key.
+	 */
+	private static final int KEY_BITS = 21;
+	private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+	private static final int MAX_BUCKET_INDEX = (1 << (KEY_BITS - 1)) - 1;
+
+	/**
+	 * Average number of cells per occupied region of the size of a bucket aimed for when choosing the bucket size.
+	 */
+	private static final double CELLS_PER_BUCKET = 2;
+
+	private static final class Grid {
+		final Map<Long, List<ClickedPoint>> buckets = new HashMap<>();
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE,
+				minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+	}
+
+	private static final class Entry {
+		final float t;
+		final long key;
+
+		Entry(float t, long key) {
+			this.t = t;
+			this.key = key;
+		}
+	}
+
+	private final double bucketSize;
+	private final Map<Float, Grid> grids = new HashMap<>();
+	private final IdentityHashMap<ClickedPoint, Entry> entries = new IdentityHashMap<>();
+
+	/**
+	 * List and list modification count the index reflects.
+	 */
+	private List<ClickedPoint> indexedList;
+	private int indexedModCount;
+
+	CellSpatialIndex(List<ClickedPoint> cells) {
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE, minZ =
+				Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+		for (ClickedPoint p : cells) {
+			minX = Math.min(minX, p.x);
+			maxX = Math.max(maxX, p.x);
+			minY = Math.min(minY, p.y);
+			maxY = Math.max(maxY, p.y);
+			minZ = Math.min(minZ, p.z);
+			maxZ = Math.max(maxZ, p.z);
+		}
+		double size = 1;
+		if (!cells.isEmpty()) {
+			// Ignore flat dimensions so that 2D data does not end up with huge buckets
+			double volume = 1;
+			int nDimensions = 0;
+			for (double extent : new double[] { maxX - minX, maxY - minY, maxZ - minZ }) {
+				if (extent > 0) {
+					volume *= extent;
+					nDimensions++;
+				}
+			}
+			if (nDimensions > 0)
+				size = Math.pow(volume * CELLS_PER_BUCKET / cells.size(), 1.0 / nDimensions);
+			// Keep bucket indices within the range that fits in a key
+			double maxExtent = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+			double maxAbs =
+					Math.max(Math.max(Math.abs(minX), Math.abs(maxX)), Math.max(Math.max(Math.abs(minY), Math.abs(maxY)),
+							Math.max(Math.abs(minZ), Math.abs(maxZ))));
+			size = Math.max(size, Math.max(maxExtent, maxAbs) / (MAX_BUCKET_INDEX / 2));
+			if (!(size > 0) || Double.isInfinite(size))
+				size = 1;
+		}
+		bucketSize = size;
+		for (ClickedPoint p : cells) {
+			insert(p);
+		}
+		syncTo(cells);
+	}
+
+	/**
+	 * @param list
+	 * @return True if the index reflects the current contents of the list
+	 */
+	synchronized boolean isUpToDate(List<ClickedPoint> list) {
+		return list == indexedList && list instanceof ModCountArrayList
+				&& ((ModCountArrayList<?>) list).getModCount() == indexedModCount;
+	}
+
+	/**
+	 * Record that the index reflects the current contents of the list, after it was updated incrementally.
+	 */
+	synchronized void syncTo(List<ClickedPoint> list) {
+		indexedList = list;
+		indexedModCount = list instanceof ModCountArrayList ? ((ModCountArrayList<?>) list).getModCount() : -1;
+	}
+
+	private int bucketIndex(double coordinate) {
+		double i = Math.floor(coordinate / bucketSize);
+		if (i > MAX_BUCKET_INDEX)
+			return MAX_BUCKET_INDEX;
+		if (i < -MAX_BUCKET_INDEX)
+			return -MAX_BUCKET_INDEX;
+		return (int) i;
+	}
+
+	private static long key(int ix, int iy, int iz) {
+		return ((ix & KEY_MASK) << (2 * KEY_BITS)) | ((iy & KEY_MASK) << KEY_BITS) | (iz & KEY_MASK);
+	}
+
+	synchronized void insert(ClickedPoint p) {
+		if (entries.containsKey(p))
+			remove(p);
+		int ix = bucketIndex(p.x), iy = bucketIndex(p.y), iz = bucketIndex(p.z);
+		long key = key(ix, iy, iz);
+		Grid grid = grids.get(p.t);
+		if (grid == null) {
+			grid = new Grid();
+			grids.put(p.t, grid);
+		}
+		List<ClickedPoint> bucket = grid.buckets.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<>(4);
+			grid.buckets.put(key, bucket);
+		}
+		bucket.add(p);
+		grid.minX = Math.min(grid.minX, ix);
+		grid.maxX = Math.max(grid.maxX, ix);
+		grid.minY = Math.min(grid.minY, iy);
+		grid.maxY = Math.max(grid.maxY, iy);
+		grid.minZ = Math.min(grid.minZ, iz);
+		grid.maxZ = Math.max(grid.maxZ, iz);
+		entries.put(p, new Entry(p.t, key));
+	}
+
+	synchronized void remove(ClickedPoint p) {
+		Entry entry = entries.remove(p);
+		if (entry == null)
+			return;
+		Grid grid = grids.get(entry.t);
+		List<ClickedPoint> bucket = grid.buckets.get(entry.key);
+		for (int i = 0; i < bucket.size(); i++) {
+			if (bucket.get(i) == p) {
+				bucket.remove(i);
+				break;
+			}
+		}
+		if (bucket.isEmpty())
+			grid.buckets.remove(entry.key);
+	}
+
+	/**
+	 * Update the bucket of a cell whose coordinates or time point changed; does nothing if the cell is not indexed.
+	 */
+	synchronized void moved(ClickedPoint p) {
+		if (entries.containsKey(p))
+			insert(p);
+	}
+
+	/**
+	 * Move to their current bucket all cells whose coordinates or time point changed since they were indexed. This
+	 * goes through all cells, but only computes bucket indices, which is much cheaper than a query that scans the
+	 * cells.
+	 */
+	synchronized void updateMovedCells() {
+		List<ClickedPoint> moved = null;
+		for (Map.Entry<ClickedPoint, Entry> e : entries.entrySet()) {
+			ClickedPoint p = e.getKey();
+			Entry entry = e.getValue();
+			if (p.t != entry.t || key(bucketIndex(p.x), bucketIndex(p.y), bucketIndex(p.z)) != entry.key) {
+				if (moved == null)
+					moved = new ArrayList<>();
+				moved.add(p);
+			}
+		}
+		if (moved != null) {
+			for (ClickedPoint p : moved) {
+				insert(p);
+			}
+		}
+	}
+
+	synchronized void removeAll(Collection<ClickedPoint> points) {
+		for (ClickedPoint p : points) {
+			remove(p);
+		}
+	}
+
+	private static boolean inBox(ClickedPoint p, float t, double minX, double maxX, double minY, double maxY, double minZ,
+			double maxZ) {
+		return p.t == t && p.x >= minX && p.x <= maxX && p.y >= minY && p.y <= maxY && p.z >= minZ && p.z <= maxZ;
+	}
+
+	private static double distanceSq(ClickedPoint p, double x, double y, double z) {
+		double dx = p.x - x, dy = p.y - y, dz = p.z - z;
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	/**
+	 * Bounds are inclusive; infinite bounds are allowed.
+	 */
+	synchronized List<ClickedPoint> getCellsInBox(float t, double minX, double maxX, double minY, double maxY,
+			double minZ, double maxZ) {
+		List<ClickedPoint> result = new ArrayList<>();
+		Grid grid = grids.get(t);
+		if (grid == null || grid.buckets.isEmpty())
+			return result;
+		int x0 = Math.max(grid.minX, bucketIndex(minX)), x1 = Math.min(grid.maxX, bucketIndex(maxX));
+		int y0 = Math.max(grid.minY, bucketIndex(minY)), y1 = Math.min(grid.maxY, bucketIndex(maxY));
+		int z0 = Math.max(grid.minZ, bucketIndex(minZ)), z1 = Math.min(grid.maxZ, bucketIndex(maxZ));
+		if (x0 > x1 || y0 > y1 || z0 > z1)
+			return result;
+		long nBucketsInRange = (x1 - x0 + 1L) * (y1 - y0 + 1L) * (z1 - z0 + 1L);
+		if (nBucketsInRange > grid.buckets.size()) {
+			for (List<ClickedPoint> bucket : grid.buckets.values()) {
+				for (ClickedPoint p : bucket) {
+					if (inBox(p, t, minX, maxX, minY, maxY, minZ, maxZ))
+						result.add(p);
+				}
+			}
+			return result;
+		}
+		for (int ix = x0; ix <= x1; ix++) {
+			for (int iy = y0; iy <= y1; iy++) {
+				for (int iz = z0; iz <= z1; iz++) {
+					List<ClickedPoint> bucket = grid.buckets.get(key(ix, iy, iz));
+					if (bucket == null)
+						continue;
+					for (ClickedPoint p : bucket) {
+						if (inBox(p, t, minX, maxX, minY, maxY, minZ, maxZ))
+							result.add(p);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	synchronized List<ClickedPoint> getCellsWithinDistance(float t, double x, double y, double z, double radius) {
+		List<ClickedPoint> result =
+				getCellsInBox(t, x - radius, x + radius, y - radius, y + radius, z - radius, z + radius);
+		double radiusSq = radius * radius;
+		result.removeIf(p -> distanceSq(p, x, y, z) > radiusSq);
+		return result;
+	}
+
+	/**
+	 * @return Up to k cells closest to (x, y, z) at time t, from closest to farthest
+	 */
+	synchronized List<ClickedPoint> getNearestCells(float t, double x, double y, double z, int k) {
+		List<ClickedPoint> result = new ArrayList<>();
+		Grid grid = grids.get(t);
+		if (k <= 0 || grid == null || grid.buckets.isEmpty())
+			return result;
+		// Max-heap of the best candidates found so far
+		PriorityQueue<ClickedPoint> best =
+				new PriorityQueue<>(k + 1, (a, b) -> Double.compare(distanceSq(b, x, y, z), distanceSq(a, x, y, z)));
+		int cx = bucketIndex(x), cy = bucketIndex(y), cz = bucketIndex(z);
+		int maxRing =
+				Math.max(Math.max(Math.max(cx - grid.minX, grid.maxX - cx), Math.max(cy - grid.minY, grid.maxY - cy)),
+						Math.max(cz - grid.minZ, grid.maxZ - cz));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// Buckets not yet visited are at least ring buckets away from the center bucket, and therefore their cells
+			// are at least (ring - 1) * bucketSize away from the query point
+			if (best.size() == k) {
+				double reach = (ring - 1) * bucketSize;
+				if (distanceSq(best.peek(), x, y, z) <= reach * reach)
+					break;
+			}
+			int x0 = Math.max(grid.minX, cx - ring), x1 = Math.min(grid.maxX, cx + ring);
+			int y0 = Math.max(grid.minY, cy - ring), y1 = Math.min(grid.maxY, cy + ring);
+			int z0 = Math.max(grid.minZ, cz - ring), z1 = Math.min(grid.maxZ, cz + ring);
+			for (int ix = x0; ix <= x1; ix++) {
+				boolean xOnShell = ix == cx - ring || ix == cx + ring;
+				for (int iy = y0; iy <= y1; iy++) {
+					boolean xyOnShell = xOnShell || iy == cy - ring || iy == cy + ring;
+					for (int iz = z0; iz <= z1; iz++) {
+						if (!xyOnShell && iz != cz - ring && iz != cz + ring) {
+							// Skip the inside of the shell, which was visited at previous rings
+							iz = cz + ring - 1;
+							continue;
+						}
+						List<ClickedPoint> bucket = grid.buckets.get(key(ix, iy, iz));
+						if (bucket == null)
+							continue;
+						for (ClickedPoint p : bucket) {
+							if (p.t != t)
+								continue;
+							best.add(p);
+							if (best.size() > k)
+								best.poll();
+						}
+					}
+				}
+			}
+		}
+		result.addAll(best);
+		result.sort((a, b) -> Double.compare(distanceSq(a, x, y, z), distanceSq(b, x, y, z)));
+		return result;
+	}
+}
@@ -8,6 +8,7 @@ package pipeline.data;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -118,6 +119,14 @@ public class ClickedPoint extends PluginIO implements Cloneable, Comparable<Clic
 		newPoint.imageUsersegCoordsX = imageUsersegCoordsX == null ? null : imageUsersegCoordsX.clone();
 		newPoint.imageUsersegCoordsY = imageUsersegCoordsY == null ? null : imageUsersegCoordsY.clone();
 		newPoint.imageUsersegCoordsZ = imageUsersegCoordsZ == null ? null : imageUsersegCoordsZ.clone();
+		// Run-length segmentations and lazy sources are immutable and can be shared
+		synchronized (this) {
+			newPoint.fullSegmentation = fullSegmentation;
+			newPoint.perimeterSegmentation = perimeterSegmentation;
+			newPoint.userSegmentation = userSegmentation;
+			newPoint.lazySegmentations = lazySegmentations;
+			newPoint.pendingSegmentations = pendingSegmentations;
+		}
 
 		newPoint.quantifiedProperties.addAll(quantifiedProperties);
 		newPoint.userCellValues.addAll(userCellValues);
@@ -219,7 +228,11 @@ public class ClickedPoint extends PluginIO implements Cloneable, Comparable<Clic
 
 	public List<SpreadsheetCell> userCells = new ArrayList<>();
 
-	public @NonNull List<Float> quantifiedProperties = new ArrayList<>();
+	/**
+	 * Values of the properties named in {@link #listNamesOfQuantifiedProperties}, in the same order. A
+	 * {@link PrimitiveFloatList} unless replaced by {@link #setQuantifiedProperties}.
+	 */
+	public @NonNull List<Float> quantifiedProperties = new PrimitiveFloatList();
 
 	@Override
 	@MethodToGetColumnNames(value = "getQuantifiedPropertyNames")
@@ -232,7 +245,11 @@ public class ClickedPoint extends PluginIO implements Cloneable, Comparable<Clic
 		quantifiedProperties = qp;
 	}
 
-	public @NonNull List<String> listNamesOfQuantifiedProperties = new ArrayList<>();
+	/**
+	 * Normally shared with the owning {@link PluginIOCells}; an {@link IndexedNameList} so property lookups by
+	 * name do not scan the list.
+	 */
+	public @NonNull List<String> listNamesOfQuantifiedProperties = new IndexedNameList();
 
 	public float getSeedId() {
 		return seedId;
@@ -375,6 +392,15 @@ public class ClickedPoint extends PluginIO implements Cloneable, Comparable<Clic
 	 * gonad, etc.)
 	 */
 	public String userLabel;
+
+	/**
+	 * Uncompressed segmentation coordinates, as read from protobuf files written before segmentations were
+	 * run-length encoded or as set by plugins that have not been ported to {@link RunLengthSegmentation}. Use
+	 * {@link #getFullSegmentation()}, {@link #getPerimeterSegmentation()} and {@link #getUserSegmentation()} to
+	 * read segmentations, which converts and then clears these arrays. A coordinate array that is set on its own
+	 * (e.g. imageFullSegCoordsX used to store embedded pixel values) is left as is. Call {@link #loadSegmentations()}
+	 * before accessing these arrays directly, in case the cell was lazily read from a protobuf file.
+	 */
 	public int[] imageFullSegCoordsX = null;
 	public int[] imageFullSegCoordsY = null;
 	public int[] imageFullSegCoordsZ = null;
@@ -385,6 +411,165 @@ public class ClickedPoint extends PluginIO implements Cloneable, Comparable<Clic
 	public int[] imageUsersegCoordsY = null;
 	public int[] imageUsersegCoordsZ = null;
 
+	private RunLengthSegmentation fullSegmentation;
+	private RunLengthSegmentation perimeterSegmentation;
+	private RunLengthSegmentation userSegmentation;
+
+	/**
+	 * Source of the segmentations whose bit (1 &lt;&lt; kind, kind being one of the
+	 * {@link ProtobufCellsReader#FULL_SEGMENTATION} constants) is set in pendingSegmentations.
+	 */
+	private transient ProtobufCellsReader.LazySegmentations lazySegmentations;
+	private transient int pendingSegmentations;
+
+	synchronized void setLazySegmentations(ProtobufCellsReader.LazySegmentations source) {
+		lazySegmentations = source;
+		pendingSegmentations = source == null ? 0 : 7;
+	}
+
+	/**
+	 * @param kind
+	 * @return Source from which segmentation kind has not been decoded yet, or null
+	 */
+	synchronized ProtobufCellsReader.LazySegmentations getPendingSegmentation(int kind) {
+		return (pendingSegmentations & (1 << kind)) != 0 ? lazySegmentations : null;
+	}
+
+	private void loadSegmentation(int kind) {
+		if ((pendingSegmentations & (1 << kind)) == 0)
+			return;
+		RunLengthSegmentation runs = lazySegmentations.decodeRuns(kind);
+		int[][] coordinates = lazySegmentations.decodeCoordinates(kind);
+		switch (kind) {
+			case ProtobufCellsReader.FULL_SEGMENTATION:
+				fullSegmentation = runs;
+				imageFullSegCoordsX = coordinates[0];
+				imageFullSegCoordsY = coordinates[1];
+				imageFullSegCoordsZ = coordinates[2];
+				break;
+			case ProtobufCellsReader.PERIMETER_SEGMENTATION:
+				perimeterSegmentation = runs;
+				imagePerimsegCoordsX = coordinates[0];
+				imagePerimsegCoordsY = coordinates[1];
+				imagePerimsegCoordsZ = coordinates[2];
+				break;
+			case ProtobufCellsReader.USER_SEGMENTATION:
+				userSegmentation = runs;
+				imageUsersegCoordsX = coordinates[0];
+				imageUsersegCoordsY = coordinates[1];
+				imageUsersegCoordsZ = coordinates[2];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown segmentation kind " + kind);
+		}
+		clearPendingSegmentation(kind);
+	}
+
+	private void clearPendingSegmentation(int kind) {
+		pendingSegmentations &= ~(1 << kind);
+		if (pendingSegmentations == 0)
+			lazySegmentations = null;
+	}
+
+	/**
+	 * Decode all segmentations that have not been decoded yet from the protobuf file this cell was read from.
+	 */
+	public synchronized void loadSegmentations() {
+		loadSegmentation(ProtobufCellsReader.FULL_SEGMENTATION);
+		loadSegmentation(ProtobufCellsReader.PERIMETER_SEGMENTATION);
+		loadSegmentation(ProtobufCellsReader.USER_SEGMENTATION);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		loadSegmentations();
+		out.defaultWriteObject();
+	}
+
+	/**
+	 * @return Full segmentation, or null if the cell does not have one
+	 */
+	@DoNotShowInTable
+	public synchronized RunLengthSegmentation getFullSegmentation() {
+		loadSegmentation(ProtobufCellsReader.FULL_SEGMENTATION);
+		if (fullSegmentation == null && imageFullSegCoordsY != null) {
+			fullSegmentation =
+					RunLengthSegmentation.fromCoordinates(imageFullSegCoordsX, imageFullSegCoordsY,
+							imageFullSegCoordsZ);
+			if (fullSegmentation != null) {
+				imageFullSegCoordsX = null;
+				imageFullSegCoordsY = null;
+				imageFullSegCoordsZ = null;
+			}
+		}
+		return fullSegmentation;
+	}
+
+	/**
+	 * @param segmentation
+	 *            Can be null to remove the segmentation
+	 */
+	public synchronized void setFullSegmentation(RunLengthSegmentation segmentation) {
+		clearPendingSegmentation(ProtobufCellsReader.FULL_SEGMENTATION);
+		fullSegmentation = segmentation;
+		imageFullSegCoordsX = null;
+		imageFullSegCoordsY = null;
+		imageFullSegCoordsZ = null;
+	}
+
+	/**
+	 * @return Perimeter segmentation, or null if the cell does not have one
+	 */
+	@DoNotShowInTable
+	public synchronized RunLengthSegmentation getPerimeterSegmentation() {
+		loadSegmentation(ProtobufCellsReader.PERIMETER_SEGMENTATION);
+		if (perimeterSegmentation == null && imagePerimsegCoordsY != null) {
+			perimeterSegmentation =
+					RunLengthSegmentation.fromCoordinates(imagePerimsegCoordsX, imagePerimsegCoordsY,
+							imagePerimsegCoordsZ);
+			if (perimeterSegmentation != null) {
+				imagePerimsegCoordsX = null;
+				imagePerimsegCoordsY = null;
+				imagePerimsegCoordsZ = null;
+			}
+		}
+		return perimeterSegmentation;
+	}
+
+	public synchronized void setPerimeterSegmentation(RunLengthSegmentation segmentation) {
+		clearPendingSegmentation(ProtobufCellsReader.PERIMETER_SEGMENTATION);
+		perimeterSegmentation = segmentation;
+		imagePerimsegCoordsX = null;
+		imagePerimsegCoordsY = null;
+		imagePerimsegCoordsZ = null;
+	}
+
+	/**
+	 * @return Segmentation defined by the user, or null if the cell does not have one
+	 */
+	@DoNotShowInTable
+	public synchronized RunLengthSegmentation getUserSegmentation() {
+		loadSegmentation(ProtobufCellsReader.USER_SEGMENTATION);
+		if (userSegmentation == null && imageUsersegCoordsY != null) {
+			userSegmentation =
+					RunLengthSegmentation.fromCoordinates(imageUsersegCoordsX, imageUsersegCoordsY,
+							imageUsersegCoordsZ);
+			if (userSegmentation != null) {
+				imageUsersegCoordsX = null;
+				imageUsersegCoordsY = null;
+				imageUsersegCoordsZ = null;
+			}
+		}
+		return userSegmentation;
+	}
+
+	public synchronized void setUserSegmentation(RunLengthSegmentation segmentation) {
+		clearPendingSegmentation(ProtobufCellsReader.USER_SEGMENTATION);
+		userSegmentation = segmentation;
+		imageUsersegCoordsX = null;
+		imageUsersegCoordsY = null;
+		imageUsersegCoordsZ = null;
+	}
+
 	public List<Float> userCellValues = new ArrayList<>();
 	public List<String> userCellFormulas = new ArrayList<>();
 
@@ -437,7 +622,34 @@ public class ClickedPoint extends PluginIO implements Cloneable, Comparable<Clic
 		if (index < 0)
 			throw new IllegalArgumentException("Property " + name + " does not exist in list "
 					+ Utils.printStringArray(listNamesOfQuantifiedProperties));
-		return quantifiedProperties.get(index);
+		return getQuantifiedProperty(index);
+	}
+
+	/**
+	 * @param index
+	 *            Index of the property in {@link #getQuantifiedPropertyNames}, as returned for example by
+	 *            {@link PluginIOCells#getQuantifiedPropertyIndex}
+	 * @return Property value, read without boxing
+	 */
+	@DoNotShowInTable
+	public float getQuantifiedProperty(int index) {
+		List<Float> values = quantifiedProperties;
+		if (values instanceof PrimitiveFloatList)
+			return ((PrimitiveFloatList) values).getFloat(index);
+		return values.get(index);
+	}
+
+	/**
+	 * @param index
+	 *            Index of the property in {@link #getQuantifiedPropertyNames}
+	 * @param value
+	 */
+	public void setQuantifiedProperty(int index, float value) {
+		List<Float> values = quantifiedProperties;
+		if (values instanceof PrimitiveFloatList)
+			((PrimitiveFloatList) values).setFloat(index, value);
+		else
+			values.set(index, value);
 	}
 
 	@Override
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * List of names with constant-time {@link #indexOf} and {@link #contains}, used for the names of quantified
+ * properties: ClickedPoints look up the index of a property by name every time it is read or written. The name to
+ * index map is rebuilt after the list is modified, the next time it is queried.
+ * Modifications made through {@link #subList} views are not tracked.
+ *
+ */
+public class IndexedNameList extends ArrayList<String> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Maps each name to the index of its first occurrence, along with the modCount at which the map was built.
+	 */
+	private static final class Index {
+		final Map<String, Integer> map;
+		final int modCount;
+
+		Index(Map<String, Integer> map, int modCount) {
+			this.map = map;
+			this.modCount = modCount;
+		}
+	}
+
+	/**
+	 * Null when it needs to be rebuilt.
+	 */
+	private transient volatile Index index;
+
+	public IndexedNameList() {
+		super();
+	}
+
+	public IndexedNameList(Collection<? extends String> c) {
+		super(c);
+	}
+
+	private Map<String, Integer> getIndex() {
+		Index current = index;
+		if (current != null && current.modCount == modCount)
+			return current.map;
+		int currentModCount = modCount;
+		Map<String, Integer> map = new HashMap<>(size() * 2);
+		for (int i = size() - 1; i >= 0; i--) {
+			map.put(get(i), i);
+		}
+		index = new Index(map, currentModCount);
+		return map;
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		Integer i = getIndex().get(o);
+		return i == null ? -1 : i;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return getIndex().containsKey(o);
+	}
+
+	@Override
+	public String set(int i, String element) {
+		String old = super.set(i, element);
+		// set is not a structural modification and does not update modCount
+		index = null;
+		return old;
+	}
+}
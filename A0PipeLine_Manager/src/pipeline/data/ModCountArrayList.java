@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * ArrayList whose modification count can be read, so that structures derived from its contents (such as
+ * {@link CellSpatialIndex}) can tell whether they are out of date. Unlike in ArrayList, {@link #set} counts as a
+ * modification. Modifications made through {@link #subList} views are only counted if they are structural.
+ *
+ */
+class ModCountArrayList<E> extends ArrayList<E> {
+
+	private static final long serialVersionUID = 1L;
+
+	ModCountArrayList() {
+		super();
+	}
+
+	ModCountArrayList(int initialCapacity) {
+		super(initialCapacity);
+	}
+
+	ModCountArrayList(Collection<? extends E> c) {
+		super(c);
+	}
+
+	int getModCount() {
+		return modCount;
+	}
+
+	@Override
+	public E set(int index, E element) {
+		E old = super.set(index, element);
+		modCount++;
+		return old;
+	}
+}
@@ -8,17 +8,24 @@ package pipeline.data;
 
 import ij.measure.Calibration;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import org.boris.expr.ExprDouble;
 import org.eclipse.jdt.annotation.NonNull;
@@ -39,6 +46,7 @@ import pipeline.plugins.c_plugins.ProtobufSeedsOrCells.SegDirectory.Builder;
 import pipeline.plugins.c_plugins.ProtobufSeedsOrCells.SegInfo;
 import pipeline.plugins.input_output.LoadProtobufBinary;
 
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 // FIXME userCellDescriptions loaded from protobuf files are discarded to allow compatibility with
@@ -101,7 +109,7 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 		PluginIOCells copy = new PluginIOCells();
 		copyInto(copy);
 
-		copy.internalList = new ArrayList<>(internalList.size());
+		copy.internalList = new ModCountArrayList<>(internalList.size());
 
 		for (ClickedPoint point : internalList) {
 			ClickedPoint newPoint = (ClickedPoint) point.clone();
@@ -127,7 +135,7 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 	}
 
 	public PluginIOCells() {
-		this.internalList = new ArrayList<>(20);
+		this.internalList = new ModCountArrayList<>(20);
 		setName("Cell list");
 		int i = 0;
 		while (userCellDescriptions.size() < 3) {
@@ -160,14 +168,18 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			path += ".proto";
 			saveTo = new File(path);
 		}
-		try (FileOutputStream fos = new FileOutputStream(path)) {
-			fos.write(asProtobufBytes());
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path), 1 << 16)) {
+			byte[] cached = getProtobuf();
+			if (cached != null)
+				out.write(cached);
+			else
+				writeProtobuf(out, false);
 		}
 		return saveTo;
 	}
 
 	{
-		internalList = new ArrayList<>(20);
+		internalList = new ModCountArrayList<>(20);
 	}
 
 	public List<ClickedPoint> getPoints() {
@@ -175,6 +187,63 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 		return internalList;
 	}
 
+	/**
+	 * @param name
+	 * @return Index of the property in {@link #getQuantifiedPropertyNames}, which can be passed to
+	 *         {@link ClickedPoint#getQuantifiedProperty(int)} for cells linked to this list, or -1 if there is no such
+	 *         property
+	 */
+	public int getQuantifiedPropertyIndex(String name) {
+		return getQuantifiedPropertyNames().indexOf(name);
+	}
+
+	/**
+	 * @param name
+	 * @return Value of the property for each cell, in list order, gathered without boxing
+	 * @throws IllegalArgumentException
+	 *             If there is no such property
+	 */
+	public float[] getQuantifiedPropertyColumn(String name) {
+		int index = getQuantifiedPropertyIndex(name);
+		if (index < 0)
+			throw new IllegalArgumentException("Property " + name + " does not exist in list "
+					+ Utils.printStringArray(getQuantifiedPropertyNames()));
+		List<String> names = getQuantifiedPropertyNames();
+		float[] column = new float[internalList.size()];
+		int i = 0;
+		for (ClickedPoint p : internalList) {
+			column[i++] =
+					p.listNamesOfQuantifiedProperties == names ? p.getQuantifiedProperty(index) : p
+							.getQuantifiedProperty(name);
+		}
+		return column;
+	}
+
+	/**
+	 * Set the value of a property for all cells, adding the property if it does not already exist.
+	 *
+	 * @param name
+	 * @param values
+	 *            One value per cell, in list order
+	 */
+	public void setQuantifiedPropertyColumn(String name, float[] values) {
+		parseOrReallocate();
+		if (values.length != internalList.size())
+			throw new IllegalArgumentException("Got " + values.length + " values for " + internalList.size()
+					+ " cells");
+		addQuantifiedPropertyName(name);
+		setProtobuf(null);
+		int index = getQuantifiedPropertyIndex(name);
+		List<String> names = getQuantifiedPropertyNames();
+		int i = 0;
+		for (ClickedPoint p : internalList) {
+			if (p.listNamesOfQuantifiedProperties == names)
+				p.setQuantifiedProperty(index, values[i++]);
+			else
+				p.setQuantifiedProperty(name, values[i++]);
+		}
+	}
+
 	@Override
 	public final void parseOrReallocate() {
 		if (updatingProtobuf.get()) {
@@ -186,14 +255,19 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 				restoreFromProtobuf();
 				return;
 			}
-			internalList = new ArrayList<>(20);
+			internalList = new ModCountArrayList<>(20);
 			clearListeningSeries();
 		}
 	}
 
 	private boolean addDontFireValueChanged(ClickedPoint p) {
 		parseOrReallocate();
+		CellSpatialIndex index = getSpatialIndexToUpdate();
 		boolean result = internalList.add(p);
+		if (index != null) {
+			index.insert(p);
+			index.syncTo(internalList);
+		}
 		setProtobuf(null);
 		addPointToListeningSeries(p);
 		return result;
@@ -209,26 +283,62 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 	@Override
 	public void clear() {
 		if (internalList == null)
-			internalList = new ArrayList<>(20);
+			internalList = new ModCountArrayList<>(20);
 		internalList.clear();
+		spatialIndex = null;
 		setProtobuf(null);
 		clearListeningSeries();
 	}
 
+	/**
+	 * Segmentations are written as coordinate arrays, as in files written by earlier versions; use
+	 * {@link #asProtobufBytes(boolean)} to get them run-length encoded.
+	 */
 	@Override
 	public byte @NonNull[] asProtobufBytes() {
-		// FIXME Need to clean up behavior of userCells/userCellFormulas printing
 		byte [] local = getProtobuf();
 		if (local != null)
 			return local;
-		parseOrReallocate();
-		Builder protobufListOfPoints = SegDirectory.newBuilder();
-		protobufListOfPoints.setImageDimx(width).setImageDimy(height).setImageDimz(depth).addAllUserCellDescriptions(
-				getUserCellDescriptions()).addAllQuantifiedPropertyNames(getQuantifiedPropertyNames());
+		return asProtobufBytes(false);
+	}
 
-		if (calibration != null)
-			protobufListOfPoints.setXMicronCalibration((float) calibration.pixelWidth).setYMicronCalibration(
-					(float) calibration.pixelHeight).setZMicronCalibration((float) calibration.pixelDepth);
+	/**
+	 * @param runLengthEncodeSegmentations
+	 *            If false, segmentations are written as x, y, z coordinate arrays, which is the only encoding
+	 *            understood by native plugins and by versions that predate run-length encoding; otherwise they are
+	 *            only written as runs (fields image_*seg_runs), which is much more compact. Both encodings can be read
+	 *            back by {@link #restoreFromProtobuf()}.
+	 * @return Protobuf representation of the cells; cached for subsequent calls to {@link #asProtobufBytes()} if
+	 *         runLengthEncodeSegmentations is false
+	 */
+	public byte @NonNull[] asProtobufBytes(boolean runLengthEncodeSegmentations) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			writeProtobuf(bytes, runLengthEncodeSegmentations);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		@SuppressWarnings("null")
+		byte @NonNull[] result = bytes.toByteArray();
+		if (!runLengthEncodeSegmentations)
+			setProtobuf(result);
+		return result;
+	}
+
+	/**
+	 * Write a SegDirectory one cell at a time, without building the whole message in memory. Segmentations that have
+	 * not been decoded since the cells were read from a protobuf file are copied as they were read if they are in a
+	 * suitable encoding. The output is the same as that of SegDirectory.writeTo, with cells written first.
+	 *
+	 * @param out
+	 * @param runLengthEncodeSegmentations
+	 *            See {@link #asProtobufBytes(boolean)}
+	 * @throws IOException
+	 */
+	public void writeProtobuf(OutputStream out, boolean runLengthEncodeSegmentations) throws IOException {
+		// FIXME Need to clean up behavior of userCells/userCellFormulas printing
+		parseOrReallocate();
+		CodedOutputStream output = CodedOutputStream.newInstance(out);
 
 		int nUserCellsDescriptions = getUserCellDescriptions().size();
 
@@ -247,61 +357,8 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			if (clickedPoint.hsz != 0)
 				protobufPoint.setSeedHsz(clickedPoint.hsz);
 
-			if (clickedPoint.imageFullSegCoordsX != null) {
-				int[] coordArray = clickedPoint.imageFullSegCoordsX;
-				protobufPoint.ensureImageFullsegCoordsXIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImageFullsegCoordsXArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImageFullsegCoordsX_ = coordArray.length;
-
-				coordArray = clickedPoint.imageFullSegCoordsY;
-				if (coordArray != null) {
-					protobufPoint.ensureImageFullsegCoordsYIsMutable(coordArray.length);
-					System.arraycopy(coordArray, 0, protobufPoint.getImageFullsegCoordsYArray(), 0, coordArray.length);
-					protobufPoint.numUsedInImageFullsegCoordsY_ = coordArray.length;
-				}
-
-				coordArray = clickedPoint.imageFullSegCoordsZ;
-				if (coordArray != null) {
-					protobufPoint.ensureImageFullsegCoordsZIsMutable(coordArray.length);
-					System.arraycopy(coordArray, 0, protobufPoint.getImageFullsegCoordsZArray(), 0, coordArray.length);
-					protobufPoint.numUsedInImageFullsegCoordsZ_ = coordArray.length;
-				}
-			}
-
-			if (clickedPoint.imagePerimsegCoordsX != null) {
-				int[] coordArray = clickedPoint.imagePerimsegCoordsX;
-				protobufPoint.ensureImagePerimsegCoordsXIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImagePerimsegCoordsXArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImagePerimsegCoordsX_ = coordArray.length;
-
-				coordArray = clickedPoint.imagePerimsegCoordsY;
-				protobufPoint.ensureImagePerimsegCoordsYIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImagePerimsegCoordsYArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImagePerimsegCoordsY_ = coordArray.length;
-
-				coordArray = clickedPoint.imagePerimsegCoordsZ;
-				protobufPoint.ensureImagePerimsegCoordsZIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImagePerimsegCoordsZArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImagePerimsegCoordsZ_ = coordArray.length;
-			}
-
-			if (clickedPoint.imageUsersegCoordsX != null) {
-				int[] coordArray = clickedPoint.imageUsersegCoordsX;
-				protobufPoint.ensureImageUsersegCoordsXIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImageUsersegCoordsXArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImageUsersegCoordsX_ = coordArray.length;
-
-				coordArray = clickedPoint.imageUsersegCoordsY;
-				protobufPoint.ensureImageUsersegCoordsYIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImageUsersegCoordsYArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImageUsersegCoordsY_ = coordArray.length;
-
-				coordArray = clickedPoint.imageUsersegCoordsZ;
-				protobufPoint.ensureImageUsersegCoordsZIsMutable(coordArray.length);
-				System.arraycopy(coordArray, 0, protobufPoint.getImageUsersegCoordsZArray(), 0, coordArray.length);
-				protobufPoint.numUsedInImageUsersegCoordsZ_ = coordArray.length;
-
-			}
+			List<ProtobufCellsReader.LazySegmentations> rawSegmentations =
+					writeSegmentations(clickedPoint, protobufPoint, runLengthEncodeSegmentations);
 
 			int modifiers = clickedPoint.modifiers;
 			if ((modifiers & DELETE_MODIFIER) > 0) {
@@ -360,14 +417,114 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			protobufPoint.ensureImageUsersegCoordsYIsMutable(1);
 			protobufPoint.ensureImageUsersegCoordsZIsMutable(1);
 
-			protobufListOfPoints.addProtobufInfo(protobufPoint);
+			// Segmentations copied from the original file are appended to the message, which protobuf parsers
+			// treat the same as if they had been written along with the other fields
+			byte[] pointBytes = protobufPoint.build().toByteArray();
+			int size = pointBytes.length;
+			for (int kind = 0; kind < rawSegmentations.size(); kind++) {
+				if (rawSegmentations.get(kind) != null)
+					size += rawSegmentations.get(kind).getFieldsSize(kind);
+			}
+			output.writeRawVarint32(ProtobufCellsReader.PROTOBUF_INFO_TAG);
+			output.writeRawVarint32(size);
+			output.writeRawBytes(pointBytes);
+			for (int kind = 0; kind < rawSegmentations.size(); kind++) {
+				if (rawSegmentations.get(kind) != null)
+					rawSegmentations.get(kind).copyFields(kind, output);
+			}
 		}
 
-		@SuppressWarnings("null")
-		byte @NonNull[] result = protobufListOfPoints.build().toByteArray();
-		setProtobuf(result);
+		Builder header = SegDirectory.newBuilder();
+		header.setImageDimx(width).setImageDimy(height).setImageDimz(depth).addAllUserCellDescriptions(
+				getUserCellDescriptions()).addAllQuantifiedPropertyNames(getQuantifiedPropertyNames());
 
-		return result;
+		if (calibration != null)
+			header.setXMicronCalibration((float) calibration.pixelWidth).setYMicronCalibration(
+					(float) calibration.pixelHeight).setZMicronCalibration((float) calibration.pixelDepth);
+
+		header.build().writeTo(output);
+		output.flush();
+	}
+
+	private static void copyToBuilder(int[] source, IntConsumer ensureIsMutable, Supplier<int[]> builderArray,
+			IntConsumer setNumUsed) {
+		if (source == null || source.length == 0)
+			return;
+		ensureIsMutable.accept(source.length);
+		System.arraycopy(source, 0, builderArray.get(), 0, source.length);
+		setNumUsed.accept(source.length);
+	}
+
+	/**
+	 * @return For each kind of segmentation, source to copy it from without decoding it, or null if it was written
+	 *         to the builder
+	 */
+	private static List<ProtobufCellsReader.LazySegmentations> writeSegmentations(ClickedPoint p,
+			SegInfo.Builder b, boolean runLengthEncode) {
+		List<ProtobufCellsReader.LazySegmentations> raw = new ArrayList<>(3);
+		for (int kind = 0; kind < 3; kind++) {
+			ProtobufCellsReader.LazySegmentations source = p.getPendingSegmentation(kind);
+			// Native plugins need coordinates, so runs must be decoded for them
+			if (source != null && (runLengthEncode || !source.hasRuns(kind)))
+				raw.add(source);
+			else
+				raw.add(null);
+		}
+
+		// Coordinates that were not converted to runs (e.g. pixel values stored in imageFullSegCoordsX by
+		// EmbedImageWithProtobufSeeds) take precedence over expanded runs
+
+		if (raw.get(ProtobufCellsReader.FULL_SEGMENTATION) == null) {
+			RunLengthSegmentation full = p.getFullSegmentation();
+			if (runLengthEncode && full != null)
+				copyToBuilder(full.getRuns(), b::ensureImageFullsegRunsIsMutable, b::getImageFullsegRunsArray,
+						n -> b.numUsedInImageFullsegRuns_ = n);
+			int[][] coords = full != null && !runLengthEncode ? full.toCoordinates() : new int[3][];
+			copyToBuilder(p.imageFullSegCoordsX != null ? p.imageFullSegCoordsX : coords[0],
+					b::ensureImageFullsegCoordsXIsMutable, b::getImageFullsegCoordsXArray,
+					n -> b.numUsedInImageFullsegCoordsX_ = n);
+			copyToBuilder(p.imageFullSegCoordsY != null ? p.imageFullSegCoordsY : coords[1],
+					b::ensureImageFullsegCoordsYIsMutable, b::getImageFullsegCoordsYArray,
+					n -> b.numUsedInImageFullsegCoordsY_ = n);
+			copyToBuilder(p.imageFullSegCoordsZ != null ? p.imageFullSegCoordsZ : coords[2],
+					b::ensureImageFullsegCoordsZIsMutable, b::getImageFullsegCoordsZArray,
+					n -> b.numUsedInImageFullsegCoordsZ_ = n);
+		}
+
+		if (raw.get(ProtobufCellsReader.PERIMETER_SEGMENTATION) == null) {
+			RunLengthSegmentation perim = p.getPerimeterSegmentation();
+			if (runLengthEncode && perim != null)
+				copyToBuilder(perim.getRuns(), b::ensureImagePerimsegRunsIsMutable, b::getImagePerimsegRunsArray,
+						n -> b.numUsedInImagePerimsegRuns_ = n);
+			int[][] coords = perim != null && !runLengthEncode ? perim.toCoordinates() : new int[3][];
+			copyToBuilder(p.imagePerimsegCoordsX != null ? p.imagePerimsegCoordsX : coords[0],
+					b::ensureImagePerimsegCoordsXIsMutable, b::getImagePerimsegCoordsXArray,
+					n -> b.numUsedInImagePerimsegCoordsX_ = n);
+			copyToBuilder(p.imagePerimsegCoordsY != null ? p.imagePerimsegCoordsY : coords[1],
+					b::ensureImagePerimsegCoordsYIsMutable, b::getImagePerimsegCoordsYArray,
+					n -> b.numUsedInImagePerimsegCoordsY_ = n);
+			copyToBuilder(p.imagePerimsegCoordsZ != null ? p.imagePerimsegCoordsZ : coords[2],
+					b::ensureImagePerimsegCoordsZIsMutable, b::getImagePerimsegCoordsZArray,
+					n -> b.numUsedInImagePerimsegCoordsZ_ = n);
+		}
+
+		if (raw.get(ProtobufCellsReader.USER_SEGMENTATION) == null) {
+			RunLengthSegmentation user = p.getUserSegmentation();
+			if (runLengthEncode && user != null)
+				copyToBuilder(user.getRuns(), b::ensureImageUsersegRunsIsMutable, b::getImageUsersegRunsArray,
+						n -> b.numUsedInImageUsersegRuns_ = n);
+			int[][] coords = user != null && !runLengthEncode ? user.toCoordinates() : new int[3][];
+			copyToBuilder(p.imageUsersegCoordsX != null ? p.imageUsersegCoordsX : coords[0],
+					b::ensureImageUsersegCoordsXIsMutable, b::getImageUsersegCoordsXArray,
+					n -> b.numUsedInImageUsersegCoordsX_ = n);
+			copyToBuilder(p.imageUsersegCoordsY != null ? p.imageUsersegCoordsY : coords[1],
+					b::ensureImageUsersegCoordsYIsMutable, b::getImageUsersegCoordsYArray,
+					n -> b.numUsedInImageUsersegCoordsY_ = n);
+			copyToBuilder(p.imageUsersegCoordsZ != null ? p.imageUsersegCoordsZ : coords[2],
+					b::ensureImageUsersegCoordsZIsMutable, b::getImageUsersegCoordsZArray,
+					n -> b.numUsedInImageUsersegCoordsZ_ = n);
+		}
+		return raw;
 	}
 
 	public static final int DELETE_MODIFIER = java.awt.event.InputEvent.SHIFT_MASK;
@@ -437,16 +594,15 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 
 		clearListeningSeries();
 		internalList = null;// allow GC to free up the memory before parsing protobuf file
+		final ProtobufCellsReader reader;
 		SegDirectory segDir;
 		try {
 			/**
-			 * The call below is where this method spends most of its time, because it parses the whole contents.
-			 * Unfortunately there does not seem to be a way to request lazy parsing, which could allow for the
-			 * individual SegInfo components of SegDirectory to be read in a multithreaded way.
-			 * TODO Find a way to improve the performance. For large files there is a significant delay when
-			 * the user tries to visualize the results.
+			 * Only locate cells here; they are parsed in parallel below, and their segmentations, which make up
+			 * most of the data, are only decoded when first accessed.
 			 */
-			segDir = SegDirectory.parseFrom(getProtobuf());
+			reader = new ProtobufCellsReader(getProtobuf());
+			segDir = reader.getHeader();
 		} catch (InvalidProtocolBufferException e) {
 			Utils.displayMessage("Invalid protobuf " + e, false, LogLevel.ERROR);
 			setProtobuf(null);
@@ -486,25 +642,25 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 				getQuantifiedPropertyNames().add(s.replace(" ", ""));
 			}
 
-			final List<SegInfo> segList = segDir.getProtobufInfoList();
-			final ClickedPoint[] pointArray = new ClickedPoint[segList.size()];
+			final ClickedPoint[] pointArray = new ClickedPoint[reader.getNCells()];
 
 			final Set<Integer> seedIds = new HashSet<>();
 			final AtomicBoolean duplicateId = new AtomicBoolean(false);
 
 			maxId = 0;
 
-			/**
-			 * The multithreading below ends up not saving a lot of time, because the parsing has already been
-			 * done by the protobuf code (called in a non-parallelized way above).
-			 */
-
-			ParFor parFor = new ParFor("Restore cells from protobuf", 0, segList.size() - 1, null, true);
+			ParFor parFor = new ParFor("Restore cells from protobuf", 0, pointArray.length - 1, null, true);
 
 			for (int i = 0; i < parFor.getNThreads(); i++) {
 				parFor.addLoopWorker((loopIndex, threadIndex) -> {
 
-					SegInfo seg = segList.get(loopIndex);
+					ProtobufCellsReader.Cell cell;
+					try {
+						cell = reader.readCell(loopIndex);
+					} catch (InvalidProtocolBufferException e) {
+						throw new RuntimeException("Invalid protobuf", e);
+					}
+					SegInfo seg = cell.info;
 					ClickedPoint p =
 							new ClickedPoint((int) seg.getSeedX(), (int) seg.getSeedY(), seg.getSeedZ(), 0, 0,
 									(int) seg.getContourAddRemoveMerge(), (int) seg.getContourMergeGroup());
@@ -552,6 +708,11 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 
 					p.listNamesOfQuantifiedProperties = getQuantifiedPropertyNames();
 
+					// Files written before segmentations were run-length encoded only have coordinates, which
+					// are converted to runs by ClickedPoint when first accessed
+					p.setFullSegmentation(RunLengthSegmentation.fromRuns(seg.getImageFullsegRunsArray()));
+					p.setPerimeterSegmentation(RunLengthSegmentation.fromRuns(seg.getImagePerimsegRunsArray()));
+					p.setUserSegmentation(RunLengthSegmentation.fromRuns(seg.getImageUsersegRunsArray()));
 					p.imageFullSegCoordsX = seg.getImageFullsegCoordsXArray();
 					p.imageFullSegCoordsY = seg.getImageFullsegCoordsYArray();
 					p.imageFullSegCoordsZ = seg.getImageFullsegCoordsZArray();
@@ -561,6 +722,7 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 					p.imageUsersegCoordsX = seg.getImageUsersegCoordsXArray();
 					p.imageUsersegCoordsY = seg.getImageUsersegCoordsYArray();
 					p.imageUsersegCoordsZ = seg.getImageUsersegCoordsZArray();
+					p.setLazySegmentations(cell.segmentations);
 
 					p.userCellFormulas.clear();
 					p.userCellValues.clear();
@@ -603,7 +765,7 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 				maxId = seedId - 1;
 			}
 
-			internalList = new ArrayList<>(Arrays.asList(pointArray));
+			internalList = new ModCountArrayList<>(Arrays.asList(pointArray));
 			segDir = null;
 		} finally {
 			updatingProtobuf.set(false);
@@ -672,22 +834,81 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 		return jFreeChartSeries;
 	}
 
+	private transient CellSpatialIndex spatialIndex;
+
+	private synchronized CellSpatialIndex getSpatialIndex() {
+		parseOrReallocate();
+		CellSpatialIndex index = spatialIndex;
+		if (index == null || !index.isUpToDate(internalList)) {
+			index = new CellSpatialIndex(internalList);
+			spatialIndex = index;
+		} else {
+			// Cells may have been moved in place (e.g. by CellRecenterToLowSignal) without a call to cellMoved
+			index.updateMovedCells();
+		}
+		return index;
+	}
+
+	/**
+	 * To be called before a modification of the list made by this class.
+	 * 
+	 * @return The spatial index if it is up to date and should therefore be updated incrementally to reflect the
+	 *         modification, or null if it will be rebuilt the next time it is needed
+	 */
+	private CellSpatialIndex getSpatialIndexToUpdate() {
+		CellSpatialIndex index = spatialIndex;
+		return index != null && index.isUpToDate(internalList) ? index : null;
+	}
+
+	/**
+	 * Can be called after changing the coordinates or time point of a cell that belongs to this list, to update the
+	 * spatial index right away; otherwise the index picks up the change at the next spatial query. Cells added or
+	 * removed through methods of the list do not need this.
+	 * 
+	 * @param p
+	 */
+	public void cellMoved(ClickedPoint p) {
+		CellSpatialIndex index = spatialIndex;
+		if (index != null)
+			index.moved(p);
+	}
+
+	/**
+	 * Cells at time point t whose coordinates are within the given bounds (inclusive, and possibly infinite). Like
+	 * the other spatial queries, this uses an index that is maintained across calls and is much faster than a scan
+	 * of the list.
+	 */
+	public List<ClickedPoint> getCellsInBox(float t, double minX, double maxX, double minY, double maxY,
+			double minZ, double maxZ) {
+		return getSpatialIndex().getCellsInBox(t, minX, maxX, minY, maxY, minZ, maxZ);
+	}
+
+	/**
+	 * @return Cells at time point t within distance radius of (x, y, z), in no particular order
+	 */
+	public List<ClickedPoint> getCellsWithinDistance(float t, double x, double y, double z, double radius) {
+		return getSpatialIndex().getCellsWithinDistance(t, x, y, z, radius);
+	}
+
+	/**
+	 * @return Up to k cells at time point t that are closest to (x, y, z), from closest to farthest
+	 */
+	public List<ClickedPoint> getNearestCells(float t, double x, double y, double z, int k) {
+		return getSpatialIndex().getNearestCells(t, x, y, z, k);
+	}
+
+	/**
+	 * @return Cell at time point t that is closest to (x, y, z), or null if there are no cells at that time point
+	 */
+	public ClickedPoint getNearestCell(float t, double x, double y, double z) {
+		List<ClickedPoint> nearest = getNearestCells(t, x, y, z, 1);
+		return nearest.isEmpty() ? null : nearest.get(0);
+	}
+
 	private ClickedPoint getPointClosestTo(int x, int y, double z, int t) {
 		if (internalList.isEmpty())
 			return null;
-		ClickedPoint base = new ClickedPoint(x, y, z, 0, 0, 0);
-		ClickedPoint closestPoint = null;
-		double minDistance = Double.MAX_VALUE;
-		for (ClickedPoint p : internalList) {
-			if (p.t != t)
-				continue;
-			double distance = base.distanceTo(p);
-			if (distance < minDistance) {
-				minDistance = distance;
-				closestPoint = p;
-			}
-		}
-		return closestPoint;
+		return getNearestCell(t, x, y, z);
 	}
 
 	public void clearLabelsOfPointClosestTo(int x, int y, double z, int t) {
@@ -723,11 +944,9 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			return;
 		setProtobuf(null);// so if this object is reused the list of userCells is updated
 		checkAnnotationNames(annotations);
-		for (ClickedPoint p : internalList) {
-			if (p.t != t)
-				continue;
-			if ((p.x >= x) && (p.x <= x + boxWidth) && (p.y >= y) && (p.y <= y + boxHeight))
-				p.setAnnotations(annotations);
+		for (ClickedPoint p : getCellsInBox(t, x, x + boxWidth, y, y + boxHeight, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY)) {
+			p.setAnnotations(annotations);
 		}
 	}
 
@@ -763,7 +982,12 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			newPoint.quantifiedProperties.add(0f);
 		}
 		newPoint.setAnnotations(annotations);
+		CellSpatialIndex index = getSpatialIndexToUpdate();
 		internalList.add(newPoint);
+		if (index != null) {
+			index.insert(newPoint);
+			index.syncTo(internalList);
+		}
 		return newPoint;
 	}
 
@@ -772,7 +996,14 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			return;
 		setProtobuf(null);// so if this object is reused the list of userCells is updated
 		ClickedPoint p = getPointClosestTo(x, y, z, t);
+		if (p == null)
+			return;
+		CellSpatialIndex index = getSpatialIndexToUpdate();
 		internalList.remove(p);
+		if (index != null) {
+			index.remove(p);
+			index.syncTo(internalList);
+		}
 	}
 
 	public void deletePointsInBox(int x, int y, double z, int t, int boxWidth, int boxHeight, int boxDepth) {
@@ -780,11 +1011,16 @@ public class PluginIOCells extends PluginIOListOfQ<ClickedPoint> implements Clon
 			return;
 		setProtobuf(null);// so if this object is reused the list of userCells is updated
 
-		Iterator<ClickedPoint> it = internalList.iterator();
-		while (it.hasNext()) {
-			ClickedPoint p = it.next();
-			if (p.isInBox(x, y, z, t, boxWidth, boxHeight, boxDepth))
-				it.remove();
+		List<ClickedPoint> inBox = getCellsInBox(t, x, x + boxWidth, y, y + boxHeight, z, z + boxDepth);
+		if (inBox.isEmpty())
+			return;
+		Set<ClickedPoint> toRemove = Collections.newSetFromMap(new IdentityHashMap<>());
+		toRemove.addAll(inBox);
+		CellSpatialIndex index = getSpatialIndexToUpdate();
+		internalList.removeIf(toRemove::contains);
+		if (index != null) {
+			index.removeAll(toRemove);
+			index.syncTo(internalList);
 		}
 
 	}
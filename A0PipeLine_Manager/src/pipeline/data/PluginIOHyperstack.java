@@ -405,6 +405,22 @@ public class PluginIOHyperstack extends PluginIOImage implements IPluginIO, IPlu
 	 */
 	@Override
 	public File asFile(File saveTo, boolean useBigTIFF) throws IOException, InterruptedException {
+		return asFile(saveTo, useBigTIFF, useBigTIFF ? TIFFFileAccessor.defaultTileSize : 0);
+	}
+
+	/**
+	 * Save to a TIFF file whose slices are stored as square tiles of the given size, so that regions can later be read
+	 * without reading whole slices.
+	 * 
+	 * @param saveTo
+	 * @param useBigTIFF
+	 * @param tileSize
+	 *            Multiple of 16, or 0 to store slices as strips; must be 0 unless useBigTIFF is true
+	 * @return File that was written to
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public File asFile(File saveTo, boolean useBigTIFF, int tileSize) throws IOException, InterruptedException {
 		for (IPluginIOStack channel : getChannels().values()) {
 			channel.computePixelArray();
 		}
@@ -412,6 +428,7 @@ public class PluginIOHyperstack extends PluginIOImage implements IPluginIO, IPlu
 		@NonNull File f = saveTo != null ? saveTo : File.createTempFile("HyperstackSaveToOutput:", ".tiff");
 		TIFFFileAccessor testTIFF = new TIFFFileAccessor(f, getName(), pType, calibration, useBigTIFF);
 		testTIFF.setImageAcquisitionMetadata(getImageAcquisitionMetadata());
+		testTIFF.setTileSize(tileSize);
 		testTIFF.setDimensions(getWidth(), getHeight(), getDepth(), getnChannels(), getnTimePoints());
 		// setDimensions already opens for writing testTIFF.openForSequentialWrite();
 		try {
@@ -40,7 +40,7 @@ public class PluginIOListOfQ<T extends IPluginIOListMemberQ<T>> extends PluginIO
 		}
 	}
 
-	@NonNull List<String> quantifiedPropertyNames = new ArrayList<>();
+	@NonNull List<String> quantifiedPropertyNames = new IndexedNameList();
 
 	@Override
 	public List<String> getQuantifiedPropertyNames() {
@@ -619,7 +619,7 @@ public class PluginIOStack extends PluginIOHyperstack implements IPluginIOStack
 
 			private int width = getWidth();
 
-			private float zFactor = (float) (getCalibration() != null ? 1f : getCalibration().pixelDepth
+			private float zFactor = (float) (getCalibration() == null ? 1f : getCalibration().pixelDepth
 					/ getCalibration().pixelWidth);
 			private float zFactorSq = zFactor * zFactor;
 
@@ -21,9 +21,26 @@ import pipeline.misc_util.SettableBoolean;
 public class PluginIOSubstack implements IPluginIOSubstack {
 
 	public static IPluginIOStack getSubstack(IPluginIOStack stack, int startIndex, int stopIndex) {
+		return getSubstack(stack, startIndex, stopIndex, false);
+	}
+
+	/**
+	 * @param stack
+	 *            Channel whose slices are ordered by time point, then by z
+	 * @param timePoint
+	 * @return View of the z slices of timePoint in stack, presented as a stack with a single time point
+	 */
+	public static IPluginIOStack getTimePointSubstack(IPluginIOStack stack, int timePoint) {
+		int depth = stack.getDepth();
+		return getSubstack(stack, timePoint * depth, (timePoint + 1) * depth - 1, true);
+	}
+
+	private static IPluginIOStack getSubstack(IPluginIOStack stack, int startIndex, int stopIndex,
+			boolean singleTimePoint) {
 		PluginIOSubstack subStack = new PluginIOSubstack();
 		subStack.startIndex = startIndex;
 		subStack.stopIndex = stopIndex;
+		subStack.singleTimePoint = singleTimePoint;
 		subStack.originalStack = stack;
 
 		PluginIOSubstackProxy proxy = new PluginIOSubstackProxy(subStack, stack);
@@ -39,6 +56,7 @@ public class PluginIOSubstack implements IPluginIOSubstack {
 	private IPluginIOStack proxy;
 
 	private int startIndex, stopIndex;
+	private boolean singleTimePoint;
 
 	/*
 	 * (non-Javadoc)
@@ -67,6 +85,8 @@ public class PluginIOSubstack implements IPluginIOSubstack {
 	public InputOutputObjectDimensions getDimensions() {
 		InputOutputObjectDimensions result = originalStack.getDimensions();
 		result.depth = stopIndex - startIndex + 1;
+		if (singleTimePoint)
+			result.nTimePoints = 1;
 		return result;
 	}
 
@@ -74,6 +94,10 @@ public class PluginIOSubstack implements IPluginIOSubstack {
 		return stopIndex - startIndex + 1;
 	}
 
+	public int getnTimePoints() {
+		return singleTimePoint ? 1 : originalStack.getnTimePoints();
+	}
+
 	public ImageProcessor getPixelsAsProcessor(int slice) {
 		return originalStack.getPixelsAsProcessor(slice + startIndex);
 	}
@@ -161,7 +185,7 @@ public class PluginIOSubstack implements IPluginIOSubstack {
 		IPluginIOStack[] newChannels = new IPluginIOStack[channels.length];
 
 		for (int i = 0; i < channels.length; i++) {
-			IPluginIOStack newChannel = getSubstack(channels[i], startIndex, stopIndex);
+			IPluginIOStack newChannel = getSubstack(channels[i], startIndex, stopIndex, singleTimePoint);
 			newChannel.setImageAccessor((ImageAccessor) proxy);
 			newChannels[i] = newChannel;
 		}
@@ -174,7 +198,7 @@ public class PluginIOSubstack implements IPluginIOSubstack {
 		HashMap<String, IPluginIOStack> newChannels = new HashMap<>();
 
 		for (Entry<String, IPluginIOStack> channel : channels.entrySet()) {
-			IPluginIOStack newChannel = getSubstack(channel.getValue(), startIndex, stopIndex);
+			IPluginIOStack newChannel = getSubstack(channel.getValue(), startIndex, stopIndex, singleTimePoint);
 			newChannel.setImageAccessor((ImageAccessor) proxy);
 			newChannels.put(channel.getKey(), newChannel);
 		}
@@ -209,6 +233,13 @@ public class PluginIOSubstack implements IPluginIOSubstack {
 			public float getFloat(int x, int y, int z) throws IOException {
 				return accessor0.getFloat(x, y, z + startIndex);
 			}
+
+			@Override
+			public void copyPixelRegionIntoArray(int sliceIndex, int cachePolicy, int x0, int y0, int width,
+					int height, float[] destinationArray) throws IOException {
+				accessor0.copyPixelRegionIntoArray(sliceIndex + startIndex, cachePolicy, x0, y0, width, height,
+						destinationArray);
+			}
 		};
 
 		return accessor1;
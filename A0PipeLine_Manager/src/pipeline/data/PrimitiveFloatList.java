@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * List of Floats backed by a float[], so that values are not boxed individually and can be read and written without
+ * boxing through {@link #getFloat} and {@link #setFloat}. Used to store the quantified properties of
+ * {@link ClickedPoint}s. Null elements are not supported.
+ *
+ */
+public final class PrimitiveFloatList extends AbstractList<Float> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private float[] data;
+	private int size;
+
+	public PrimitiveFloatList() {
+		data = new float[8];
+	}
+
+	public PrimitiveFloatList(int initialCapacity) {
+		data = new float[Math.max(1, initialCapacity)];
+	}
+
+	public PrimitiveFloatList(Collection<? extends Float> c) {
+		this(c.size());
+		addAll(c);
+	}
+
+	public float getFloat(int index) {
+		checkIndex(index);
+		return data[index];
+	}
+
+	public void setFloat(int index, float value) {
+		checkIndex(index);
+		data[index] = value;
+	}
+
+	public void addFloat(float value) {
+		ensureCapacity(size + 1);
+		modCount++;
+		data[size++] = value;
+	}
+
+	/**
+	 * @return Copy of the contents
+	 */
+	public float[] toFloatArray() {
+		return Arrays.copyOf(data, size);
+	}
+
+	@Override
+	public Float get(int index) {
+		return getFloat(index);
+	}
+
+	@Override
+	public Float set(int index, Float element) {
+		checkIndex(index);
+		float old = data[index];
+		data[index] = element;
+		return old;
+	}
+
+	@Override
+	public void add(int index, Float element) {
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		float value = element;
+		ensureCapacity(size + 1);
+		System.arraycopy(data, index, data, index + 1, size - index);
+		data[index] = value;
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends Float> c) {
+		ensureCapacity(size + c.size());
+		if (c instanceof PrimitiveFloatList) {
+			PrimitiveFloatList other = (PrimitiveFloatList) c;
+			System.arraycopy(other.data, 0, data, size, other.size);
+			size += other.size;
+		} else {
+			for (Float f : c) {
+				data[size++] = f;
+			}
+		}
+		modCount++;
+		return !c.isEmpty();
+	}
+
+	@Override
+	public Float remove(int index) {
+		checkIndex(index);
+		float old = data[index];
+		System.arraycopy(data, index + 1, data, index, size - index - 1);
+		size--;
+		modCount++;
+		return old;
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		System.arraycopy(data, toIndex, data, fromIndex, size - toIndex);
+		size -= toIndex - fromIndex;
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void checkIndex(int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > data.length)
+			data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+	}
+}
@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import pipeline.plugins.c_plugins.ProtobufSeedsOrCells.SegDirectory;
+import pipeline.plugins.c_plugins.ProtobufSeedsOrCells.SegInfo;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Reads a serialized SegDirectory without parsing it all at once. The constructor only locates the SegInfo of each
+ * cell, and {@link #readCell} parses everything but the segmentation fields of a cell, which are the bulk of the data;
+ * segmentations are only decoded from the retained bytes when {@link LazySegmentations#decodeRuns} or
+ * {@link LazySegmentations#decodeCoordinates} is called (typically from {@link ClickedPoint} the first time a plugin
+ * accesses them). Different cells can be read concurrently.
+ *
+ */
+final class ProtobufCellsReader {
+
+	static final int FULL_SEGMENTATION = 0;
+	static final int PERIMETER_SEGMENTATION = 1;
+	static final int USER_SEGMENTATION = 2;
+
+	private static final int X = 0, Y = 1, Z = 2, RUNS = 3;
+
+	static final int PROTOBUF_INFO_TAG = (SegDirectory.PROTOBUF_INFO_FIELD_NUMBER << 3)
+			| WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+	/**
+	 * Field numbers of the x, y and z coordinates and of the runs of each kind of segmentation.
+	 */
+	private static final int[][] SEGMENTATION_FIELDS = {
+			{ SegInfo.IMAGE_FULLSEG_COORDS_X_FIELD_NUMBER, SegInfo.IMAGE_FULLSEG_COORDS_Y_FIELD_NUMBER,
+					SegInfo.IMAGE_FULLSEG_COORDS_Z_FIELD_NUMBER, SegInfo.IMAGE_FULLSEG_RUNS_FIELD_NUMBER },
+			{ SegInfo.IMAGE_PERIMSEG_COORDS_X_FIELD_NUMBER, SegInfo.IMAGE_PERIMSEG_COORDS_Y_FIELD_NUMBER,
+					SegInfo.IMAGE_PERIMSEG_COORDS_Z_FIELD_NUMBER, SegInfo.IMAGE_PERIMSEG_RUNS_FIELD_NUMBER },
+			{ SegInfo.IMAGE_USERSEG_COORDS_X_FIELD_NUMBER, SegInfo.IMAGE_USERSEG_COORDS_Y_FIELD_NUMBER,
+					SegInfo.IMAGE_USERSEG_COORDS_Z_FIELD_NUMBER, SegInfo.IMAGE_USERSEG_RUNS_FIELD_NUMBER } };
+
+	/**
+	 * Maps field numbers to an index into {@link LazySegmentations#ranges}, or -1 for non-segmentation fields.
+	 */
+	private static final int[] SLOT_OF_FIELD;
+	static {
+		int maxField = 0;
+		for (int[] fields : SEGMENTATION_FIELDS) {
+			for (int field : fields) {
+				maxField = Math.max(maxField, field);
+			}
+		}
+		SLOT_OF_FIELD = new int[maxField + 1];
+		Arrays.fill(SLOT_OF_FIELD, -1);
+		for (int kind = 0; kind < SEGMENTATION_FIELDS.length; kind++) {
+			for (int i = 0; i < 4; i++) {
+				SLOT_OF_FIELD[SEGMENTATION_FIELDS[kind][i]] = kind * 4 + i;
+			}
+		}
+	}
+
+	private static int slotOfField(int field) {
+		return field < SLOT_OF_FIELD.length ? SLOT_OF_FIELD[field] : -1;
+	}
+
+	private final byte[] bytes;
+	private final SegDirectory header;
+	private final int[] cellOffsets;
+	private final int[] cellLengths;
+
+	/**
+	 * @param bytes
+	 *            Serialized SegDirectory; retained by the reader and by the {@link LazySegmentations} it creates, and
+	 *            therefore not to be modified
+	 * @throws InvalidProtocolBufferException
+	 */
+	ProtobufCellsReader(byte[] bytes) throws InvalidProtocolBufferException {
+		this.bytes = bytes;
+		int[] offsets = new int[1024];
+		int[] lengths = new int[1024];
+		int nCells = 0;
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+		try {
+			CodedInputStream input = newInput(0, bytes.length);
+			while (true) {
+				int start = input.getTotalBytesRead();
+				int tag = input.readTag();
+				if (tag == 0)
+					break;
+				if (tag == PROTOBUF_INFO_TAG) {
+					int length = input.readRawVarint32();
+					if (nCells == offsets.length) {
+						offsets = Arrays.copyOf(offsets, nCells * 2);
+						lengths = Arrays.copyOf(lengths, nCells * 2);
+					}
+					offsets[nCells] = input.getTotalBytesRead();
+					lengths[nCells] = length;
+					nCells++;
+					input.skipRawBytes(length);
+				} else {
+					input.skipField(tag);
+					headerBytes.write(bytes, start, input.getTotalBytesRead() - start);
+				}
+			}
+		} catch (InvalidProtocolBufferException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new InvalidProtocolBufferException(e.getMessage());
+		}
+		header = SegDirectory.parseFrom(headerBytes.toByteArray());
+		cellOffsets = Arrays.copyOf(offsets, nCells);
+		cellLengths = Arrays.copyOf(lengths, nCells);
+	}
+
+	private CodedInputStream newInput(int offset, int length) {
+		CodedInputStream input = CodedInputStream.newInstance(bytes, offset, length);
+		input.setSizeLimit(Integer.MAX_VALUE);
+		return input;
+	}
+
+	/**
+	 * @return Image dimensions, calibration and property names, without any cells
+	 */
+	SegDirectory getHeader() {
+		return header;
+	}
+
+	int getNCells() {
+		return cellOffsets.length;
+	}
+
+	static final class Cell {
+		/**
+		 * Fields of the cell, without segmentation fields if {@link #segmentations} is not null.
+		 */
+		final SegInfo info;
+		/**
+		 * Null if the cell has no segmentation, or if it was fully parsed into {@link #info} because its segmentation
+		 * fields were not in the expected packed format.
+		 */
+		final LazySegmentations segmentations;
+
+		Cell(SegInfo info, LazySegmentations segmentations) {
+			this.info = info;
+			this.segmentations = segmentations;
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return Cell with lazily-decoded segmentations
+	 * @throws InvalidProtocolBufferException
+	 */
+	Cell readCell(int index) throws InvalidProtocolBufferException {
+		int offset = cellOffsets[index];
+		int length = cellLengths[index];
+		ByteArrayOutputStream otherFields = new ByteArrayOutputStream(256);
+		int[] ranges = null;
+		try {
+			CodedInputStream input = newInput(offset, length);
+			while (true) {
+				int start = offset + input.getTotalBytesRead();
+				int tag = input.readTag();
+				if (tag == 0)
+					break;
+				int slot = slotOfField(WireFormat.getTagFieldNumber(tag));
+				if (slot < 0) {
+					input.skipField(tag);
+					otherFields.write(bytes, start, offset + input.getTotalBytesRead() - start);
+					continue;
+				}
+				if (ranges == null) {
+					ranges = new int[SEGMENTATION_FIELDS.length * 4 * 2];
+					Arrays.fill(ranges, -1);
+				}
+				if ((tag & 7) != WireFormat.WIRETYPE_LENGTH_DELIMITED || ranges[slot * 2] != -1) {
+					// Unpacked or split field, as allowed by the protobuf spec but never written by us or by
+					// the C plugins; let the generated code deal with it
+					return new Cell(SegInfo.parseFrom(newInput(offset, length)), null);
+				}
+				input.skipField(tag);
+				ranges[slot * 2] = start;
+				ranges[slot * 2 + 1] = offset + input.getTotalBytesRead();
+			}
+		} catch (InvalidProtocolBufferException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new InvalidProtocolBufferException(e.getMessage());
+		}
+		SegInfo info = SegInfo.parseFrom(otherFields.toByteArray());
+		return new Cell(info, ranges == null ? null : new LazySegmentations(ranges));
+	}
+
+	/**
+	 * Location of the segmentation fields of a cell within the retained bytes. Immutable, so it can be shared
+	 * between clones of a {@link ClickedPoint}.
+	 */
+	final class LazySegmentations {
+		/**
+		 * Start (offset of the tag) and end of each segmentation field, or -1 if the field is absent.
+		 */
+		private final int[] ranges;
+
+		private LazySegmentations(int[] ranges) {
+			this.ranges = ranges;
+		}
+
+		private int[] decodeField(int kind, int component) {
+			int slot = kind * 4 + component;
+			int start = ranges[slot * 2];
+			if (start == -1)
+				return null;
+			try {
+				CodedInputStream input = newInput(start, ranges[slot * 2 + 1] - start);
+				input.readTag();
+				int length = input.readRawVarint32();
+				int payloadStart = start + input.getTotalBytesRead();
+				// Each varint ends with a byte whose most significant bit is clear
+				int n = 0;
+				for (int i = payloadStart; i < payloadStart + length; i++) {
+					if (bytes[i] >= 0)
+						n++;
+				}
+				int[] result = new int[n];
+				for (int i = 0; i < n; i++) {
+					result[i] = input.readInt32();
+				}
+				return result;
+			} catch (IOException e) {
+				throw new RuntimeException("Corrupt segmentation in protobuf", e);
+			}
+		}
+
+		/**
+		 * @param kind
+		 *            {@link #FULL_SEGMENTATION}, {@link #PERIMETER_SEGMENTATION} or {@link #USER_SEGMENTATION}
+		 * @return Runs stored for that segmentation, or null if there are none
+		 */
+		RunLengthSegmentation decodeRuns(int kind) {
+			return RunLengthSegmentation.fromRuns(decodeField(kind, RUNS));
+		}
+
+		/**
+		 * @param kind
+		 * @return {x, y, z} coordinate arrays, each of which is null if not stored
+		 */
+		int[][] decodeCoordinates(int kind) {
+			return new int[][] { decodeField(kind, X), decodeField(kind, Y), decodeField(kind, Z) };
+		}
+
+		boolean hasRuns(int kind) {
+			return ranges[(kind * 4 + RUNS) * 2] != -1;
+		}
+
+		/**
+		 * Copy the fields of a segmentation as they were read, without decoding them.
+		 *
+		 * @param kind
+		 * @param output
+		 * @throws IOException
+		 */
+		void copyFields(int kind, CodedOutputStream output) throws IOException {
+			for (int component = 0; component < 4; component++) {
+				int slot = kind * 4 + component;
+				int start = ranges[slot * 2];
+				if (start != -1)
+					output.writeRawBytes(bytes, start, ranges[slot * 2 + 1] - start);
+			}
+		}
+
+		/**
+		 * @param kind
+		 * @return Number of bytes written by {@link #copyFields}
+		 */
+		int getFieldsSize(int kind) {
+			int size = 0;
+			for (int component = 0; component < 4; component++) {
+				int slot = kind * 4 + component;
+				if (ranges[slot * 2] != -1)
+					size += ranges[slot * 2 + 1] - ranges[slot * 2];
+			}
+			return size;
+		}
+	}
+}
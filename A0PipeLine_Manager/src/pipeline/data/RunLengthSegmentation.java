@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Set of voxels stored as runs of consecutive x coordinates: each run is a (z, y, x start, length) quadruple, and runs
+ * are sorted by z, then y, then x, without overlaps. A solid segmentation of n voxels therefore takes on the order of
+ * 4 n^(2/3) ints instead of the 3 n ints of separate x, y and z coordinate arrays.
+ * Instances are immutable, so they can be shared between clones of {@link ClickedPoint}.
+ *
+ */
+public final class RunLengthSegmentation implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final RunLengthSegmentation EMPTY = new RunLengthSegmentation(new int[0], 0);
+
+	/**
+	 * (z, y, x start, length) quadruples.
+	 */
+	private final int[] runs;
+	private final int nVoxels;
+
+	private RunLengthSegmentation(int[] runs, int nVoxels) {
+		this.runs = runs;
+		this.nVoxels = nVoxels;
+	}
+
+	/**
+	 * Used by {@link #forEachVoxel}.
+	 */
+	public interface VoxelConsumer {
+		void accept(int x, int y, int z);
+	}
+
+	/**
+	 * Iterates over voxels in run order; {@link #x}, {@link #y} and {@link #z} hold the coordinates of the current
+	 * voxel after each call to {@link #next} that returned true.
+	 */
+	public final class Cursor {
+		public int x, y, z;
+		private int runIndex = -4;
+		private int xEnd;
+
+		private Cursor() {
+		}
+
+		public boolean next() {
+			if (runIndex >= 0 && ++x < xEnd)
+				return true;
+			do {
+				runIndex += 4;
+				if (runIndex >= runs.length)
+					return false;
+			} while (runs[runIndex + 3] == 0);
+			z = runs[runIndex];
+			y = runs[runIndex + 1];
+			x = runs[runIndex + 2];
+			xEnd = x + runs[runIndex + 3];
+			return true;
+		}
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return Run-length encoding of the voxels whose coordinates are given by x[i], y[i], z[i] (duplicates are
+	 *         only stored once), or null if any of the arrays is null or if their lengths differ
+	 */
+	public static RunLengthSegmentation fromCoordinates(int[] x, int[] y, int[] z) {
+		if (x == null || y == null || z == null || x.length != y.length || x.length != z.length)
+			return null;
+		int n = x.length;
+		if (n == 0)
+			return EMPTY;
+
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+			minZ = Math.min(minZ, z[i]);
+			maxZ = Math.max(maxZ, z[i]);
+		}
+
+		// Sort voxels by packing their coordinates, relative to the bounding box, into longs
+		final long spanX = (long) maxX - minX + 1;
+		final long spanY = (long) maxY - minY + 1;
+		final long spanZ = (long) maxZ - minZ + 1;
+		if (spanX * spanY > Long.MAX_VALUE / spanZ)
+			throw new IllegalArgumentException("Segmentation bounding box is too large to be run-length encoded");
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = ((z[i] - (long) minZ) * spanY + (y[i] - (long) minY)) * spanX + (x[i] - (long) minX);
+		}
+		Arrays.sort(keys);
+
+		int[] runs = new int[16];
+		int nRuns = 0;
+		int nVoxels = 0;
+		long previous = -2;
+		for (long key : keys) {
+			if (key == previous)
+				continue;
+			nVoxels++;
+			if (key == previous + 1 && key % spanX != 0) {
+				runs[(nRuns - 1) * 4 + 3]++;
+			} else {
+				if ((nRuns + 1) * 4 > runs.length)
+					runs = Arrays.copyOf(runs, runs.length * 2);
+				int base = nRuns * 4;
+				long row = key / spanX;
+				runs[base] = (int) (row / spanY + minZ);
+				runs[base + 1] = (int) (row % spanY + minY);
+				runs[base + 2] = (int) (key % spanX + minX);
+				runs[base + 3] = 1;
+				nRuns++;
+			}
+			previous = key;
+		}
+		return new RunLengthSegmentation(Arrays.copyOf(runs, nRuns * 4), nVoxels);
+	}
+
+	/**
+	 * @param runs
+	 *            (z, y, x start, length) quadruples, as returned by {@link #getRuns}; the array is not copied and
+	 *            must not be modified afterwards
+	 * @return Segmentation made of those runs, or null if runs is null
+	 * @throws IllegalArgumentException
+	 *             If the runs are not well formed
+	 */
+	public static RunLengthSegmentation fromRuns(int[] runs) {
+		if (runs == null)
+			return null;
+		if (runs.length % 4 != 0)
+			throw new IllegalArgumentException("Number of run components " + runs.length + " is not a multiple of 4");
+		if (runs.length == 0)
+			return EMPTY;
+		long nVoxels = 0;
+		for (int i = 0; i < runs.length; i += 4) {
+			if (runs[i + 3] < 0)
+				throw new IllegalArgumentException("Negative run length " + runs[i + 3]);
+			if (i > 0 && compareRuns(runs, i - 4, i) >= 0)
+				throw new IllegalArgumentException("Runs are not sorted or overlap at run " + i / 4);
+			nVoxels += runs[i + 3];
+		}
+		if (nVoxels > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many voxels in segmentation");
+		return new RunLengthSegmentation(runs, (int) nVoxels);
+	}
+
+	/**
+	 * @return Negative if run at index a ends before run at index b starts, positive or 0 otherwise
+	 */
+	private static int compareRuns(int[] runs, int a, int b) {
+		if (runs[a] != runs[b])
+			return Integer.compare(runs[a], runs[b]);
+		if (runs[a + 1] != runs[b + 1])
+			return Integer.compare(runs[a + 1], runs[b + 1]);
+		return Long.compare((long) runs[a + 2] + runs[a + 3], runs[b + 2] + 1L);
+	}
+
+	/**
+	 * @return (z, y, x start, length) quadruples; the array is shared and must not be modified
+	 */
+	public int[] getRuns() {
+		return runs;
+	}
+
+	public int getNRuns() {
+		return runs.length / 4;
+	}
+
+	public int getNVoxels() {
+		return nVoxels;
+	}
+
+	public boolean isEmpty() {
+		return nVoxels == 0;
+	}
+
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	public void forEachVoxel(VoxelConsumer consumer) {
+		for (int i = 0; i < runs.length; i += 4) {
+			int z = runs[i];
+			int y = runs[i + 1];
+			int xEnd = runs[i + 2] + runs[i + 3];
+			for (int x = runs[i + 2]; x < xEnd; x++) {
+				consumer.accept(x, y, z);
+			}
+		}
+	}
+
+	/**
+	 * @return {x, y, z} coordinate arrays, in run order
+	 */
+	public int[][] toCoordinates() {
+		int[] x = new int[nVoxels];
+		int[] y = new int[nVoxels];
+		int[] z = new int[nVoxels];
+		int n = 0;
+		for (int i = 0; i < runs.length; i += 4) {
+			int length = runs[i + 3];
+			Arrays.fill(z, n, n + length, runs[i]);
+			Arrays.fill(y, n, n + length, runs[i + 1]);
+			for (int j = 0; j < length; j++) {
+				x[n + j] = runs[i + 2] + j;
+			}
+			n += length;
+		}
+		return new int[][] { x, y, z };
+	}
+
+	/**
+	 * @return {minX, maxX, minY, maxY, minZ, maxZ}, or null if the segmentation is empty
+	 */
+	public int[] getBoundingBox() {
+		if (nVoxels == 0)
+			return null;
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < runs.length; i += 4) {
+			if (runs[i + 3] == 0)
+				continue;
+			minY = Math.min(minY, runs[i + 1]);
+			maxY = Math.max(maxY, runs[i + 1]);
+			minX = Math.min(minX, runs[i + 2]);
+			maxX = Math.max(maxX, runs[i + 2] + runs[i + 3] - 1);
+		}
+		int minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+		for (int i = 0; i < runs.length; i += 4) {
+			if (runs[i + 3] != 0) {
+				minZ = runs[i];
+				break;
+			}
+		}
+		for (int i = runs.length - 4; i >= 0; i -= 4) {
+			if (runs[i + 3] != 0) {
+				maxZ = runs[i];
+				break;
+			}
+		}
+		return new int[] { minX, maxX, minY, maxY, minZ, maxZ };
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return True if the voxel belongs to the segmentation; runs the search in time logarithmic in the number of runs
+	 */
+	public boolean contains(int x, int y, int z) {
+		int low = 0, high = runs.length / 4 - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int i = mid * 4;
+			int cmp;
+			if (runs[i] != z)
+				cmp = Integer.compare(runs[i], z);
+			else if (runs[i + 1] != y)
+				cmp = Integer.compare(runs[i + 1], y);
+			else if (x < runs[i + 2])
+				cmp = 1;
+			else if (x >= (long) runs[i + 2] + runs[i + 3])
+				cmp = -1;
+			else
+				return true;
+			if (cmp < 0)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof RunLengthSegmentation))
+			return false;
+		return Arrays.equals(runs, ((RunLengthSegmentation) o).runs);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(runs);
+	}
+}
@@ -22,4 +22,41 @@ public interface SliceAccessor {
 
 	public float getFloat(int x, int y, int z) throws IOException;
 
+	/**
+	 * Copy a rectangular region of a slice into destinationArray, converting pixels to float. Implementations backed by
+	 * a file should only read the parts of the file that hold the region.
+	 * 
+	 * @param sliceIndex
+	 * @param cachePolicy
+	 * @param x0
+	 *            Left edge of the region
+	 * @param y0
+	 *            Top edge of the region
+	 * @param width
+	 * @param height
+	 * @param destinationArray
+	 *            Receives the region, row by row; must hold at least width * height pixels
+	 * @throws IOException
+	 */
+	public void copyPixelRegionIntoArray(int sliceIndex, int cachePolicy, int x0, int y0, int width, int height,
+			float[] destinationArray) throws IOException;
+
+	/**
+	 * Copy a box of pixels into destinationArray, converting them to float.
+	 * 
+	 * @param x0
+	 * @param y0
+	 * @param z0
+	 *            Index of the first slice
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param cachePolicy
+	 * @param destinationArray
+	 *            Receives the box, slice by slice and row by row; must hold at least width * height * depth pixels
+	 * @throws IOException
+	 */
+	public void copyPixelBoxIntoArray(int x0, int y0, int z0, int width, int height, int depth, int cachePolicy,
+			float[] destinationArray) throws IOException;
+
 }
@@ -34,4 +34,29 @@ public class SliceAccessorAdapter implements SliceAccessor {
 		throw new RuntimeException("Unimplemented");
 	}
 
+	/**
+	 * Reads the region one pixel at a time with {@link #getFloat}; subclasses that can do better should override.
+	 */
+	@Override
+	public void copyPixelRegionIntoArray(int sliceIndex, int cachePolicy, int x0, int y0, int width, int height,
+			float[] destinationArray) throws IOException {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				destinationArray[y * width + x] = getFloat(x0 + x, y0 + y, sliceIndex);
+			}
+		}
+	}
+
+	@Override
+	public void copyPixelBoxIntoArray(int x0, int y0, int z0, int width, int height, int depth, int cachePolicy,
+			float[] destinationArray) throws IOException {
+		int sliceSize = width * height;
+		float[] slice = depth == 1 ? destinationArray : new float[sliceSize];
+		for (int z = 0; z < depth; z++) {
+			copyPixelRegionIntoArray(z0 + z, cachePolicy, x0, y0, width, height, slice);
+			if (slice != destinationArray)
+				System.arraycopy(slice, 0, destinationArray, z * sliceSize, sliceSize);
+		}
+	}
+
 }
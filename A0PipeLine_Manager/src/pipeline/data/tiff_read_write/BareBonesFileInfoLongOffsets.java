@@ -93,6 +93,7 @@ public class BareBonesFileInfoLongOffsets implements Cloneable {
 	public static final int LZW_WITH_DIFFERENCING = 3;
 	public static final int JPEG = 4;
 	public static final int PACK_BITS = 5;
+	public static final int ZIP = 6;
 
 	/* File format (TIFF, GIF_OR_JPG, BMP, etc.). Used by the File/Revert command */
 	// public int fileFormat;
@@ -115,6 +116,12 @@ public class BareBonesFileInfoLongOffsets implements Cloneable {
 	public long[] stripOffsets;
 	public long[] stripLengths;
 	public int rowsPerStrip;
+	/**
+	 * Non-zero for tiled images, in which case stripOffsets and stripLengths hold the offsets and byte counts of the
+	 * tiles, in row-major order.
+	 */
+	public int tileWidth;
+	public int tileLength;
 	public int lutSize;
 	public byte[] reds;
 	public byte[] greens;
@@ -74,6 +74,10 @@ class BigTiffDecoder {
 	private static final int HOST_COMPUTER = 316;
 	private static final int PREDICTOR = 317;
 	private static final int COLOR_MAP = 320;
+	private static final int TILE_WIDTH = 322;
+	private static final int TILE_LENGTH = 323;
+	private static final int TILE_OFFSETS = 324;
+	private static final int TILE_BYTE_COUNTS = 325;
 	private static final int SAMPLE_FORMAT = 339;
 	private static final int JPEG_TABLES = 347;
 	private static final int METAMORPH1 = 33628;
@@ -512,6 +516,18 @@ class BigTiffDecoder {
 			case COLOR_MAP:
 				name = "ColorMap";
 				break;
+			case TILE_WIDTH:
+				name = "TileWidth";
+				break;
+			case TILE_LENGTH:
+				name = "TileLength";
+				break;
+			case TILE_OFFSETS:
+				name = "TileOffsets";
+				break;
+			case TILE_BYTE_COUNTS:
+				name = "TileByteCounts";
+				break;
 			case SAMPLE_FORMAT:
 				name = "SampleFormat";
 				break;
@@ -606,6 +622,14 @@ class BigTiffDecoder {
 				case IMAGE_LENGTH:
 					fi.height = value;
 					break;
+				case TILE_WIDTH:
+					fi.tileWidth = value;
+					break;
+				case TILE_LENGTH:
+					fi.tileLength = value;
+					break;
+				case TILE_OFFSETS:
+					// Tiles are read through the same arrays as strips
 				case STRIP_OFFSETS:
 					if (count == 1) {
 						fi.stripOffsets = new long[] { lvalue };
@@ -653,6 +677,7 @@ class BigTiffDecoder {
 
 					// Utils.log("Finally set the fi.offset to "+fi.offset,7);
 					break;
+				case TILE_BYTE_COUNTS:
 				case STRIP_BYTE_COUNT:
 					if (count == 1)
 						fi.stripLengths = new long[] { value };
@@ -748,6 +773,8 @@ class BigTiffDecoder {
 						fi.compression = BareBonesFileInfoLongOffsets.LZW;
 					else if (value == 32773) // PackBits compression
 						fi.compression = BareBonesFileInfoLongOffsets.PACK_BITS;
+					else if (value == 8 || value == 32946) // Deflate compression
+						fi.compression = BareBonesFileInfoLongOffsets.ZIP;
 					else if (value != 1 && value != 0 && !(value == 7 && fi.width < 500)) {
 						// don't abort with Spot camera compressed (7) thumbnails
 						// otherwise, this is an unknown compression type
@@ -1209,7 +1236,11 @@ class BigTiffDecoder {
 				if (debugMode)
 					Utils.log("  nextIFD=" + ifdOffset + "\n", LogLevel.DEBUG);
 			if (fi != null) {
-				if (fi.nImages > 1) { // ignore extra IFDs in ImageJ and NIH Image stacks
+				// ignore extra IFDs in ImageJ and NIH Image stacks, unless strips are compressed or the image is
+				// tiled, in which case their offsets cannot be inferred from the first IFD
+				if (fi.nImages > 1 && fi.tileWidth == 0
+						&& (fi.compression == BareBonesFileInfoLongOffsets.COMPRESSION_NONE
+						|| fi.compression == BareBonesFileInfoLongOffsets.COMPRESSION_UNKNOWN)) {
 					ifdOffset = 0L;
 					Utils.log("Ignoring extra IFDs", LogLevel.DEBUG);
 				}
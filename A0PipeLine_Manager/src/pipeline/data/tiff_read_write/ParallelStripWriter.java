@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data.tiff_read_write;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import pipeline.misc_util.Utils;
+import pipeline.misc_util.Utils.LogLevel;
+import pipeline.plugins.BasePipelinePlugin;
+
+/**
+ * Compresses slices in parallel on the pipeline thread pool, each as a single strip or as a set of tiles, while a single
+ * I/O task writes the compressed strips or tiles one after the other, in slice order, starting at a given file offset.
+ * Tiles can also be written uncompressed. The number of slices that
+ * have been submitted but not written yet is bounded, so that slow disks throttle slice producers instead of letting
+ * compressed data pile up in memory.
+ *
+ */
+class ParallelStripWriter {
+
+	private final FileChannel channel;
+	private final int compression;
+	/**
+	 * Null if each slice is written as a single strip.
+	 */
+	private final TileLayout tiles;
+	private final long[][] stripOffsets;
+	private final long[][] stripByteCounts;
+	private final Semaphore slicesInFlight;
+	/**
+	 * Compressed strips or tiles of each slice, in slice order; a Future whose result is null marks the end of the
+	 * stream.
+	 */
+	private final LinkedBlockingQueue<Future<byte[][]>> pendingWrites = new LinkedBlockingQueue<>();
+	private final Future<?> ioTask;
+
+	private long nextOffset;
+	private int nSubmitted = 0;
+	private int nWritten = 0;
+	private volatile Throwable error;
+	private boolean finished = false;
+
+	/**
+	 * @param channel
+	 *            Channel to write to; positional writes are used, so its position is not modified
+	 * @param startOffset
+	 *            File offset at which to write the first strip
+	 * @param compression
+	 *            One of the compression constants in {@link BareBonesFileInfoLongOffsets} supported by
+	 *            {@link TiffStripCodec}, or {@link BareBonesFileInfoLongOffsets#COMPRESSION_NONE} if tiles is not null
+	 * @param nSlices
+	 *            Maximal number of slices that will be written
+	 * @param tiles
+	 *            Tile geometry, or null to write each slice as a single strip
+	 */
+	ParallelStripWriter(FileChannel channel, long startOffset, int compression, int nSlices, TileLayout tiles) {
+		if (!TiffStripCodec.canCompress(compression)
+				&& !(tiles != null && compression == BareBonesFileInfoLongOffsets.COMPRESSION_NONE))
+			throw new IllegalArgumentException("Unsupported compression " + compression);
+		this.channel = channel;
+		this.compression = compression;
+		this.tiles = tiles;
+		nextOffset = startOffset;
+		stripOffsets = new long[nSlices][];
+		stripByteCounts = new long[nSlices][];
+		slicesInFlight = new Semaphore(2 * Runtime.getRuntime().availableProcessors());
+		ioTask = BasePipelinePlugin.threadPool.submit(this::writeStrips);
+	}
+
+	/**
+	 * Queue a slice for compression and writing. sliceBytes is handed over to the compression task, and must not be
+	 * modified by the caller afterwards.
+	 *
+	 * @param sliceBytes
+	 *            Uncompressed pixels, in the byte order of the file
+	 * @throws IOException
+	 *             If compression or writing of a previous slice failed
+	 * @throws InterruptedException
+	 */
+	void submit(final byte[] sliceBytes) throws IOException, InterruptedException {
+		checkError();
+		if (finished)
+			throw new IllegalStateException("Cannot submit slices after finish has been called");
+		if (nSubmitted == stripOffsets.length)
+			throw new IllegalStateException("Trying to write more than " + stripOffsets.length + " slices");
+		slicesInFlight.acquire();
+		nSubmitted++;
+		pendingWrites.add(BasePipelinePlugin.threadPool.submit(() -> encode(sliceBytes)));
+	}
+
+	private byte[] compress(byte[] bytes) {
+		if (compression == BareBonesFileInfoLongOffsets.COMPRESSION_NONE)
+			return bytes;
+		return TiffStripCodec.compress(bytes, compression);
+	}
+
+	private byte[][] encode(byte[] sliceBytes) {
+		if (tiles == null)
+			return new byte[][] { compress(sliceBytes) };
+		byte[][] result = new byte[tiles.getNTiles()][];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = compress(tiles.extractTile(sliceBytes, i));
+		}
+		return result;
+	}
+
+	private void writeStrips() {
+		try {
+			while (true) {
+				byte[][] strips = pendingWrites.take().get();
+				if (strips == null)
+					break;
+				long[] offsets = new long[strips.length];
+				long[] byteCounts = new long[strips.length];
+				long position = nextOffset;
+				for (int i = 0; i < strips.length; i++) {
+					offsets[i] = position;
+					byteCounts[i] = strips[i].length;
+					ByteBuffer buffer = ByteBuffer.wrap(strips[i]);
+					while (buffer.hasRemaining()) {
+						position += channel.write(buffer, position);
+					}
+				}
+				synchronized (this) {
+					stripOffsets[nWritten] = offsets;
+					stripByteCounts[nWritten] = byteCounts;
+					nWritten++;
+					nextOffset = position;
+				}
+				slicesInFlight.release();
+			}
+		} catch (InterruptedException e) {
+			Utils.log("Strip writer interrupted", LogLevel.DEBUG);
+			error = e;
+		} catch (ExecutionException e) {
+			Utils.printStack(e);
+			error = e.getCause();
+		} catch (Throwable e) {
+			Utils.printStack(e);
+			error = e;
+		} finally {
+			// Unblock any producer waiting for room
+			slicesInFlight.release(stripOffsets.length + 1);
+		}
+	}
+
+	private void checkError() throws IOException {
+		Throwable t = error;
+		if (t == null)
+			return;
+		if (t instanceof IOException)
+			throw (IOException) t;
+		throw new IOException("Error while compressing or writing TIFF strips", t);
+	}
+
+	/**
+	 * Wait for all submitted slices to be written.
+	 *
+	 * @throws IOException
+	 */
+	void finish() throws IOException {
+		if (!finished) {
+			finished = true;
+			pendingWrites.add(CompletableFuture.completedFuture(null));
+		}
+		try {
+			ioTask.get();
+		} catch (InterruptedException e) {
+			ioTask.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for TIFF strips to be written", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		checkError();
+	}
+
+	/**
+	 * Stop writing without waiting for pending slices.
+	 */
+	void abort() {
+		finished = true;
+		ioTask.cancel(true);
+	}
+
+	synchronized int getNWritten() {
+		return nWritten;
+	}
+
+	/**
+	 * @param slice
+	 * @return Offsets of the strip or tiles of slice
+	 */
+	synchronized long[] getStripOffsets(int slice) {
+		return stripOffsets[slice];
+	}
+
+	synchronized long[] getStripByteCounts(int slice) {
+		return stripByteCounts[slice];
+	}
+
+	/**
+	 * @return File offset just past the last strip written
+	 */
+	synchronized long getEndOffset() {
+		return nextOffset;
+	}
+}
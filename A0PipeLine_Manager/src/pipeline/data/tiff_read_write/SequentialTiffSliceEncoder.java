@@ -6,6 +6,7 @@ import ij.io.TiffDecoder;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
@@ -18,12 +19,19 @@ import pipeline.misc_util.Utils.LogLevel;
  * Copied from ImageJ 1.43r source, modified by Olivier Cinquin to allow for sequential slice writing and to support
  * BigTIFF.
  * Added a new constructor and methods beginWriting, writeSlice, and finishWriting. Added partial support for BigTIFF.
+ * Slices can optionally be compressed (see {@link ParallelStripWriter}); in that case they must be written in order,
+ * and the IFDs are filled in with strip offsets and sizes once all slices have been written.
  */
 class SequentialTiffSliceEncoder {
 	private int HDR_SIZE = 8;
 	private static final int MAP_SIZE = 768; // in 16-bit words
 	private static final int BPS_DATA_SIZE = 6;
 	private static final int SCALE_DATA_SIZE = 16;
+	private static final int TILE_WIDTH = 322;
+	private static final int TILE_LENGTH = 323;
+	private static final int TILE_OFFSETS = 324;
+	private static final int TILE_BYTE_COUNTS = 325;
+	private static final int TIFF_LONG8 = 16;
 
 	private FileInfo fi;
 	private int bitsPerSample;
@@ -47,8 +55,49 @@ class SequentialTiffSliceEncoder {
 
 	private boolean bigTiff = true;
 
+	/**
+	 * One of the compression constants in {@link BareBonesFileInfoLongOffsets}.
+	 */
+	private final int compression;
+
+	/**
+	 * Null if slices are stored as strips.
+	 */
+	private final TileLayout tiles;
+
 	public SequentialTiffSliceEncoder(FileInfo fi, int width, int height, int depth, RandomAccessFile out,
 			boolean useBigTIFF) {
+		this(fi, width, height, depth, out, useBigTIFF, BareBonesFileInfoLongOffsets.COMPRESSION_NONE);
+	}
+
+	public SequentialTiffSliceEncoder(FileInfo fi, int width, int height, int depth, RandomAccessFile out,
+			boolean useBigTIFF, int compression) {
+		this(fi, width, height, depth, out, useBigTIFF, compression, 0, 0);
+	}
+
+	/**
+	 * @param fi
+	 * @param width
+	 * @param height
+	 * @param depth
+	 * @param out
+	 * @param useBigTIFF
+	 * @param compression
+	 *            {@link BareBonesFileInfoLongOffsets#COMPRESSION_NONE}, {@link BareBonesFileInfoLongOffsets#LZW}, or
+	 *            {@link BareBonesFileInfoLongOffsets#ZIP}
+	 * @param tileWidth
+	 *            0 to store slices as strips; otherwise width of tiles, which must be a multiple of 16
+	 * @param tileLength
+	 *            Height of tiles, which must be a multiple of 16 if tileWidth is not 0
+	 */
+	public SequentialTiffSliceEncoder(FileInfo fi, int width, int height, int depth, RandomAccessFile out,
+			boolean useBigTIFF, int compression, int tileWidth, int tileLength) {
+		if (compression != BareBonesFileInfoLongOffsets.COMPRESSION_NONE && !TiffStripCodec.canCompress(compression))
+			throw new IllegalArgumentException("Unsupported compression " + compression);
+		if (tileWidth != 0 && (tileWidth % 16 != 0 || tileLength <= 0 || tileLength % 16 != 0))
+			throw new IllegalArgumentException("TIFF tile dimensions must be multiples of 16; got " + tileWidth + "x"
+					+ tileLength);
+		this.compression = compression;
 		bigTiff = useBigTIFF;
 		if (bigTiff)
 			HDR_SIZE = 16;
@@ -103,6 +152,15 @@ class SequentialTiffSliceEncoder {
 			nEntries += 3; // XResolution, YResolution and ResolutionUnit
 		if (fi.fileType == FileInfo.GRAY32_FLOAT)
 			nEntries++; // SampleFormat tag
+		if (tileWidth != 0)
+			tiles = new TileLayout(width, height, tileWidth, tileLength, bytesPerPixel);
+		else
+			tiles = null;
+		if (isEncoded())
+			nEntries++; // Compression tag
+		if (tiles != null)
+			nEntries++; // TileWidth, TileLength, TileOffsets and TileByteCounts replace StripOffsets, RowsPerStrip
+						// and StripByteCounts
 
 		makeDescriptionString();
 		if (description != null)
@@ -148,6 +206,22 @@ class SequentialTiffSliceEncoder {
 	private FileInfo singleSliceFi = null;
 	private RandomAccessFile out;
 
+	private ParallelStripWriter stripWriter;
+
+	/**
+	 * File positions of the values of the StripOffsets and StripByteCounts entries of the last IFD that was written.
+	 */
+	private long stripOffsetValuePosition, stripByteCountValuePosition;
+	private long firstStripOffsetValuePosition, firstStripByteCountValuePosition;
+
+	/**
+	 * @return True if slices are compressed or tiled, in which case they are encoded by {@link ParallelStripWriter}
+	 *         and their IFDs are only written after all the pixel data
+	 */
+	private boolean isEncoded() {
+		return compression != BareBonesFileInfoLongOffsets.COMPRESSION_NONE || tiles != null;
+	}
+
 	/**
 	 * Write the TIFF header. Must be called before any call to writeSlice is made. The correct number of slices must
 	 * have been
@@ -162,12 +236,15 @@ class SequentialTiffSliceEncoder {
 		}
 		writeHeader(out);
 		nextIFD = 0L;
-		if (fi.nImages > 1)
+		if (fi.nImages > 1 && !isEncoded())
 			nextIFD = imageOffset + stackSize;// leave free space for all the pixels
 		// if (nextIFD+fi.nImages*ifdSize>=0xffffffffL)
 		// nextIFD = 0L;
-		secondSliceIFDOffset = writeIFD(out, imageOffset, nextIFD);// IFD for slices after the first slice will be
-																	// located after all stack pixel data
+		// For compressed slices, strip size and location of the next IFD are filled in once all slices are written
+		secondSliceIFDOffset = writeIFD(out, imageOffset, isEncoded() ? 0 : imageSize, nextIFD);// IFD for slices
+		// after the first slice will be located after all stack pixel data
+		firstStripOffsetValuePosition = stripOffsetValuePosition;
+		firstStripByteCountValuePosition = stripByteCountValuePosition;
 		if ((!bigTiff) && (fi.fileType == FileInfo.RGB || fi.fileType == FileInfo.RGB48))
 			writeBitsPerPixel(out);
 		if (description != null)
@@ -182,7 +259,10 @@ class SequentialTiffSliceEncoder {
 		singleSliceFi = (FileInfo) fi.clone();
 		singleSliceFi.nImages = 1;
 		singleSliceFi.intelByteOrder = littleEndian;
-		writer = new ImageWriterNIO(singleSliceFi, bytesPerPixel, out);
+		if (isEncoded())
+			stripWriter = new ParallelStripWriter(out.getChannel(), imageOffset, compression, fi.nImages, tiles);
+		else
+			writer = new ImageWriterNIO(singleSliceFi, bytesPerPixel, out);
 		setupDone = true;
 	}
 
@@ -197,6 +277,23 @@ class SequentialTiffSliceEncoder {
 	final public void dumpBufferIntoSlice(ByteBuffer buffer, int slice) throws IOException, InterruptedException {
 		if (nSlicesWritten == fi.nImages)
 			throw new RuntimeException("Trying to write more slices than the number previously declared: " + fi.nImages);
+		if (isEncoded()) {
+			if (slice != nSlicesWritten)
+				throw new IllegalStateException("Compressed or tiled slices must be written in order; expected slice "
+						+ nSlicesWritten + " but got " + slice);
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			buffer.clear();
+			if (bytes.length != imageSize)
+				throw new IOException("Got " + bytes.length + " bytes for slice " + slice + " but " + imageSize
+						+ " were expected");
+			stripWriter.submit(bytes);
+			nSlicesWritten++;
+			if (nSlicesWritten == fi.nImages) {
+				finishWriting();
+			}
+			return;
+		}
 		int written = writer.dumpBufferAtPosition(buffer, imageOffset + slice * imageSize);// file offset ignored for
 																							// now
 		if (written != imageSize)
@@ -240,6 +337,14 @@ class SequentialTiffSliceEncoder {
 			throw new RuntimeException("Trying to write a slice before the TIFF header has been written");
 		if (nSlicesWritten == fi.nImages)
 			throw new RuntimeException("Trying to write more slices than the number previously declared: " + fi.nImages);
+		if (isEncoded()) {
+			stripWriter.submit(toBytes(pixels));
+			nSlicesWritten++;
+			if (nSlicesWritten == fi.nImages) {
+				finishWriting();
+			}
+			return;
+		}
 		singleSliceFi.pixels = pixels;
 		writer.write();
 		nSlicesWritten++;
@@ -258,12 +363,118 @@ class SequentialTiffSliceEncoder {
 		}
 	}
 
+	/**
+	 * @param pixels
+	 *            float[], short[] or byte[]
+	 * @return Copy of pixels in the byte order of the file
+	 */
+	private byte[] toBytes(Object pixels) {
+		if (pixels instanceof byte[])
+			return ((byte[]) pixels).clone();
+		ByteBuffer buffer;
+		if (pixels instanceof float[]) {
+			float[] floatPixels = (float[]) pixels;
+			buffer = ByteBuffer.allocate(floatPixels.length * 4);
+			buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			buffer.asFloatBuffer().put(floatPixels);
+		} else if (pixels instanceof short[]) {
+			short[] shortPixels = (short[]) pixels;
+			buffer = ByteBuffer.allocate(shortPixels.length * 2);
+			buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			buffer.asShortBuffer().put(shortPixels);
+		} else
+			throw new RuntimeException("Unknown pixel type " + pixels);
+		return buffer.array();
+	}
+
+	/**
+	 * Overwrite an offset or count that has already been written, without changing nBytesWritten.
+	 */
+	private void patchValue(long position, long value) throws IOException {
+		long saveNBytesWritten = nBytesWritten;
+		out.seek(position);
+		if (bigTiff)
+			writeLong(out, value);
+		else
+			writeInt(out, (int) value);
+		nBytesWritten = saveNBytesWritten;
+	}
+
+	/**
+	 * Write an array of strip or tile offsets or byte counts at the current file position, unless it only has one
+	 * element, in which case it fits in the IFD entry.
+	 * 
+	 * @return Value to store in the IFD entry: the position of the array, or its only element
+	 */
+	private long writeOffsetArray(long[] values) throws IOException {
+		if (values.length == 1)
+			return values[0];
+		long position = nBytesWritten;
+		for (long value : values) {
+			if (bigTiff)
+				writeLong(out, value);
+			else
+				writeInt(out, (int) value);
+		}
+		return position;
+	}
+
+	/**
+	 * Wait for all compressed strips or tiles to be written, fill in the first IFD, and write the IFDs of the following
+	 * slices after the pixel data (for tiled slices, preceded by the arrays of tile offsets and byte counts).
+	 * 
+	 * @param nSlices
+	 *            Number of slices that were written
+	 * @throws IOException
+	 */
+	private void finishCompressedWriting(int nSlices) throws IOException {
+		stripWriter.finish();
+		if (nSlices == 0)
+			return;
+		nBytesWritten = stripWriter.getEndOffset();
+		out.seek(nBytesWritten);
+		long[] offsetValues = new long[nSlices];
+		long[] byteCountValues = new long[nSlices];
+		for (int i = 0; i < nSlices; i++) {
+			offsetValues[i] = writeOffsetArray(stripWriter.getStripOffsets(i));
+			byteCountValues[i] = writeOffsetArray(stripWriter.getStripByteCounts(i));
+		}
+		patchValue(firstStripOffsetValuePosition, offsetValues[0]);
+		patchValue(firstStripByteCountValuePosition, byteCountValues[0]);
+		if (nSlices == 1)
+			return;
+		patchValue(secondSliceIFDOffset, nBytesWritten);
+		out.seek(nBytesWritten);
+		nextIFD = nBytesWritten;
+		ifdSize2 = ifdSize;
+		if (metaDataSize > 0) {
+			metaDataSize = 0;
+			nEntries -= 2;
+			ifdSize2 -= 2 * ifdSize;// was 12
+		}
+		for (int i = 1; i < nSlices; i++) {
+			if (i == nSlices - 1)
+				nextIFD = 0;
+			else
+				nextIFD += ifdSize2;
+			writeIFD(out, offsetValues[i], byteCountValues[i], nextIFD);
+		}
+	}
+
 	synchronized public void finishWritingEarly(byte[] updatedDescriptionOfSameLength) throws IOException {
 		if (description.length != updatedDescriptionOfSameLength.length)
 			throw new IllegalArgumentException("Length of original description " + new String(description) + " ="
 					+ description.length + " but new one is " + new String(updatedDescriptionOfSameLength) + " ="
 					+ updatedDescriptionOfSameLength.length);
 
+		if (isEncoded()) {
+			out.seek(descriptionOffset);
+			out.write(updatedDescriptionOfSameLength);// not updating nBytesWritten
+			finishCompressedWriting(nSlicesWritten);
+			finishedWriting = true;
+			return;
+		}
+
 		writer.waitForIOToFinish();
 		writer.close();
 
@@ -309,6 +520,15 @@ class SequentialTiffSliceEncoder {
 		if (isFinishedWriting())
 			return;
 		finishedWriting = true;
+		if (isEncoded()) {
+			if (nSlicesWritten != fi.nImages)
+				throw new RuntimeException("finishWriting called but only " + nSlicesWritten
+						+ " have been written, while " + fi.nImages + " were expected");
+			Utils.log("Writing IFDs", LogLevel.DEBUG);
+			finishCompressedWriting(fi.nImages);
+			Utils.log("Done writing IFDs", LogLevel.DEBUG);
+			return;
+		}
 		writer.waitForIOToFinish();
 		writer.close();
 		out.seek(nBytesWritten);
@@ -517,6 +737,14 @@ class SequentialTiffSliceEncoder {
 
 	/** Writes one IFD (Image File Directory). */
 	long writeIFD(RandomAccessFile out, long imageOffset, long nextIFD) throws IOException {
+		return writeIFD(out, imageOffset, imageSize, nextIFD);
+	}
+
+	/**
+	 * Writes one IFD (Image File Directory) for a slice stored as a single strip of the given size, or, if the file is
+	 * tiled, whose TileOffsets and TileByteCounts entries have the given values.
+	 */
+	long writeIFD(RandomAccessFile out, long imageOffset, long stripByteCount, long nextIFD) throws IOException {
 		// IJ.log("Writing an IFD at offset "+nBytesWritten+" has "+nEntries+" entries");
 		// IJ.log("Next offset is "+nextIFD);
 		int tagDataOffset = HDR_SIZE + ifdSize;
@@ -532,18 +760,27 @@ class SequentialTiffSliceEncoder {
 			tagDataOffset += BPS_DATA_SIZE;
 		} else
 			writeEntry(out, TiffDecoder.BITS_PER_SAMPLE, 3, 1, bitsPerSample);
+		if (isEncoded())
+			writeEntry(out, TiffDecoder.COMPRESSION, 3, 1, TiffStripCodec.tiffTagValue(compression));
 		writeEntry(out, TiffDecoder.PHOTO_INTERP, 3, 1, photoInterp);
 		if (description != null) {
 			writeEntry(out, TiffDecoder.IMAGE_DESCRIPTION, 2, description.length, tagDataOffset);
 			tagDataOffset += description.length;
 		}
-		if (!bigTiff)
-			writeEntry(out, TiffDecoder.STRIP_OFFSETS, 4, 1, (int) imageOffset);
-		else
-			writeEntry(out, TiffDecoder.STRIP_OFFSETS, 4, 1, imageOffset);
+		int entryValueOffset = bigTiff ? 12 : 8;
+		if (tiles == null) {
+			stripOffsetValuePosition = out.getFilePointer() + entryValueOffset;
+			if (!bigTiff)
+				writeEntry(out, TiffDecoder.STRIP_OFFSETS, 4, 1, (int) imageOffset);
+			else
+				writeEntry(out, TiffDecoder.STRIP_OFFSETS, 4, 1, imageOffset);
+		}
 		writeEntry(out, TiffDecoder.SAMPLES_PER_PIXEL, 3, 1, samplesPerPixel);
-		writeEntry(out, TiffDecoder.ROWS_PER_STRIP, 3, 1, fi.height);
-		writeEntry(out, TiffDecoder.STRIP_BYTE_COUNT, 4, 1, imageSize);
+		if (tiles == null) {
+			writeEntry(out, TiffDecoder.ROWS_PER_STRIP, 3, 1, fi.height);
+			stripByteCountValuePosition = out.getFilePointer() + entryValueOffset;
+			writeEntry(out, TiffDecoder.STRIP_BYTE_COUNT, 4, 1, stripByteCount);
+		}
 		if (fi.unit != null && fi.pixelWidth != 0 && fi.pixelHeight != 0) {
 			writeEntry(out, TiffDecoder.X_RESOLUTION, 5, 1, tagDataOffset);
 			writeEntry(out, TiffDecoder.Y_RESOLUTION, 5, 1, tagDataOffset + 8);
@@ -555,20 +792,30 @@ class SequentialTiffSliceEncoder {
 				unit = 3;
 			writeEntry(out, TiffDecoder.RESOLUTION_UNIT, 3, 1, unit);
 		}
-		if (fi.fileType == FileInfo.GRAY32_FLOAT) {
-			int format = TiffDecoder.FLOATING_POINT;
-			writeEntry(out, TiffDecoder.SAMPLE_FORMAT, 3, 1, format);
-		}
 		if (fi.fileType == FileInfo.COLOR8) {
 			writeEntry(out, TiffDecoder.COLOR_MAP, 3, MAP_SIZE, tagDataOffset);
 			tagDataOffset += MAP_SIZE * 2;
 		}
+		if (tiles != null) {
+			// Offset arrays use 8-byte values in BigTIFF files
+			int offsetType = bigTiff ? TIFF_LONG8 : TiffDecoder.LONG;
+			writeEntry(out, TILE_WIDTH, 4, 1, tiles.tileWidth);
+			writeEntry(out, TILE_LENGTH, 4, 1, tiles.tileLength);
+			stripOffsetValuePosition = out.getFilePointer() + entryValueOffset;
+			writeEntry(out, TILE_OFFSETS, offsetType, tiles.getNTiles(), imageOffset);
+			stripByteCountValuePosition = out.getFilePointer() + entryValueOffset;
+			writeEntry(out, TILE_BYTE_COUNTS, offsetType, tiles.getNTiles(), stripByteCount);
+		}
+		if (fi.fileType == FileInfo.GRAY32_FLOAT) {
+			int format = TiffDecoder.FLOATING_POINT;
+			writeEntry(out, TiffDecoder.SAMPLE_FORMAT, 3, 1, format);
+		}
 		if (metaDataSize > 0) {
 			writeEntry(out, TiffDecoder.META_DATA_BYTE_COUNTS, 4, nMetaDataEntries, tagDataOffset);
 			writeEntry(out, TiffDecoder.META_DATA, 1, metaDataSize, tagDataOffset + 4 * nMetaDataEntries);
 			tagDataOffset += nMetaDataEntries * 4 + metaDataSize;
 		}
-		long nextIFDOffset = out.length();
+		long nextIFDOffset = out.getFilePointer();
 		if (!bigTiff)
 			writeInt(out, (int) nextIFD);
 		else
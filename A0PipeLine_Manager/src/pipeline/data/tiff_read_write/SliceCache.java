@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data.tiff_read_write;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pipeline.data.ImageAccessor;
+
+/**
+ * Cache of image slices (1D pixel arrays indexed by slice number) that holds at most a given number of bytes, and
+ * evicts least-recently-used slices first when it needs to make room. Slices cached with
+ * {@link ImageAccessor#TRY_HARD_TO_CACHE_PIXELS} are only evicted once no slice cached with
+ * {@link ImageAccessor#TRY_TO_CACHE_PIXELS} is left, and pinned slices (e.g. slices handed out for modification whose
+ * changes have not been saved) are never evicted.
+ * Slices that are not pinned are only softly referenced, so that the garbage collector can still reclaim them when
+ * the caches of all open images together take up too much of the heap; they are then dropped from the cache.
+ * All methods are thread-safe.
+ *
+ */
+public class SliceCache {
+
+	private static class Entry extends SoftReference<Object> {
+		final int sliceIndex;
+		final long size;
+		boolean hard;
+		/**
+		 * Strong reference to the pixels of pinned slices, null otherwise
+		 */
+		Object pinnedPixels;
+
+		Entry(int sliceIndex, Object pixels, boolean hard, ReferenceQueue<Object> queue) {
+			super(pixels, queue);
+			this.sliceIndex = sliceIndex;
+			this.size = sizeOf(pixels);
+			this.hard = hard;
+		}
+
+		boolean isPinned() {
+			return pinnedPixels != null;
+		}
+	}
+
+	/**
+	 * Entries whose pixels have been reclaimed by the garbage collector.
+	 */
+	private final ReferenceQueue<Object> reclaimed = new ReferenceQueue<>();
+
+	/**
+	 * Iteration order is from least- to most-recently accessed.
+	 */
+	private final LinkedHashMap<Integer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long maximumSize;
+	private long currentSize = 0;
+	private long lastTimeUsed = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param maximumSize
+	 *            In bytes
+	 */
+	public SliceCache(long maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	/**
+	 * @param pixels
+	 * @return Size in bytes of a float[], short[] or byte[] slice
+	 */
+	public static long sizeOf(Object pixels) {
+		if (pixels instanceof float[])
+			return ((float[]) pixels).length * 4L;
+		else if (pixels instanceof short[])
+			return ((short[]) pixels).length * 2L;
+		else if (pixels instanceof byte[])
+			return ((byte[]) pixels).length;
+		else
+			throw new IllegalArgumentException("Unknown slice type " + pixels);
+	}
+
+	private static boolean shouldCache(int cachePolicy) {
+		return cachePolicy == ImageAccessor.TRY_TO_CACHE_PIXELS
+				|| cachePolicy == ImageAccessor.TRY_HARD_TO_CACHE_PIXELS;
+	}
+
+	/**
+	 * Look up a slice, and update the hit/miss counters.
+	 *
+	 * @param sliceIndex
+	 * @return Cached pixels, or null if the slice is not in the cache
+	 */
+	public synchronized Object get(int sliceIndex) {
+		lastTimeUsed = System.currentTimeMillis();
+		Object pixels = lookUp(sliceIndex);
+		if (pixels == null)
+			misses++;
+		else
+			hits++;
+		return pixels;
+	}
+
+	/**
+	 * @return Pixels of the slice, or null if it is not cached or if its pixels have been reclaimed, in which case
+	 *         it is removed from the cache
+	 */
+	private Object lookUp(int sliceIndex) {
+		purgeReclaimed();
+		Entry entry = entries.get(sliceIndex);
+		if (entry == null)
+			return null;
+		Object pixels = entry.get();
+		if (pixels == null) {
+			entries.remove(sliceIndex);
+			currentSize -= entry.size;
+		}
+		return pixels;
+	}
+
+	private void purgeReclaimed() {
+		Entry entry;
+		while ((entry = (Entry) reclaimed.poll()) != null) {
+			if (entries.remove(entry.sliceIndex, entry))
+				currentSize -= entry.size;
+		}
+	}
+
+	/**
+	 * Look up a slice without updating the hit/miss counters.
+	 *
+	 * @param sliceIndex
+	 * @return Cached pixels, or null if the slice is not in the cache
+	 */
+	public synchronized Object peek(int sliceIndex) {
+		return lookUp(sliceIndex);
+	}
+
+	/**
+	 * Add a slice to the cache if the policy asks for it, evicting other slices if needed to remain within the
+	 * maximum size. If the slice is already cached (e.g. because it was concurrently loaded by another thread), the
+	 * cached pixels are kept.
+	 *
+	 * @param sliceIndex
+	 * @param pixels
+	 * @param cachePolicy
+	 * @return The pixels now associated with sliceIndex, which the caller should use instead of its own copy
+	 */
+	public synchronized Object put(int sliceIndex, Object pixels, int cachePolicy) {
+		if (!shouldCache(cachePolicy))
+			return pixels;
+		lastTimeUsed = System.currentTimeMillis();
+		Object existingPixels = lookUp(sliceIndex);
+		if (existingPixels != null) {
+			entries.get(sliceIndex).hard |= cachePolicy == ImageAccessor.TRY_HARD_TO_CACHE_PIXELS;
+			return existingPixels;
+		}
+		Entry entry =
+				new Entry(sliceIndex, pixels, cachePolicy == ImageAccessor.TRY_HARD_TO_CACHE_PIXELS, reclaimed);
+		entries.put(sliceIndex, entry);
+		currentSize += entry.size;
+		evictTo(maximumSize);
+		return pixels;
+	}
+
+	/**
+	 * Prevent a cached slice from being evicted, until it is removed or the cache is cleared.
+	 *
+	 * @param sliceIndex
+	 */
+	public synchronized void pin(int sliceIndex) {
+		Object pixels = lookUp(sliceIndex);
+		if (pixels != null)
+			entries.get(sliceIndex).pinnedPixels = pixels;
+	}
+
+	public synchronized void remove(int sliceIndex) {
+		purgeReclaimed();
+		Entry entry = entries.remove(sliceIndex);
+		if (entry != null)
+			currentSize -= entry.size;
+	}
+
+	public synchronized void clear() {
+		purgeReclaimed();
+		entries.clear();
+		currentSize = 0;
+	}
+
+	/**
+	 * Change the maximum size, evicting slices right away if the cache is now too big.
+	 *
+	 * @param size
+	 *            In bytes
+	 */
+	public synchronized void setMaximumSize(long size) {
+		maximumSize = size;
+		evictTo(size);
+	}
+
+	public synchronized long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Evict slices until the cache holds at most size bytes (or until only pinned slices are left), without changing
+	 * the maximum size.
+	 *
+	 * @param size
+	 *            In bytes
+	 */
+	public synchronized void cutDownTo(long size) {
+		evictTo(size);
+	}
+
+	private void evictTo(long size) {
+		purgeReclaimed();
+		for (int pass = 0; pass < 2 && currentSize > size; pass++) {
+			boolean evictHard = pass == 1;
+			Iterator<Map.Entry<Integer, Entry>> it = entries.entrySet().iterator();
+			while (currentSize > size && it.hasNext()) {
+				Entry entry = it.next().getValue();
+				if (entry.isPinned() || (entry.hard && !evictHard))
+					continue;
+				it.remove();
+				currentSize -= entry.size;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of bytes currently held by the cache
+	 */
+	public synchronized long getCurrentSize() {
+		purgeReclaimed();
+		return currentSize;
+	}
+
+	/**
+	 * @return Time in ms of last access to the cache, or 0 if it has never been used
+	 */
+	public synchronized long getLastTimeUsed() {
+		return lastTimeUsed;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void resetCounters() {
+		hits = 0;
+		misses = 0;
+	}
+}
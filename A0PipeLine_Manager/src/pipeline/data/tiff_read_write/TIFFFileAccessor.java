@@ -16,24 +16,25 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.TreeMap;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.eclipse.jdt.annotation.NonNull;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 
 import ij.ImageJ;
 import ij.io.FileInfo;
@@ -139,6 +140,9 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 	 */
 	public TIFFFileAccessor(@NonNull File f, @NonNull String name, PixelType pType, Calibration cal, boolean useBigTIFF) {
 		calibration = cal;
+		compression = defaultCompression;
+		// ImageJ reads the tiles of non-BigTIFF files as if they were strips
+		tileSize = useBigTIFF ? defaultTileSize : 0;
 		openedForWriting = true;
 		this.pType = pType;
 		pixelTypeForWriting = pType;
@@ -157,18 +161,57 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 	synchronized public void close() throws IOException {
 		if (closed)
 			return;
-		if (writer != null)
+		if (writer != null) {
 			writer.finishWriting();
+			if (lastWrittenSlice == getDepth() * getnChannels() * nTimePoints - 1)
+				readBackSliceInfo();
+		}
 		if (outStream != null)
 			outStream.close();
 		if (inStream != null)
 			inStream.close();
-		if (cachedSlices != null)
-			cachedSlices.asMap().clear();
+		streamingCache.clear();
 		closed = true;
 
 	}
 
+	/**
+	 * Called once all slices of a file opened for writing have been written: reads the slice offsets back from the
+	 * file, so that the file can be read from as a virtual stack by later consumers.
+	 */
+	private void readBackSliceInfo() {
+		try {
+			BareBonesFileInfoLongOffsets[] written;
+			try (RandomAccessFile file = new RandomAccessFile(f, "r")) {
+				BigTiffDecoder decoder = new BigTiffDecoder(file, f.getName());
+				written = decoder.getTiffInfo();
+				isBigTIFF = decoder.bigTIFF;
+				littleEndian = decoder.littleEndian;
+			}
+			int nSlices = getDepth() * getnChannels() * nTimePoints;
+			BareBonesFileInfoLongOffsets fi1 = written[0];
+			if (written.length == 1 && nSlices > 1) {
+				// Contiguous slices described by a single IFD
+				written = new BareBonesFileInfoLongOffsets[nSlices];
+				long size = (long) fi1.width * fi1.height * fi1.getBytesPerPixel();
+				for (int i = 0; i < nSlices; i++) {
+					written[i] = (BareBonesFileInfoLongOffsets) fi1.clone();
+					written[i].nImages = 1;
+					written[i].offset = fi1.getOffset() + i * (size + fi1.gapBetweenImages);
+				}
+			}
+			if (written.length != nSlices)
+				throw new FormatException("Found " + written.length + " slices instead of " + nSlices);
+			fiArray = written;
+			byteBuffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			readingFloatBuffer = byteBuffer.asFloatBuffer();
+			readingShortBuffer = byteBuffer.asShortBuffer();
+		} catch (IOException | FormatException e) {
+			Utils.log("Could not read back slice information from " + f.getAbsolutePath() + "; file will not be "
+					+ "readable through this accessor: " + e, LogLevel.WARNING);
+		}
+	}
+
 	private boolean isBigTIFF = true;
 	private boolean littleEndian = true;
 
@@ -403,7 +446,6 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		Utils.log("Identified " + getDepth() + " slices with " + getnChannels() + " channels" + getnTimePoints()
 				+ " time points", LogLevel.DEBUG);
 		dirtySlices = new boolean[getDepth() * getnChannels() * getnTimePoints()];
-		lastCachedSliceAccessTime = new long[getDepth() * getnChannels() * getnTimePoints()];
 		sliceCanBeRead = new boolean[getDepth() * getnChannels() * getnTimePoints()];
 		for (int i = 0; i < getDepth() * getnChannels() * getnTimePoints(); i++)
 			sliceCanBeRead[i] = true;
@@ -416,14 +458,20 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 			byteBuffer.order(java.nio.ByteOrder.LITTLE_ENDIAN);
 		if (pType == PixelType.FLOAT_TYPE) {
 			readingFloatBuffer = byteBuffer.asFloatBuffer();
-			cachedFloatPixels = new float[getDepth() * getnChannels() * getnTimePoints()][];
 		} else if (pType == PixelType.SHORT_TYPE) {
 			readingShortBuffer = byteBuffer.asShortBuffer();
-			cachedShortPixels = new short[getDepth() * getnChannels() * getnTimePoints()][];
-		} else if (pType == PixelType.BYTE_TYPE) {
-			cachedBytePixels = new byte[getDepth() * getnChannels() * getnTimePoints()][];
-		} else
+		} else if (pType != PixelType.BYTE_TYPE)
 			throw new FormatException("Unsupported pixel type " + pType);
+		sliceCache.clear();
+		streamingCache.clear();
+		sliceMappings = null;
+		if (useMemoryMapping) {
+			if (canBeMemoryMapped())
+				sliceMappings = new SliceMappings(fiArray, (long) getWidth() * getHeight() * fi.getBytesPerPixel());
+			else
+				Utils.log("Not memory-mapping " + f.getAbsolutePath() + " because its pixels are compressed, tiled, "
+						+ "or not stored contiguously", LogLevel.DEBUG);
+		}
 		Utils.log("Time to end of open method: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
 		if ("".equals(getName()))
 			setName(FileNameUtils.compactPath(f.getName()));
@@ -466,11 +514,6 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		closed = false;
 	}
 
-	private static boolean shouldCache(int cachePolicy) {
-		// TODO Implement more complex logic later; will probably need to interact with the pipeline
-		return (cachePolicy == TRY_TO_CACHE_PIXELS);
-	}
-
 	private ByteBuffer byteBuffer;
 	private FloatBuffer readingFloatBuffer;
 	private ShortBuffer readingShortBuffer;
@@ -487,11 +530,18 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 			reOpen();
 			return;
 		}
+		if (writer != null && fi.width == getWidth() && fi.height == getHeight()
+				&& fi.nImages == getDepth() * getnChannels() * nTimePoints) {
+			// Already open with the same dimensions (e.g. setDimensions followed by openForSequentialWrite);
+			// starting over would discard the header and IFDs that have already been written
+			return;
+		}
 		openedForWriting = true;
 		pixelTypeForWriting = pType;
-		cachedFloatPixels = new float[getDepth() * getnChannels() * nTimePoints][];
+		sliceCache.clear();
+		streamingCache.clear();
+		sliceMappings = null;
 		dirtySlices = new boolean[getDepth() * getnChannels() * nTimePoints];
-		lastCachedSliceAccessTime = new long[getDepth() * getnChannels() * nTimePoints];
 		sliceCanBeRead = new boolean[getDepth() * getnChannels() * nTimePoints];
 		lastWrittenSlice = -1;
 
@@ -504,6 +554,9 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		readingFloatBuffer = byteBuffer.asFloatBuffer();
 
 		outStream = new RandomAccessFile(f, "rw");
+		// Discard the contents of any file being overwritten, so that IFD positions computed by the writer
+		// match the actual file
+		outStream.setLength(0);
 		inStream = new FileInputStream(f);
 
 		/*
@@ -560,12 +613,71 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 			fiArray[i].pixelWidth = fi.pixelWidth;
 		}
 
+		if ((compression == BareBonesFileInfoLongOffsets.ZIP || (compression == BareBonesFileInfoLongOffsets.LZW
+				&& pixelTypeForWriting == PixelType.FLOAT_TYPE)) && !warnedAboutImageJCompression.getAndSet(true))
+			Utils.log("Compressed TIFF files such as " + f.getName() + " cannot be opened by the bundled version of "
+					+ "ImageJ, which only reads LZW compression of 8- and 16-bit images", LogLevel.WARNING);
+
 		writer =
 				new SequentialTiffSliceEncoder(fi, getWidth(), getHeight(), getDepth() * getnChannels() * nTimePoints,
-						outStream, isBigTIFF);// ()
+						outStream, isBigTIFF, compression, tileSize, tileSize);// ()
 		writer.beginWriting();
 	}
 
+	private static final AtomicBoolean warnedAboutImageJCompression = new AtomicBoolean(false);
+
+	/**
+	 * Compression used for files created with the constructor that specifies a pixel type:
+	 * {@link BareBonesFileInfoLongOffsets#COMPRESSION_NONE}, {@link BareBonesFileInfoLongOffsets#LZW}, or
+	 * {@link BareBonesFileInfoLongOffsets#ZIP}.
+	 */
+	public static int defaultCompression = BareBonesFileInfoLongOffsets.COMPRESSION_NONE;
+
+	private int compression = BareBonesFileInfoLongOffsets.COMPRESSION_NONE;
+
+	/**
+	 * Set compression of slices written to the file; must be called before the file is opened for writing.
+	 * Compressed slices are encoded in parallel, and must be written in order. The bundled version of ImageJ can open
+	 * LZW-compressed 8- and 16-bit files (as long as they are not BigTIFF), but not 32-bit LZW or Deflate files.
+	 * 
+	 * @param compression
+	 *            {@link BareBonesFileInfoLongOffsets#COMPRESSION_NONE}, {@link BareBonesFileInfoLongOffsets#LZW}, or
+	 *            {@link BareBonesFileInfoLongOffsets#ZIP}
+	 */
+	public void setCompression(int compression) {
+		if (writer != null)
+			throw new IllegalStateException("Compression must be set before file is opened for writing");
+		this.compression = compression;
+	}
+
+	/**
+	 * Width and height of the square tiles used for BigTIFF files created with the constructor that specifies a pixel
+	 * type, or 0 to store slices as strips. Non-BigTIFF files are never tiled by default.
+	 */
+	public static int defaultTileSize = 0;
+
+	private int tileSize = 0;
+
+	/**
+	 * Store slices written to the file as square tiles, so that regions can later be read without reading whole slices
+	 * (see {@link SliceAccessor#copyPixelRegionIntoArray}). Must be called before the file is opened for writing.
+	 * Tiled slices must be written in order. Only BigTIFF files can be tiled: ImageJ ignores tiles and would silently
+	 * read scrambled pixels from a tiled non-BigTIFF file.
+	 * 
+	 * @param tileSize
+	 *            Multiple of 16, or 0 to store slices as strips
+	 */
+	public void setTileSize(int tileSize) {
+		if (writer != null)
+			throw new IllegalStateException("Tile size must be set before file is opened for writing");
+		if (tileSize < 0 || tileSize % 16 != 0)
+			throw new IllegalArgumentException("Tile size must be a multiple of 16; got " + tileSize);
+		if (tileSize > 0 && !isBigTIFF)
+			throw new IllegalArgumentException("Tiles are only supported for BigTIFF files, since ImageJ cannot read "
+					+ "tiled TIFF files");
+		this.tileSize = tileSize;
+	}
+
 	private volatile boolean stopWriting = false;
 
 	@Override
@@ -605,7 +717,9 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		fi.unit = cal.getUnit();
 		StringBuffer sb = new StringBuffer(100);
 		sb.append("ImageJ=" + ImageJ.VERSION + "\n");
-		if (nImages > 1 && fi.fileType != FileInfo.RGB48)
+		// ImageJ reads stacks with an images= entry as if all slices were stored contiguously after the first one, and
+		// ignores the other IFDs; without it, it follows the IFD chain, which it has to for compressed slices
+		if (nImages > 1 && fi.fileType != FileInfo.RGB48 && compression == BareBonesFileInfoLongOffsets.COMPRESSION_NONE)
 			sb.append("images=").append(String.format("%09d", nImages)).append("\n");// so length of metadata block
 		// in TIFF does not change if number of frames is adjusted
 		int channels = this.getnChannels();// 1;//imp.getNChannels();
@@ -738,6 +852,8 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 			openForSequentialWrite();
 
 		writer.dumpBufferIntoSlice(buffer, sliceIndex);
+		sliceCache.remove(sliceIndex);
+		streamingCache.remove(sliceIndex);
 
 		if (lastWrittenSlice < getDepth()) {// We are on the first pass of writing
 			lastWrittenSlice++;
@@ -762,6 +878,8 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		if (closed)
 			throw new RuntimeException("Cannot write to closed file through copyPixelsIntoZSlice");
 		writer.writeSlice(pixels);
+		sliceCache.remove(sliceIndex);
+		streamingCache.remove(sliceIndex);
 		lastWrittenSlice = sliceIndex;
 		sliceCanBeRead[sliceIndex] = true;
 		if (lastWrittenSlice == (getDepth() * getnChannels() * nTimePoints) - 1)
@@ -769,74 +887,269 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		// TODO Implement caching
 	}
 
-	private float[][] cachedFloatPixels;
-	private short[][] cachedShortPixels;
-	private byte[][] cachedBytePixels;
-	private boolean[] dirtySlices;
 	/**
-	 * Used to know which to get rid of first if we're trying to cut down on memory usage
+	 * Default maximum size in bytes of the slice cache; can be changed with {@link #setMaximumCacheSize}.
 	 */
-	private long[] lastCachedSliceAccessTime;
+	public static long defaultMaximumCacheSize = Runtime.getRuntime().maxMemory() / 2;
+
+	/**
+	 * Holds slices read with a cache policy that asks for caching.
+	 */
+	private final SliceCache sliceCache = new SliceCache(defaultMaximumCacheSize);
+
+	/**
+	 * Small working set for per-pixel and slice accessor reads made with a {@link #DONT_CACHE_PIXELS} policy, so that
+	 * successive reads from the same slice do not each go to disk; kept separate so that virtual stacks do not fill up
+	 * the main cache.
+	 */
+	private final SliceCache streamingCache = new SliceCache(300_000_000);
+
+	private boolean[] dirtySlices;
 	private boolean[] sliceCanBeRead;
 
 	@Override
 	final public Object getPixelZSliceCopy(int sliceIndex, int cachePolicy) throws IOException {
-		if (pType == PixelType.FLOAT_TYPE) {
-			if (cachedFloatPixels[sliceIndex] != null) {
-				lastCachedSliceAccessTime[sliceIndex] = System.currentTimeMillis();
-				return cachedFloatPixels[sliceIndex];
-			}
-			float[] readInto;
-			if (shouldCache(cachePolicy)) {
-				cachedFloatPixels[sliceIndex] = new float[getWidth() * getHeight()];
-				lastCachedSliceAccessTime[sliceIndex] = System.currentTimeMillis();
-				readInto = cachedFloatPixels[sliceIndex];
-			} else {
-				readInto = new float[getWidth() * getHeight()];
-			}
-			copyPixelSliceIntoArray(sliceIndex, cachePolicy, readInto);
-			if (convertToPixelType != null)
-				return convertArray(readInto, convertToPixelType);
-			else
-				return readInto;
-		} else if (pType == PixelType.SHORT_TYPE) {
-			if (cachedShortPixels[sliceIndex] != null) {
-				lastCachedSliceAccessTime[sliceIndex] = System.currentTimeMillis();
-				return cachedShortPixels[sliceIndex];
+		Object pixels = sliceCache.get(sliceIndex);
+		if (pixels == null) {
+			if (pType == PixelType.FLOAT_TYPE) {
+				float[] readInto = new float[getWidth() * getHeight()];
+				copyPixelSliceIntoArray(sliceIndex, cachePolicy, readInto);
+				pixels = readInto;
+			} else if (pType == PixelType.SHORT_TYPE) {
+				short[] readInto = new short[getWidth() * getHeight()];
+				copyPixelSliceIntoArray(sliceIndex, cachePolicy, readInto);
+				pixels = readInto;
+			} else if (pType == PixelType.BYTE_TYPE) {
+				byte[] readInto = new byte[getWidth() * getHeight()];
+				copyPixelSliceIntoArray(sliceIndex, cachePolicy, readInto);
+				pixels = readInto;
+			} else
+				throw new IllegalStateException("pType " + pType + " does not correspond to a supported type");
+			pixels = sliceCache.put(sliceIndex, pixels, cachePolicy);
+		}
+		if (convertToPixelType != null)
+			return convertArray(pixels, convertToPixelType);
+		else
+			return pixels;
+	}
+
+	/**
+	 * Get pixels from the slice cache, or read them from disk and cache them according to cachePolicy (using the small
+	 * streaming cache if cachePolicy is {@link #DONT_CACHE_PIXELS}). The returned array must not be modified.
+	 * 
+	 * @param sliceIndex
+	 * @param cachePolicy
+	 * @return 1D array of pixels in the file's pixel type
+	 * @throws IOException
+	 */
+	private Object getCachedSlice(int sliceIndex, int cachePolicy) throws IOException {
+		Object pixels = sliceCache.get(sliceIndex);
+		if (pixels != null)
+			return pixels;
+		if (cachePolicy == DONT_CACHE_PIXELS) {
+			pixels = streamingCache.get(sliceIndex);
+			if (pixels != null)
+				return pixels;
+			return streamingCache.put(sliceIndex, readSlice(sliceIndex), TRY_TO_CACHE_PIXELS);
+		}
+		return sliceCache.put(sliceIndex, readSlice(sliceIndex), cachePolicy == NO_CACHE_PREFERENCE
+				? TRY_TO_CACHE_PIXELS : cachePolicy);
+	}
+
+	private boolean useMemoryMapping = false;
+
+	/**
+	 * Largest number of bytes mapped at once; slices that are stored next to each other in the file are mapped together
+	 * up to that size.
+	 */
+	private static final long MAX_MAPPING_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * Memory mappings of the pixels of a file. Runs of slices stored next to each other in the file are grouped into
+	 * chunks of at most MAX_MAPPING_SIZE bytes (or a single slice if larger); each chunk is mapped the first time one of
+	 * its slices is accessed, and its mapping is shared by all those slices. Opening the file therefore does not depend
+	 * on its size, files of more than 2GB can be mapped, and stacks with many slices do not exhaust the per-process
+	 * limit on the number of mappings (vm.max_map_count on Linux). Mappings are released once the SliceMappings object
+	 * is dropped and garbage-collected.
+	 */
+	private static class SliceMappings {
+		private final long sliceSize;
+		private final long[] sliceOffsets;
+		private final int[] sliceChunks;
+		private final long[] chunkStarts;
+		private final long[] chunkEnds;
+		private final AtomicReferenceArray<ByteBuffer> chunkMappings;
+		/**
+		 * Views of the chunk mappings, indexed by slice, each starting at the first byte of its slice
+		 */
+		private final AtomicReferenceArray<ByteBuffer> sliceViews;
+
+		SliceMappings(BareBonesFileInfoLongOffsets[] fiArray, long sliceSize) {
+			this.sliceSize = sliceSize;
+			int nSlices = fiArray.length;
+			sliceOffsets = new long[nSlices];
+			sliceChunks = new int[nSlices];
+			long[] starts = new long[nSlices];
+			long[] ends = new long[nSlices];
+			int nChunks = 0;
+			for (int i = 0; i < nSlices; i++) {
+				long offset = fiArray[i].offset;
+				sliceOffsets[i] = offset;
+				long end = offset + sliceSize;
+				if (nChunks > 0 && offset >= starts[nChunks - 1] && end - starts[nChunks - 1] <= MAX_MAPPING_SIZE) {
+					ends[nChunks - 1] = Math.max(ends[nChunks - 1], end);
+				} else {
+					starts[nChunks] = offset;
+					ends[nChunks] = end;
+					nChunks++;
+				}
+				sliceChunks[i] = nChunks - 1;
 			}
-			short[] readInto;
-			if (shouldCache(cachePolicy)) {
-				cachedShortPixels[sliceIndex] = new short[getWidth() * getHeight()];
-				lastCachedSliceAccessTime[sliceIndex] = System.currentTimeMillis();
-				readInto = cachedShortPixels[sliceIndex];
-			} else {
-				readInto = new short[getWidth() * getHeight()];
+			chunkStarts = Arrays.copyOf(starts, nChunks);
+			chunkEnds = Arrays.copyOf(ends, nChunks);
+			chunkMappings = new AtomicReferenceArray<>(nChunks);
+			sliceViews = new AtomicReferenceArray<>(nSlices);
+		}
+	}
+
+	/**
+	 * Non-null if the file was opened for reading with memory mapping turned on and its pixels can be mapped.
+	 */
+	private volatile SliceMappings sliceMappings;
+
+	/**
+	 * If set to true before the file is opened for reading, and if the file is uncompressed, pixels are read straight from
+	 * memory mappings of the file, without going through intermediate heap arrays or the slice cache. Only pages
+	 * of the file that are actually accessed are read from disk. Opening the file for writing turns off memory mapping.
+	 * 
+	 * @param useMemoryMapping
+	 */
+	public void setUseMemoryMapping(boolean useMemoryMapping) {
+		this.useMemoryMapping = useMemoryMapping;
+		if (!useMemoryMapping)
+			sliceMappings = null;
+	}
+
+	/**
+	 * @return True if pixels are being read from memory mappings of the file
+	 */
+	public boolean isMemoryMapped() {
+		return sliceMappings != null;
+	}
+
+	private boolean canBeMemoryMapped() {
+		if (openedForWriting || writer != null)
+			return false;
+		long sliceSize = (long) getWidth() * getHeight() * fi.getBytesPerPixel();
+		if (sliceSize > Integer.MAX_VALUE)
+			return false;
+		long fileLength = f.length();
+		for (BareBonesFileInfoLongOffsets sliceInfo : fiArray) {
+			if (sliceInfo.tileWidth > 0)
+				return false;
+			switch (sliceInfo.compression) {
+				case BareBonesFileInfoLongOffsets.COMPRESSION_UNKNOWN:
+				case BareBonesFileInfoLongOffsets.COMPRESSION_NONE:
+					break;
+				default:
+					return false;
 			}
-			copyPixelSliceIntoArray(sliceIndex, cachePolicy, readInto);
-			if (convertToPixelType != null)
-				return convertArray(readInto, convertToPixelType);
-			else
-				return readInto;
-		} else if (pType == PixelType.BYTE_TYPE) {
-			if (cachedBytePixels[sliceIndex] != null) {
-				lastCachedSliceAccessTime[sliceIndex] = System.currentTimeMillis();
-				return cachedBytePixels[sliceIndex];
+			if (sliceInfo.offset < 0 || sliceInfo.offset + sliceSize > fileLength)
+				return false;
+			long[] stripOffsets = sliceInfo.stripOffsets;
+			long[] stripLengths = sliceInfo.stripLengths;
+			if (stripOffsets != null && stripLengths != null && stripOffsets.length > 1) {
+				for (int i = 1; i < stripOffsets.length; i++) {
+					if (stripOffsets[i] != stripOffsets[i - 1] + stripLengths[i - 1])
+						return false;
+				}
 			}
-			byte[] readInto;
-			if (shouldCache(cachePolicy)) {
-				cachedBytePixels[sliceIndex] = new byte[getWidth() * getHeight()];
-				lastCachedSliceAccessTime[sliceIndex] = System.currentTimeMillis();
-				readInto = cachedBytePixels[sliceIndex];
-			} else {
-				readInto = new byte[getWidth() * getHeight()];
+		}
+		return true;
+	}
+
+	/**
+	 * @param sliceIndex
+	 * @return Read-only mapping of the slice's pixels, with the file's byte order, or null if the slice should not be
+	 *         read from a mapping (because memory mapping is off, or because the slice has been modified in memory)
+	 * @throws IOException
+	 */
+	private ByteBuffer getSliceMapping(int sliceIndex) throws IOException {
+		SliceMappings mappings = sliceMappings;
+		if (mappings == null || dirtySlices[sliceIndex] || !sliceCanBeRead[sliceIndex])
+			return null;
+		ByteBuffer view = mappings.sliceViews.get(sliceIndex);
+		if (view == null) {
+			int chunk = mappings.sliceChunks[sliceIndex];
+			ByteBuffer chunkMapping = mappings.chunkMappings.get(chunk);
+			if (chunkMapping == null) {
+				synchronized (this) {
+					if ((closed) || (!inputFileChannel.isOpen()))
+						reOpen();
+					// Reading past the end of a mapping of a file that was truncated since it was opened would crash
+					// the JVM instead of throwing an exception
+					if (mappings.chunkEnds[chunk] > inputFileChannel.size())
+						throw new IOException("File " + f.getAbsolutePath() + " is shorter than its header says ("
+								+ inputFileChannel.size() + " bytes instead of at least " + mappings.chunkEnds[chunk]
+								+ ")");
+					// Mapping remains valid after the channel is closed
+					chunkMapping =
+							inputFileChannel.map(MapMode.READ_ONLY, mappings.chunkStarts[chunk],
+									mappings.chunkEnds[chunk] - mappings.chunkStarts[chunk]);
+				}
+				if (!mappings.chunkMappings.compareAndSet(chunk, null, chunkMapping))
+					chunkMapping = mappings.chunkMappings.get(chunk);
 			}
-			copyPixelSliceIntoArray(sliceIndex, cachePolicy, readInto);
-			if (convertToPixelType != null)
-				return convertArray(readInto, convertToPixelType);
-			else
-				return readInto;
-		} else
-			throw new IllegalStateException("pType " + pType + " does not correspond to a supported type");
+			ByteBuffer duplicate = chunkMapping.duplicate();
+			int start = (int) (mappings.sliceOffsets[sliceIndex] - mappings.chunkStarts[chunk]);
+			duplicate.limit(start + (int) mappings.sliceSize).position(start);
+			// slice does not preserve byte order
+			view = duplicate.slice().order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			if (!mappings.sliceViews.compareAndSet(sliceIndex, null, view))
+				view = mappings.sliceViews.get(sliceIndex);
+		}
+		return view;
+	}
+
+	private float getFloatFromBuffer(ByteBuffer buffer, int index) {
+		if (pType == PixelType.FLOAT_TYPE)
+			return buffer.getFloat(index * 4);
+		else if (pType == PixelType.SHORT_TYPE)
+			return buffer.getShort(index * 2) & 0xffff;
+		else if (pType == PixelType.BYTE_TYPE)
+			return buffer.get(index) & 0xff;
+		else
+			throw new RuntimeException("Unknown pixel type " + pType);
+	}
+
+	/**
+	 * Copy pixels straight from the slice's mapping into destinationArray.
+	 * 
+	 * @param sliceIndex
+	 * @param destinationArray
+	 *            float[], short[] or byte[] matching the file's pixel type
+	 * @return false if the slice is not memory-mapped, in which case nothing was copied
+	 * @throws IOException
+	 */
+	private boolean copyFromMapping(int sliceIndex, Object destinationArray) throws IOException {
+		ByteBuffer mapping = getSliceMapping(sliceIndex);
+		if (mapping == null)
+			return false;
+		int length = Array.getLength(destinationArray);
+		int bytesPerPixel =
+				destinationArray instanceof float[] ? 4 : destinationArray instanceof short[] ? 2 : 1;
+		if ((long) length * bytesPerPixel > mapping.capacity())
+			throw new IOException("Read " + mapping.capacity() / bytesPerPixel + " pixels instead of " + length
+					+ " expected from " + f.getAbsolutePath());
+		// Duplicate so that concurrent copies do not share a position; duplicate does not preserve byte order
+		ByteBuffer view = mapping.duplicate().order(mapping.order());
+		if (destinationArray instanceof float[])
+			view.asFloatBuffer().get((float[]) destinationArray);
+		else if (destinationArray instanceof short[])
+			view.asShortBuffer().get((short[]) destinationArray);
+		else
+			view.get((byte[]) destinationArray);
+		return true;
 	}
 
 	/**
@@ -867,6 +1180,8 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		changesNeedExplicitSaving.value = true;
 		dirtySlices[sliceIndex] = true;
 		Object result = getPixelZSliceCopy(sliceIndex, cachePolicy);
+		// Changes have not been saved, so do not let them be evicted
+		sliceCache.pin(sliceIndex);
 		if (convertToPixelType != null)
 			return convertArray(result, convertToPixelType);
 		else
@@ -875,6 +1190,12 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 
 	final synchronized public void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, float[] destinationArray)
 			throws IOException {
+		if (copyFromMapping(sliceIndex, destinationArray))
+			return;
+		if (needsDecoding(sliceIndex)) {
+			decodeSlice(sliceIndex).asFloatBuffer().get(destinationArray);
+			return;
+		}
 		if (!sliceCanBeRead[sliceIndex])
 			throw new IllegalStateException("Cannot read slice " + sliceIndex
 					+ " before it has been written (file was originally opened for writing");
@@ -906,8 +1227,14 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 
 	}
 
-	synchronized private void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, short[] destinationArray)
+	final synchronized public void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, short[] destinationArray)
 			throws IOException {
+		if (copyFromMapping(sliceIndex, destinationArray))
+			return;
+		if (needsDecoding(sliceIndex)) {
+			decodeSlice(sliceIndex).asShortBuffer().get(destinationArray);
+			return;
+		}
 		if (!sliceCanBeRead[sliceIndex])
 			throw new IllegalStateException("Cannot read slice " + sliceIndex
 					+ " before it has been written (file was originally opened for writing");
@@ -935,8 +1262,14 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 		readingShortBuffer.clear();
 	}
 
-	synchronized private void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, byte[] destinationArray)
+	final synchronized public void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, byte[] destinationArray)
 			throws IOException {
+		if (copyFromMapping(sliceIndex, destinationArray))
+			return;
+		if (needsDecoding(sliceIndex)) {
+			decodeSlice(sliceIndex).get(destinationArray);
+			return;
+		}
 		if (!sliceCanBeRead[sliceIndex])
 			throw new IllegalStateException("Cannot read slice " + sliceIndex
 					+ " before it has been written (file was originally opened for writing");
@@ -967,24 +1300,8 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 
 	@Override
 	public void clearCache() {
-		if (cachedFloatPixels != null) {
-			for (int i = 0; i < cachedFloatPixels.length; i++) {
-				cachedFloatPixels[i] = null;
-				lastCachedSliceAccessTime[i] = 0;
-			}
-		}
-		if (cachedShortPixels != null) {
-			for (int i = 0; i < cachedShortPixels.length; i++) {
-				cachedShortPixels[i] = null;
-				lastCachedSliceAccessTime[i] = 0;
-			}
-		}
-		if (cachedBytePixels != null) {
-			for (int i = 0; i < cachedBytePixels.length; i++) {
-				cachedBytePixels[i] = null;
-				lastCachedSliceAccessTime[i] = 0;
-			}
-		}
+		sliceCache.clear();
+		streamingCache.clear();
 	}
 
 	@Override
@@ -995,22 +1312,42 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 
 	@Override
 	public void cutDownCacheSizeTo(long size) {
-		throw new RuntimeException("cutDownCacheSizeTo not yet implemented.");
+		streamingCache.clear();
+		sliceCache.cutDownTo(size);
 	}
 
 	@Override
 	public void setMaximumCacheSize(long size) {
-		throw new RuntimeException("setMaximumCacheSize not yet implemented.");
+		sliceCache.setMaximumSize(size);
 	}
 
 	@Override
 	public long getLastTimeCacheWasUsed() {
-		throw new RuntimeException("getLastTimeCacheWasUsed not yet implemented.");
+		return Math.max(sliceCache.getLastTimeUsed(), streamingCache.getLastTimeUsed());
 	}
 
 	@Override
 	public long getCurrentCacheSize() {
-		throw new RuntimeException("getCurrentCacheSize not yet implemented.");
+		return sliceCache.getCurrentSize() + streamingCache.getCurrentSize();
+	}
+
+	/**
+	 * @return Number of slice reads served from the cache since the file was opened or counters were reset
+	 */
+	public long getCacheHits() {
+		return sliceCache.getHits() + streamingCache.getHits();
+	}
+
+	/**
+	 * @return Number of slice reads that had to go to disk since the file was opened or counters were reset
+	 */
+	public long getCacheMisses() {
+		return sliceCache.getMisses() + streamingCache.getMisses();
+	}
+
+	public void resetCacheCounters() {
+		sliceCache.resetCounters();
+		streamingCache.resetCounters();
 	}
 
 	@Override
@@ -1075,21 +1412,21 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 	@Override
 	public float getFloat(int x, int y, int z) {
 		try {
+			ByteBuffer mapping = getSliceMapping(z);
+			if (mapping != null)
+				return getFloatFromBuffer(mapping, x + y * getWidth());
 			if (pType == PixelType.FLOAT_TYPE) {
-				float[] floatPixels = new float[getWidth() * getHeight()];
-				copyPixelSliceIntoArray(z, ImageAccessor.DONT_CACHE_PIXELS, floatPixels);
+				float[] floatPixels = (float[]) getCachedSlice(z, defaultCachePolicy);
 				return floatPixels[x + y * getWidth()];
 			} else if (pType == PixelType.BYTE_TYPE) {
-				byte[] bytePixels = (byte[]) cachedSlices.get(z);
-				// copyPixelSliceIntoArray(z, ImageAccessor.DONT_CACHE_PIXELS,bytePixels);
+				byte[] bytePixels = (byte[]) getCachedSlice(z, defaultCachePolicy);
 				return bytePixels[x + y * getWidth()] & 0xff;
 			} else if (pType == PixelType.SHORT_TYPE) {
-				short[] shortPixels = new short[getWidth() * getHeight()];
-				copyPixelSliceIntoArray(z, ImageAccessor.DONT_CACHE_PIXELS, shortPixels);
+				short[] shortPixels = (short[]) getCachedSlice(z, defaultCachePolicy);
 				return shortPixels[x + y * getWidth()] & 0xffff;
 			} else
 				throw new RuntimeException("Unknown pixel type " + pType);
-		} catch (IOException | ExecutionException e) {
+		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
@@ -1203,67 +1540,62 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 			@Override
 			final public void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, float[] destinationArray)
 					throws IOException {
-
-				try {
-					float[] floatPixels = (float[]) cachedSlices.get(sliceIndex);
-					if (floatPixels.length != destinationArray.length)
-						throw new IllegalArgumentException("Destination array length incorrect: "
-								+ destinationArray.length + "instead of " + floatPixels.length);
-					System.arraycopy(floatPixels, 0, destinationArray, 0, floatPixels.length);
-				} catch (ExecutionException e) {
-					throw new RuntimeException("Error in slice read: ", e);
-				}
+				if (copyFromMapping(sliceIndex, destinationArray))
+					return;
+				float[] floatPixels = (float[]) getCachedSlice(sliceIndex, cachePolicy);
+				if (floatPixels.length != destinationArray.length)
+					throw new IllegalArgumentException("Destination array length incorrect: "
+							+ destinationArray.length + "instead of " + floatPixels.length);
+				System.arraycopy(floatPixels, 0, destinationArray, 0, floatPixels.length);
 			}
 
 			@Override
 			final public void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, short[] destinationArray)
 					throws IOException {
-
-				try {
-					short[] shortPixels = (short[]) cachedSlices.get(sliceIndex);
-					if (shortPixels.length != destinationArray.length)
-						throw new IllegalArgumentException("Destination array length incorrect: "
-								+ destinationArray.length + "instead of " + shortPixels.length);
-					System.arraycopy(shortPixels, 0, destinationArray, 0, shortPixels.length);
-				} catch (ExecutionException e) {
-					throw new RuntimeException("Error in slice read: ", e);
-				}
+				if (copyFromMapping(sliceIndex, destinationArray))
+					return;
+				short[] shortPixels = (short[]) getCachedSlice(sliceIndex, cachePolicy);
+				if (shortPixels.length != destinationArray.length)
+					throw new IllegalArgumentException("Destination array length incorrect: "
+							+ destinationArray.length + "instead of " + shortPixels.length);
+				System.arraycopy(shortPixels, 0, destinationArray, 0, shortPixels.length);
 			}
 
 			@Override
 			final public void copyPixelSliceIntoArray(int sliceIndex, int cachePolicy, byte[] destinationArray)
 					throws IOException {
-				try {
-					byte[] bytePixels = (byte[]) cachedSlices.get(sliceIndex);
-					if (bytePixels.length != destinationArray.length)
-						throw new IllegalArgumentException("Destination array length incorrect: "
-								+ destinationArray.length + "instead of " + bytePixels.length);
-					System.arraycopy(bytePixels, 0, destinationArray, 0, bytePixels.length);
-				} catch (ExecutionException e) {
-					throw new RuntimeException("Error in slice read: ", e);
-				}
+				if (copyFromMapping(sliceIndex, destinationArray))
+					return;
+				byte[] bytePixels = (byte[]) getCachedSlice(sliceIndex, cachePolicy);
+				if (bytePixels.length != destinationArray.length)
+					throw new IllegalArgumentException("Destination array length incorrect: "
+							+ destinationArray.length + "instead of " + bytePixels.length);
+				System.arraycopy(bytePixels, 0, destinationArray, 0, bytePixels.length);
 			}
 
 			@Override
 			final public float getFloat(int x, int y, int z) throws IOException {
-				try {
-					if (pType == PixelType.BYTE_TYPE) {
-						byte[] bytePixels;
-						bytePixels = (byte[]) cachedSlices.get(z);
-						return bytePixels[x + y * getWidth()] & 0xff;
-					} else if (pType == PixelType.SHORT_TYPE) {
-						short[] shortPixels;
-						shortPixels = (short[]) cachedSlices.get(z);
-						return shortPixels[x + y * getWidth()] & 0xffff;
-					} else if (pType == PixelType.FLOAT_TYPE) {
-						float[] floatPixels;
-						floatPixels = (float[]) cachedSlices.get(z);
-						return floatPixels[x + y * getWidth()];
-					} else
-						throw new RuntimeException("Unknown pixel type " + pType);
-				} catch (ExecutionException e) {
-					throw new IOException(e);
-				}
+				ByteBuffer mapping = getSliceMapping(z);
+				if (mapping != null)
+					return getFloatFromBuffer(mapping, x + y * getWidth());
+				if (pType == PixelType.BYTE_TYPE) {
+					byte[] bytePixels = (byte[]) getCachedSlice(z, defaultCachePolicy);
+					return bytePixels[x + y * getWidth()] & 0xff;
+				} else if (pType == PixelType.SHORT_TYPE) {
+					short[] shortPixels = (short[]) getCachedSlice(z, defaultCachePolicy);
+					return shortPixels[x + y * getWidth()] & 0xffff;
+				} else if (pType == PixelType.FLOAT_TYPE) {
+					float[] floatPixels = (float[]) getCachedSlice(z, defaultCachePolicy);
+					return floatPixels[x + y * getWidth()];
+				} else
+					throw new RuntimeException("Unknown pixel type " + pType);
+			}
+
+			@Override
+			final public void copyPixelRegionIntoArray(int sliceIndex, int cachePolicy, int x0, int y0, int width,
+					int height, float[] destinationArray) throws IOException {
+				TIFFFileAccessor.this.copyPixelRegionIntoArray(sliceIndex, cachePolicy, x0, y0, width, height,
+						destinationArray);
 			}
 		};
 		return accessor;
@@ -1281,9 +1613,9 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 
 		final int size;
 
-		public BufferSet(int size) {
+		public BufferSet(int size, ByteOrder order) {
 			this.size = size;
-			localByteBuffer = ByteBuffer.allocateDirect(size);
+			localByteBuffer = ByteBuffer.allocateDirect(size).order(order);
 			localFloatBuffer = localByteBuffer.asFloatBuffer();
 			localShortBuffer = localByteBuffer.asShortBuffer();
 		}
@@ -1292,16 +1624,18 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 	private class BufferPool {
 		private final List<BufferSet> bufferSetList = new LinkedList<>();
 		private int size = 0;
+		private ByteOrder order = ByteOrder.BIG_ENDIAN;
 
-		public void setSize(int size) {
+		public void setSize(int size, ByteOrder order) {
 			synchronized (bufferSetList) {
-				if (size == this.size)
+				if (size == this.size && order == this.order)
 					return;
 				Utils.log("Changing buffer pool size from " + this.size + " to " + size, LogLevel.DEBUG);
 				this.size = size;
+				this.order = order;
 				bufferSetList.clear();
 				for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
-					bufferSetList.add(new BufferSet(size));
+					bufferSetList.add(new BufferSet(size, order));
 				}
 			}
 		}
@@ -1328,7 +1662,7 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 				throw new IllegalArgumentException();
 			if (bufferSet.localShortBuffer == null)
 				throw new IllegalArgumentException();
-			if (bufferSet.size != size)
+			if (bufferSet.size != size || bufferSet.localByteBuffer.order() != order)
 				return;
 			synchronized (bufferSetList) {
 				bufferSetList.add(bufferSet);
@@ -1340,121 +1674,362 @@ public class TIFFFileAccessor extends PluginIOHyperstack implements ImageAccesso
 
 	private BufferPool bufferPool = new BufferPool();
 
-	private LoadingCache<Integer, Object> cachedSlices = CacheBuilder.newBuilder().maximumWeight(300000000)
-			.softValues().expireAfterAccess(5, TimeUnit.MINUTES).weigher((k, g) -> {
-				if (g instanceof float[])
-					return ((float[]) g).length * 4;
-				else if (g instanceof short[])
-					return ((short[]) g).length * 2;
-				else if (g instanceof byte[])
-					return ((byte[]) g).length;
-				else
-					throw new RuntimeException("Unknown slice type");
-			}).build(new CacheLoader<Integer, Object>() {
+	/**
+	 * @param sliceIndex
+	 * @return True if the slice is compressed or tiled, and therefore cannot be read as a single block of raw pixels
+	 */
+	private boolean needsDecoding(int sliceIndex) {
+		return TiffStripCodec.canDecompress(fiArray[sliceIndex].compression) || fiArray[sliceIndex].tileWidth > 0;
+	}
 
-				@Override
-				public Object load(Integer key) throws IOException {
-					ByteBuffer localByteBuffer;
-					FloatBuffer localFloatBuffer;
-					ShortBuffer localShortBuffer;
+	private boolean isCompressed(int sliceIndex) {
+		return TiffStripCodec.canDecompress(fiArray[sliceIndex].compression);
+	}
 
-					bufferPool.setSize(getWidth() * getHeight() * fi.getBytesPerPixel());
+	/**
+	 * @param sliceIndex
+	 * @return Tile geometry of the slice, or null if the slice is stored as strips
+	 */
+	private TileLayout getTileLayout(int sliceIndex) {
+		BareBonesFileInfoLongOffsets sliceInfo = fiArray[sliceIndex];
+		if (sliceInfo.tileWidth <= 0)
+			return null;
+		return new TileLayout(getWidth(), getHeight(), sliceInfo.tileWidth, sliceInfo.tileLength, fi
+				.getBytesPerPixel());
+	}
 
-					BufferSet bufferSet = bufferPool.checkoutBuffers();
-					localByteBuffer = bufferSet.localByteBuffer;
-					localFloatBuffer = bufferSet.localFloatBuffer;
-					localShortBuffer = bufferSet.localShortBuffer;
+	private void checkSliceCanBeRead(int sliceIndex) throws IOException {
+		if (!sliceCanBeRead[sliceIndex])
+			throw new IllegalStateException("Cannot read slice " + sliceIndex
+					+ " before it has been written (file was originally opened for writing");
+		if ((closed) || (!inputFileChannel.isOpen()))
+			reOpen();
+	}
 
-					try {
+	/**
+	 * Read length bytes from the file, starting at offset.
+	 */
+	private byte[] readBytes(int sliceIndex, long offset, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			int count = inputFileChannel.read(bytes, offset + bytes.position());
+			if (count == -1)
+				throw new IOException("Unexpected end of file " + f.getAbsolutePath() + " in slice " + sliceIndex);
+		}
+		return bytes.array();
+	}
 
-						if (!sliceCanBeRead[key])
-							throw new IllegalStateException("Cannot read slice " + key
-									+ " before it has been written (file was originally opened for writing");
-						if ((closed) || (!inputFileChannel.isOpen()))
-							reOpen();
-
-						if (pType == PixelType.FLOAT_TYPE) {
-							localByteBuffer.clear();
-							int count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
-							if (count == -1) {
-								// The following might not be necessary
-								// This was in case the input stream is not in sync with the modifications made by the
-								// output stream to the file
-								Utils.log("Reopening file " + f.getAbsolutePath(), LogLevel.DEBUG);
-								reOpen();
-								count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
-							}
+	/**
+	 * Read a strip or tile, and decompress it if needed.
+	 * 
+	 * @param sliceIndex
+	 * @param strip
+	 *            Index of the strip or tile within the slice
+	 * @param expectedLength
+	 *            Number of bytes the strip or tile holds once uncompressed
+	 * @return Uncompressed bytes
+	 * @throws IOException
+	 */
+	private byte[] readStrip(int sliceIndex, int strip, int expectedLength) throws IOException {
+		BareBonesFileInfoLongOffsets sliceInfo = fiArray[sliceIndex];
+		if (sliceInfo.stripOffsets == null || sliceInfo.stripLengths == null)
+			throw new IOException("Missing strip or tile offsets or lengths for slice " + sliceIndex + " of "
+					+ f.getAbsolutePath());
+		if (strip >= sliceInfo.stripOffsets.length)
+			throw new IOException("Slice " + sliceIndex + " of " + f.getAbsolutePath() + " only has "
+					+ sliceInfo.stripOffsets.length + " strips or tiles");
+		if (!isCompressed(sliceIndex))
+			return readBytes(sliceIndex, sliceInfo.stripOffsets[strip], expectedLength);
+		byte[] compressed = readBytes(sliceIndex, sliceInfo.stripOffsets[strip], (int) sliceInfo.stripLengths[strip]);
+		return TiffStripCodec.decompress(compressed, sliceInfo.compression, expectedLength);
+	}
 
-							if (count < getWidth() * getHeight() * 4)
-								throw new IOException("Read " + count + " pixels instead of "
-										+ (getWidth() * getHeight() * 4) + " expected from " + f.getAbsolutePath());
-
-							float[] result = new float[getWidth() * getHeight()];
-
-							localFloatBuffer.clear();
-							localFloatBuffer.get(result);
-							localFloatBuffer.clear();
-							return result;
-						} else if (pType == PixelType.SHORT_TYPE) {
-							if (!sliceCanBeRead[key])
-								throw new IllegalStateException("Cannot read slice " + key
-										+ " before it has been written (file was originally opened for writing");
-							if (closed)
-								reOpen();
-
-							localByteBuffer.clear();
-							int count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
-							if (count == -1) {
-								// The following might not be necessary
-								// This was in case the input stream is not in sync with the modifications made by the
-								// output stream to the file
-								Utils.log("Reopening file " + f.getAbsolutePath(), LogLevel.DEBUG);
-								reOpen();
-								count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
-							}
-							if (count < getWidth() * getHeight() * 2)
-								throw new IOException("Read " + count + " pixels instead of "
-										+ (getWidth() * getHeight() * 2) + " expected from " + f.getAbsolutePath());
-
-							short[] result = new short[getWidth() * getHeight()];
-
-							localShortBuffer.clear();
-							localShortBuffer.get(result);
-							localShortBuffer.clear();
-							return result;
-						} else if (pType == PixelType.BYTE_TYPE) {
-							if (!sliceCanBeRead[key])
-								throw new IllegalStateException("Cannot read slice " + key
-										+ " before it has been written (file was originally opened for writing");
-							if (closed || (!inputFileChannel.isOpen()))
-								reOpen();
-
-							localByteBuffer.clear();
-							int count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
-							if (count == -1) {
-								// The following might not be necessary
-								// This was in case the input stream is not in sync with the modifications made by the
-								// output stream to the file
-								Utils.log("Reopening file " + f.getAbsolutePath(), LogLevel.DEBUG);
-								reOpen();
-								count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
-							}
-							if (count < getWidth() * getHeight())
-								throw new IOException("Read " + count + " pixels instead of "
-										+ (getWidth() * getHeight()) + " expected from " + f.getAbsolutePath());
+	private ByteBuffer wrapWithFileOrder(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		return buffer;
+	}
 
-							byte[] result = new byte[getWidth() * getHeight()];
+	/**
+	 * Read all the strips or tiles of a slice, decompress them if needed, and assemble them.
+	 * 
+	 * @param sliceIndex
+	 * @return Uncompressed pixels, with the byte order of the file
+	 * @throws IOException
+	 */
+	private ByteBuffer decodeSlice(int sliceIndex) throws IOException {
+		checkSliceCanBeRead(sliceIndex);
+		BareBonesFileInfoLongOffsets sliceInfo = fiArray[sliceIndex];
+		int rowSize = getWidth() * fi.getBytesPerPixel();
+		int sliceSize = rowSize * getHeight();
+		byte[] result = new byte[sliceSize];
+
+		TileLayout tiles = getTileLayout(sliceIndex);
+		if (tiles != null) {
+			for (int tile = 0; tile < tiles.getNTiles(); tile++) {
+				tiles.copyTileIntoSlice(readStrip(sliceIndex, tile, tiles.getTileSize()), tile, result);
+			}
+			return wrapWithFileOrder(result);
+		}
 
-							localByteBuffer.clear();
-							localByteBuffer.get(result);
-							localByteBuffer.clear();
+		int rowsPerStrip = sliceInfo.rowsPerStrip > 0 ? sliceInfo.rowsPerStrip : getHeight();
+		int position = 0;
+		for (int i = 0; i < sliceInfo.stripOffsets.length && position < sliceSize; i++) {
+			int expectedLength = Math.min(rowsPerStrip * rowSize, sliceSize - position);
+			byte[] strip = readStrip(sliceIndex, i, expectedLength);
+			System.arraycopy(strip, 0, result, position, expectedLength);
+			position += expectedLength;
+		}
+		if (position < sliceSize)
+			throw new IOException("Strips of slice " + sliceIndex + " of " + f.getAbsolutePath() + " only contain "
+					+ position + " bytes instead of " + sliceSize);
+		return wrapWithFileOrder(result);
+	}
 
-							return result;
-						} else
-							throw new RuntimeException("Unkown pixel type " + pType);
-					} finally {
-						bufferPool.returnBuffers(bufferSet);
-					}
+	/**
+	 * Copy the part of a block of pixels that overlaps a region into the region's array.
+	 * 
+	 * @param block
+	 *            Raw pixels in the file's pixel type, covering rows blockY to blockY + blockHeight - 1 and columns
+	 *            blockX to blockX + blockWidth - 1
+	 */
+	private void copyBlockIntoRegion(ByteBuffer block, int blockX, int blockY, int blockWidth, int blockHeight,
+			int x0, int y0, int width, int height, float[] destinationArray) {
+		int xStart = Math.max(x0, blockX);
+		int xEnd = Math.min(x0 + width, Math.min(blockX + blockWidth, getWidth()));
+		int yStart = Math.max(y0, blockY);
+		int yEnd = Math.min(y0 + height, Math.min(blockY + blockHeight, getHeight()));
+		for (int y = yStart; y < yEnd; y++) {
+			int blockRow = (y - blockY) * blockWidth - blockX;
+			int destinationRow = (y - y0) * width - x0;
+			for (int x = xStart; x < xEnd; x++) {
+				destinationArray[destinationRow + x] = getFloatFromBuffer(block, blockRow + x);
+			}
+		}
+	}
+
+	private static void copyArrayIntoRegion(Object pixels, int sliceWidth, int x0, int y0, int width, int height,
+			float[] destinationArray) {
+		for (int y = 0; y < height; y++) {
+			int sourceRow = (y + y0) * sliceWidth + x0;
+			int destinationRow = y * width;
+			if (pixels instanceof float[])
+				System.arraycopy(pixels, sourceRow, destinationArray, destinationRow, width);
+			else if (pixels instanceof short[]) {
+				short[] shortPixels = (short[]) pixels;
+				for (int x = 0; x < width; x++) {
+					destinationArray[destinationRow + x] = shortPixels[sourceRow + x] & 0xffff;
+				}
+			} else if (pixels instanceof byte[]) {
+				byte[] bytePixels = (byte[]) pixels;
+				for (int x = 0; x < width; x++) {
+					destinationArray[destinationRow + x] = bytePixels[sourceRow + x] & 0xff;
+				}
+			} else
+				throw new RuntimeException("Unknown pixel type " + pixels);
+		}
+	}
+
+	/**
+	 * Copy a rectangular region of a slice into destinationArray, converting pixels to float. If the slice is not
+	 * cached, only the tiles or strips that intersect the region are read from the file (or, for uncompressed strips,
+	 * only the rows that hold the region).
+	 * 
+	 * @param sliceIndex
+	 * @param cachePolicy
+	 *            Unused: regions are not cached
+	 * @param x0
+	 * @param y0
+	 * @param width
+	 * @param height
+	 * @param destinationArray
+	 *            Receives the region row by row
+	 * @throws IOException
+	 */
+	public void copyPixelRegionIntoArray(int sliceIndex, int cachePolicy, int x0, int y0, int width, int height,
+			float[] destinationArray) throws IOException {
+		if (x0 < 0 || y0 < 0 || width < 0 || height < 0 || x0 + width > getWidth() || y0 + height > getHeight())
+			throw new IllegalArgumentException("Region " + x0 + ", " + y0 + ", " + width + "x" + height
+					+ " does not fit within slice of size " + getWidth() + "x" + getHeight());
+		if (destinationArray.length < width * height)
+			throw new IllegalArgumentException("Destination array length " + destinationArray.length
+					+ " is smaller than region size " + (width * height));
+		if (width == 0 || height == 0)
+			return;
+
+		Object cached = sliceCache.peek(sliceIndex);
+		if (cached == null)
+			cached = streamingCache.peek(sliceIndex);
+		if (cached != null) {
+			copyArrayIntoRegion(cached, getWidth(), x0, y0, width, height, destinationArray);
+			return;
+		}
+
+		ByteBuffer mapping = getSliceMapping(sliceIndex);
+		if (mapping != null) {
+			copyBlockIntoRegion(mapping, 0, 0, getWidth(), getHeight(), x0, y0, width, height, destinationArray);
+			return;
+		}
+
+		checkSliceCanBeRead(sliceIndex);
+		BareBonesFileInfoLongOffsets sliceInfo = fiArray[sliceIndex];
+		int bytesPerPixel = fi.getBytesPerPixel();
+		int rowSize = getWidth() * bytesPerPixel;
+		TileLayout tiles = getTileLayout(sliceIndex);
+		if (tiles != null) {
+			for (int tileY = y0 / tiles.tileLength; tileY <= (y0 + height - 1) / tiles.tileLength; tileY++) {
+				for (int tileX = x0 / tiles.tileWidth; tileX <= (x0 + width - 1) / tiles.tileWidth; tileX++) {
+					int tile = tileY * tiles.tilesAcross + tileX;
+					ByteBuffer tileBytes = wrapWithFileOrder(readStrip(sliceIndex, tile, tiles.getTileSize()));
+					copyBlockIntoRegion(tileBytes, tiles.getTileX(tile), tiles.getTileY(tile), tiles.tileWidth,
+							tiles.tileLength, x0, y0, width, height, destinationArray);
+				}
+			}
+		} else if (isCompressed(sliceIndex)) {
+			int rowsPerStrip = sliceInfo.rowsPerStrip > 0 ? sliceInfo.rowsPerStrip : getHeight();
+			for (int strip = y0 / rowsPerStrip; strip <= (y0 + height - 1) / rowsPerStrip; strip++) {
+				int stripY = strip * rowsPerStrip;
+				int stripRows = Math.min(rowsPerStrip, getHeight() - stripY);
+				ByteBuffer stripBytes = wrapWithFileOrder(readStrip(sliceIndex, strip, stripRows * rowSize));
+				copyBlockIntoRegion(stripBytes, 0, stripY, getWidth(), stripRows, x0, y0, width, height,
+						destinationArray);
+			}
+		} else {
+			// Uncompressed slices are stored contiguously: read only the rows that hold the region
+			ByteBuffer rows =
+					wrapWithFileOrder(readBytes(sliceIndex, sliceInfo.offset + (long) y0 * rowSize, height
+							* rowSize));
+			copyBlockIntoRegion(rows, 0, y0, getWidth(), height, x0, y0, width, height, destinationArray);
+		}
+	}
+
+	/**
+	 * Read a slice from disk into a newly-allocated array, using a buffer from the pool so that several slices can be
+	 * read concurrently.
+	 * 
+	 * @param key
+	 *            Slice index
+	 * @return 1D array of pixels in the file's pixel type
+	 * @throws IOException
+	 */
+	private Object readSlice(int key) throws IOException {
+		if (needsDecoding(key)) {
+			ByteBuffer uncompressed = decodeSlice(key);
+			if (pType == PixelType.FLOAT_TYPE) {
+				float[] result = new float[getWidth() * getHeight()];
+				uncompressed.asFloatBuffer().get(result);
+				return result;
+			} else if (pType == PixelType.SHORT_TYPE) {
+				short[] result = new short[getWidth() * getHeight()];
+				uncompressed.asShortBuffer().get(result);
+				return result;
+			} else if (pType == PixelType.BYTE_TYPE) {
+				return uncompressed.array();
+			} else
+				throw new RuntimeException("Unkown pixel type " + pType);
+		}
+
+		ByteBuffer localByteBuffer;
+		FloatBuffer localFloatBuffer;
+		ShortBuffer localShortBuffer;
+
+		bufferPool.setSize(getWidth() * getHeight() * fi.getBytesPerPixel(), littleEndian ? ByteOrder.LITTLE_ENDIAN
+				: ByteOrder.BIG_ENDIAN);
+
+		BufferSet bufferSet = bufferPool.checkoutBuffers();
+		localByteBuffer = bufferSet.localByteBuffer;
+		localFloatBuffer = bufferSet.localFloatBuffer;
+		localShortBuffer = bufferSet.localShortBuffer;
+
+		try {
+
+			if (!sliceCanBeRead[key])
+				throw new IllegalStateException("Cannot read slice " + key
+						+ " before it has been written (file was originally opened for writing");
+			if ((closed) || (!inputFileChannel.isOpen()))
+				reOpen();
+
+			if (pType == PixelType.FLOAT_TYPE) {
+				localByteBuffer.clear();
+				int count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
+				if (count == -1) {
+					// The following might not be necessary
+					// This was in case the input stream is not in sync with the modifications made by the
+					// output stream to the file
+					Utils.log("Reopening file " + f.getAbsolutePath(), LogLevel.DEBUG);
+					reOpen();
+					count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
 				}
-			});
+
+				if (count < getWidth() * getHeight() * 4)
+					throw new IOException("Read " + count + " pixels instead of "
+							+ (getWidth() * getHeight() * 4) + " expected from " + f.getAbsolutePath());
+
+				float[] result = new float[getWidth() * getHeight()];
+
+				localFloatBuffer.clear();
+				localFloatBuffer.get(result);
+				localFloatBuffer.clear();
+				return result;
+			} else if (pType == PixelType.SHORT_TYPE) {
+				if (!sliceCanBeRead[key])
+					throw new IllegalStateException("Cannot read slice " + key
+							+ " before it has been written (file was originally opened for writing");
+				if (closed)
+					reOpen();
+
+				localByteBuffer.clear();
+				int count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
+				if (count == -1) {
+					// The following might not be necessary
+					// This was in case the input stream is not in sync with the modifications made by the
+					// output stream to the file
+					Utils.log("Reopening file " + f.getAbsolutePath(), LogLevel.DEBUG);
+					reOpen();
+					count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
+				}
+				if (count < getWidth() * getHeight() * 2)
+					throw new IOException("Read " + count + " pixels instead of "
+							+ (getWidth() * getHeight() * 2) + " expected from " + f.getAbsolutePath());
+
+				short[] result = new short[getWidth() * getHeight()];
+
+				localShortBuffer.clear();
+				localShortBuffer.get(result);
+				localShortBuffer.clear();
+				return result;
+			} else if (pType == PixelType.BYTE_TYPE) {
+				if (!sliceCanBeRead[key])
+					throw new IllegalStateException("Cannot read slice " + key
+							+ " before it has been written (file was originally opened for writing");
+				if (closed || (!inputFileChannel.isOpen()))
+					reOpen();
+
+				localByteBuffer.clear();
+				int count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
+				if (count == -1) {
+					// The following might not be necessary
+					// This was in case the input stream is not in sync with the modifications made by the
+					// output stream to the file
+					Utils.log("Reopening file " + f.getAbsolutePath(), LogLevel.DEBUG);
+					reOpen();
+					count = inputFileChannel.read(localByteBuffer, fiArray[key].offset);
+				}
+				if (count < getWidth() * getHeight())
+					throw new IOException("Read " + count + " pixels instead of "
+							+ (getWidth() * getHeight()) + " expected from " + f.getAbsolutePath());
+
+				byte[] result = new byte[getWidth() * getHeight()];
+
+				localByteBuffer.clear();
+				localByteBuffer.get(result);
+				localByteBuffer.clear();
+
+				return result;
+			} else
+				throw new RuntimeException("Unkown pixel type " + pType);
+		} finally {
+			bufferPool.returnBuffers(bufferSet);
+		}
+	}
 }
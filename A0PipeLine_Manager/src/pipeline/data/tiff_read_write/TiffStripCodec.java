@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data.tiff_read_write;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression and decompression of TIFF strips. Supported codecs are LZW (TIFF compression 5, which the bundled
+ * ImageJ only reads for 8- and 16-bit images) and Deflate (TIFF compression 8, also known as "ZIP", which the bundled
+ * ImageJ cannot read), plus PackBits decompression. The horizontal differencing predictor is not supported.
+ *
+ */
+final class TiffStripCodec {
+
+	private TiffStripCodec() {
+	}
+
+	/**
+	 * @param compression
+	 *            One of the compression constants in {@link BareBonesFileInfoLongOffsets}
+	 * @return Value of the TIFF Compression tag
+	 */
+	static int tiffTagValue(int compression) {
+		switch (compression) {
+			case BareBonesFileInfoLongOffsets.COMPRESSION_NONE:
+				return 1;
+			case BareBonesFileInfoLongOffsets.LZW:
+				return 5;
+			case BareBonesFileInfoLongOffsets.ZIP:
+				return 8;
+			case BareBonesFileInfoLongOffsets.PACK_BITS:
+				return 32773;
+			default:
+				throw new IllegalArgumentException("Unsupported compression " + compression);
+		}
+	}
+
+	static boolean canCompress(int compression) {
+		return compression == BareBonesFileInfoLongOffsets.LZW || compression == BareBonesFileInfoLongOffsets.ZIP;
+	}
+
+	static boolean canDecompress(int compression) {
+		return canCompress(compression) || compression == BareBonesFileInfoLongOffsets.PACK_BITS;
+	}
+
+	static byte[] compress(byte[] data, int compression) {
+		switch (compression) {
+			case BareBonesFileInfoLongOffsets.LZW:
+				return lzwCompress(data);
+			case BareBonesFileInfoLongOffsets.ZIP:
+				return deflate(data);
+			default:
+				throw new IllegalArgumentException("Unsupported compression " + compression);
+		}
+	}
+
+	/**
+	 * @param data
+	 * @param compression
+	 * @param expectedLength
+	 *            Number of bytes the strip decompresses to
+	 * @return Decompressed strip, of length expectedLength
+	 * @throws IOException
+	 *             If data are corrupt or do not decompress to the expected length
+	 */
+	static byte[] decompress(byte[] data, int compression, int expectedLength) throws IOException {
+		byte[] result;
+		switch (compression) {
+			case BareBonesFileInfoLongOffsets.LZW:
+				result = lzwDecompress(data, expectedLength);
+				break;
+			case BareBonesFileInfoLongOffsets.ZIP:
+				result = inflate(data, expectedLength);
+				break;
+			case BareBonesFileInfoLongOffsets.PACK_BITS:
+				result = packBitsDecompress(data, expectedLength);
+				break;
+			default:
+				throw new IOException("Unsupported compression " + compression);
+		}
+		return result;
+	}
+
+	/**
+	 * Favor speed over compression ratio: compressed files are mostly intermediate results
+	 */
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+			byte[] buffer = new byte[65536];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(byte[] data, int expectedLength) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			byte[] result = new byte[expectedLength];
+			int n = 0;
+			while (n < expectedLength && !inflater.finished()) {
+				int read = inflater.inflate(result, n, expectedLength - n);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += read;
+			}
+			if (n != expectedLength)
+				throw new IOException("Deflate strip decompressed to " + n + " bytes instead of " + expectedLength);
+			return result;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt Deflate strip", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static final int CLEAR_CODE = 256;
+	private static final int EOI_CODE = 257;
+	private static final int FIRST_CODE = 258;
+	/**
+	 * A Clear code is emitted once the table reaches this size, so that codes never need more than 12 bits.
+	 */
+	private static final int MAX_CODE = 4094;
+
+	private static final class BitWriter {
+		byte[] bytes;
+		int nBytes = 0;
+		int bitBuffer = 0;
+		int nBitsInBuffer = 0;
+
+		BitWriter(int initialCapacity) {
+			bytes = new byte[Math.max(16, initialCapacity)];
+		}
+
+		/**
+		 * Codes are packed most significant bit first.
+		 */
+		void write(int code, int nBits) {
+			bitBuffer = (bitBuffer << nBits) | code;
+			nBitsInBuffer += nBits;
+			while (nBitsInBuffer >= 8) {
+				if (nBytes == bytes.length)
+					bytes = Arrays.copyOf(bytes, bytes.length * 2);
+				nBitsInBuffer -= 8;
+				bytes[nBytes++] = (byte) (bitBuffer >>> nBitsInBuffer);
+			}
+			bitBuffer &= (1 << nBitsInBuffer) - 1;
+		}
+
+		byte[] finish() {
+			if (nBitsInBuffer > 0)
+				write(0, 8 - nBitsInBuffer);
+			return Arrays.copyOf(bytes, nBytes);
+		}
+	}
+
+	/**
+	 * @param nextCode
+	 *            Code that will be assigned to the next table entry
+	 * @return Width in bits of the next code to write; TIFF decoders switch to a larger width one code early
+	 */
+	private static int codeWidth(int nextCode) {
+		if (nextCode < 512)
+			return 9;
+		else if (nextCode < 1024)
+			return 10;
+		else if (nextCode < 2048)
+			return 11;
+		else
+			return 12;
+	}
+
+	private static final int HASH_SIZE = 8192;
+
+	static byte[] lzwCompress(byte[] data) {
+		BitWriter out = new BitWriter(data.length / 2);
+		// Open-addressing table mapping (prefix code, next byte) to code
+		int[] hashKeys = new int[HASH_SIZE];
+		short[] hashCodes = new short[HASH_SIZE];
+		Arrays.fill(hashKeys, -1);
+
+		out.write(CLEAR_CODE, 9);
+		if (data.length == 0) {
+			out.write(EOI_CODE, 9);
+			return out.finish();
+		}
+		int nextCode = FIRST_CODE;
+		int prefix = data[0] & 0xff;
+		for (int i = 1; i < data.length; i++) {
+			int c = data[i] & 0xff;
+			int key = (prefix << 8) | c;
+			int slot = (key * 0x9E3779B1 >>> 19) & (HASH_SIZE - 1);
+			while (hashKeys[slot] != -1 && hashKeys[slot] != key) {
+				slot = (slot + 1) & (HASH_SIZE - 1);
+			}
+			if (hashKeys[slot] == key) {
+				prefix = hashCodes[slot];
+				continue;
+			}
+			out.write(prefix, codeWidth(nextCode));
+			hashKeys[slot] = key;
+			hashCodes[slot] = (short) nextCode;
+			nextCode++;
+			if (nextCode == MAX_CODE) {
+				out.write(CLEAR_CODE, codeWidth(nextCode));
+				Arrays.fill(hashKeys, -1);
+				nextCode = FIRST_CODE;
+			}
+			prefix = c;
+		}
+		out.write(prefix, codeWidth(nextCode));
+		// The decoder adds a table entry after reading the last code, which might make it switch code width before
+		// reading End Of Information
+		out.write(EOI_CODE, codeWidth(nextCode + 1));
+		return out.finish();
+	}
+
+	static byte[] lzwDecompress(byte[] data, int expectedLength) throws IOException {
+		byte[] result = new byte[expectedLength];
+		int[] prefixes = new int[4096];
+		byte[] suffixes = new byte[4096];
+		byte[] firstBytes = new byte[4096];
+		int[] lengths = new int[4096];
+		for (int i = 0; i < 256; i++) {
+			prefixes[i] = -1;
+			suffixes[i] = (byte) i;
+			firstBytes[i] = (byte) i;
+			lengths[i] = 1;
+		}
+
+		int nextSymbol = FIRST_CODE;
+		int nBits = 9;
+		int oldCode = -1;
+		int outPos = 0;
+		long bitPos = 0;
+		long totalBits = data.length * 8L;
+
+		while (bitPos + nBits <= totalBits && outPos < expectedLength) {
+			int code = 0;
+			for (int b = 0; b < nBits; b++, bitPos++) {
+				code = (code << 1) | ((data[(int) (bitPos >>> 3)] >>> (7 - (int) (bitPos & 7))) & 1);
+			}
+			if (code == EOI_CODE)
+				break;
+			if (code == CLEAR_CODE) {
+				nextSymbol = FIRST_CODE;
+				nBits = 9;
+				oldCode = -1;
+				continue;
+			}
+			if (oldCode == -1) {
+				if (code > 255)
+					throw new IOException("Corrupt LZW strip: first code after Clear is " + code);
+				result[outPos++] = (byte) code;
+				oldCode = code;
+				continue;
+			}
+			if (nextSymbol >= 4096)
+				throw new IOException("Corrupt LZW strip: code table overflow");
+			if (code < nextSymbol) {
+				prefixes[nextSymbol] = oldCode;
+				suffixes[nextSymbol] = firstBytes[code];
+			} else if (code == nextSymbol) {
+				prefixes[nextSymbol] = oldCode;
+				suffixes[nextSymbol] = firstBytes[oldCode];
+			} else
+				throw new IOException("Corrupt LZW strip: code " + code + " is not in table");
+			firstBytes[nextSymbol] = firstBytes[oldCode];
+			lengths[nextSymbol] = lengths[oldCode] + 1;
+			nextSymbol++;
+
+			int length = lengths[code];
+			int end = Math.min(outPos + length, expectedLength);
+			int c = code;
+			for (int p = outPos + length - 1; p >= outPos; p--) {
+				if (p < end)
+					result[p] = suffixes[c];
+				c = prefixes[c];
+			}
+			outPos = end;
+			oldCode = code;
+
+			if (nextSymbol == 511)
+				nBits = 10;
+			else if (nextSymbol == 1023)
+				nBits = 11;
+			else if (nextSymbol == 2047)
+				nBits = 12;
+		}
+		if (outPos != expectedLength)
+			throw new IOException("LZW strip decompressed to " + outPos + " bytes instead of " + expectedLength);
+		return result;
+	}
+
+	private static byte[] packBitsDecompress(byte[] data, int expectedLength) throws IOException {
+		byte[] result = new byte[expectedLength];
+		int inPos = 0;
+		int outPos = 0;
+		while (outPos < expectedLength && inPos < data.length) {
+			int n = data[inPos++];
+			if (n >= 0) {
+				int count = Math.min(n + 1, Math.min(expectedLength - outPos, data.length - inPos));
+				System.arraycopy(data, inPos, result, outPos, count);
+				inPos += n + 1;
+				outPos += count;
+			} else if (n != -128 && inPos < data.length) {
+				byte b = data[inPos++];
+				int count = Math.min(-n + 1, expectedLength - outPos);
+				Arrays.fill(result, outPos, outPos + count, b);
+				outPos += count;
+			}
+		}
+		if (outPos != expectedLength)
+			throw new IOException("PackBits strip decompressed to " + outPos + " bytes instead of " + expectedLength);
+		return result;
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.data.tiff_read_write;
+
+/**
+ * Geometry of a tiled TIFF slice. Tiles are numbered in row-major order, and tiles on the right and bottom edges are
+ * padded to the full tile size, as required by the TIFF specification.
+ *
+ */
+final class TileLayout {
+
+	final int width, height;
+	final int tileWidth, tileLength;
+	final int bytesPerPixel;
+	final int tilesAcross, tilesDown;
+
+	TileLayout(int width, int height, int tileWidth, int tileLength, int bytesPerPixel) {
+		if (tileWidth <= 0 || tileLength <= 0)
+			throw new IllegalArgumentException("Invalid tile size " + tileWidth + "x" + tileLength);
+		this.width = width;
+		this.height = height;
+		this.tileWidth = tileWidth;
+		this.tileLength = tileLength;
+		this.bytesPerPixel = bytesPerPixel;
+		tilesAcross = (width + tileWidth - 1) / tileWidth;
+		tilesDown = (height + tileLength - 1) / tileLength;
+	}
+
+	int getNTiles() {
+		return tilesAcross * tilesDown;
+	}
+
+	/**
+	 * @return Number of bytes in an uncompressed tile, including padding
+	 */
+	int getTileSize() {
+		return tileWidth * tileLength * bytesPerPixel;
+	}
+
+	int getTileX(int tile) {
+		return (tile % tilesAcross) * tileWidth;
+	}
+
+	int getTileY(int tile) {
+		return (tile / tilesAcross) * tileLength;
+	}
+
+	/**
+	 * Copy a tile out of a slice, padding it with 0s where it extends past the edges of the slice.
+	 *
+	 * @param slice
+	 *            Uncompressed slice, in the byte order of the file
+	 * @param tile
+	 * @return Uncompressed tile
+	 */
+	byte[] extractTile(byte[] slice, int tile) {
+		byte[] result = new byte[getTileSize()];
+		int x0 = getTileX(tile);
+		int y0 = getTileY(tile);
+		int rowBytes = Math.min(tileWidth, width - x0) * bytesPerPixel;
+		int nRows = Math.min(tileLength, height - y0);
+		for (int row = 0; row < nRows; row++) {
+			System.arraycopy(slice, ((y0 + row) * width + x0) * bytesPerPixel, result, row * tileWidth
+					* bytesPerPixel, rowBytes);
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the part of a tile that lies within the slice into the slice.
+	 *
+	 * @param tileBytes
+	 *            Uncompressed tile
+	 * @param tile
+	 * @param slice
+	 */
+	void copyTileIntoSlice(byte[] tileBytes, int tile, byte[] slice) {
+		int x0 = getTileX(tile);
+		int y0 = getTileY(tile);
+		int rowBytes = Math.min(tileWidth, width - x0) * bytesPerPixel;
+		int nRows = Math.min(tileLength, height - y0);
+		for (int row = 0; row < nRows; row++) {
+			System.arraycopy(tileBytes, row * tileWidth * bytesPerPixel, slice, ((y0 + row) * width + x0)
+					* bytesPerPixel, rowBytes);
+		}
+	}
+}
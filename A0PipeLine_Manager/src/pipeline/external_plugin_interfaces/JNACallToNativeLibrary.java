@@ -501,14 +501,14 @@ public class JNACallToNativeLibrary extends LinkToExternalProgram {
 				byte[] protobuf;
 				if (inputOrOutputName == null) {
 					Utils.log("*** Passing an image as protobuf", LogLevel.WARNING);
-					protobuf = input.asProtobufBytes();
+					protobuf = asNativeProtobufBytes(input);
 				} else {
 					IPluginIO imp = getAuxInputOrOutputImp(inputOrOutputName, true);
 					if (imp instanceof PluginIOCells)
 						if (((PluginIOCells) imp).getWidth() == 0)
 							Utils.log("*** Passing width of 0 to plugin", LogLevel.WARNING);
 					// TODO IGNORING MULTIPLE CHANNELS FOR NOW
-				protobuf = imp.asProtobufBytes();
+				protobuf = asNativeProtobufBytes(imp);
 
 				/*
 				 * SegDirectory segDir=SegDirectory.parseFrom(protobuf);
@@ -605,6 +605,16 @@ public class JNACallToNativeLibrary extends LinkToExternalProgram {
 
 	}
 
+	/**
+	 * Native plugins only understand segmentation coordinates, whereas the protobuf PluginIOCells caches (e.g. as read
+	 * from a file) may hold runs.
+	 */
+	private static byte[] asNativeProtobufBytes(IPluginIO io) {
+		if (io instanceof PluginIOCells)
+			return ((PluginIOCells) io).asProtobufBytes(false);
+		return io.asProtobufBytes();
+	}
+
 	private static SimpleImageDimensions getImageDimensions(IPluginIOHyperstack stack) {
 		SimpleImageDimensions dim = new SimpleImageDimensions();
 		dim.width = stack.getWidth();
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.misc_util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Quantiles of a set of float values that is too large to be copied and sorted, computed from histograms of the
+ * values' bits. Each float is mapped to a 32-bit key that sorts in the same order as the float (Float.compare
+ * order, with NaNs last); a first pass counts values by the high 16 bits of their key, which identifies for each
+ * quantile the bin in which it lies, and in exact mode a second pass counts the values that fall in those bins by the
+ * low 16 bits of their key, which identifies the quantile itself. The result is the same as that of sorting all values
+ * and reading the element at index (long) ((n - 1) * fraction). In approximate mode, only the first pass is made and
+ * the middle of the bin is returned; a bin spans a range of values whose width is less than 1/128 of their magnitude,
+ * so that the relative error is at most 1/256.
+ *
+ * Values are fed through {@link Accumulator}s, each of which must only be used by one thread at a time; accumulators
+ * are merged when {@link #finishPass} is called. Memory use is 512 kB per accumulator, whatever the number of values.
+ *
+ */
+public class Quantiles {
+
+	public enum Mode {
+		EXACT, APPROXIMATE
+	}
+
+	private static final int N_BINS = 1 << 16;
+
+	private final double[] fractions;
+	private final Mode mode;
+
+	/**
+	 * 0 while counting high bits, 1 while counting low bits in target bins, 2 once quantiles are known
+	 */
+	private int pass = 0;
+	private final List<Accumulator> accumulators = new ArrayList<>();
+	private long count;
+	/**
+	 * Distinct high-bit bins that contain the quantiles, and for each quantile its index in that array and its rank
+	 * among the values of its bin
+	 */
+	private int[] targetBins;
+	private int[] quantileTarget;
+	private long[] rankInBin;
+	private float[] quantiles;
+
+	/**
+	 * @param fractions
+	 *            Between 0 and 1 (e.g. 0.95 for the 95th percentile)
+	 * @param mode
+	 */
+	public Quantiles(double[] fractions, Mode mode) {
+		for (double f : fractions) {
+			if (!(f >= 0 && f <= 1))
+				throw new IllegalArgumentException("Quantile fraction " + f + " is not between 0 and 1");
+		}
+		this.fractions = fractions.clone();
+		this.mode = mode;
+	}
+
+	/**
+	 * Collects the values of one thread for the current pass. Every value must be fed in each pass.
+	 */
+	public final class Accumulator {
+		private final long[] counts;
+		private final int[] bins;
+
+		private Accumulator(int[] bins) {
+			this.bins = bins;
+			counts = new long[bins == null ? N_BINS : bins.length * N_BINS];
+		}
+
+		public void add(float value) {
+			int key = key(value);
+			if (bins == null) {
+				counts[key >>> 16]++;
+				return;
+			}
+			int bin = key >>> 16;
+			for (int i = 0; i < bins.length; i++) {
+				if (bins[i] == bin) {
+					counts[i * N_BINS + (key & 0xffff)]++;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Adds all elements of a pixel array; byte and short values are read as unsigned.
+		 *
+		 * @param pixels
+		 *            byte[], short[] or float[]
+		 */
+		public void addAll(Object pixels) {
+			if (pixels instanceof float[]) {
+				float[] a = (float[]) pixels;
+				if (bins == null) {
+					for (float f : a) {
+						counts[key(f) >>> 16]++;
+					}
+				} else {
+					for (float f : a) {
+						add(f);
+					}
+				}
+			} else if (pixels instanceof byte[]) {
+				for (byte b : (byte[]) pixels) {
+					add(b & 0xff);
+				}
+			} else if (pixels instanceof short[]) {
+				for (short s : (short[]) pixels) {
+					add(s & 0xffff);
+				}
+			} else
+				throw new IllegalArgumentException("Unsupported pixel array " + pixels);
+		}
+	}
+
+	/**
+	 * @return Key whose unsigned order is the order of Float.compare
+	 */
+	private static int key(float f) {
+		int bits = Float.floatToIntBits(f);
+		return bits ^ ((bits >> 31) & 0x7fffffff) ^ 0x80000000;
+	}
+
+	private static float value(int key) {
+		int bits = key ^ 0x80000000;
+		return Float.intBitsToFloat(bits ^ ((bits >> 31) & 0x7fffffff));
+	}
+
+	/**
+	 * @return New accumulator for the current pass, merged into the result by the next call to {@link #finishPass}
+	 */
+	public synchronized Accumulator newAccumulator() {
+		if (pass == 2)
+			throw new IllegalStateException("Quantiles have already been computed");
+		Accumulator accumulator = new Accumulator(pass == 0 ? null : targetBins);
+		accumulators.add(accumulator);
+		return accumulator;
+	}
+
+	/**
+	 * Merges the accumulators of the current pass. Accumulators must not be used after this call.
+	 *
+	 * @return True if quantiles are now available (or if there were no values); false if the values must be fed again
+	 *         in another pass
+	 */
+	public synchronized boolean finishPass() {
+		if (pass == 2)
+			return true;
+		int length = pass == 0 ? N_BINS : targetBins.length * N_BINS;
+		long[] counts = new long[length];
+		for (Accumulator accumulator : accumulators) {
+			for (int i = 0; i < length; i++) {
+				counts[i] += accumulator.counts[i];
+			}
+		}
+		accumulators.clear();
+
+		if (pass == 0) {
+			for (long c : counts) {
+				count += c;
+			}
+			if (count == 0) {
+				pass = 2;
+				return true;
+			}
+			int[] bins = new int[fractions.length];
+			rankInBin = new long[fractions.length];
+			for (int q = 0; q < fractions.length; q++) {
+				long rank = (long) ((count - 1d) * fractions[q]);
+				int bin = 0;
+				while (rank >= counts[bin]) {
+					rank -= counts[bin];
+					bin++;
+				}
+				bins[q] = bin;
+				rankInBin[q] = rank;
+			}
+			if (mode == Mode.APPROXIMATE) {
+				quantiles = new float[fractions.length];
+				for (int q = 0; q < fractions.length; q++) {
+					quantiles[q] = (float) ((value(bins[q] << 16) + (double) value((bins[q] << 16) | 0xffff)) / 2);
+				}
+				pass = 2;
+				return true;
+			}
+			targetBins = Arrays.stream(bins).distinct().toArray();
+			quantileTarget = new int[fractions.length];
+			for (int q = 0; q < fractions.length; q++) {
+				for (int i = 0; i < targetBins.length; i++) {
+					if (targetBins[i] == bins[q])
+						quantileTarget[q] = i;
+				}
+			}
+			pass = 1;
+			return false;
+		}
+
+		quantiles = new float[fractions.length];
+		for (int q = 0; q < fractions.length; q++) {
+			int offset = quantileTarget[q] * N_BINS;
+			long rank = rankInBin[q];
+			int low = 0;
+			while (rank >= counts[offset + low]) {
+				rank -= counts[offset + low];
+				low++;
+			}
+			quantiles[q] = value((targetBins[quantileTarget[q]] << 16) | low);
+		}
+		pass = 2;
+		return true;
+	}
+
+	/**
+	 * @return Number of values fed in the first pass
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return One quantile per fraction given to the constructor
+	 */
+	public synchronized float[] getQuantiles() {
+		if (pass != 2)
+			throw new IllegalStateException("Quantiles have not been computed yet");
+		if (count == 0)
+			throw new IllegalStateException("No values to compute quantiles from");
+		return quantiles.clone();
+	}
+
+	/**
+	 * Computes quantiles of all pixels of a stack, in parallel across slices. File-backed stacks are read one slice at
+	 * a time (twice in exact mode).
+	 *
+	 * @param stack
+	 * @param fractions
+	 * @param mode
+	 * @param progress
+	 *            Can be null
+	 * @return One quantile per fraction
+	 * @throws InterruptedException
+	 */
+	public static float[] ofStack(final IPluginIOStack stack, double[] fractions, Mode mode,
+			ProgressReporter progress) throws InterruptedException {
+		final Object[] slices;
+		if (stack instanceof ImageAccessor)
+			slices = null;
+		else {
+			stack.computePixelArray();
+			slices = stack.getStackPixelArray();
+		}
+		final Quantiles quantiles = new Quantiles(fractions, mode);
+		do {
+			ParFor parFor = new ParFor("Quantiles", 0, stack.getDepth() - 1, progress, true);
+			final Accumulator[] threadAccumulators = new Accumulator[parFor.getNThreads()];
+			for (int i = 0; i < parFor.getNThreads(); i++)
+				parFor.addLoopWorker((z, threadIndex) -> {
+					if (threadAccumulators[threadIndex] == null)
+						threadAccumulators[threadIndex] = quantiles.newAccumulator();
+					Object pixels;
+					if (slices != null)
+						pixels = slices[z];
+					else {
+						try {
+							pixels =
+									((ImageAccessor) stack).getPixelZSliceCopy(z, ImageAccessor.DONT_CACHE_PIXELS);
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+					threadAccumulators[threadIndex].addAll(pixels);
+					return null;
+				});
+			parFor.run(true);
+		} while (!quantiles.finishPass());
+		return quantiles.getQuantiles();
+	}
+}
@@ -143,6 +143,16 @@ public class Utils {
 		final String finalMessage =
 				prependTime && !suppressTime ? dateFormatter.get().format((new Date())) + " " + message2 : message2;
 
+		CapturedLog capture = logCapture.get();
+		if (capture != null) {
+			capture.add(finalMessage, logLevel);
+			return;
+		}
+
+		writeLogMessage(finalMessage, logLevel);
+	}
+
+	private static void writeLogMessage(final String finalMessage, int logLevel) {
 		try {
 			if ((!failedToOpenLogFile) && (writer == null)) {
 				if (logFileName == null) {
@@ -196,6 +206,58 @@ public class Utils {
 
 	}
 
+	/**
+	 * Messages diverted by {@link #setLogCapture}, each with the level it was logged at. Messages can be added from
+	 * several threads (e.g. the workers of a {@link pipeline.misc_util.parfor.ParFor} started by the capturing thread).
+	 */
+	public static final class CapturedLog {
+		private final List<String> messages = new ArrayList<>();
+		private final List<Integer> logLevels = new ArrayList<>();
+
+		private synchronized void add(String message, int logLevel) {
+			messages.add(message);
+			logLevels.add(logLevel);
+		}
+	}
+
+	private static final ThreadLocal<CapturedLog> logCapture = new ThreadLocal<>();
+
+	/**
+	 * Divert messages logged from the current thread into buffer instead of writing them out, so that they can later be
+	 * written out in a deterministic order with {@link #logCapturedMessages}. Pass null to stop diverting.
+	 * 
+	 * @param buffer
+	 */
+	public static void setLogCapture(CapturedLog buffer) {
+		if (buffer == null)
+			logCapture.remove();
+		else
+			logCapture.set(buffer);
+	}
+
+	/**
+	 * @return Buffer messages logged from the current thread are diverted into, or null if they are not being
+	 *         diverted
+	 */
+	public static CapturedLog getLogCapture() {
+		return logCapture.get();
+	}
+
+	/**
+	 * Write out messages previously captured with {@link #setLogCapture}, at the level they were logged at.
+	 * 
+	 * @param log
+	 */
+	public static void logCapturedMessages(CapturedLog log) {
+		if (log == null)
+			return;
+		synchronized (log) {
+			for (int i = 0; i < log.messages.size(); i++) {
+				writeLogMessage(log.messages.get(i), log.logLevels.get(i));
+			}
+		}
+	}
+
 	/**
 	 * Log the passed string to the ImageJ log window.
 	 * 
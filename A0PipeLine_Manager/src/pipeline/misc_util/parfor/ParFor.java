@@ -11,16 +11,38 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
+import pipeline.misc_util.Utils.CapturedLog;
 import pipeline.misc_util.Utils.LogLevel;
 import pipeline.plugins.BasePipelinePlugin;
 
+/**
+ * Runs loop iterations in parallel. Each worker added with {@link #addLoopWorker} is only ever called from one thread
+ * at a time, with its own threadIndex, so workers can keep per-thread state. Iterations are handed out to workers in
+ * chunks that shrink as the loop nears its end, so that workers finish at about the same time without paying for an
+ * atomic operation per iteration.
+ * <p>
+ * Blocking runs on {@link BasePipelinePlugin#threadPool} are executed on the work-stealing
+ * {@link BasePipelinePlugin#forkJoinPool}: the calling thread does its share of the work, and the other workers are
+ * forked onto the pool. A ParFor started from within the worker of another ParFor therefore forks onto the same pool,
+ * and the idle threads of the pool steal its workers, instead of the two levels of parallelism multiplying the number
+ * of threads. Non-blocking runs, whose workers may be long-lived, still execute on the thread pool passed to the
+ * constructor.
+ * <p>
+ * Workers of blocking runs log into the same {@link Utils.CapturedLog} as the thread that started the run, if that
+ * thread's messages are being captured, so that messages from all the threads working on an image stay together.
+ *
+ */
 public class ParFor {
 	private int startIndex, endIndex;
 	private int nIterations;
@@ -45,10 +67,17 @@ public class ParFor {
 		this.progressReporter = progressBar;
 		this.stopAllUponException = stopAllUponException;
 
-		int useNThreads = (int) (nProc * 1.5);
-		int activeThreads = ((ThreadPoolExecutor) threadPool).getActiveCount();
-		if (activeThreads > nProc)
-			useNThreads = 2;
+		int useNThreads;
+		if (useWorkStealing && isWorkStealingPoolThread()) {
+			// Nested ParFor: idle pool threads will steal our workers, and there is no point in having more of them
+			// than the pool can run at once
+			useNThreads = BasePipelinePlugin.forkJoinPool.getParallelism();
+		} else {
+			useNThreads = (int) (nProc * 1.5);
+			if (!useWorkStealing && threadPool instanceof ThreadPoolExecutor
+					&& ((ThreadPoolExecutor) threadPool).getActiveCount() > nProc)
+				useNThreads = 2;
+		}
 		int result = Math.min(Math.min(nIterations, useNThreads), maxNThreads);
 		if ((workers == null) || (workers.length != result))
 			workers = new ILoopWorker[result];
@@ -61,6 +90,18 @@ public class ParFor {
 	}
 
 	private static int nProc = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Set to false to run all ParFors directly on the thread pool passed to their constructor, without work
+	 * stealing.
+	 */
+	public static volatile boolean useWorkStealing = true;
+
+	private static boolean isWorkStealingPoolThread() {
+		Thread t = Thread.currentThread();
+		return t instanceof ForkJoinWorkerThread
+				&& ((ForkJoinWorkerThread) t).getPool() == BasePipelinePlugin.forkJoinPool;
+	}
 	private ILoopWorker[] workers = null;
 	private int workerArrayIndex = 0;
 
@@ -86,7 +127,28 @@ public class ParFor {
 
 	private transient final AtomicInteger index = new AtomicInteger();
 
-	private static final int increment = 1;
+	/**
+	 * Each chunk handed out to a worker is this fraction of the iterations that remain, divided by the number of
+	 * workers.
+	 */
+	private static final int CHUNK_DIVISOR = 2;
+
+	/**
+	 * Claim the next chunk of iterations.
+	 *
+	 * @return {first index, last index} of the chunk, or null if there are no iterations left
+	 */
+	private int[] claimChunk() {
+		while (true) {
+			int first = index.get();
+			if (first > endIndex)
+				return null;
+			int remaining = endIndex - first + 1;
+			int size = Math.max(1, remaining / (CHUNK_DIVISOR * workers.length));
+			if (index.compareAndSet(first, first + size))
+				return new int[] { first, first + size - 1 };
+		}
+	}
 
 	private List<?>[] partialResults;
 	private Future<?>[] futures;
@@ -97,6 +159,17 @@ public class ParFor {
 	private volatile boolean printedMissingExceptionWarning;
 
 	private volatile boolean started = false;
+	private volatile boolean workStealing;
+	/**
+	 * Set to 1 by the first thread that either runs or skips the corresponding worker, so that a worker forked onto
+	 * the work-stealing pool can be skipped by the caller once there are no iterations left.
+	 */
+	private AtomicIntegerArray workerStarted;
+	/**
+	 * Threads currently running workers on behalf of the work-stealing engine, other than the caller; guarded by
+	 * itself.
+	 */
+	private Thread[] workerThreads;
 	private Object doneSemaphore = new Object();
 	private volatile boolean done = false;
 
@@ -125,6 +198,9 @@ public class ParFor {
 
 			clientWillGetExceptions = block || (nToCompleteBeforeReturn != -1);
 			printedMissingExceptionWarning = false;
+			workStealing =
+					useWorkStealing && block && nToCompleteBeforeReturn == -1
+							&& threadPool == BasePipelinePlugin.threadPool;
 
 			partialResults = new ArrayList<?>[workers.length];
 			for (int i = 0; i < partialResults.length; i++) {
@@ -132,11 +208,16 @@ public class ParFor {
 			}
 			Runnable[] runnables = new Runnable[workers.length];
 			futures = new Future[workers.length];
+			workerStarted = new AtomicIntegerArray(workers.length);
+			workerThreads = new Thread[workers.length];
 			abort = false;
 			e = null;
 			final float progressMultiplyingFactor = 100.0f / nIterations;
 			final Thread parentThread = Thread.currentThread();
 			final AtomicInteger nCompleted = new AtomicInteger(0);
+			// Workers of non-blocking runs can outlive the capture, whose messages are written out once the caller is
+			// done
+			final CapturedLog logCapture = block ? Utils.getLogCapture() : null;
 			index.set(startIndex);
 
 			for (int i = 0; i < workers.length; i++) {
@@ -151,9 +232,23 @@ public class ParFor {
 
 					@Override
 					public final void run() {
+						if (workerStarted.getAndSet(workerID, 1) != 0)
+							// Skipped by the caller because there were no iterations left
+							return;
+						final Thread thread = Thread.currentThread();
+						final String threadName = thread.getName();
+						final boolean registerThread = workStealing && thread != parentThread;
+						if (registerThread) {
+							synchronized (workerThreads) {
+								workerThreads[workerID] = thread;
+							}
+						}
+						final CapturedLog previousLogCapture = Utils.getLogCapture();
+						if (thread != parentThread)
+							Utils.setLogCapture(logCapture);
 						try {
 
-							Thread.currentThread().setName(name + workerID);
+							thread.setName(name + workerID);
 
 							final ILoopWorker localWorker = workers[workerID] == null ? workers[0] : workers[workerID];
 							@SuppressWarnings("unchecked")
@@ -161,30 +256,31 @@ public class ParFor {
 
 							int sliceModulo = 0;
 
-							for (int n = index.getAndAdd(increment); n <= endIndex; n = index.getAndAdd(increment)) {
-								if (abort)
-									return;
-								// Thread.yield();
-								Object result = localWorker.run(n, workerID);
-								if (result != null)
-									localResults.add(result);
-
-								if ((localProgress != null) && (sliceModulo++ == modulo)) {
-									long currentTime = System.currentTimeMillis();
-									if (lastGUIUpdate > 0) {
-										long timeLag = currentTime - lastGUIUpdate;
-										if (Math.abs(timeLag) > 3000) {
-											modulo = Math.max((int) (modulo * 0.7), 1);
-										} else if (Math.abs(timeLag) < 500) {
-											modulo = Math.min(Integer.MAX_VALUE / 2, (int) (modulo * 1.3));
+							for (int[] chunk = claimChunk(); chunk != null; chunk = claimChunk()) {
+								for (int n = chunk[0]; n <= chunk[1]; n++) {
+									if (abort)
+										return;
+									Object result = localWorker.run(n, workerID);
+									if (result != null)
+										localResults.add(result);
+
+									if ((localProgress != null) && (sliceModulo++ == modulo)) {
+										long currentTime = System.currentTimeMillis();
+										if (lastGUIUpdate > 0) {
+											long timeLag = currentTime - lastGUIUpdate;
+											if (Math.abs(timeLag) > 3000) {
+												modulo = Math.max((int) (modulo * 0.7), 1);
+											} else if (Math.abs(timeLag) < 500) {
+												modulo = Math.min(Integer.MAX_VALUE / 2, (int) (modulo * 1.3));
+											}
 										}
+										lastGUIUpdate = currentTime;
+										sliceModulo = 0;
+										int ourProgress = (int) ((n - startIndex) * progressMultiplyingFactor);
+										if (ourProgress > localProgress.getValue())
+											localProgress.setValueThreadSafe(ourProgress);
+										// not perfect but minimizes synchronization
 									}
-									lastGUIUpdate = currentTime;
-									sliceModulo = 0;
-									int ourProgress = (int) ((n - startIndex) * progressMultiplyingFactor);
-									if (ourProgress > localProgress.getValue())
-										localProgress.setValueThreadSafe(ourProgress);
-									// not perfect but minimizes synchronization
 								}
 							}
 						} catch (Exception e1) {
@@ -210,7 +306,10 @@ public class ParFor {
 									}
 								}
 								Utils.log(name + "Aborting ParFor run", LogLevel.INFO);
-								if (clientWillGetExceptions && parentThread != null)
+								if (workStealing)
+									// The caller is working too, and will notice the abort flag
+									interruptWorkers();
+								else if (clientWillGetExceptions && parentThread != null)
 									parentThread.interrupt();
 							}
 						} finally {
@@ -222,43 +321,60 @@ public class ParFor {
 									}
 								}
 							}
-							Thread.currentThread().setName("");
+							thread.setName(threadName);
+							if (thread != parentThread)
+								Utils.setLogCapture(previousLogCapture);
+							if (registerThread) {
+								synchronized (workerThreads) {
+									workerThreads[workerID] = null;
+								}
+								// Do not leave an interrupt aimed at this worker to the next task run by the pool
+								// thread
+								Thread.interrupted();
+							}
 						}
 					}
 				};
-				futures[i] = threadPool.submit(runnables[i], 0);
 			}
 
-			if (!block && nToCompleteBeforeReturn == -1) {
-				return null;
-			}
+			if (workStealing) {
+				runWorkStealing(runnables);
+			} else {
+				for (int i = 0; i < workers.length; i++) {
+					futures[i] = threadPool.submit(runnables[i], 0);
+				}
 
-			if (nToCompleteBeforeReturn != -1) {
-				synchronized (nCompleted) {
-					while (nCompleted.get() < nToCompleteBeforeReturn && (!abort)) {
-						try {
-							nCompleted.wait();
-						} catch (InterruptedException e1) {
-							if (!abort) {
-								abort = true;
-								synchronized (ParFor.this) {
-									if (e == null) {
-										e = e1;
-										synchronized (doneSemaphore) {
-											doneSemaphore.notifyAll();
+				if (!block && nToCompleteBeforeReturn == -1) {
+					return null;
+				}
+
+				if (nToCompleteBeforeReturn != -1) {
+					synchronized (nCompleted) {
+						while (nCompleted.get() < nToCompleteBeforeReturn && (!abort)) {
+							try {
+								nCompleted.wait();
+							} catch (InterruptedException e1) {
+								if (!abort) {
+									abort = true;
+									synchronized (ParFor.this) {
+										if (e == null) {
+											e = e1;
+											synchronized (doneSemaphore) {
+												doneSemaphore.notifyAll();
+											}
 										}
 									}
-								}
-								Utils.log(name + "Aborting ParFor run", LogLevel.INFO);
-								for (Future future : futures) {
-									future.cancel(true);
+									Utils.log(name + "Aborting ParFor run", LogLevel.INFO);
+									for (Future future : futures) {
+										future.cancel(true);
+									}
 								}
 							}
 						}
 					}
+				} else {
+					getAllFutures();
 				}
-			} else {
-				getAllFutures();
 			}
 			done = true;
 
@@ -290,6 +406,115 @@ public class ParFor {
 		}
 	}
 
+	/**
+	 * Fork all workers but the first onto the work-stealing pool, run the first one in the calling thread, and wait
+	 * for the forked workers that were picked up by the pool, including after an abort, so that no worker is still
+	 * running when the caller returns. Waiting blocks instead of helping the pool: helping would run unrelated tasks
+	 * re-entrantly in the calling thread, in the middle of the caller's work and with its ThreadLocal state. The pool
+	 * compensates for blocked threads, and workers that no pool thread has picked up yet are skipped since by then there
+	 * are no iterations left for them.
+	 *
+	 * @param runnables
+	 */
+	private void runWorkStealing(Runnable[] runnables) {
+		final boolean[] finished = new boolean[runnables.length];
+		for (int i = 1; i < runnables.length; i++) {
+			final int workerID = i;
+			ForkJoinTask<?> task = ForkJoinTask.adapt(() -> {
+				try {
+					runnables[workerID].run();
+				} catch (RuntimeException | Error e1) {
+					abortWorkStealing(e1);
+				} finally {
+					synchronized (finished) {
+						finished[workerID] = true;
+						finished.notifyAll();
+					}
+				}
+			});
+			futures[i] = task;
+			if (isWorkStealingPoolThread())
+				task.fork();
+			else
+				BasePipelinePlugin.forkJoinPool.execute(task);
+		}
+
+		// Doing our share of the work guarantees progress even if all pool threads are busy, e.g. blocked on I/O
+		try {
+			runnables[0].run();
+		} catch (RuntimeException | Error e1) {
+			abortWorkStealing(e1);
+		}
+
+		for (int i = 1; i < runnables.length; i++) {
+			if (workerStarted.getAndSet(i, 1) == 0)
+				// The pool never got to this worker before we ran out of iterations or aborted
+				continue;
+			final int workerID = i;
+			ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+				@Override
+				public boolean block() throws InterruptedException {
+					synchronized (finished) {
+						while (!finished[workerID]) {
+							finished.wait();
+						}
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable() {
+					synchronized (finished) {
+						return finished[workerID];
+					}
+				}
+			};
+			while (true) {
+				try {
+					ForkJoinPool.managedBlock(blocker);
+					break;
+				} catch (InterruptedException e1) {
+					// Keep waiting: the worker might be using state that belongs to the caller
+					abortWorkStealing(e1);
+				}
+			}
+		}
+	}
+
+	private void abortWorkStealing(Throwable t) {
+		if (!abort) {
+			abort = true;
+			synchronized (ParFor.this) {
+				if (e == null) {
+					e = t instanceof Exception ? (Exception) t : new ExecutionException(t);
+					synchronized (doneSemaphore) {
+						doneSemaphore.notifyAll();
+					}
+				} else
+					Utils.log(name + "Multiple exceptions caught in ParFor(3); only 1 will be rethrown",
+							LogLevel.ERROR);
+			}
+			Utils.log(name + "Aborting ParFor run", LogLevel.INFO);
+		}
+		interruptWorkers();
+	}
+
+	/**
+	 * Interrupt the pool threads currently running workers of the work-stealing engine, except the calling thread.
+	 */
+	private void interruptWorkers() {
+		Thread[] threads = workerThreads;
+		if (threads == null)
+			return;
+		Thread current = Thread.currentThread();
+		synchronized (threads) {
+			for (Thread t : threads) {
+				if (t != null && t != current)
+					t.interrupt();
+			}
+		}
+	}
+
 	private void getAllFutures() {
 		for (int i = 0; i < futures.length && (!abort); i++) {
 			try {
@@ -358,6 +583,11 @@ public class ParFor {
 	}
 
 	public void interrupt() {
+		if (workStealing) {
+			// Cancelling a ForkJoinTask does not interrupt the thread running it
+			interruptWorkers();
+			return;
+		}
 		for (Future<?> future : futures) {
 			if (future != null)
 				future.cancel(true);
@@ -20,6 +20,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -69,6 +71,20 @@ public abstract class BasePipelinePlugin implements ImageListener, PipelinePlugi
 
 	static public transient ExecutorService threadPool = Executors.newCachedThreadPool(threadFactory);
 
+	/**
+	 * Work-stealing pool on which blocking {@link pipeline.misc_util.parfor.ParFor} runs execute. ParFors nested in
+	 * the worker of another ParFor fork onto the same pool, so that the number of busy threads stays close to the
+	 * number of processors however deep the nesting.
+	 */
+	static public transient ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+			pool -> {
+				ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {
+				};
+				t.setPriority(Thread.MIN_PRIORITY);
+				t.setContextClassLoader(BasePipelinePlugin.class.getClassLoader());
+				return t;
+			}, null, false);
+
 	static {
 		if (!java.awt.GraphicsEnvironment.isHeadless())
 			SwingUtilities.invokeLater(() -> Thread.currentThread().setPriority(Thread.MAX_PRIORITY));
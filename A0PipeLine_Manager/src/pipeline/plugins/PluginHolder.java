@@ -1,19 +1,43 @@
 package pipeline.plugins;
 
+/**
+ * Description of a plugin available to the pipeline, obtained either from the plugin index of a jar or by loading
+ * the plugin class. Plugins described by an index are only loaded when first used, so pluginClass can be null.
+ */
 public class PluginHolder {
 	public Class<? extends PipelinePlugin> pluginClass;
+	public String className;
 	public String name;
 	public String longName;
 	public String toolTip;
 	public boolean display;
 	public boolean obsolete;
+	/**
+	 * Values of the {@link PluginInfo} annotation, from which display is computed
+	 */
+	public boolean displayToUser;
+	public int displayToExpertLevel;
+	/**
+	 * Flags, and names of the input and output descriptions, declared by a newly-created instance; plugin instances
+	 * are authoritative, since their descriptions can depend on their parameters
+	 */
+	public int flags;
+	public String[] inputNames;
+	public String[] outputNames;
 
-	public PluginHolder(Class<? extends PipelinePlugin> pluginClass, String name, String longName, String toolTip,
-			boolean display, boolean obsolete) {
-		this.pluginClass = pluginClass;
-		this.name = name;
-		this.longName = longName;
+	public PluginHolder(String className, String toolTip, boolean displayToUser, int displayToExpertLevel,
+			boolean obsolete, int flags, String[] inputNames, String[] outputNames) {
+		this.className = className;
+		String[] components = className.split("\\.");
+		name = components[components.length - 1];
+		longName = components.length > 1 ? components[components.length - 2] + "." + name : name;
 		this.toolTip = toolTip;
-		this.display = display;
+		this.displayToUser = displayToUser;
+		this.displayToExpertLevel = displayToExpertLevel;
+		this.obsolete = obsolete;
+		this.flags = flags;
+		this.inputNames = inputNames;
+		this.outputNames = outputNames;
+		display = displayToUser && !obsolete;
 	}
 }
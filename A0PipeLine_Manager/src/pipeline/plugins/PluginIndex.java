@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import pipeline.data.InputOutputDescription;
+import pipeline.misc_util.Utils;
+import pipeline.misc_util.Utils.LogLevel;
+
+/**
+ * Index of the plugins contained in a jar, generated at build time (see the plugin_index target in build-user.xml)
+ * so that the pipeline manager does not have to load every class of the jar at startup to find out which ones are
+ * plugins. The index is a UTF-8 text file stored in the jar as {@link #RESOURCE_NAME}, with one line per plugin and
+ * tab-separated fields: class name, tool tip, displayToUser, displayToExpertLevel, obsolete, flags, and the
+ * comma-separated names of input and output descriptions. Tabs, newlines, commas and backslashes within fields are
+ * escaped with a backslash. Lines starting with # are comments.
+ *
+ * Usage at build time: java pipeline.plugins.PluginIndex classDirectory, with the classes on the class path; the
+ * index is written to classDirectory/{@link #RESOURCE_NAME}.
+ */
+public class PluginIndex {
+
+	public static final String RESOURCE_NAME = "pipeline/plugins/plugins.index";
+
+	private static final String HEADER = "# Parismi plugin index, version 1";
+
+	/**
+	 * @return True if clazz is a concrete, top-level plugin class
+	 */
+	public static boolean isPlugin(Class<?> clazz) {
+		if (clazz.getName().contains("$"))
+			return false;
+
+		return (PipelinePlugin.class.isAssignableFrom(clazz) || IPluginShell.class.isAssignableFrom(clazz))
+				&& !Modifier.isAbstract(clazz.getModifiers());
+	}
+
+	/**
+	 * Creates an instance of a plugin class to read its tool tip, flags and input/output descriptions.
+	 *
+	 * @param clazz
+	 *            Must be a plugin class (see {@link #isPlugin})
+	 * @return Description of the plugin
+	 */
+	@SuppressWarnings("unchecked")
+	public static PluginHolder describe(Class<?> clazz) {
+		String toolTip = null;
+		int flags = 0;
+		String[] inputNames = new String[0], outputNames = new String[0];
+		try {
+			PipelinePlugin instance = (PipelinePlugin) clazz.newInstance();
+			toolTip = instance.getToolTip();
+			flags = instance.getFlags();
+			inputNames = descriptionNames(instance.getInputDescriptions());
+			outputNames = descriptionNames(instance.getOutputDescriptions());
+		} catch (IllegalAccessException | InstantiationException e) {
+			Utils.printStack(e, LogLevel.INFO);
+		} catch (RuntimeException e) {
+			Utils.log("Could not read descriptions of plugin " + clazz.getName(), LogLevel.INFO);
+			Utils.printStack(e, LogLevel.INFO);
+		}
+
+		PluginInfo pluginInfo = clazz.getAnnotation(PluginInfo.class);
+		PluginHolder holder;
+		if (pluginInfo != null)
+			holder =
+					new PluginHolder(clazz.getName(), toolTip, pluginInfo.displayToUser(), pluginInfo
+							.displayToExpertLevel(), pluginInfo.obsolete(), flags, inputNames, outputNames);
+		else
+			holder = new PluginHolder(clazz.getName(), toolTip, true, 0, false, flags, inputNames, outputNames);
+		holder.pluginClass = (Class<? extends PipelinePlugin>) clazz;
+		return holder;
+	}
+
+	private static String[] descriptionNames(Map<String, InputOutputDescription> descriptions) {
+		if (descriptions == null)
+			return new String[0];
+		List<String> names = new ArrayList<>(descriptions.keySet());
+		Collections.sort(names);
+		return names.toArray(new String[0]);
+	}
+
+	public static void write(List<PluginHolder> plugins, OutputStream out) {
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		writer.println(HEADER);
+		for (PluginHolder plugin : plugins) {
+			writer.print(escape(plugin.className));
+			writer.print('\t');
+			writer.print(plugin.toolTip == null ? "" : escape(plugin.toolTip));
+			writer.print('\t');
+			writer.print(plugin.displayToUser);
+			writer.print('\t');
+			writer.print(plugin.displayToExpertLevel);
+			writer.print('\t');
+			writer.print(plugin.obsolete);
+			writer.print('\t');
+			writer.print(plugin.flags);
+			writer.print('\t');
+			writer.print(joinNames(plugin.inputNames));
+			writer.print('\t');
+			writer.print(joinNames(plugin.outputNames));
+			writer.print('\n');
+		}
+		writer.flush();
+	}
+
+	/**
+	 * @return Plugins listed in the index, with a null pluginClass
+	 * @throws IOException
+	 *             If the index cannot be read or is malformed
+	 */
+	public static List<PluginHolder> read(InputStream in) throws IOException {
+		List<PluginHolder> result = new ArrayList<>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		String line = reader.readLine();
+		if (!HEADER.equals(line))
+			throw new IOException("Unknown plugin index format: " + line);
+		while ((line = reader.readLine()) != null) {
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+			String[] fields = line.split("\t", -1);
+			if (fields.length != 8)
+				throw new IOException("Malformed plugin index line: " + line);
+			try {
+				result.add(new PluginHolder(unescape(fields[0]), unescape(fields[1]), Boolean
+						.parseBoolean(fields[2]), Integer.parseInt(fields[3]), Boolean.parseBoolean(fields[4]), Integer
+						.parseInt(fields[5]), splitNames(fields[6]), splitNames(fields[7])));
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed plugin index line: " + line, e);
+			}
+		}
+		return result;
+	}
+
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (char c : s.toCharArray()) {
+			switch (c) {
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case ',':
+					sb.append("\\c");
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String unescape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c != '\\' || i == s.length() - 1) {
+				sb.append(c);
+				continue;
+			}
+			char next = s.charAt(++i);
+			switch (next) {
+				case 't':
+					sb.append('\t');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 'c':
+					sb.append(',');
+					break;
+				default:
+					sb.append(next);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String joinNames(String[] names) {
+		StringBuilder sb = new StringBuilder();
+		for (String name : names) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(escape(name));
+		}
+		return sb.toString();
+	}
+
+	private static String[] splitNames(String field) {
+		if (field.isEmpty())
+			return new String[0];
+		String[] names = field.split(",", -1);
+		for (int i = 0; i < names.length; i++) {
+			names[i] = unescape(names[i]);
+		}
+		return names;
+	}
+
+	private static void findClasses(File directory, String packagePrefix, List<String> classNames) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			String name = f.getName();
+			if (f.isDirectory())
+				findClasses(f, packagePrefix + name + ".", classNames);
+			else if (name.endsWith(".class") && !name.contains("$"))
+				classNames.add(packagePrefix + name.substring(0, name.length() - 6));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java pipeline.plugins.PluginIndex classDirectory");
+			System.exit(1);
+		}
+		Utils.headless = true;
+		File classDirectory = new File(args[0]);
+		List<String> classNames = new ArrayList<>();
+		findClasses(classDirectory, "", classNames);
+		Collections.sort(classNames);
+
+		List<PluginHolder> plugins = new ArrayList<>();
+		ClassLoader loader = PluginIndex.class.getClassLoader();
+		for (String className : classNames) {
+			// Same restriction as the manager's scan of unindexed jars
+			if (!className.contains("pipeline"))
+				continue;
+			Class<?> clazz;
+			try {
+				clazz = Class.forName(className, false, loader);
+			} catch (ClassNotFoundException | LinkageError e) {
+				System.err.println("Skipping " + className + ": " + e);
+				continue;
+			}
+			if (isPlugin(clazz))
+				plugins.add(describe(clazz));
+		}
+
+		File indexFile = new File(classDirectory, RESOURCE_NAME);
+		indexFile.getParentFile().mkdirs();
+		try (OutputStream out = new FileOutputStream(indexFile)) {
+			write(plugins, out);
+		}
+		System.out.println("Wrote " + plugins.size() + " plugins to " + indexFile);
+		System.exit(0);
+	}
+}
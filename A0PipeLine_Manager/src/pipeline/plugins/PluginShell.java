@@ -30,6 +30,7 @@ import pipeline.data.IPluginIOStack;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIO;
 import pipeline.data.PluginIOHyperstack;
+import pipeline.data.PluginIOSubstack;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.data.tiff_read_write.TIFFFileAccessor;
 import pipeline.misc_util.ProgressReporter;
@@ -47,8 +48,10 @@ import pipeline.parameters.TableParameter;
  * is managing, the shell plugin calls it on single slices of the
  * source dataset (for managed plugins that implement {@link pipeline.plugins.TwoDPlugin}),
  * or on single channels of the source dataset (for managed plugins that
- * implement {@link ThreeDPlugin}). The time dimension is not handled
- * at this point, but should be in the future.
+ * implement {@link ThreeDPlugin}). When the source has more than one
+ * time point, each (channel, time point) pair is handed to the managed
+ * plugin as a separate 3D stack, and those work units are spread across
+ * the thread pool.
  *
  */
 @PluginInfo(displayToUser = false)
@@ -364,21 +367,40 @@ public class PluginShell extends FourDPlugin implements IPluginShell, MouseEvent
 		Thread.currentThread().setName(threadName);
 	}
 
+	/**
+	 * @param inputs
+	 * @param outputs
+	 * @return Number of time points to hand to the managed plugin one by one, or 1 if each channel should be handed to
+	 *         it whole (because it has a single time point, because input and output time points do not match, or
+	 *         because an output is file-backed and must be written in slice order)
+	 */
+	private static int getNTimePointsToSplit(IPluginIOStack[] inputs, IPluginIOStack[] outputs) {
+		int nTimePoints = 0;
+		for (IPluginIOStack input : inputs) {
+			if (input == null)
+				return 1;
+			if (nTimePoints == 0)
+				nTimePoints = input.getnTimePoints();
+			else if (input.getnTimePoints() != nTimePoints)
+				return 1;
+		}
+		if (nTimePoints <= 1)
+			return 1;
+		for (IPluginIOStack output : outputs) {
+			if (output == null)
+				continue;
+			if (output.isVirtual() || output.getnTimePoints() != nTimePoints)
+				return 1;
+		}
+		return nTimePoints;
+	}
+
 	// outputChannels is ignored for now
 	public void run3D(final ProgressReporter progress, final String[] inputChannels, final String[] outputChannels,
 			final PreviewType previewType, final AbstractParameter changedParam, final boolean stayInCoreLoop)
 			throws InterruptedException { // Run the plugin channel by channel
 		dontParallelize = (managedPlugin.getFlags() & DONT_PARALLELIZE) != 0;
 
-		int maxNThreads;
-		if (dontParallelize)
-			maxNThreads = 1;
-		else
-			maxNThreads = Integer.MAX_VALUE;
-		if (maxNThreads > inputChannels.length)
-			maxNThreads = Math.max(1, inputChannels.length);
-		// If there are no input channels, just run 1 instance of the plugin
-
 		if (((managedPlugin.getFlags() & PipelinePlugin.ONLY_1_INPUT_CHANNEL) > 0) && inputChannels.length > 1) {
 			throw new IllegalArgumentException("Plugin " + managedPlugin.operationName()
 					+ " cannot run on more than 1 channel");
@@ -420,10 +442,32 @@ public class PluginShell extends FourDPlugin implements IPluginShell, MouseEvent
 		else
 			throw new RuntimeException("Default output in run3D is not a stack or a hyperstack; it is " + defaultOutput);
 
+		final int nTimePoints =
+				stayInCoreLoop || inputChannels.length == 0 ? 1 : getNTimePointsToSplit(inputStackArray,
+						outputStackArray);
+		final int nWorkUnits = nChannels * nTimePoints;
+
+		// Work units are ordered by time point, then by channel. When work units run concurrently, the slice-level
+		// ParFors they start (e.g. in runThroughSlices) run from threads of the shared work-stealing pool: they fork
+		// as many workers as the pool's parallelism onto that pool, do their share of the work in the calling
+		// thread, and then wait for the forked workers through ForkJoinPool.managedBlock without helping the pool.
+		// Idle pool threads steal the forked workers, so the two levels of parallelism share the pool's threads
+		// instead of multiplying.
+		int maxNThreads;
+		if (dontParallelize)
+			maxNThreads = 1;
+		else if ((managedPlugin.getFlags() & PARALLELIZE_WITH_NEW_INSTANCES) != 0)
+			maxNThreads = nWorkUnits;
+		else
+			// A shared plugin instance was only ever run concurrently on different channels; do not
+			// increase the number of concurrent calls by splitting time points
+			maxNThreads = nChannels;
+		// If there are no input channels, just run 1 instance of the plugin
+
 		progressSetIndeterminateThreadSafe(progress, true);
 		progressSetValueThreadSafe(progress, 0);
 
-		ParFor parFor = new ParFor(0, nChannels - 1, progress, BasePipelinePlugin.threadPool, true, maxNThreads);
+		ParFor parFor = new ParFor(0, nWorkUnits - 1, progress, BasePipelinePlugin.threadPool, true, maxNThreads);
 		parFor.setName("3D worker");
 		final int nThreads = parFor.getNThreads();
 		final PipelinePlugin[] plugin3DInstances = new PipelinePlugin[nThreads];
@@ -455,8 +499,10 @@ public class PluginShell extends FourDPlugin implements IPluginShell, MouseEvent
 		final IPluginIOStack[] finalInputStackArray = inputStackArray;
 
 		for (int i = 0; i < nThreads; i++) {
-			parFor.addLoopWorker((channelNumber, threadID) -> {
+			parFor.addLoopWorker((workUnit, threadID) -> {
 				IPluginIOStack inputStack = null, outputStack = null;
+				final int channelNumber = workUnit % nChannels;
+				final int timePoint = workUnit / nChannels;
 
 				if (channelNumber < inputChannels.length) {
 					// The only reason this would not be true is if there is no input channel
@@ -465,6 +511,12 @@ public class PluginShell extends FourDPlugin implements IPluginShell, MouseEvent
 						outputStack = finalOutputStackArray[channelNumber];
 				}
 
+				if (nTimePoints > 1) {
+					inputStack = PluginIOSubstack.getTimePointSubstack(inputStack, timePoint);
+					if (outputStack != null)
+						outputStack = PluginIOSubstack.getTimePointSubstack(outputStack, timePoint);
+				}
+
 				if (is2Dplugin) {
 					// Need to loop through the slices and call the 2D plugin on each
 					runThroughSlices(inputStack, outputStack, progress, previewType);
@@ -480,11 +532,15 @@ public class PluginShell extends FourDPlugin implements IPluginShell, MouseEvent
 					Object semaphore = null;
 
 					long timeLastRun;
+					// Within the core loop only parameters change, so the plugin instance can reuse what it computed
+					// from the same input in the previous iteration
+					boolean firstIteration = true;
 
 					do {
 						timeLastRun = System.currentTimeMillis();
 						((ThreeDPlugin) plugin3DInstances[threadID]).runChannel(inputStack, outputStack, progress,
-								previewType, true);
+								previewType, firstIteration);
+						firstIteration = false;
 
 						if (stayInCoreLoop) {
 							if (!changedParam.isStillChanging()) {
@@ -188,7 +188,8 @@ public class CHighlightSegmentationLibraryCall extends ExternalCallToLibrary imp
 		}
 
 		try (FileOutputStream fos = new FileOutputStream(fileNameString)) {
-			fos.write(seeds.asProtobufBytes());
+			// Native plugins only understand segmentation coordinates, not runs
+			fos.write(seeds.asProtobufBytes(false));
 		} catch (IOException e) {
 			Utils.printStack(e);
 		}
@@ -76,6 +76,27 @@ public final class ProtobufSeedsOrCells {
 
 		int getImageUsersegCoordsZ(int index);
 
+		// repeated int32 image_fullseg_runs = 28 [packed = true];
+		java.util.List<java.lang.Integer> getImageFullsegRunsList();
+
+		int getImageFullsegRunsCount();
+
+		int getImageFullsegRuns(int index);
+
+		// repeated int32 image_perimseg_runs = 29 [packed = true];
+		java.util.List<java.lang.Integer> getImagePerimsegRunsList();
+
+		int getImagePerimsegRunsCount();
+
+		int getImagePerimsegRuns(int index);
+
+		// repeated int32 image_userseg_runs = 30 [packed = true];
+		java.util.List<java.lang.Integer> getImageUsersegRunsList();
+
+		int getImageUsersegRunsCount();
+
+		int getImageUsersegRuns(int index);
+
 		// repeated float quantifiedProperties = 10;
 		java.util.List<java.lang.Float> getQuantifiedPropertiesList();
 
@@ -725,6 +746,183 @@ public final class ProtobufSeedsOrCells {
 
 		private int imageUsersegCoordsZMemoizedSerializedSize = -1;
 
+		// repeated int32 image_fullseg_runs = 28 [packed = true];
+		public static final int IMAGE_FULLSEG_RUNS_FIELD_NUMBER = 28;
+		private int[] imageFullsegRuns_;
+
+		private static java.util.List<java.lang.Integer> imageFullsegRunsArray2list(int[] imageFullsegRuns) {
+			if (imageFullsegRuns == null)
+				return null;
+			java.util.ArrayList<java.lang.Integer> retList =
+					new java.util.ArrayList<java.lang.Integer>(imageFullsegRuns.length);
+			for (int f : imageFullsegRuns)
+				retList.add(f);
+			return retList;
+		}
+
+		private static java.util.List<java.lang.Integer> imageFullsegRunsArray2list(int[] imageFullsegRuns,
+				int sizeLimit) {
+			if (imageFullsegRuns == null)
+				return null;
+			int num2Copy = java.lang.Math.min(imageFullsegRuns.length, sizeLimit);
+			java.util.ArrayList<java.lang.Integer> retList = new java.util.ArrayList<java.lang.Integer>(num2Copy);
+			for (int i = 0; i < num2Copy; ++i)
+				retList.add(imageFullsegRuns[i]);
+			return retList;
+		}
+
+		@Override
+		public java.util.List<java.lang.Integer> getImageFullsegRunsList() {
+			if (imageFullsegRuns_ != null)
+				return java.util.Collections.unmodifiableList(imageFullsegRunsArray2list(imageFullsegRuns_));
+			else
+				return java.util.Collections.emptyList();
+		}
+
+		@Override
+		public int getImageFullsegRunsCount() {
+			return imageFullsegRuns_ != null ? imageFullsegRuns_.length : 0;
+		}
+
+		@Override
+		public int getImageFullsegRuns(int index) {
+			// Note: don't check data_ if someone attempts
+			// to grab on index that isn't available. Allow
+			// JRE to simply throw NullPointException
+			// or IndexOutOfBoundsException
+			return imageFullsegRuns_[index];
+		}
+
+		// Note: that this exposes mutable data
+		// for essentially an immutable type
+		// To absolutely conform to the standard
+		// we'd want to clone this array before
+		// passing back but that would just incur
+		// more inefficiency.
+		public int[] getImageFullsegRunsArray() {
+			return imageFullsegRuns_;
+		}
+
+		private int imageFullsegRunsMemoizedSerializedSize = -1;
+
+		// repeated int32 image_perimseg_runs = 29 [packed = true];
+		public static final int IMAGE_PERIMSEG_RUNS_FIELD_NUMBER = 29;
+		private int[] imagePerimsegRuns_;
+
+		private static java.util.List<java.lang.Integer> imagePerimsegRunsArray2list(int[] imagePerimsegRuns) {
+			if (imagePerimsegRuns == null)
+				return null;
+			java.util.ArrayList<java.lang.Integer> retList =
+					new java.util.ArrayList<java.lang.Integer>(imagePerimsegRuns.length);
+			for (int f : imagePerimsegRuns)
+				retList.add(f);
+			return retList;
+		}
+
+		private static java.util.List<java.lang.Integer> imagePerimsegRunsArray2list(int[] imagePerimsegRuns,
+				int sizeLimit) {
+			if (imagePerimsegRuns == null)
+				return null;
+			int num2Copy = java.lang.Math.min(imagePerimsegRuns.length, sizeLimit);
+			java.util.ArrayList<java.lang.Integer> retList = new java.util.ArrayList<java.lang.Integer>(num2Copy);
+			for (int i = 0; i < num2Copy; ++i)
+				retList.add(imagePerimsegRuns[i]);
+			return retList;
+		}
+
+		@Override
+		public java.util.List<java.lang.Integer> getImagePerimsegRunsList() {
+			if (imagePerimsegRuns_ != null)
+				return java.util.Collections.unmodifiableList(imagePerimsegRunsArray2list(imagePerimsegRuns_));
+			else
+				return java.util.Collections.emptyList();
+		}
+
+		@Override
+		public int getImagePerimsegRunsCount() {
+			return imagePerimsegRuns_ != null ? imagePerimsegRuns_.length : 0;
+		}
+
+		@Override
+		public int getImagePerimsegRuns(int index) {
+			// Note: don't check data_ if someone attempts
+			// to grab on index that isn't available. Allow
+			// JRE to simply throw NullPointException
+			// or IndexOutOfBoundsException
+			return imagePerimsegRuns_[index];
+		}
+
+		// Note: that this exposes mutable data
+		// for essentially an immutable type
+		// To absolutely conform to the standard
+		// we'd want to clone this array before
+		// passing back but that would just incur
+		// more inefficiency.
+		public int[] getImagePerimsegRunsArray() {
+			return imagePerimsegRuns_;
+		}
+
+		private int imagePerimsegRunsMemoizedSerializedSize = -1;
+
+		// repeated int32 image_userseg_runs = 30 [packed = true];
+		public static final int IMAGE_USERSEG_RUNS_FIELD_NUMBER = 30;
+		private int[] imageUsersegRuns_;
+
+		private static java.util.List<java.lang.Integer> imageUsersegRunsArray2list(int[] imageUsersegRuns) {
+			if (imageUsersegRuns == null)
+				return null;
+			java.util.ArrayList<java.lang.Integer> retList =
+					new java.util.ArrayList<java.lang.Integer>(imageUsersegRuns.length);
+			for (int f : imageUsersegRuns)
+				retList.add(f);
+			return retList;
+		}
+
+		private static java.util.List<java.lang.Integer> imageUsersegRunsArray2list(int[] imageUsersegRuns,
+				int sizeLimit) {
+			if (imageUsersegRuns == null)
+				return null;
+			int num2Copy = java.lang.Math.min(imageUsersegRuns.length, sizeLimit);
+			java.util.ArrayList<java.lang.Integer> retList = new java.util.ArrayList<java.lang.Integer>(num2Copy);
+			for (int i = 0; i < num2Copy; ++i)
+				retList.add(imageUsersegRuns[i]);
+			return retList;
+		}
+
+		@Override
+		public java.util.List<java.lang.Integer> getImageUsersegRunsList() {
+			if (imageUsersegRuns_ != null)
+				return java.util.Collections.unmodifiableList(imageUsersegRunsArray2list(imageUsersegRuns_));
+			else
+				return java.util.Collections.emptyList();
+		}
+
+		@Override
+		public int getImageUsersegRunsCount() {
+			return imageUsersegRuns_ != null ? imageUsersegRuns_.length : 0;
+		}
+
+		@Override
+		public int getImageUsersegRuns(int index) {
+			// Note: don't check data_ if someone attempts
+			// to grab on index that isn't available. Allow
+			// JRE to simply throw NullPointException
+			// or IndexOutOfBoundsException
+			return imageUsersegRuns_[index];
+		}
+
+		// Note: that this exposes mutable data
+		// for essentially an immutable type
+		// To absolutely conform to the standard
+		// we'd want to clone this array before
+		// passing back but that would just incur
+		// more inefficiency.
+		public int[] getImageUsersegRunsArray() {
+			return imageUsersegRuns_;
+		}
+
+		private int imageUsersegRunsMemoizedSerializedSize = -1;
+
 		// repeated float quantifiedProperties = 10;
 		public static final int QUANTIFIEDPROPERTIES_FIELD_NUMBER = 10;
 		private float[] quantifiedProperties_;
@@ -1077,6 +1275,9 @@ public final class ProtobufSeedsOrCells {
 			imageUsersegCoordsY_ = null;
 			imageUsersegCoordsX_ = null;
 			imageUsersegCoordsZ_ = null;
+			imageFullsegRuns_ = null;
+			imagePerimsegRuns_ = null;
+			imageUsersegRuns_ = null;
 			quantifiedProperties_ = null;
 			userCellValue_ = null;
 			userCellFormula_ = com.google.protobuf.LazyStringArrayList.EMPTY;
@@ -1175,6 +1376,27 @@ public final class ProtobufSeedsOrCells {
 					output.writeInt32NoTag(imageUsersegCoordsZ_[i]);
 				}
 			}
+			if (imageFullsegRuns_ != null && imageFullsegRuns_.length > 0) {
+				output.writeRawVarint32(226);
+				output.writeRawVarint32(imageFullsegRunsMemoizedSerializedSize);
+				for (int i = 0; i < imageFullsegRuns_.length; ++i) {
+					output.writeInt32NoTag(imageFullsegRuns_[i]);
+				}
+			}
+			if (imagePerimsegRuns_ != null && imagePerimsegRuns_.length > 0) {
+				output.writeRawVarint32(234);
+				output.writeRawVarint32(imagePerimsegRunsMemoizedSerializedSize);
+				for (int i = 0; i < imagePerimsegRuns_.length; ++i) {
+					output.writeInt32NoTag(imagePerimsegRuns_[i]);
+				}
+			}
+			if (imageUsersegRuns_ != null && imageUsersegRuns_.length > 0) {
+				output.writeRawVarint32(242);
+				output.writeRawVarint32(imageUsersegRunsMemoizedSerializedSize);
+				for (int i = 0; i < imageUsersegRuns_.length; ++i) {
+					output.writeInt32NoTag(imageUsersegRuns_[i]);
+				}
+			}
 			for (int i = 0; i < quantifiedProperties_.length; ++i) {
 				output.writeFloat(10, quantifiedProperties_[i]);
 			}
@@ -1348,6 +1570,42 @@ public final class ProtobufSeedsOrCells {
 				}
 				imageUsersegCoordsZMemoizedSerializedSize = dataSize;
 			}
+			{
+				int dataSize = 0;
+				for (int i = 0; imageFullsegRuns_ != null && i < imageFullsegRuns_.length; ++i) {
+					dataSize += com.google.protobuf.CodedOutputStream.computeInt32SizeNoTag(imageFullsegRuns_[i]);
+				}
+				size += dataSize;
+				if (getImageFullsegRunsCount() > 0) {
+					size += 2;
+					size += com.google.protobuf.CodedOutputStream.computeInt32SizeNoTag(dataSize);
+				}
+				imageFullsegRunsMemoizedSerializedSize = dataSize;
+			}
+			{
+				int dataSize = 0;
+				for (int i = 0; imagePerimsegRuns_ != null && i < imagePerimsegRuns_.length; ++i) {
+					dataSize += com.google.protobuf.CodedOutputStream.computeInt32SizeNoTag(imagePerimsegRuns_[i]);
+				}
+				size += dataSize;
+				if (getImagePerimsegRunsCount() > 0) {
+					size += 2;
+					size += com.google.protobuf.CodedOutputStream.computeInt32SizeNoTag(dataSize);
+				}
+				imagePerimsegRunsMemoizedSerializedSize = dataSize;
+			}
+			{
+				int dataSize = 0;
+				for (int i = 0; imageUsersegRuns_ != null && i < imageUsersegRuns_.length; ++i) {
+					dataSize += com.google.protobuf.CodedOutputStream.computeInt32SizeNoTag(imageUsersegRuns_[i]);
+				}
+				size += dataSize;
+				if (getImageUsersegRunsCount() > 0) {
+					size += 2;
+					size += com.google.protobuf.CodedOutputStream.computeInt32SizeNoTag(dataSize);
+				}
+				imageUsersegRunsMemoizedSerializedSize = dataSize;
+			}
 			{
 				int dataSize = 0;
 				dataSize = 4 * getQuantifiedPropertiesCount();
@@ -1554,6 +1812,15 @@ public final class ProtobufSeedsOrCells {
 				imageUsersegCoordsZ_ = null;
 				numUsedInImageUsersegCoordsZ_ = 0;
 				bitField0_ = (bitField0_ & ~0x00000100);
+				imageFullsegRuns_ = null;
+				numUsedInImageFullsegRuns_ = 0;
+				bitField0_ = (bitField0_ & ~0x08000000);
+				imagePerimsegRuns_ = null;
+				numUsedInImagePerimsegRuns_ = 0;
+				bitField0_ = (bitField0_ & ~0x10000000);
+				imageUsersegRuns_ = null;
+				numUsedInImageUsersegRuns_ = 0;
+				bitField0_ = (bitField0_ & ~0x20000000);
 				quantifiedProperties_ = null;
 				numUsedInQuantifiedProperties_ = 0;
 				bitField0_ = (bitField0_ & ~0x00000200);
@@ -1701,6 +1968,30 @@ public final class ProtobufSeedsOrCells {
 				result.imageUsersegCoordsZ_ =
 						imageUsersegCoordsZ_ == null ? null : java.util.Arrays.copyOf(imageUsersegCoordsZ_,
 								numUsedInImageUsersegCoordsZ_);
+				if (((bitField0_ & 0x08000000) == 0x08000000)) {
+					// Note: that it is not possible to make an array unmodifiable in Java
+					// imageFullsegRuns_ = java.util.Collections.unmodifiableList(imageFullsegRuns_);
+					bitField0_ = (bitField0_ & ~0x08000000);
+				}
+				result.imageFullsegRuns_ =
+						imageFullsegRuns_ == null ? null : java.util.Arrays.copyOf(imageFullsegRuns_,
+								numUsedInImageFullsegRuns_);
+				if (((bitField0_ & 0x10000000) == 0x10000000)) {
+					// Note: that it is not possible to make an array unmodifiable in Java
+					// imagePerimsegRuns_ = java.util.Collections.unmodifiableList(imagePerimsegRuns_);
+					bitField0_ = (bitField0_ & ~0x10000000);
+				}
+				result.imagePerimsegRuns_ =
+						imagePerimsegRuns_ == null ? null : java.util.Arrays.copyOf(imagePerimsegRuns_,
+								numUsedInImagePerimsegRuns_);
+				if (((bitField0_ & 0x20000000) == 0x20000000)) {
+					// Note: that it is not possible to make an array unmodifiable in Java
+					// imageUsersegRuns_ = java.util.Collections.unmodifiableList(imageUsersegRuns_);
+					bitField0_ = (bitField0_ & ~0x20000000);
+				}
+				result.imageUsersegRuns_ =
+						imageUsersegRuns_ == null ? null : java.util.Arrays.copyOf(imageUsersegRuns_,
+								numUsedInImageUsersegRuns_);
 				if (((bitField0_ & 0x00000200) == 0x00000200)) {
 					// Note: that it is not possible to make an array unmodifiable in Java
 					// quantifiedProperties_ = java.util.Collections.unmodifiableList(quantifiedProperties_);
@@ -1924,6 +2215,51 @@ public final class ProtobufSeedsOrCells {
 						}
 					}
 
+				}
+				if (other.imageFullsegRuns_ != null && other.imageFullsegRuns_.length > 0) {
+					if (imageFullsegRuns_ == null) {
+						imageFullsegRuns_ = other.imageFullsegRuns_;
+						numUsedInImageFullsegRuns_ = other.imageFullsegRuns_.length;
+						bitField0_ = (bitField0_ & ~0x08000000);
+					} else {
+						ensureImageFullsegRunsIsMutable();
+						growImageFullsegRunsArray(other.imageFullsegRuns_.length);
+						for (int i = 0; i < other.imageFullsegRuns_.length; ++i) {
+							imageFullsegRuns_[numUsedInImageFullsegRuns_] = other.imageFullsegRuns_[i];
+							++numUsedInImageFullsegRuns_;
+						}
+					}
+
+				}
+				if (other.imagePerimsegRuns_ != null && other.imagePerimsegRuns_.length > 0) {
+					if (imagePerimsegRuns_ == null) {
+						imagePerimsegRuns_ = other.imagePerimsegRuns_;
+						numUsedInImagePerimsegRuns_ = other.imagePerimsegRuns_.length;
+						bitField0_ = (bitField0_ & ~0x10000000);
+					} else {
+						ensureImagePerimsegRunsIsMutable();
+						growImagePerimsegRunsArray(other.imagePerimsegRuns_.length);
+						for (int i = 0; i < other.imagePerimsegRuns_.length; ++i) {
+							imagePerimsegRuns_[numUsedInImagePerimsegRuns_] = other.imagePerimsegRuns_[i];
+							++numUsedInImagePerimsegRuns_;
+						}
+					}
+
+				}
+				if (other.imageUsersegRuns_ != null && other.imageUsersegRuns_.length > 0) {
+					if (imageUsersegRuns_ == null) {
+						imageUsersegRuns_ = other.imageUsersegRuns_;
+						numUsedInImageUsersegRuns_ = other.imageUsersegRuns_.length;
+						bitField0_ = (bitField0_ & ~0x20000000);
+					} else {
+						ensureImageUsersegRunsIsMutable();
+						growImageUsersegRunsArray(other.imageUsersegRuns_.length);
+						for (int i = 0; i < other.imageUsersegRuns_.length; ++i) {
+							imageUsersegRuns_[numUsedInImageUsersegRuns_] = other.imageUsersegRuns_[i];
+							++numUsedInImageUsersegRuns_;
+						}
+					}
+
 				}
 				if (other.quantifiedProperties_ != null && other.quantifiedProperties_.length > 0) {
 					if (quantifiedProperties_ == null) {
@@ -2187,6 +2523,57 @@ public final class ProtobufSeedsOrCells {
 							input.popLimit(limit);
 							break;
 						}
+						case 224: {
+							// This extra case for the imageFullsegRuns field is
+							// used for extensibility in case the
+							// field is changed in the future from
+							// repeated to optional.
+							addImageFullsegRuns(input.readInt32());
+							break;
+						}
+						case 226: {
+							int length = input.readRawVarint32();
+							int limit = input.pushLimit(length);
+							while (input.getBytesUntilLimit() > 0) {
+								addImageFullsegRuns(input.readInt32());
+							}
+							input.popLimit(limit);
+							break;
+						}
+						case 232: {
+							// This extra case for the imagePerimsegRuns field is
+							// used for extensibility in case the
+							// field is changed in the future from
+							// repeated to optional.
+							addImagePerimsegRuns(input.readInt32());
+							break;
+						}
+						case 234: {
+							int length = input.readRawVarint32();
+							int limit = input.pushLimit(length);
+							while (input.getBytesUntilLimit() > 0) {
+								addImagePerimsegRuns(input.readInt32());
+							}
+							input.popLimit(limit);
+							break;
+						}
+						case 240: {
+							// This extra case for the imageUsersegRuns field is
+							// used for extensibility in case the
+							// field is changed in the future from
+							// repeated to optional.
+							addImageUsersegRuns(input.readInt32());
+							break;
+						}
+						case 242: {
+							int length = input.readRawVarint32();
+							int limit = input.pushLimit(length);
+							while (input.getBytesUntilLimit() > 0) {
+								addImageUsersegRuns(input.readInt32());
+							}
+							input.popLimit(limit);
+							break;
+						}
 						case 85: {
 							// This extra case for the quantifiedProperties field is
 							// used for extensibility in case the
@@ -3309,6 +3696,339 @@ public final class ProtobufSeedsOrCells {
 				return this;
 			}
 
+			// repeated int32 image_fullseg_runs = 28 [packed = true];
+			private int[] imageFullsegRuns_ = null;
+			// transient just a hint that this isn't really a piece of data
+			public transient int numUsedInImageFullsegRuns_ = 0;
+
+			public void ensureImageFullsegRunsIsMutable() {
+				if (!((bitField0_ & 0x08000000) == 0x08000000)) {
+					if (imageFullsegRuns_ == null) {
+						// This field will be grown by blocks of 20000 (that may require some
+						// tweaking or an ability to be parameterized via metadata of some sort
+						// Let's also start off with 20000 elements
+						imageFullsegRuns_ = new int[20000];
+					}
+					bitField0_ |= 0x08000000;
+				}
+			}
+
+			public void ensureImageFullsegRunsIsMutable(int initialSize) {
+				if (!((bitField0_ & 0x08000000) == 0x08000000)) {
+					if (imageFullsegRuns_ == null && initialSize > 0) {
+						imageFullsegRuns_ = new int[initialSize];
+					}
+					bitField0_ |= 0x08000000;
+				}
+			}
+
+			private void growImageFullsegRunsArray() {
+				if (imageFullsegRuns_ == null) {
+					ensureImageFullsegRunsIsMutable();
+				} else if (numUsedInImageFullsegRuns_ >= imageFullsegRuns_.length) {
+					// Grows our int[] by 20000 elements
+					imageFullsegRuns_ =
+							java.util.Arrays.copyOf(imageFullsegRuns_, imageFullsegRuns_.length + 20000);
+				}
+			}
+
+			private void growImageFullsegRunsArray(int byAdditional) {
+				if (imageFullsegRuns_ == null) {
+					ensureImageFullsegRunsIsMutable();
+				}
+				if ((numUsedInImageFullsegRuns_ + byAdditional) >= imageFullsegRuns_.length) {
+					imageFullsegRuns_ =
+							java.util.Arrays.copyOf(imageFullsegRuns_, numUsedInImageFullsegRuns_ + byAdditional);
+				}
+			}
+
+			@Override
+			public java.util.List<java.lang.Integer> getImageFullsegRunsList() {
+				return java.util.Collections.unmodifiableList(imageFullsegRunsArray2list(imageFullsegRuns_,
+						numUsedInImageFullsegRuns_));
+			}
+
+			@Override
+			public int getImageFullsegRunsCount() {
+				return numUsedInImageFullsegRuns_;
+			}
+
+			@Override
+			public int getImageFullsegRuns(int index) {
+				if (index >= numUsedInImageFullsegRuns_)
+					throw new java.lang.IndexOutOfBoundsException();
+				return imageFullsegRuns_[index];
+			}
+
+			// Note: It is not appropriate to add imageFullsegRuns to the returned
+			// array because the internal counter numUsedInImageFullsegRuns_ will
+			// not be incremented properly!! Additionally, if used
+			// as an Accessor only the getDataCount() number of
+			// values are valid!
+			public int[] getImageFullsegRunsArray() {
+				return imageFullsegRuns_;
+			}
+
+			public Builder setImageFullsegRuns(int index, int value) {
+				growImageFullsegRunsArray();
+				imageFullsegRuns_[numUsedInImageFullsegRuns_] = value;
+
+				return this;
+			}
+
+			public Builder addImageFullsegRuns(int value) {
+				ensureImageFullsegRunsIsMutable();
+				growImageFullsegRunsArray();
+				imageFullsegRuns_[numUsedInImageFullsegRuns_] = value;
+				++numUsedInImageFullsegRuns_;
+
+				return this;
+			}
+
+			public Builder addAllImageFullsegRuns(java.lang.Iterable<? extends java.lang.Integer> values) {
+				ensureImageFullsegRunsIsMutable();
+				int growBy = 0;
+				for (java.lang.Integer f : values)
+					++growBy;
+				growImageFullsegRunsArray(growBy);
+				for (java.lang.Integer f : values) {
+					imageFullsegRuns_[numUsedInImageFullsegRuns_] = f;
+					++numUsedInImageFullsegRuns_;
+				}
+
+				return this;
+			}
+
+			public Builder clearImageFullsegRuns() {
+				imageFullsegRuns_ = null;
+				numUsedInImageFullsegRuns_ = 0;
+				bitField0_ = (bitField0_ & ~0x08000000);
+
+				return this;
+			}
+
+			// repeated int32 image_perimseg_runs = 29 [packed = true];
+			private int[] imagePerimsegRuns_ = null;
+			// transient just a hint that this isn't really a piece of data
+			public transient int numUsedInImagePerimsegRuns_ = 0;
+
+			public void ensureImagePerimsegRunsIsMutable() {
+				if (!((bitField0_ & 0x10000000) == 0x10000000)) {
+					if (imagePerimsegRuns_ == null) {
+						// This field will be grown by blocks of 20000 (that may require some
+						// tweaking or an ability to be parameterized via metadata of some sort
+						// Let's also start off with 20000 elements
+						imagePerimsegRuns_ = new int[20000];
+					}
+					bitField0_ |= 0x10000000;
+				}
+			}
+
+			public void ensureImagePerimsegRunsIsMutable(int initialSize) {
+				if (!((bitField0_ & 0x10000000) == 0x10000000)) {
+					if (imagePerimsegRuns_ == null && initialSize > 0) {
+						imagePerimsegRuns_ = new int[initialSize];
+					}
+					bitField0_ |= 0x10000000;
+				}
+			}
+
+			private void growImagePerimsegRunsArray() {
+				if (imagePerimsegRuns_ == null) {
+					ensureImagePerimsegRunsIsMutable();
+				} else if (numUsedInImagePerimsegRuns_ >= imagePerimsegRuns_.length) {
+					// Grows our int[] by 20000 elements
+					imagePerimsegRuns_ =
+							java.util.Arrays.copyOf(imagePerimsegRuns_, imagePerimsegRuns_.length + 20000);
+				}
+			}
+
+			private void growImagePerimsegRunsArray(int byAdditional) {
+				if (imagePerimsegRuns_ == null) {
+					ensureImagePerimsegRunsIsMutable();
+				}
+				if ((numUsedInImagePerimsegRuns_ + byAdditional) >= imagePerimsegRuns_.length) {
+					imagePerimsegRuns_ =
+							java.util.Arrays.copyOf(imagePerimsegRuns_, numUsedInImagePerimsegRuns_ + byAdditional);
+				}
+			}
+
+			@Override
+			public java.util.List<java.lang.Integer> getImagePerimsegRunsList() {
+				return java.util.Collections.unmodifiableList(imagePerimsegRunsArray2list(imagePerimsegRuns_,
+						numUsedInImagePerimsegRuns_));
+			}
+
+			@Override
+			public int getImagePerimsegRunsCount() {
+				return numUsedInImagePerimsegRuns_;
+			}
+
+			@Override
+			public int getImagePerimsegRuns(int index) {
+				if (index >= numUsedInImagePerimsegRuns_)
+					throw new java.lang.IndexOutOfBoundsException();
+				return imagePerimsegRuns_[index];
+			}
+
+			// Note: It is not appropriate to add imagePerimsegRuns to the returned
+			// array because the internal counter numUsedInImagePerimsegRuns_ will
+			// not be incremented properly!! Additionally, if used
+			// as an Accessor only the getDataCount() number of
+			// values are valid!
+			public int[] getImagePerimsegRunsArray() {
+				return imagePerimsegRuns_;
+			}
+
+			public Builder setImagePerimsegRuns(int index, int value) {
+				growImagePerimsegRunsArray();
+				imagePerimsegRuns_[numUsedInImagePerimsegRuns_] = value;
+
+				return this;
+			}
+
+			public Builder addImagePerimsegRuns(int value) {
+				ensureImagePerimsegRunsIsMutable();
+				growImagePerimsegRunsArray();
+				imagePerimsegRuns_[numUsedInImagePerimsegRuns_] = value;
+				++numUsedInImagePerimsegRuns_;
+
+				return this;
+			}
+
+			public Builder addAllImagePerimsegRuns(java.lang.Iterable<? extends java.lang.Integer> values) {
+				ensureImagePerimsegRunsIsMutable();
+				int growBy = 0;
+				for (java.lang.Integer f : values)
+					++growBy;
+				growImagePerimsegRunsArray(growBy);
+				for (java.lang.Integer f : values) {
+					imagePerimsegRuns_[numUsedInImagePerimsegRuns_] = f;
+					++numUsedInImagePerimsegRuns_;
+				}
+
+				return this;
+			}
+
+			public Builder clearImagePerimsegRuns() {
+				imagePerimsegRuns_ = null;
+				numUsedInImagePerimsegRuns_ = 0;
+				bitField0_ = (bitField0_ & ~0x10000000);
+
+				return this;
+			}
+
+			// repeated int32 image_userseg_runs = 30 [packed = true];
+			private int[] imageUsersegRuns_ = null;
+			// transient just a hint that this isn't really a piece of data
+			public transient int numUsedInImageUsersegRuns_ = 0;
+
+			public void ensureImageUsersegRunsIsMutable() {
+				if (!((bitField0_ & 0x20000000) == 0x20000000)) {
+					if (imageUsersegRuns_ == null) {
+						// This field will be grown by blocks of 20000 (that may require some
+						// tweaking or an ability to be parameterized via metadata of some sort
+						// Let's also start off with 20000 elements
+						imageUsersegRuns_ = new int[20000];
+					}
+					bitField0_ |= 0x20000000;
+				}
+			}
+
+			public void ensureImageUsersegRunsIsMutable(int initialSize) {
+				if (!((bitField0_ & 0x20000000) == 0x20000000)) {
+					if (imageUsersegRuns_ == null && initialSize > 0) {
+						imageUsersegRuns_ = new int[initialSize];
+					}
+					bitField0_ |= 0x20000000;
+				}
+			}
+
+			private void growImageUsersegRunsArray() {
+				if (imageUsersegRuns_ == null) {
+					ensureImageUsersegRunsIsMutable();
+				} else if (numUsedInImageUsersegRuns_ >= imageUsersegRuns_.length) {
+					// Grows our int[] by 20000 elements
+					imageUsersegRuns_ =
+							java.util.Arrays.copyOf(imageUsersegRuns_, imageUsersegRuns_.length + 20000);
+				}
+			}
+
+			private void growImageUsersegRunsArray(int byAdditional) {
+				if (imageUsersegRuns_ == null) {
+					ensureImageUsersegRunsIsMutable();
+				}
+				if ((numUsedInImageUsersegRuns_ + byAdditional) >= imageUsersegRuns_.length) {
+					imageUsersegRuns_ =
+							java.util.Arrays.copyOf(imageUsersegRuns_, numUsedInImageUsersegRuns_ + byAdditional);
+				}
+			}
+
+			@Override
+			public java.util.List<java.lang.Integer> getImageUsersegRunsList() {
+				return java.util.Collections.unmodifiableList(imageUsersegRunsArray2list(imageUsersegRuns_,
+						numUsedInImageUsersegRuns_));
+			}
+
+			@Override
+			public int getImageUsersegRunsCount() {
+				return numUsedInImageUsersegRuns_;
+			}
+
+			@Override
+			public int getImageUsersegRuns(int index) {
+				if (index >= numUsedInImageUsersegRuns_)
+					throw new java.lang.IndexOutOfBoundsException();
+				return imageUsersegRuns_[index];
+			}
+
+			// Note: It is not appropriate to add imageUsersegRuns to the returned
+			// array because the internal counter numUsedInImageUsersegRuns_ will
+			// not be incremented properly!! Additionally, if used
+			// as an Accessor only the getDataCount() number of
+			// values are valid!
+			public int[] getImageUsersegRunsArray() {
+				return imageUsersegRuns_;
+			}
+
+			public Builder setImageUsersegRuns(int index, int value) {
+				growImageUsersegRunsArray();
+				imageUsersegRuns_[numUsedInImageUsersegRuns_] = value;
+
+				return this;
+			}
+
+			public Builder addImageUsersegRuns(int value) {
+				ensureImageUsersegRunsIsMutable();
+				growImageUsersegRunsArray();
+				imageUsersegRuns_[numUsedInImageUsersegRuns_] = value;
+				++numUsedInImageUsersegRuns_;
+
+				return this;
+			}
+
+			public Builder addAllImageUsersegRuns(java.lang.Iterable<? extends java.lang.Integer> values) {
+				ensureImageUsersegRunsIsMutable();
+				int growBy = 0;
+				for (java.lang.Integer f : values)
+					++growBy;
+				growImageUsersegRunsArray(growBy);
+				for (java.lang.Integer f : values) {
+					imageUsersegRuns_[numUsedInImageUsersegRuns_] = f;
+					++numUsedInImageUsersegRuns_;
+				}
+
+				return this;
+			}
+
+			public Builder clearImageUsersegRuns() {
+				imageUsersegRuns_ = null;
+				numUsedInImageUsersegRuns_ = 0;
+				bitField0_ = (bitField0_ & ~0x20000000);
+
+				return this;
+			}
+
 			// repeated float quantifiedProperties = 10;
 			private float[] quantifiedProperties_ = null;
 			// transient just a hint that this isn't really a piece of data
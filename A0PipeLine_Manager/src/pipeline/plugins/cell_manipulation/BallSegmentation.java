@@ -21,6 +21,7 @@ import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOList;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOCells;
+import pipeline.data.RunLengthSegmentation;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
@@ -174,27 +175,31 @@ public class BallSegmentation extends FourDPlugin implements AuxiliaryInputOutpu
 					int x0 = Math.min(x, localRadius);
 					int x1 = Math.min(width - 1 - x, localRadius);
 
-					ArrayIntList xCoord = new ArrayIntList(500);
-					ArrayIntList yCoord = new ArrayIntList(500);
-					ArrayIntList zCoord = new ArrayIntList(500);
+					// Each row of the ball is a single run of voxels
+					ArrayIntList runs = new ArrayIntList(500);
 
 					for (int k = -z0; k <= z1; k++) {
 						int kSq = k * k;
 						for (int j = -y0; j <= y1; j++) {
 							int jSq = j * j;
+							int runStart = Integer.MAX_VALUE;
+							int runEnd = Integer.MIN_VALUE;
 							for (int i = -x0; i <= x1; i++) {
 								int iSq = i * i;
 								if (kSq + jSq + iSq > localRadiusSq)
 									continue;
-								xCoord.add(x + i);
-								yCoord.add(y + j);
-								zCoord.add(z + k);
+								runStart = Math.min(runStart, i);
+								runEnd = i;
 							}
+							if (runEnd < runStart)
+								continue;
+							runs.add(z + k);
+							runs.add(y + j);
+							runs.add(x + runStart);
+							runs.add(runEnd - runStart + 1);
 						}
 					}
-					pCloned.imageFullSegCoordsX = xCoord.getIntArrayFast();
-					pCloned.imageFullSegCoordsY = yCoord.getIntArrayFast();
-					pCloned.imageFullSegCoordsZ = zCoord.getIntArrayFast();
+					pCloned.setFullSegmentation(RunLengthSegmentation.fromRuns(runs.getIntArrayFast()));
 
 					return pCloned;
 				}
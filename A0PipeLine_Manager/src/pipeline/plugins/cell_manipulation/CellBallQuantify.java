@@ -7,16 +7,11 @@
 package pipeline.plugins.cell_manipulation;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.collections.primitives.ArrayFloatList;
-import org.apache.commons.collections.primitives.FloatCollection;
-import org.apache.commons.collections.primitives.FloatList;
-
 import pipeline.PreviewType;
 import pipeline.GUI_utils.ListOfPointsView;
 import pipeline.GUI_utils.PluginIOHyperstackViewWithImagePlus;
@@ -29,10 +24,12 @@ import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOCells;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.data.PluginIONumber;
+import pipeline.data.RunLengthSegmentation;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.IntrospectionParameters.ParameterType;
 import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.Quantiles;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
 import pipeline.misc_util.parfor.ParFor;
@@ -198,11 +195,25 @@ public class CellBallQuantify extends ThreeDPlugin implements AuxiliaryInputOutp
 	 */
 	boolean applyRadiusToSegmentation = false;
 	
-	transient private FloatList allPixelValues = new ArrayFloatList(20_000);
+	@FunctionalInterface
+	interface PixelVisitor {
+		void visit(float value);
+	}
 
 	IProjector getProjector(ClickedPoint p, IPluginIOList<ClickedPoint> allInputPoints, IPluginIOStack input) {
-
 		IProjector projector = getProjector();
+		if (visitPixels(p, input, projector::add))
+			return projector;
+		else
+			return null;
+	}
+
+	/**
+	 * Calls visitor with the value of each pixel that is quantified for cell p.
+	 * 
+	 * @return False if the cell has an empty segmentation
+	 */
+	boolean visitPixels(ClickedPoint p, IPluginIOStack input, PixelVisitor visitor) {
 
 		double radius = diameter / 2;
 		double radiusSq = radius * radius;
@@ -230,13 +241,6 @@ public class CellBallQuantify extends ThreeDPlugin implements AuxiliaryInputOutp
 		double zCalib = diameterInPixels || p.zCalibration == 0 ? 1 : p.zCalibration;
 
 		boolean noPixels = false;
-		
-		final FloatCollection pixelValues;
-		if (computeOverallPercentiles) {
-			pixelValues = new ArrayFloatList(500);
-		} else {
-			pixelValues = null;
-		}
 
 		if (!useSegmentation) {
 			int x0, x1, y0, y1, z0, z1;
@@ -261,56 +265,40 @@ public class CellBallQuantify extends ThreeDPlugin implements AuxiliaryInputOutp
 						float f = input.getFloat(xCenterInt + i, yCenterInt + j, zCenterInt + k);
 						if (ignoreZero && f == 0)
 							continue;
-						projector.add(f);
-						if (pixelValues != null) {
-							pixelValues.add(f);
-						}
+						visitor.visit(f);
 					}
 				}
 			}
 		} else { // use segmentation
-			int[] xCoord = usePerimSeg ? p.imagePerimsegCoordsX : p.imageFullSegCoordsX;
-			int[] yCoord = usePerimSeg ? p.imagePerimsegCoordsY : p.imageFullSegCoordsY;
-			int[] zCoord = usePerimSeg ? p.imagePerimsegCoordsZ : p.imageFullSegCoordsZ;
+			RunLengthSegmentation segmentation = usePerimSeg ? p.getPerimeterSegmentation() : p.getFullSegmentation();
 
-			if (xCoord == null)
+			if (segmentation == null)
 				throw new IllegalArgumentException("Missing segmentation");
 
-			if (xCoord.length == 0) {
+			if (segmentation.isEmpty()) {
 				noPixels = true;
 			}
 			float f;
 
-			for (int i = 0; i < xCoord.length; i++) {
+			RunLengthSegmentation.Cursor voxel = segmentation.cursor();
+			while (voxel.next()) {
 				if (applyRadiusToSegmentation && !useRectangularShape) {
 					double distanceSq =
-							Math.pow((xCoord[i] - xCenter) * xyCalib, 2) + Math.pow((yCoord[i] - yCenter) * xyCalib, 2)
-									+ Math.pow((zCoord[i] - zCenter) * zCalib, 2);
+							Math.pow((voxel.x - xCenter) * xyCalib, 2) + Math.pow((voxel.y - yCenter) * xyCalib, 2)
+									+ Math.pow((voxel.z - zCenter) * zCalib, 2);
 					if (distanceSq > radiusSq)
 						continue;
 				}
-				if (diskOnly && zCoord[i] != zCenter)
+				if (diskOnly && voxel.z != zCenter)
 					continue;
-				f = input.getFloat(xCoord[i], yCoord[i], zCoord[i]);
+				f = input.getFloat(voxel.x, voxel.y, voxel.z);
 				if (ignoreZero && f == 0)
 					continue;
-				projector.add(f);
-				if (pixelValues != null) {
-					pixelValues.add(f);
-				}
-			}
-		}
-		
-		if (computeOverallPercentiles) {
-			synchronized(allPixelValues) {
-				allPixelValues.addAll(pixelValues);
+				visitor.visit(f);
 			}
 		}
 
-		if (noPixels)
-			return null;
-		else
-			return projector;
+		return !noPixels;
 	}
 
 	ClickedPoint transform(ClickedPoint p, IPluginIOList<ClickedPoint> allInputPoints, IPluginIOStack input,
@@ -339,8 +327,6 @@ public class CellBallQuantify extends ThreeDPlugin implements AuxiliaryInputOutp
 			PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
 
 		Utils.log("Running ball quantification", LogLevel.DEBUG);
-		
-		allPixelValues.clear();
 
 		final PluginIOCells inputCells = (PluginIOCells) pluginInputs.get("Seeds");
 		final PluginIOCells outputCells = (PluginIOCells) pluginOutputs.get("Seeds");
@@ -376,18 +362,31 @@ public class CellBallQuantify extends ThreeDPlugin implements AuxiliaryInputOutp
 		outputCells.fireValueChanged(false, false);
 		
 		if (computeOverallPercentiles) {
-			float[] allPixels = allPixelValues.toArray();
-			allPixelValues.clear();
-			int nPixels = allPixels.length;
-			if (nPixels == 0) {
+			// Exact percentiles over the pixels of all cells, computed in two passes over the cells instead of
+			// storing and sorting all pixel values
+			Quantiles quantiles =
+					new Quantiles(new double[] { 0.05, highOverallPercentile / 100f }, Quantiles.Mode.EXACT);
+			do {
+				ParFor quantileParFor = new ParFor(0, parForMaxIndex, null, threadPool, true);
+				final Quantiles.Accumulator[] accumulators = new Quantiles.Accumulator[quantileParFor.getNThreads()];
+				for (int i = 0; i < quantileParFor.getNThreads(); i++)
+					quantileParFor.addLoopWorker((loopIndex, threadIndex) -> {
+						if (accumulators[threadIndex] == null)
+							accumulators[threadIndex] = quantiles.newAccumulator();
+						visitPixels(inputCells.get(loopIndex), input, accumulators[threadIndex]::add);
+						return null;
+					});
+				quantileParFor.run(true);
+			} while (!quantiles.finishPass());
+			if (quantiles.getCount() == 0) {
 				throw new PluginRuntimeException("Cannot compute percentile because of empty segmentations",
 						true);
 			}
-			Arrays.sort(allPixels);
+			float[] percentiles = quantiles.getQuantiles();
 			PluginIONumber fifthP = new PluginIONumber("Fifth percentile");
 			PluginIONumber ninetyFifthP = new PluginIONumber("Ninety-fifth percentile");
-			fifthP.number = new Float(allPixels[(int) ((nPixels - 1d ) * 0.05)]);
-			ninetyFifthP.number = new Float(allPixels[(int) ((nPixels - 1d ) * (highOverallPercentile / 100f))]);
+			fifthP.number = new Float(percentiles[0]);
+			ninetyFifthP.number = new Float(percentiles[1]);
 			getOutputs().put("Fifth percentile", fifthP);
 			getOutputs().put("Ninety-fifth percentile", ninetyFifthP);
 		}
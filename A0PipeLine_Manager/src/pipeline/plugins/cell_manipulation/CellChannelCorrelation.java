@@ -26,6 +26,7 @@ import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOCells;
 import pipeline.data.PluginIOHyperstack;
 import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.RunLengthSegmentation;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
@@ -228,7 +229,8 @@ public class CellChannelCorrelation extends ThreeDPlugin implements AuxiliaryInp
 					projector = new AverageProjector();
 
 					ClickedPoint p = pointList.get(loopIndex);
-					int[] pixelRandomization = new int[p.imageFullSegCoordsX.length];
+					RunLengthSegmentation fullSegmentation = p.getFullSegmentation();
+					int[] pixelRandomization = new int[fullSegmentation.getNVoxels()];
 					for (int i = 0; i < pixelRandomization.length; i++) {
 						pixelRandomization[i] = i;
 					}
@@ -291,13 +293,18 @@ public class CellChannelCorrelation extends ThreeDPlugin implements AuxiliaryInp
 						}
 
 					} else { // use segmentation
-						int[] xCoord = usePerimSeg ? p.imagePerimsegCoordsX : p.imageFullSegCoordsX;
-						int[] yCoord = usePerimSeg ? p.imagePerimsegCoordsY : p.imageFullSegCoordsY;
-						int[] zCoord = usePerimSeg ? p.imagePerimsegCoordsZ : p.imageFullSegCoordsZ;
+						RunLengthSegmentation segmentation =
+								usePerimSeg ? p.getPerimeterSegmentation() : fullSegmentation;
 
-						if (xCoord == null)
+						if (segmentation == null)
 							throw new IllegalArgumentException("Missing segmentation");
 
+						// Randomization needs random access to voxels
+						int[][] coordinates = segmentation.toCoordinates();
+						int[] xCoord = coordinates[0];
+						int[] yCoord = coordinates[1];
+						int[] zCoord = coordinates[2];
+
 						if (xCoord.length == 0) {
 							noPixels = true;
 						}
@@ -500,6 +507,89 @@ public class CellChannelCorrelation extends ThreeDPlugin implements AuxiliaryInp
 		return (result / correlation.length);
 	}
 
+	private double estimateErrorBound;
+
+	/**
+	 * Estimates the average correlation computed by {@link #getCorrelation} for all offsets at once. The correlation
+	 * of each cell is linear in the shifted image, with weights given by the cell's mask and first image; weights from
+	 * all cells are summed into a single stack that is cross-correlated with the second image by
+	 * {@link MaskedCrossCorrelation}. The error bound is stored in {@link #estimateErrorBound}.
+	 * 
+	 * @return Estimates indexed by [xOffset + maxOffset][yOffset + maxOffset], or null if a cell has a non-constant
+	 *         first image and a constant second image, in which case its correlation is not finite
+	 * @throws InterruptedException
+	 */
+	private double[][] estimateCorrelations(PluginIOCells inputCells, IPluginIOStack image1, IPluginIOStack image2)
+			throws InterruptedException {
+		ImageFunctionI identity = (cell, loopIndex, im1, im2, x, y, z, x2, y2, z2) -> im1.getFloat(x, y, z);
+		final double[] averageImage1 =
+				applyFunction(inputCells, image1, image2, localThreshold, identity, null, false, null, false, false,
+						false);
+		final double[] averageImage2 =
+				applyFunction(inputCells, image2, image2, localThreshold, identity, null, false, null, false, false,
+						false);
+		final double[] variance1 =
+				applyFunction(inputCells, image1, image2, localThreshold, (cell, loopIndex, im1, im2, x, y, z, x2, y2,
+						z2) -> (float) Math.pow(im1.getFloat(x, y, z) - averageImage1[loopIndex], 2), null, false, null,
+						false, false, false);
+		final double[] variance2 =
+				applyFunction(inputCells, image2, image2, localThreshold, (cell, loopIndex, im1, im2, x, y, z, x2, y2,
+						z2) -> (float) Math.pow(im1.getFloat(x, y, z) - averageImage2[loopIndex], 2), null, false, null,
+						false, false, false);
+
+		MaskedCrossCorrelation crossCorrelation =
+				new MaskedCrossCorrelation(image1.getWidth(), image1.getHeight(), image1.getDepth(), maxOffset);
+		List<ClickedPoint> points = inputCells.getPoints();
+		double constant = 0;
+		for (int i = 0; i < points.size(); i++) {
+			ClickedPoint p = points.get(i);
+			RunLengthSegmentation segmentation = usePerimSeg ? p.getPerimeterSegmentation() : p.getFullSegmentation();
+			if (segmentation == null)
+				throw new IllegalArgumentException("Missing segmentation");
+			int[][] coordinates = segmentation.toCoordinates();
+			int[] xCoord = coordinates[0];
+			int[] yCoord = coordinates[1];
+			int[] zCoord = coordinates[2];
+
+			float minThreshold = -Float.MAX_VALUE;
+			if (!"".equals(localThreshold)) {
+				minThreshold = p.getQuantifiedProperty(localThreshold);
+			}
+			boolean[] included = new boolean[xCoord.length];
+			int nIncluded = 0;
+			for (int j = 0; j < xCoord.length; j++) {
+				if (image2.getPixelValue(xCoord[j], yCoord[j], zCoord[j]) < minThreshold)
+					continue;
+				included[j] = true;
+				nIncluded++;
+			}
+
+			// Cells whose correlation is NaN count as 0 in the average
+			if (nIncluded == 0 || variance1[i] == 0)
+				continue;
+			if (variance2[i] == 0)
+				return null;
+
+			double scale = 1d / ((double) points.size() * nIncluded * Math.sqrt(variance1[i] * variance2[i]));
+			for (int j = 0; j < xCoord.length; j++) {
+				if (!included[j])
+					continue;
+				double weight = (image1.getFloat(xCoord[j], yCoord[j], zCoord[j]) - averageImage1[i]) * scale;
+				crossCorrelation.addWeight(xCoord[j], yCoord[j], zCoord[j], weight);
+				constant -= weight * averageImage2[i];
+			}
+		}
+
+		double[][] result = crossCorrelation.compute(image2, null);
+		for (double[] column : result) {
+			for (int j = 0; j < column.length; j++) {
+				column[j] += constant;
+			}
+		}
+		estimateErrorBound = crossCorrelation.getErrorBound();
+		return result;
+	}
+
 	static ClickedPoint getCellID(PluginIOCells cells, float seedId) {
 		for (ClickedPoint p : cells) {
 			if (p.getSeedId() == seedId)
@@ -542,6 +632,20 @@ public class CellChannelCorrelation extends ThreeDPlugin implements AuxiliaryInp
 
 		int nRandomize = 0;
 
+		double[][] estimatedCorrelations = useSegmentation ? estimateCorrelations(inputCells, input, image2) : null;
+		double minEstimate = Double.NEGATIVE_INFINITY;
+		if (estimatedCorrelations != null) {
+			// Only offsets whose estimate is within the error bound of the best estimate can be the best offset;
+			// those are evaluated exactly, in the same order as the exhaustive search
+			double maxEstimate = Double.NEGATIVE_INFINITY;
+			for (double[] column : estimatedCorrelations) {
+				for (double c : column) {
+					maxEstimate = Math.max(maxEstimate, c);
+				}
+			}
+			minEstimate = maxEstimate - 2 * estimateErrorBound - Math.ulp(1f);
+		}
+
 		double maxCorr = 0;
 		int bestxOffset = 0, bestyOffset = 0;
 		r.setIndeterminate(false);
@@ -550,6 +654,9 @@ public class CellChannelCorrelation extends ThreeDPlugin implements AuxiliaryInp
 			if (Thread.interrupted())
 				throw new RuntimeException("Interrupted");
 			for (int yOffset = -maxOffset; yOffset <= maxOffset; yOffset++) {
+				if (estimatedCorrelations != null
+						&& estimatedCorrelations[xOffset + maxOffset][yOffset + maxOffset] < minEstimate)
+					continue;
 				double corr = getCorrelation(xOffset, yOffset, inputCells, null, input, image2, 0);
 				if (corr > maxCorr) {
 					maxCorr = corr;
@@ -15,6 +15,7 @@ import pipeline.data.IPluginIOList;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOCells;
 import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.RunLengthSegmentation;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
 
@@ -47,21 +48,21 @@ public class CellRecenter extends CellTransform {
 
 		ClickedPoint pCloned = (ClickedPoint) point.clone();
 
-		if (point.imageFullSegCoordsX == null || point.imageFullSegCoordsX.length == 0) {
+		RunLengthSegmentation segmentation = point.getFullSegmentation();
+		if (segmentation == null || segmentation.isEmpty()) {
 			missingSegmentation.getAndIncrement();
 			return pCloned;
 		}
 
-		int nPoints = point.imageFullSegCoordsX.length;
-
 		double xSum = 0, ySum = 0, zSum = 0;
 		double pixelSum = 0;
 
-		for (int i = 0; i < nPoints; i++) {
-			float x = point.imageFullSegCoordsX[i];
-			float y = point.imageFullSegCoordsY[i];
-			float z = point.imageFullSegCoordsZ[i];
-			float pixelValue = inputImage != null ? inputImage.getPixelValue((int) x, (int) y, (int) z, 1, 0) : 1;
+		RunLengthSegmentation.Cursor voxel = segmentation.cursor();
+		while (voxel.next()) {
+			float x = voxel.x;
+			float y = voxel.y;
+			float z = voxel.z;
+			float pixelValue = inputImage != null ? inputImage.getPixelValue(voxel.x, voxel.y, voxel.z, 1, 0) : 1;
 			pixelSum += pixelValue;
 			xSum += x * pixelValue;
 			ySum += y * pixelValue;
@@ -9,8 +9,7 @@ package pipeline.plugins.cell_manipulation;
 import java.awt.event.ActionEvent;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -318,6 +317,20 @@ public class CellsSlidingWindowAverage extends FourDPlugin implements AuxiliaryI
 		return p.getQuantifiedProperty(name);
 	}
 
+	/**
+	 * @return Value of field f, or of quantified property name if f is null, for each cell
+	 */
+	private static float[] getColumn(IPluginIOList<ClickedPoint> cells, Field f, String name) {
+		if (f == null && cells instanceof PluginIOCells)
+			return ((PluginIOCells) cells).getQuantifiedPropertyColumn(name);
+		float[] result = new float[cells.size()];
+		int i = 0;
+		for (ClickedPoint p : cells) {
+			result[i++] = getCPField(p, f, name);
+		}
+		return result;
+	}
+
 	@Override
 	public void run(ProgressReporter r, MultiListParameter inChannels, TableParameter outChannels,
 			PreviewType previewType, boolean inputHasChanged, AbstractParameter parameterWhoseValueChanged,
@@ -360,32 +373,39 @@ public class CellsSlidingWindowAverage extends FourDPlugin implements AuxiliaryI
 			}
 		}
 
-		final Field f2 = f;
+		final float[] xValues = getColumn(cells, f, xFieldName);
+		final float[] yValues = getColumn(cells, null, yFieldName);
 
-		Comparator<ClickedPoint> xComparator =
-				(o1, o2) -> Float.compare(getCPField(o1, f2, xFieldName), getCPField(o2, f2, xFieldName));
+		Integer[] order = new Integer[xValues.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (o1, o2) -> Float.compare(xValues[o1], xValues[o2]));
 
-		List<ClickedPoint> sortedList = new ArrayList<>();
-		sortedList.addAll(cells);
-		Collections.sort(sortedList, xComparator);
+		float[] sortedX = new float[order.length];
+		float[] sortedY = new float[order.length];
+		for (int i = 0; i < order.length; i++) {
+			sortedX[i] = xValues[order[i]];
+			sortedY[i] = yValues[order[i]];
+		}
 
 		int x_behind = 0;
 		int x_forward = 0;
 
-		for (ClickedPoint p : sortedList) {
-			float currentX = getCPField(p, f, xFieldName);
-			while (currentX - getCPField(sortedList.get(x_behind), f, xFieldName) > windowLength * 0.5)
+		for (int i = 0; i < order.length; i++) {
+			ClickedPoint p = cells.get(order[i]);
+			float currentX = sortedX[i];
+			while (currentX - sortedX[x_behind] > windowLength * 0.5)
 				x_behind++;
 
-			while ((getCPField(sortedList.get(x_forward), f, xFieldName) - currentX < windowLength * 0.5)
-					&& (x_forward < sortedList.size() - 2))
+			while ((sortedX[x_forward] - currentX < windowLength * 0.5) && (x_forward < order.length - 2))
 				x_forward++;
 
 			double averagedY = 0;
 			int counter = 0;
 
 			for (int x = x_behind; x <= x_forward; x++) {
-				averagedY += sortedList.get(x).getQuantifiedProperty(yFieldName);
+				averagedY += sortedY[x];
 				counter++;
 			}
 			averagedY /= counter;
@@ -16,13 +16,8 @@ public class ClearSegmentation extends CellTransform {
 	protected ClickedPoint transform(ClickedPoint point, IPluginIOList<ClickedPoint> allInputPoints,
 			IPluginIOHyperstack inputImage, int pointIndex) {
 		ClickedPoint result = (ClickedPoint) point.clone();
-		result.imageFullSegCoordsX = null;
-		result.imageFullSegCoordsY = null;
-		result.imageFullSegCoordsZ = null;
-
-		result.imagePerimsegCoordsX = null;
-		result.imagePerimsegCoordsY = null;
-		result.imagePerimsegCoordsZ = null;
+		result.setFullSegmentation(null);
+		result.setPerimeterSegmentation(null);
 
 		return result;
 	}
@@ -26,9 +26,6 @@ import pipeline.misc_util.parfor.ParFor;
 import pipeline.parameters.AbstractParameter;
 import pipeline.parameters.MultiListParameter;
 import pipeline.parameters.TableParameter;
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 
 /**
  * Generates an error if cell field values are not close enough. Used for pipeline testing.
@@ -101,15 +98,7 @@ public class CompareCells extends CellTransform {
 			}
 		}
 
-		final KDTree<ClickedPoint> tree = new KDTree<>(3);
-		for (ClickedPoint p : inputCells) {
-			double[] key = new double[] { p.getx(), p.gety(), p.getz() };
-			try {
-				tree.insert(key, p);
-			} catch (KeySizeException | KeyDuplicateException e) {
-				throw new IllegalStateException(e);
-			}
-		}
+		final PluginIOCells cellsToMatch = (PluginIOCells) inputCells;
 
 		final double epsilon = 1.0E-10;
 
@@ -125,11 +114,12 @@ public class CompareCells extends CellTransform {
 		for (int i = 0; i < parFor.getNThreads(); i++)
 			parFor.addLoopWorker((loopIndex, threadIndex) -> {
 				ClickedPoint p1 = inputCells2.get(loopIndex);
-				ClickedPoint p2;
-				try {
-					p2 = tree.nearest(new double[] { p1.getx(), p1.gety(), p1.getz() });
-				} catch (KeySizeException e1) {
-					throw new IllegalStateException(e1);
+				ClickedPoint p2 = cellsToMatch.getNearestCell(p1.t, p1.getx(), p1.gety(), p1.getz());
+				if (p2 == null) {
+					Utils.log("No cell to match " + p1.x + "," + p1.y + "," + p1.z + " at time " + p1.t,
+							LogLevel.ERROR);
+					error.set(true);
+					return null;
 				}
 				p2.status = VISITED;
 				for (String s : qProp1) {
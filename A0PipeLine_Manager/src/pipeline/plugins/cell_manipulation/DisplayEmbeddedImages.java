@@ -138,6 +138,7 @@ public class DisplayEmbeddedImages extends ThreeDPlugin implements SpecialDimPlu
 			int zThickness =
 					(int) (p.hasQuantifiedProperty("zThickness") ? p.getQuantifiedProperty("zThickness") + 1 : 1);
 
+			p.loadSegmentations();
 			int[] pixelValues = p.imageFullSegCoordsX;
 
 			for (int z = 0; z < zThickness; z++)
@@ -12,6 +12,7 @@ import pipeline.GUI_utils.bean_table.BeanTableModel;
 import pipeline.data.ClickedPoint;
 import pipeline.data.IPluginIOStack;
 import pipeline.data.PluginIOCells;
+import pipeline.data.RunLengthSegmentation;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
@@ -67,18 +68,15 @@ public class DisplaySolidSegmentation extends DisplaySeedFieldValue {
 
 			ClickedPoint p = seeds.get(i);
 
-			int[] xCoord = usePerimeter() ? p.imagePerimsegCoordsX : p.imageFullSegCoordsX;
-			int[] yCoord = usePerimeter() ? p.imagePerimsegCoordsY : p.imageFullSegCoordsY;
-			int[] zCoord = usePerimeter() ? p.imagePerimsegCoordsZ : p.imageFullSegCoordsZ;
-			if (xCoord == null)
+			RunLengthSegmentation segmentation =
+					usePerimeter() ? p.getPerimeterSegmentation() : p.getFullSegmentation();
+			if (segmentation == null)
 				throw new IllegalArgumentException("Missing segmentation");
 
-			if (xCoord.length == 0) {
+			if (segmentation.isEmpty()) {
 				noPixels = true;
 			}
-			for (int j = 0; j < xCoord.length; j++) {
-				output.setPixelValue(xCoord[j], yCoord[j], zCoord[j], f);
-			}
+			segmentation.forEachVoxel((x, y, z) -> output.setPixelValue(x, y, z, f));
 
 		}
 
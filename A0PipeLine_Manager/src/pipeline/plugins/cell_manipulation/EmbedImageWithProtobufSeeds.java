@@ -207,6 +207,7 @@ public class EmbedImageWithProtobufSeeds extends ThreeDPlugin implements Auxilia
 									}
 								}
 
+								pCloned.loadSegmentations();
 								pCloned.imageFullSegCoordsX = pixelValues;
 
 								synchronized (outputCells) {
@@ -19,6 +19,7 @@ import pipeline.data.IPluginIOList;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOCells;
 import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.RunLengthSegmentation;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
@@ -85,24 +86,18 @@ public class ExpandPerimeter extends CellTransform {
 
 		ClickedPoint pCloned = (ClickedPoint) point.clone();
 
-		if (point.imageFullSegCoordsX == null || point.imageFullSegCoordsX.length == 0) {
+		RunLengthSegmentation fullSegmentation = point.getFullSegmentation();
+		if (fullSegmentation == null || fullSegmentation.isEmpty()) {
 			missingSegmentation.getAndIncrement();
 			return pCloned;
 		}
 
 		Set<Point> innerPoints = new HashSet<>();
 
-		int nInnerPoints = point.imageFullSegCoordsX.length;
-
 		if (onlyExpandOutwards)
-			for (int i = 0; i < nInnerPoints; i++) {
-				float x = point.imageFullSegCoordsX[i];
-				float y = point.imageFullSegCoordsY[i];
-				float z = point.imageFullSegCoordsZ[i];
-				innerPoints.add(new Point((int) x, (int) y, (int) z));
-			}
+			fullSegmentation.forEachVoxel((x, y, z) -> innerPoints.add(new Point(x, y, z)));
 
-		int nPoints = point.imagePerimsegCoordsX.length;
+		RunLengthSegmentation.Cursor perimeter = point.getPerimeterSegmentation().cursor();
 
 		int xyRad = (int) (boxRadius / point.xyCalibration);
 		int zRad = (int) (boxRadius / point.zCalibration);
@@ -115,10 +110,10 @@ public class ExpandPerimeter extends CellTransform {
 		ArrayIntList yCoord = new ArrayIntList(500);
 		ArrayIntList zCoord = new ArrayIntList(500);
 
-		for (int ii = 0; ii < nPoints; ii++) {
-			int x = point.imagePerimsegCoordsX[ii];
-			int y = point.imagePerimsegCoordsY[ii];
-			int z = point.imagePerimsegCoordsZ[ii];
+		while (perimeter.next()) {
+			int x = perimeter.x;
+			int y = perimeter.y;
+			int z = perimeter.z;
 
 			innerPoints.add(new Point(x, y, z));
 
@@ -152,9 +147,8 @@ public class ExpandPerimeter extends CellTransform {
 			}
 		}
 
-		pCloned.imagePerimsegCoordsX = xCoord.getIntArrayFast();
-		pCloned.imagePerimsegCoordsY = yCoord.getIntArrayFast();
-		pCloned.imagePerimsegCoordsZ = zCoord.getIntArrayFast();
+		pCloned.setPerimeterSegmentation(RunLengthSegmentation.fromCoordinates(xCoord.getIntArrayFast(), yCoord
+				.getIntArrayFast(), zCoord.getIntArrayFast()));
 
 		return pCloned;
 	}
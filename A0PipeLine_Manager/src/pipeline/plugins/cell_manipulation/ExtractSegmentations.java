@@ -8,6 +8,7 @@ package pipeline.plugins.cell_manipulation;
 
 import ij.measure.Calibration;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -21,13 +22,17 @@ import pipeline.data.ClickedPoint;
 import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOImage;
 import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOCells;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.data.PluginIOList;
 import pipeline.data.PluginIOListOfQ;
 import pipeline.data.PluginIOStack;
+import pipeline.data.RunLengthSegmentation;
+import pipeline.data.SliceAccessor;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
+import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
@@ -120,6 +125,17 @@ public class ExtractSegmentations extends ThreeDPlugin implements AuxiliaryInput
 
 		input.computePixelArray();
 
+		// For virtual inputs, read only the bounding box of each cell instead of whole slices
+		final SliceAccessor regionReader;
+		if (input.isVirtual() && input.getParentHyperstack() instanceof ImageAccessor) {
+			try {
+				regionReader = ((ImageAccessor) input.getParentHyperstack()).getSlicesAccessor();
+			} catch (IOException e) {
+				throw new PluginRuntimeException("Could not open input image for reading", e, true);
+			}
+		} else
+			regionReader = null;
+
 		noSegmentation.set(0);
 
 		ParFor parFor = new ParFor(0, inputCells.getPoints().size() - 1, r, threadPool, true);
@@ -127,24 +143,6 @@ public class ExtractSegmentations extends ThreeDPlugin implements AuxiliaryInput
 		for (int i = 0; i < parFor.getNThreads(); i++)
 			parFor.addLoopWorker(new ILoopWorker() {
 
-				int max(int[] a) {
-					int result = -Integer.MAX_VALUE;
-					for (int i : a) {
-						if (i > result)
-							result = i;
-					}
-					return result;
-				}
-
-				int min(int[] a) {
-					int result = Integer.MAX_VALUE;
-					for (int i : a) {
-						if (i < result)
-							result = i;
-					}
-					return result;
-				}
-
 				List<ClickedPoint> pointList = inputCells.getPoints();
 
 				@Override
@@ -153,30 +151,49 @@ public class ExtractSegmentations extends ThreeDPlugin implements AuxiliaryInput
 					boolean noPixels = false;
 					ClickedPoint p = pointList.get(loopIndex);
 
-					int[] xCoord = p.imageFullSegCoordsX;
-					int[] yCoord = p.imageFullSegCoordsY;
-					int[] zCoord = p.imageFullSegCoordsZ;
+					RunLengthSegmentation segmentation = p.getFullSegmentation();
 
-					if (xCoord == null)
+					if (segmentation == null)
 						throw new IllegalArgumentException("Missing segmentation");
 
-					if (xCoord.length == 0) {
+					int[] boundingBox = segmentation.getBoundingBox();
+					if (boundingBox == null) {
 						noPixels = true;
+						boundingBox = new int[6];
 					}
 
-					int minX = min(xCoord);
-					int minY = min(yCoord);
-					int minZ = min(zCoord);
+					int minX = boundingBox[0];
+					int minY = boundingBox[2];
+					int minZ = boundingBox[4];
+
+					int width = boundingBox[1] - minX + 1;
+					int height = boundingBox[3] - minY + 1;
+					int depth = boundingBox[5] - minZ + 1;
 
 					PluginIOStack cellStack =
-							new PluginIOStack(fileNamePrefix + ((int) p.getSeedId()) + ".tif", max(xCoord) - minX + 1,
-									max(yCoord) - minY + 1, max(zCoord) - minZ + 1, 1, PixelType.FLOAT_TYPE);
+							new PluginIOStack(fileNamePrefix + ((int) p.getSeedId()) + ".tif", width, height, depth, 1,
+									PixelType.FLOAT_TYPE);
 
 					cellStack.setCalibration((Calibration) input.getCalibration().clone());
 
-					for (int i = 0; i < xCoord.length; i++) {
-						cellStack.setPixelValue(xCoord[i] - minX, yCoord[i] - minY, zCoord[i] - minZ, input.getFloat(
-								xCoord[i], yCoord[i], zCoord[i]));
+					float[] box = null;
+					if (regionReader != null && !noPixels) {
+						box = new float[width * height * depth];
+						try {
+							regionReader.copyPixelBoxIntoArray(minX, minY, minZ, width, height, depth,
+									ImageAccessor.DONT_CACHE_PIXELS, box);
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+
+					RunLengthSegmentation.Cursor voxel = segmentation.cursor();
+					while (voxel.next()) {
+						int x = voxel.x - minX;
+						int y = voxel.y - minY;
+						int z = voxel.z - minZ;
+						cellStack.setPixelValue(x, y, z, box != null ? box[(z * height + y) * width + x] : input
+								.getFloat(voxel.x, voxel.y, voxel.z));
 					}
 
 					if (noPixels) {
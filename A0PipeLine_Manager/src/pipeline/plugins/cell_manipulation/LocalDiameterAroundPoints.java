@@ -23,12 +23,12 @@ import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
 import pipeline.plugins.AuxiliaryInputOutputPlugin;
 import pipeline.plugins.ThreeDPlugin;
+import pipeline.plugins.image_processing.EuclideanDistanceTransform;
 
 /**
  * Starting from an image and a list of points, quantify the largest diameter of balls centered on each of those
  * points that only contain non-0 pixels of the source image.
  * FIXME For now, this plugin should NOT be run on more than 1 channel at a time.
- * FIXME Not dealing with z well (should take into account different z and xy resolutions when considering diameter).
  */
 public class LocalDiameterAroundPoints extends ThreeDPlugin implements AuxiliaryInputOutputPlugin {
 
@@ -130,7 +130,10 @@ public class LocalDiameterAroundPoints extends ThreeDPlugin implements Auxiliary
 
 		input.computePixelArray();
 
-		// FIXME Change to BallIterator, from which following code was copied
+		// Squared distance from each pixel to the nearest non-0 pixel
+		float[][] distances =
+				EuclideanDistanceTransform.computeSquaredDistances(input.getStackPixelArray(), width, height, true,
+						zRatio, null, r);
 
 		for (ClickedPoint p : inputCells.getPoints()) {
 			ClickedPoint pCloned = (ClickedPoint) p.clone();
@@ -149,44 +152,13 @@ public class LocalDiameterAroundPoints extends ThreeDPlugin implements Auxiliary
 				continue;
 			}
 
-			boolean done = false, oneIt = false;
-			int radius;
-			for (radius = 0; (radius < maxRadius) && (!done); radius++) {
-
-				int radiusSq = radius * radius;
-
-				int z0 = Math.min(z, radius);
-				int z1 = Math.min(depth - 1 - z, radius);
-
-				int y0 = Math.min(y, radius);
-				int y1 = Math.min(height - 1 - (y), radius);
-
-				int x0 = Math.min(x, radius);
-				int x1 = Math.min(width - 1 - x, radius);
-
-				for (int k = -z0; (k <= z1) && (!done); k++) {
-					float kSq = k * k * zRatio * zRatio;
-					for (int j = -y0; (j <= y1) && (!done); j++) {
-						int jSq = j * j;
-						for (int i = -x0; (i <= x1) && (!done); i++) {
-							int iSq = i * i;
-							if (kSq + jSq + iSq > radiusSq)
-								continue;
-							oneIt = true;
-							if (input.getPixelValue(x + i, y + j, z + k) != 0)
-								done = true;
-						}
-					}
-				}
-				if (!oneIt)
-					done = true;
-			}
-
-			if (!done)
+			// Smallest radius of a ball centered on the point that contains a non-0 pixel
+			int radius = EuclideanDistanceTransform.ballRadius(distances[z][y * width + x], maxRadius);
+			if (radius >= maxRadius) {
 				Utils.displayMessage("Warning: maximum attempted radius " + maxRadius + " was too low", true,
 						LogLevel.WARNING);
-
-			radius--;
+				radius = maxRadius - 1;
+			}
 
 			pCloned.setQuantifiedProperty("localDiameter", radius * 2);
 
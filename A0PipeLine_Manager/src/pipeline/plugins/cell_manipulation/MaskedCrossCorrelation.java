@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.cell_manipulation;
+
+import ij.process.FHT;
+import ij.process.FloatProcessor;
+import pipeline.data.IPluginIOStack;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Cross-correlation of a sparse weight stack with an image, for all in-plane offsets up to a maximum:
+ * C(dx, dy) = sum over x, y, z of weight(x, y, z) * image(x + dx, y + dy, z), where reads from the image are clamped
+ * to its edges. Weights are accumulated by the caller from cell masks with {@link #addWeight}; the correlation is then
+ * computed slice by slice with Hartley transforms of the bounding box of non-zero weights, padded by the maximum
+ * offset, and summed across slices in the frequency domain.
+ *
+ */
+class MaskedCrossCorrelation {
+
+	private final int width, height, depth;
+	private final int maxOffset;
+	/**
+	 * Null for slices without weights.
+	 */
+	private final float[][] weights;
+	private int minX = Integer.MAX_VALUE, maxX = -1, minY = Integer.MAX_VALUE, maxY = -1;
+
+	MaskedCrossCorrelation(int width, int height, int depth, int maxOffset) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.maxOffset = maxOffset;
+		weights = new float[depth][];
+	}
+
+	void addWeight(int x, int y, int z, double w) {
+		if (weights[z] == null)
+			weights[z] = new float[width * height];
+		weights[z][y * width + x] += w;
+		if (x < minX)
+			minX = x;
+		if (x > maxX)
+			maxX = x;
+		if (y < minY)
+			minY = y;
+		if (y > maxY)
+			maxY = y;
+	}
+
+	/**
+	 * Bound on the absolute error of the values returned by {@link #compute}, as estimated in the last call.
+	 */
+	private double errorBound;
+
+	double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * @param image
+	 * @param progress
+	 *            Can be null
+	 * @return Correlation indexed by [dx + maxOffset][dy + maxOffset]
+	 * @throws InterruptedException
+	 */
+	double[][] compute(final IPluginIOStack image, ProgressReporter progress) throws InterruptedException {
+		final int nOffsets = 2 * maxOffset + 1;
+		final double[][] result = new double[nOffsets][nOffsets];
+		errorBound = 0;
+		if (maxX < 0)
+			return result;
+
+		final int boxWidth = maxX - minX + 1;
+		final int boxHeight = maxY - minY + 1;
+		int n = 2;
+		while (n < Math.max(boxWidth, boxHeight) + 2 * maxOffset)
+			n *= 2;
+		final int size = n;
+
+		final int[] slices = new int[depth];
+		int nSlices = 0;
+		for (int z = 0; z < depth; z++) {
+			if (weights[z] != null)
+				slices[nSlices++] = z;
+		}
+
+		ParFor parFor = new ParFor("Masked cross-correlation", 0, nSlices - 1, progress, true);
+		final float[][] sums = new float[parFor.getNThreads()][];
+		// Per thread: sum of weights times image offset, sum of squared weights, sum of squared image values, and sum
+		// of absolute weights times maximal absolute image value
+		final double[][] stats = new double[parFor.getNThreads()][4];
+
+		for (int i = 0; i < parFor.getNThreads(); i++)
+			parFor.addLoopWorker((sliceIndex, threadIndex) -> {
+				int z = slices[sliceIndex];
+				float[] sliceWeights = weights[z];
+				float[] w = new float[size * size];
+				double weightSum = 0, weightSumSq = 0, weightSumAbs = 0;
+				for (int y = 0; y < boxHeight; y++) {
+					int source = (y + minY) * width + minX;
+					for (int x = 0; x < boxWidth; x++) {
+						float f = sliceWeights[source + x];
+						w[y * size + x] = f;
+						weightSum += f;
+						weightSumSq += (double) f * f;
+						weightSumAbs += Math.abs(f);
+					}
+				}
+
+				// Image over the box padded by maxOffset, with edge pixels replicated; its mean is subtracted so
+				// that the transforms do not carry a large constant component
+				int paddedWidth = boxWidth + 2 * maxOffset;
+				int paddedHeight = boxHeight + 2 * maxOffset;
+				float[] p = new float[size * size];
+				double offset = 0, imageMaxAbs = 0;
+				for (int y = 0; y < paddedHeight; y++) {
+					int sourceY = Math.min(Math.max(y + minY - maxOffset, 0), height - 1);
+					for (int x = 0; x < paddedWidth; x++) {
+						int sourceX = Math.min(Math.max(x + minX - maxOffset, 0), width - 1);
+						float f = image.getFloat(sourceX, sourceY, z);
+						p[y * size + x] = f;
+						offset += f;
+						imageMaxAbs = Math.max(imageMaxAbs, Math.abs(f));
+					}
+				}
+				offset /= paddedWidth * paddedHeight;
+				double imageSumSq = 0;
+				for (int y = 0; y < paddedHeight; y++) {
+					for (int x = 0; x < paddedWidth; x++) {
+						float f = (float) (p[y * size + x] - offset);
+						p[y * size + x] = f;
+						imageSumSq += (double) f * f;
+					}
+				}
+
+				FHT weightTransform = new FHT(new FloatProcessor(size, size, w, null));
+				weightTransform.transform();
+				FHT imageTransform = new FHT(new FloatProcessor(size, size, p, null));
+				imageTransform.transform();
+				float[] product = (float[]) imageTransform.conjugateMultiply(weightTransform).getPixels();
+
+				if (sums[threadIndex] == null)
+					sums[threadIndex] = product;
+				else {
+					float[] sum = sums[threadIndex];
+					for (int i1 = 0; i1 < sum.length; i1++) {
+						sum[i1] += product[i1];
+					}
+				}
+				stats[threadIndex][0] += offset * weightSum;
+				stats[threadIndex][1] += weightSumSq;
+				stats[threadIndex][2] += imageSumSq;
+				stats[threadIndex][3] += weightSumAbs * imageMaxAbs;
+				return null;
+			});
+		parFor.run(true);
+
+		float[] total = null;
+		double constant = 0, weightSumSq = 0, imageSumSq = 0, weightImageAbs = 0;
+		for (int t = 0; t < sums.length; t++) {
+			constant += stats[t][0];
+			weightSumSq += stats[t][1];
+			imageSumSq += stats[t][2];
+			weightImageAbs += stats[t][3];
+			if (sums[t] == null)
+				continue;
+			if (total == null)
+				total = sums[t];
+			else {
+				for (int i = 0; i < total.length; i++) {
+					total[i] += sums[t][i];
+				}
+			}
+		}
+
+		FHT correlation = new FHT(new FloatProcessor(size, size, total, null));
+		correlation.inverseTransform();
+		float[] c = (float[]) correlation.getPixels();
+		for (int dx = 0; dx < nOffsets; dx++) {
+			for (int dy = 0; dy < nOffsets; dy++) {
+				result[dx][dy] = c[dy * size + dx] + constant;
+			}
+		}
+
+		// Each correlation value is bounded by sqrt(weightSumSq * imageSumSq) (Cauchy-Schwarz); single-precision
+		// transforms have a relative error that grows with the log of the number of points. Rounding of the weights
+		// to single precision adds an error bounded by weightImageAbs. Use a generous margin.
+		double log2 = 2 * Math.log(size) / Math.log(2);
+		errorBound =
+				16 * Math.ulp(1f) * ((log2 + nSlices) * Math.sqrt(weightSumSq * imageSumSq) + weightImageAbs);
+		return result;
+	}
+}
@@ -9,10 +9,13 @@ package pipeline.plugins.cell_manipulation;
 import ij.measure.Calibration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import pipeline.PreviewType;
 import pipeline.GUI_utils.ListOfPointsView;
@@ -31,10 +34,6 @@ import pipeline.parameters.MultiListParameter;
 import pipeline.parameters.TableParameter;
 import pipeline.plugins.AuxiliaryInputOutputPlugin;
 import pipeline.plugins.FourDPlugin;
-import edu.wlu.cs.levy.CG.KDTree;
-import edu.wlu.cs.levy.CG.KeyDuplicateException;
-import edu.wlu.cs.levy.CG.KeyMissingException;
-import edu.wlu.cs.levy.CG.KeySizeException;
 
 /**
  * This plugin is used to select a subset of the cells detected by the SVMCellDetector plugin.
@@ -66,42 +65,36 @@ public class SVMSuppress extends FourDPlugin implements AuxiliaryInputOutputPlug
 	private static final byte SELECTED = -1;
 	private static final byte NOT_VISITED = 0;
 
-	public float
-			fillTree(List<ClickedPoint> points, List<ClickedPoint> pointsAboveThreshold, KDTree<ClickedPoint> tree) {
+	/**
+	 * Add points above the confidence threshold to pointsAboveThreshold, keeping only the most confident of points
+	 * that have the same coordinates.
+	 * 
+	 * @return Largest cell radius
+	 */
+	private float selectCandidates(List<ClickedPoint> points, List<ClickedPoint> pointsAboveThreshold,
+			Map<List<Double>, ClickedPoint> pointsByPosition) {
 
 		float maxRadius = -Float.MAX_VALUE;
 
-		try {
-			for (ClickedPoint p : points) {
-				if (p.getConfidence() > minConfidence) {
-					p.status = NOT_VISITED;
-					if (p.hsz * 0.5 * p.xyCalibration > maxRadius)
-						maxRadius = p.hsz * 0.5f * p.xyCalibration;
-					double[] key = new double[] { p.getx(), p.gety(), p.getz() };
-					ClickedPoint samePoint = tree.search(key);
-					boolean insert = true;
-					if (samePoint != null) {
-						if (samePoint.getConfidence() < p.getConfidence()) {
-							try {
-								tree.delete(key);
-							} catch (KeyMissingException e) {
-								throw new IllegalStateException(e);
-							}
-							pointsAboveThreshold.remove(samePoint);
-						} else
-							insert = false;
-					}
-					if (insert)
-						try {
-							pointsAboveThreshold.add(p);
-							tree.insert(key, p);
-						} catch (KeyDuplicateException e) {
-							throw new IllegalStateException(e);
-						}
+		for (ClickedPoint p : points) {
+			if (p.getConfidence() > minConfidence) {
+				p.status = NOT_VISITED;
+				if (p.hsz * 0.5 * p.xyCalibration > maxRadius)
+					maxRadius = p.hsz * 0.5f * p.xyCalibration;
+				List<Double> key = Arrays.asList((double) p.t, (double) p.getx(), (double) p.gety(), p.getz());
+				ClickedPoint samePoint = pointsByPosition.get(key);
+				boolean insert = true;
+				if (samePoint != null) {
+					if (samePoint.getConfidence() < p.getConfidence()) {
+						pointsAboveThreshold.remove(samePoint);
+					} else
+						insert = false;
+				}
+				if (insert) {
+					pointsAboveThreshold.add(p);
+					pointsByPosition.put(key, p);
 				}
 			}
-		} catch (KeySizeException e) {
-			throw new IllegalStateException(e);
 		}
 		return maxRadius;
 	}
@@ -111,85 +104,91 @@ public class SVMSuppress extends FourDPlugin implements AuxiliaryInputOutputPlug
 			PreviewType previewType, boolean inputHasChanged, AbstractParameter parameterWhoseValueChanged,
 			boolean stayInCoreLoop) throws InterruptedException {
 
-		try {
-			if (progress.isIndeterminate())
-				progressSetIndeterminateThreadSafe(progress, false);
-			indeterminateProgress = false;
-			if (progress.getValue() != 0)
-				progressSetValueThreadSafe(progress, 0);
+		if (progress.isIndeterminate())
+			progressSetIndeterminateThreadSafe(progress, false);
+		indeterminateProgress = false;
+		if (progress.getValue() != 0)
+			progressSetValueThreadSafe(progress, 0);
 
-			long time0 = System.currentTimeMillis();
+		long time0 = System.currentTimeMillis();
 
-			PluginIOCells detectedCells = (PluginIOCells) pluginInputs.get("Detected cells");
-			PluginIOCells detectedCells2 = (PluginIOCells) pluginInputs.get("Detected cells 2");
+		PluginIOCells detectedCells = (PluginIOCells) pluginInputs.get("Detected cells");
+		PluginIOCells detectedCells2 = (PluginIOCells) pluginInputs.get("Detected cells 2");
 
-			final KDTree<ClickedPoint> tree = new KDTree<>(3);
+		float maxRadius = -Float.MAX_VALUE;
 
-			float maxRadius = -Float.MAX_VALUE;
+		final ArrayList<ClickedPoint> pointsAboveThreshold = new ArrayList<>(5000);
+		final Map<List<Double>, ClickedPoint> pointsByPosition = new HashMap<>();
+		final List<PluginIOCells> sources = new ArrayList<>(2);
+		sources.add(detectedCells);
+
+		maxRadius = selectCandidates(detectedCells.getPoints(), pointsAboveThreshold, pointsByPosition);
+		if (detectedCells2 != null) {
+			sources.add(detectedCells2);
+			float r2 = selectCandidates(detectedCells2.getPoints(), pointsAboveThreshold, pointsByPosition);
+			maxRadius = Math.max(maxRadius, r2);
+			if (detectedCells.getPoints().get(0).listNamesOfQuantifiedProperties.indexOf("geodesicDistance") != detectedCells2
+					.getPoints().get(0).listNamesOfQuantifiedProperties.indexOf("geodesicDistance")
+					|| detectedCells.getPoints().get(0).listNamesOfQuantifiedProperties.size() != detectedCells2
+							.getPoints().get(0).listNamesOfQuantifiedProperties.size())
+				throw new IllegalArgumentException("Structure mismatch between detected cells 1 and 2");
+		}
+		final Set<ClickedPoint> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+		candidates.addAll(pointsAboveThreshold);
+		Utils.log("Time selecting candidates: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
+		time0 = System.currentTimeMillis();
 
-			final ArrayList<ClickedPoint> pointsAboveThreshold = new ArrayList<>(5000);
+		Collections.sort(pointsAboveThreshold);
+		Utils.log("Time sorting: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
+		time0 = System.currentTimeMillis();
 
-			maxRadius = fillTree(detectedCells.getPoints(), pointsAboveThreshold, tree);
+		Calibration calib = detectedCells.getCalibration();
+		final float zFactor = (float) (calib != null ? Math.pow(calib.pixelDepth / calib.pixelHeight, 2) : 1);
+
+		if (zFactor == 1) {
+			Utils.log("Warning: z factor is 1", LogLevel.WARNING);
+		} else {
 			if (detectedCells2 != null) {
-				float r2 = fillTree(detectedCells2.getPoints(), pointsAboveThreshold, tree);
-				maxRadius = Math.max(maxRadius, r2);
-				if (detectedCells.getPoints().get(0).listNamesOfQuantifiedProperties.indexOf("geodesicDistance") != detectedCells2
-						.getPoints().get(0).listNamesOfQuantifiedProperties.indexOf("geodesicDistance")
-						|| detectedCells.getPoints().get(0).listNamesOfQuantifiedProperties.size() != detectedCells2
-								.getPoints().get(0).listNamesOfQuantifiedProperties.size())
-					throw new IllegalArgumentException("Structure mismatch between detected cells 1 and 2");
-			}
-			Utils.log("Time creating KDTree: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
-			time0 = System.currentTimeMillis();
-
-			Collections.sort(pointsAboveThreshold);
-			Utils.log("Time sorting: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
-			time0 = System.currentTimeMillis();
-
-			Calibration calib = detectedCells.getCalibration();
-			final float zFactor = (float) (calib != null ? Math.pow(calib.pixelDepth / calib.pixelHeight, 2) : 1);
-
-			if (zFactor == 1) {
-				Utils.log("Warning: z factor is 1", LogLevel.WARNING);
-			} else {
-				if (detectedCells2 != null) {
-					if (detectedCells2.getCalibration() == null) {
-						Utils.log("Warning: detected cells 2 have no calibration", LogLevel.WARNING);
-					} else {
-						if (Math.abs(Math.pow(calib.pixelDepth / calib.pixelHeight, 2) - zFactor) > 0.01)
-							throw new IllegalArgumentException("z factor is not the same for detected cells 1 and 2");
-					}
+				if (detectedCells2.getCalibration() == null) {
+					Utils.log("Warning: detected cells 2 have no calibration", LogLevel.WARNING);
+				} else {
+					if (Math.abs(Math.pow(calib.pixelDepth / calib.pixelHeight, 2) - zFactor) > 0.01)
+						throw new IllegalArgumentException("z factor is not the same for detected cells 1 and 2");
 				}
 			}
+		}
 
-			@SuppressWarnings("unused")
-			final boolean geodesicDistanceComputed =
-					pointsAboveThreshold.get(0).listNamesOfQuantifiedProperties.contains("geodesicDistance");
-
-			int nPoints = pointsAboveThreshold.size();
-			final double minDistanceSq = minDistance * minDistance;
-			int index = 0;
-			for (ClickedPoint p : pointsAboveThreshold) {
-				progressSetValueThreadSafe(progress, (100 * index++) / nPoints);
-				if (Thread.interrupted()) {
-					throw new InterruptedException();
-				}
+		@SuppressWarnings("unused")
+		final boolean geodesicDistanceComputed =
+				pointsAboveThreshold.get(0).listNamesOfQuantifiedProperties.contains("geodesicDistance");
+
+		int nPoints = pointsAboveThreshold.size();
+		final double minDistanceSq = minDistance * minDistance;
+		int index = 0;
+		for (ClickedPoint p : pointsAboveThreshold) {
+			progressSetValueThreadSafe(progress, (100 * index++) / nPoints);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
 
-				if (p.status == SUPPRESSED)
-					continue;
+			if (p.status == SUPPRESSED)
+				continue;
 
-				p.status = SELECTED;
+			p.status = SELECTED;
 
-				final float x = p.getx();
-				final float y = p.gety();
-				final float z = (float) p.getz();
-				final double radius = p.hsz * 0.5 * p.xyCalibration;
+			final float x = p.getx();
+			final float y = p.gety();
+			final float z = (float) p.getz();
+			final double radius = p.hsz * 0.5 * p.xyCalibration;
 
-				final double totalRadius = Math.max(alpha * (radius + maxRadius), 2 * minDistance);
+			final double totalRadius = Math.max(alpha * (radius + maxRadius), 2 * minDistance);
 
-				// TODO Is it worth parallelizing this loop?
-				for (ClickedPoint neighbor : tree.range(new double[] { x - totalRadius, y - totalRadius,
-						z - totalRadius }, new double[] { x + totalRadius, y + totalRadius, z + totalRadius })) {
+			// TODO Is it worth parallelizing this loop?
+			for (PluginIOCells source : sources) {
+				for (ClickedPoint neighbor : source.getCellsInBox(p.t, x - totalRadius, x + totalRadius, y
+						- totalRadius, y + totalRadius, z - totalRadius, z + totalRadius)) {
+					if (!candidates.contains(neighbor))
+						continue;
 
 					double neighborRadius = neighbor.hsz * 0.5 * p.xyCalibration;
 					double distanceSq =
@@ -203,44 +202,42 @@ public class SVMSuppress extends FourDPlugin implements AuxiliaryInputOutputPlug
 					}
 				}
 			}
+		}
 
-			Utils.log("Time iterating to suppress points: " + (System.currentTimeMillis() - time0),
-					LogLevel.DEBUG);
-			time0 = System.currentTimeMillis();
+		Utils.log("Time iterating to suppress points: " + (System.currentTimeMillis() - time0),
+				LogLevel.DEBUG);
+		time0 = System.currentTimeMillis();
 
-			PluginIOCells outputCells = (PluginIOCells) pluginOutputs.get("Seeds");
-			outputCells.clear();
+		PluginIOCells outputCells = (PluginIOCells) pluginOutputs.get("Seeds");
+		outputCells.clear();
 
-			outputCells.getQuantifiedPropertyNames().clear();
-			outputCells.getQuantifiedPropertyNames().addAll(detectedCells.getQuantifiedPropertyNames());
+		outputCells.getQuantifiedPropertyNames().clear();
+		outputCells.getQuantifiedPropertyNames().addAll(detectedCells.getQuantifiedPropertyNames());
 
-			outputCells.getUserCellDescriptions().clear();
-			outputCells.getUserCellDescriptions().addAll(detectedCells.getUserCellDescriptions());
+		outputCells.getUserCellDescriptions().clear();
+		outputCells.getUserCellDescriptions().addAll(detectedCells.getUserCellDescriptions());
 
-			outputCells.setCalibration(detectedCells.getCalibration());
+		outputCells.setCalibration(detectedCells.getCalibration());
 
-			for (ClickedPoint p : pointsAboveThreshold) {
-				assert (p.getConfidence() > minConfidence);
-				assert (p.status != NOT_VISITED);
-				if (p.status == SUPPRESSED)
-					continue;
-				ClickedPoint pCloned = (ClickedPoint) p.clone();
-				pCloned.listNamesOfQuantifiedProperties = outputCells.getQuantifiedPropertyNames();
-				pCloned.userCellDescriptions = outputCells.getUserCellDescriptions();
-				outputCells.addDontFireValueChanged(pCloned);
-			}
+		for (ClickedPoint p : pointsAboveThreshold) {
+			assert (p.getConfidence() > minConfidence);
+			assert (p.status != NOT_VISITED);
+			if (p.status == SUPPRESSED)
+				continue;
+			ClickedPoint pCloned = (ClickedPoint) p.clone();
+			pCloned.listNamesOfQuantifiedProperties = outputCells.getQuantifiedPropertyNames();
+			pCloned.userCellDescriptions = outputCells.getUserCellDescriptions();
+			outputCells.addDontFireValueChanged(pCloned);
+		}
 
-			// Double check distances for debugging purposes
-			Utils.log("Low value squared is " + minDistanceSq, LogLevel.DEBUG);
+		// Double check distances for debugging purposes
+		Utils.log("Low value squared is " + minDistanceSq, LogLevel.DEBUG);
 
-			Utils.log("Time cloning result points: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
-			time0 = System.currentTimeMillis();
+		Utils.log("Time cloning result points: " + (System.currentTimeMillis() - time0), LogLevel.DEBUG);
+		time0 = System.currentTimeMillis();
 
-			outputCells.fireValueChanged(false, false);
+		outputCells.fireValueChanged(false, false);
 
-		} catch (KeySizeException e) {
-			throw new IllegalStateException(e);
-		}
 	}
 
 	@Override
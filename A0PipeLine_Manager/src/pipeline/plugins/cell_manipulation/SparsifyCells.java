@@ -8,8 +8,7 @@ package pipeline.plugins.cell_manipulation;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +23,7 @@ import pipeline.data.IPluginIOList;
 import pipeline.data.IPluginIOListMember;
 import pipeline.data.IPluginIOListMemberQ;
 import pipeline.data.InputOutputDescription;
+import pipeline.data.PluginIOCells;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.ParameterListenerWeakRef;
 import pipeline.misc_util.ProgressReporter;
@@ -212,38 +212,47 @@ public class SparsifyCells extends FourDPlugin implements AuxiliaryInputOutputPl
 		if (fieldName == null)
 			throw new IllegalStateException("No field selection has been made");
 
-		Field f = null;
-		try {
+		List<ClickedPoint> cellList = new ArrayList<>();
+		for (IPluginIOListMember<?> cell : cells) {
+			cellList.add((ClickedPoint) cell);
+		}
+
+		final float[] values;
+		if (cells instanceof PluginIOCells && ((PluginIOCells) cells).getQuantifiedPropertyIndex(fieldName) > -1) {
+			values = ((PluginIOCells) cells).getQuantifiedPropertyColumn(fieldName);
+		} else {
+			Field f = null;
 			try {
-				f = ClickedPoint.class.getDeclaredField(fieldName);
-			} catch (NoSuchFieldException e) {
-				String alternativeName = fieldName.substring(0, 1).toLowerCase() + fieldName.substring(1);
-				f = ClickedPoint.class.getDeclaredField(alternativeName);
+				try {
+					f = ClickedPoint.class.getDeclaredField(fieldName);
+				} catch (NoSuchFieldException e) {
+					String alternativeName = fieldName.substring(0, 1).toLowerCase() + fieldName.substring(1);
+					f = ClickedPoint.class.getDeclaredField(alternativeName);
+				}
+				f.setAccessible(true);
+			} catch (Exception e) {
+				throw new IllegalStateException("Could not find field " + fieldName, e);
+			}
+			values = new float[cellList.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = getCPField(cellList.get(i), f, fieldName);
 			}
-			f.setAccessible(true);
-		} catch (Exception e) {
-			throw new IllegalStateException("Could not find field " + fieldName, e);
 		}
 
-		final Field f2 = f;
-
-		Comparator<ClickedPoint> fieldComparator =
-				(o1, o2) -> Float.compare(getCPField(o1, f2, fieldName), getCPField(o2, f2, fieldName));
-
-		List<ClickedPoint> sortedList = new ArrayList<>();
-		for (IPluginIOListMember<?> cell : cells) {
-			sortedList.add((ClickedPoint) cell);
+		Integer[] order = new Integer[values.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
 		}
-		// List<ClickedPoint> sortedList = cells.stream().map(p -> (ClickedPoint) p).collect(Collectors.toList());
-		Collections.sort(sortedList, fieldComparator);
+		Arrays.sort(order, (o1, o2) -> Float.compare(values[o1], values[o2]));
 
 		IPluginIOList<?> outputCells = (IPluginIOList<?>) pluginOutputs.get("Cells");
 		cells.copyInto(outputCells);
 		outputCells.clear();
 
 		float lastValue = -Float.MAX_VALUE;
-		for (ClickedPoint p : sortedList) {
-			float current = getCPField(p, f, fieldName);
+		for (int index : order) {
+			ClickedPoint p = cellList.get(index);
+			float current = values[index];
 			if (current - lastValue > interval) {
 				lastValue = current;
 			} else
@@ -23,6 +23,7 @@ import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOList;
 import pipeline.data.IPluginIOListMember;
 import pipeline.data.InputOutputDescription;
+import pipeline.data.PluginIOCells;
 import pipeline.misc_util.ParameterListenerWeakRef;
 import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
@@ -151,15 +152,29 @@ public class ThresholdCells extends FourDPlugin implements AuxiliaryInputOutputP
 		fieldName = fieldNameParam.getStringValue();
 	}
 
-	private float getMin() {
+	/**
+	 * @return Value of the selected field for each input cell, or null if the field does not exist
+	 */
+	private float[] getFieldValues() {
 		IPluginIOList<?> cells = (IPluginIOList<?>) pluginInputs.get("Seeds");
-		BeanTableModel<?> tableModel = cells.getBeanTableModel();
+		String name = fieldNameParam.getSelection();
+		if (cells instanceof PluginIOCells && ((PluginIOCells) cells).getQuantifiedPropertyIndex(name) > -1)
+			return ((PluginIOCells) cells).getQuantifiedPropertyColumn(name);
 
-		int columnIndex = Utils.indexOf(getFieldNames(tableModel), fieldNameParam.getSelection());
+		BeanTableModel<?> tableModel = cells.getBeanTableModel();
+		int columnIndex = Utils.indexOf(getFieldNames(tableModel), name);
+		if (columnIndex == -1)
+			return null;
+		float[] values = new float[tableModel.getRowCount()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = tableModel.getFloatValueAt(i, columnIndex);
+		}
+		return values;
+	}
 
+	private float getMin() {
 		float min = Float.MAX_VALUE;
-		for (int i = 0; i < tableModel.getRowCount(); i++) {
-			float f = tableModel.getFloatValueAt(i, columnIndex);
+		for (float f : getFieldValues()) {
 			if (f < min)
 				min = f;
 		}
@@ -167,14 +182,8 @@ public class ThresholdCells extends FourDPlugin implements AuxiliaryInputOutputP
 	}
 
 	private float getMax() {
-		IPluginIOList<?> cells = (IPluginIOList<?>) pluginInputs.get("Seeds");
-		BeanTableModel<?> tableModel = cells.getBeanTableModel();
-
-		int columnIndex = Utils.indexOf(getFieldNames(tableModel), fieldNameParam.getSelection());
-
 		float max = -Float.MAX_VALUE;
-		for (int i = 0; i < tableModel.getRowCount(); i++) {
-			float f = tableModel.getFloatValueAt(i, columnIndex);
+		for (float f : getFieldValues()) {
 			if (f > max)
 				max = f;
 		}
@@ -193,17 +202,15 @@ public class ThresholdCells extends FourDPlugin implements AuxiliaryInputOutputP
 			setEmptyHistogram();
 			return;
 		}
-		BeanTableModel<?> tableModel = cells.getBeanTableModel();
-
-		int columnIndex = Utils.indexOf(getFieldNames(tableModel), fieldNameParam.getSelection());
+		float[] values = getFieldValues();
 		
-		if (columnIndex == -1) {
+		if (values == null) {
 			setEmptyHistogram();
 		} else {
 
-			double[] valuesForHistogram = new double[tableModel.getRowCount()];
-			for (int i = 0; i < tableModel.getRowCount(); i++) {
-				valuesForHistogram[i] = tableModel.getFloatValueAt(i, columnIndex);
+			double[] valuesForHistogram = new double[values.length];
+			for (int i = 0; i < values.length; i++) {
+				valuesForHistogram[i] = values[i];
 			}
 
 			HistogramDataset dataset = new HistogramDataset();
@@ -352,7 +359,6 @@ public class ThresholdCells extends FourDPlugin implements AuxiliaryInputOutputP
 			boolean stayInCoreLoop) {
 
 		IPluginIOList<?> cells = (IPluginIOList<?>) pluginInputs.get("Seeds");
-		BeanTableModel<?> tableModel = cells.getBeanTableModel();
 		IPluginIOList<?> outputCells = (IPluginIOList<?>) pluginOutputs.get("Cells");
 		cells.copyInto(outputCells);
 		outputCells.clear();
@@ -364,9 +370,9 @@ public class ThresholdCells extends FourDPlugin implements AuxiliaryInputOutputP
 		if (fieldNameParam.getSelection() == null)
 			throw new IllegalStateException("No field selection has been made");
 
-		int columnIndex = Utils.indexOf(getFieldNames(tableModel), fieldNameParam.getSelection());
+		float[] fieldValues = getFieldValues();
 		
-		if (columnIndex == -1) {
+		if (fieldValues == null) {
 			if (ERROR_ON_MISSING_COLUMN) {
 				throw new PluginRuntimeException("Could not find field " + fieldNameParam.getSelection() + " in cells", true);
 			} else {
@@ -374,12 +380,8 @@ public class ThresholdCells extends FourDPlugin implements AuxiliaryInputOutputP
 			}
 		}
 
-		for (int i = 0; i < tableModel.getRowCount(); i++) {
-			float f = Float.NaN;
-			if (columnIndex > -1) {
-				f = tableModel.getFloatValueAt(i, columnIndex);
-			}
-			if (columnIndex == -1 || (f >= lowValue && f <= highValue)) {
+		for (int i = 0; i < cells.size(); i++) {
+			if (fieldValues == null || (fieldValues[i] >= lowValue && fieldValues[i] <= highValue)) {
 				IPluginIOListMember<?> pCloned = (IPluginIOListMember<?>) cells.get(i).clone();
 				pCloned.linkToList(outputCells);
 				outputCells.addDontFireValueChanged(pCloned);
@@ -76,14 +76,19 @@
 package pipeline.plugins.image_processing;
 
 import java.awt.event.ActionEvent;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import pipeline.PreviewType;
+import pipeline.GUI_utils.ProgressSubrange;
 import pipeline.data.IPluginIOStack;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.data.PluginIOStack;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
+import pipeline.misc_util.parfor.ParFor;
 import pipeline.parameters.AbstractParameter;
 import pipeline.parameters.FloatParameter;
 import pipeline.parameters.FloatRangeParameter;
@@ -91,7 +96,6 @@ import pipeline.parameters.ParameterListener;
 import pipeline.parameters.SplitParameter;
 import pipeline.parameters.SplitParameterListener;
 import pipeline.plugins.ThreeDPlugin;
-import processing_utilities.curvature.math3d.JacobiFloat;
 
 public class ComputeCurvatures extends ThreeDPlugin {
 
@@ -364,238 +368,81 @@ public class ComputeCurvatures extends ThreeDPlugin {
 		return result;
 	}
 
-	private AtomicInteger thread_index = new AtomicInteger(0);
-
 	@Override
 	public void runChannel(final IPluginIOStack input, final IPluginIOStack output, final ProgressReporter p,
 			PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
 
-		final float sepX = 1, sepY = 1, sepZ = 1;
-		nCpus = Runtime.getRuntime().availableProcessors();
-		if (input.getDepth() < nCpus)
-			nCpus = input.getDepth();
-		threads = new Thread[nCpus];
-		final PluginIOStack[] tempStorage = new PluginIOStack[nCpus];
-
-		for (int i = 0; i < nCpus; i++) {
-			tempStorage[i] =
-					new PluginIOStack("Temp storage", input.getWidth(), input.getHeight(), input.getDepth(), 1,
-							PixelType.FLOAT_TYPE);
-		}
-
 		input.computePixelArray();
 		output.computePixelArray();
-
-		progressSetValueThreadSafe(p, 0);
-		progressSetIndeterminateThreadSafe(p, false);
-
-		for (int z = 0; z < input.getDepth(); z++)
-			for (int y = 0; y < input.getHeight(); y++)
-				for (int x = 0; x < input.getWidth(); x++)
-					((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] = 0;
+		final int width = input.getWidth();
+		final int height = input.getHeight();
+		final int depth = input.getDepth();
+		final Object[] inputSlices = input.getStackPixelArray();
+		final Object[] outputSlices = output.getStackPixelArray();
+		for (Object slice : outputSlices) {
+			Arrays.fill((float[]) slice, 0);
+		}
 
 		OneDKernel = createGaussianKernel1D(sigma, true);
 
-		for (int ithread = 0; ithread < nCpus; ithread++) {
-			threads[ithread] = new Thread("Directional blurring 1") {
-				@Override
-				public void run() {
-					final int localThreadIndex = thread_index.getAndIncrement();
-					for (int z = slice_registry.getAndIncrement(); z < input.getDepth() - 1; z =
-							slice_registry.getAndIncrement()) {
-						for (int y = 1; y < input.getHeight() - 1; y++) {
-							for (int x = 1; x < input.getWidth() - 1; x++) {
-								JacobiFloat jacobi =
-										new JacobiFloat(computeHessianMatrix3DFloat(input, x, y, z, sigma, sepX, sepY,
-												sepZ));
-								float[][] eigenVectors = jacobi.getEigenVectors();
-								float[] eigenValues = jacobi.getEigenValues();
-
-								// blur along the direction of the eigenvector with smallest eigenvalue
-								int minIndex = Utils.indexOfMin(Utils.arrayAbs(eigenValues));
-								float[] centerPoint = new float[] { x, y, z };
-
-								float lowEigenVal = eigenValues[minIndex];
-								float[] otherEigenVal = new float[2];
-								int i = 0;
-								for (int j = 0; j < 3; j++) {
-									if (j != minIndex) {
-										otherEigenVal[i] = eigenValues[j];
-										i++;
-									}
-								}
-
-								if ((otherEigenVal[0] > 0) || (otherEigenVal[1] > 0)) {
-									((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] = 0;// ((float
-																												// [])
-																												// input.pixelArray[z])[x+y*output.width];
-									continue;
-								}
-								float pixelValue = ((float[]) input.getStackPixelArray()[z])[x + y * output.getWidth()];
-								float distanceToTravel =
-										(otherEigenVal[0] * otherEigenVal[1])
-												* ((float) Math
-														.exp(-scale
-																* ((lowEigenVal / otherEigenVal[0])
-																		* (lowEigenVal / otherEigenVal[0]) + (lowEigenVal / otherEigenVal[1])
-																		* (lowEigenVal / otherEigenVal[1]))));
-								// if (distanceToTravel<0) distanceToTravel*=-1f;
-
-								//
-								blurAlongLine(tempStorage[localThreadIndex], sigmoid(distanceToTravel / (pixelValue)
-										+ pixelValue), centerPoint, eigenVectors[minIndex], scale1 * distanceToTravel
-										/ pixelValue);
-
-							}
-						}
-						progressSetValueThreadSafe(p, (int) (100f * z / input.getDepth()));
-					}
+		// Each thread blurs into its own stack; stacks are summed into the output at the end
+		final List<PluginIOStack> tempStorage = Collections.synchronizedList(new ArrayList<>());
+		ProgressSubrange progress = new ProgressSubrange(p, 2);
+		Hessian3D.run(new IPluginIOStack[] { input }, new double[] { sigma * sigma }, () -> {
+			final PluginIOStack threadStorage =
+					new PluginIOStack("Temp storage", width, height, depth, 1, PixelType.FLOAT_TYPE);
+			tempStorage.add(threadStorage);
+			final float[] centerPoint = new float[3];
+			final float[] eigenvector = new float[3];
+			return voxel -> {
+				float[] eigenValues = voxel.eigenvalues[0];
+
+				// blur along the direction of the eigenvector with smallest eigenvalue
+				int minIndex = 0;
+				for (int j = 1; j < 3; j++) {
+					if (Math.abs(eigenValues[j]) < Math.abs(eigenValues[minIndex]))
+						minIndex = j;
 				}
-			};
-		}
+				float lowEigenVal = eigenValues[minIndex];
+				float otherEigenVal0 = eigenValues[minIndex == 0 ? 1 : 0];
+				float otherEigenVal1 = eigenValues[minIndex == 2 ? 1 : 2];
 
-		slice_registry.set(1);
-		thread_index.set(0);
-		startAndJoin(threads);
+				if ((otherEigenVal0 > 0) || (otherEigenVal1 > 0)) {
+					return;
+				}
+				float pixelValue = ((float[]) inputSlices[voxel.z])[voxel.index];
+				float distanceToTravel =
+						(otherEigenVal0 * otherEigenVal1)
+								* ((float) Math.exp(-scale
+										* ((lowEigenVal / otherEigenVal0) * (lowEigenVal / otherEigenVal0) + (lowEigenVal / otherEigenVal1)
+												* (lowEigenVal / otherEigenVal1))));
+
+				centerPoint[0] = voxel.x;
+				centerPoint[1] = voxel.y;
+				centerPoint[2] = voxel.z;
+				voxel.getEigenvector(0, minIndex, eigenvector);
+				blurAlongLine(threadStorage, sigmoid(distanceToTravel / (pixelValue) + pixelValue), centerPoint,
+						eigenvector, scale1 * distanceToTravel / pixelValue);
+			};
+		}, progress);
+		progress.nextStep();
 
 		// Now sum up all the tempStorage arrays
-
-		for (int ithread = 0; ithread < nCpus; ithread++) {
-			threads[ithread] = new Thread("Direcitonal blurring 2") {
-				@Override
-				public void run() {
-					for (int z = slice_registry.getAndIncrement(); z < input.getDepth() - 1; z =
-							slice_registry.getAndIncrement()) {
-						for (int y = 1; y < input.getHeight() - 1; y++) {
-							for (int x = 1; x < input.getWidth() - 1; x++) {
-								for (int ts = 0; ts < nCpus; ts++) {
-									((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] +=
-											((float[]) tempStorage[ts].getStackPixelArray()[z])[x + y
-													* output.getWidth()];
-								}
-							}
+		ParFor parFor = new ParFor("Directional blurring sum", 1, depth - 2, progress, true);
+		for (int i = 0; i < parFor.getNThreads(); i++)
+			parFor.addLoopWorker((z, threadIndex) -> {
+				float[] outputSlice = (float[]) outputSlices[z];
+				for (PluginIOStack storage : tempStorage) {
+					float[] storageSlice = (float[]) storage.getStackPixelArray()[z];
+					for (int y = 1; y < height - 1; y++) {
+						for (int x = 1; x < width - 1; x++) {
+							outputSlice[x + y * width] += storageSlice[x + y * width];
 						}
 					}
 				}
-			};
-		}
-
-		slice_registry.set(1);
-		startAndJoin(threads);
-	}
-
-	// ------------------------------------------------------------------------
-
-	/*
-	 * There are four versions of the this function, for calculating
-	 * the eigenvalues of the Hessian matrix at a particular point in
-	 * the image. There are versions for 2D or 3D and using floats of
-	 * doubles.
-	 */
-
-	public static double[][] computeHessianMatrix3DDouble(IPluginIOStack img, int x, int y, int z, double sigma,
-			float sepX, float sepY, float sepZ) {
-
-		double[][] hessianMatrix = new double[3][3]; // zeile, spalte
-
-		double temp = 2 * img.getDouble(x, y, z);
-
-		// xx
-		hessianMatrix[0][0] = img.getDouble(x + 1, y, z) - temp + img.getDouble(x - 1, y, z);
-
-		// yy
-		hessianMatrix[1][1] = img.getDouble(x, y + 1, z) - temp + img.getDouble(x, y - 1, z);
-
-		// zz
-		hessianMatrix[2][2] = img.getDouble(x, y, z + 1) - temp + img.getDouble(x, y, z - 1);
-
-		// xy
-		hessianMatrix[0][1] =
-				hessianMatrix[1][0] =
-						((img.getDouble(x + 1, y + 1, z) - img.getDouble(x - 1, y + 1, z)) / 2 - (img.getDouble(x + 1,
-								y - 1, z) - img.getDouble(x - 1, y - 1, z)) / 2) / 2;
-
-		// xz
-		hessianMatrix[0][2] =
-				hessianMatrix[2][0] =
-						((img.getDouble(x + 1, y, z + 1) - img.getDouble(x - 1, y, z + 1)) / 2 - (img.getDouble(x + 1,
-								y, z - 1) - img.getDouble(x - 1, y, z - 1)) / 2) / 2;
-
-		// yz
-		hessianMatrix[1][2] =
-				hessianMatrix[2][1] =
-						((img.getDouble(x, y + 1, z + 1) - img.getDouble(x, y - 1, z + 1)) / 2 - (img.getDouble(x,
-								y + 1, z - 1) - img.getDouble(x, y - 1, z - 1)) / 2) / 2;
-
-		// FIXME: get Stephan to remind me why this is needed...
-		for (int i = 0; i < 3; i++)
-			for (int j = 0; j < 3; j++)
-				hessianMatrix[i][j] *= (sigma * sigma);
-
-		return hessianMatrix;
-	}
-
-	/**
-	 * This method computes the Hessian Matrix for the 3x3x3 environment of a certain voxel <br>
-	 * <br>
-	 *
-	 * The 3D Hessian Matrix:<br>
-	 * xx xy xz <br>
-	 * yx yy yz <br>
-	 * zx zy zz <br>
-	 *
-	 * @param img
-	 *            The image as PluginIOStack
-	 * @param x
-	 *            The x-position of the voxel
-	 * @param y
-	 *            The y-position of the voxel
-	 * @param z
-	 *            The z-position of the voxel
-	 * @return float[][] The 3D - Hessian Matrix
-	 *
-	 *         author Stephan Preibisch
-	 */
-	private static float[][] computeHessianMatrix3DFloat(IPluginIOStack img, int x, int y, int z, double sigma,
-			float sepX, float sepY, float sepZ) {
-
-		float[][] hessianMatrix = new float[3][3]; // zeile, spalte
-
-		float temp = 2 * img.getFloat(x, y, z);
-
-		// xx
-		hessianMatrix[0][0] = img.getFloat(x + 1, y, z) - temp + img.getFloat(x - 1, y, z);
-
-		// yy
-		hessianMatrix[1][1] = img.getFloat(x, y + 1, z) - temp + img.getFloat(x, y - 1, z);
-
-		// zz
-		hessianMatrix[2][2] = img.getFloat(x, y, z + 1) - temp + img.getFloat(x, y, z - 1);
-
-		// xy
-		hessianMatrix[0][1] =
-				hessianMatrix[1][0] =
-						((img.getFloat(x + 1, y + 1, z) - img.getFloat(x - 1, y + 1, z)) / 2 - (img.getFloat(x + 1,
-								y - 1, z) - img.getFloat(x - 1, y - 1, z)) / 2) / 2;
-
-		// xz
-		hessianMatrix[0][2] =
-				hessianMatrix[2][0] =
-						((img.getFloat(x + 1, y, z + 1) - img.getFloat(x - 1, y, z + 1)) / 2 - (img.getFloat(x + 1, y,
-								z - 1) - img.getFloat(x - 1, y, z - 1)) / 2) / 2;
-
-		// yz
-		hessianMatrix[1][2] =
-				hessianMatrix[2][1] =
-						((img.getFloat(x, y + 1, z + 1) - img.getFloat(x, y - 1, z + 1)) / 2 - (img.getFloat(x, y + 1,
-								z - 1) - img.getFloat(x, y - 1, z - 1)) / 2) / 2;
-
-		// FIXME: get Stephan to remind me why this is needed...
-		for (int i = 0; i < 3; i++)
-			for (int j = 0; j < 3; j++)
-				hessianMatrix[i][j] *= (sigma * sigma);
-
-		return hessianMatrix;
+				return null;
+			});
+		parFor.run(true);
 	}
 
 	/**
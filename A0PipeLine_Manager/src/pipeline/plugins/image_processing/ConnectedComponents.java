@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import pipeline.GUI_utils.ProgressSubrange;
+import pipeline.misc_util.PluginRuntimeException;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ILoopWorker;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Labeling of the connected components of the voxels of a 3D stack (or of a box within it) that are accepted by a
+ * {@link VoxelFilter}. Rows of the box (in z then y order) are split into blocks that are labeled in parallel with a
+ * union-find structure; components that straddle block boundaries are then merged, and labels are renumbered from 1 in
+ * the order in which the components' first voxels appear in a z, y, x scan of the box. Size and bounding box of each
+ * component are recorded along the way.
+ *
+ */
+public class ConnectedComponents {
+
+	/**
+	 * Decides which voxels are part of components.
+	 */
+	@FunctionalInterface
+	public interface VoxelFilter {
+		/**
+		 * @param slice
+		 *            float[], short[] or byte[] pixels of slice z
+		 * @param index
+		 *            Index of voxel within slice (y * width + x)
+		 * @param x
+		 * @param y
+		 * @param z
+		 * @return True if the voxel belongs to a component
+		 */
+		boolean accept(Object slice, int index, int x, int y, int z);
+	}
+
+	/**
+	 * @param slice
+	 *            float[], short[] or byte[] pixels
+	 * @param index
+	 * @return Pixel value, with bytes and shorts interpreted as unsigned
+	 */
+	public static float getValue(Object slice, int index) {
+		if (slice instanceof float[])
+			return ((float[]) slice)[index];
+		else if (slice instanceof byte[])
+			return ((byte[]) slice)[index] & 0xFF;
+		else if (slice instanceof short[])
+			return ((short[]) slice)[index] & 0xFFFF;
+		else
+			throw new IllegalArgumentException("Unknown slice type " + slice);
+	}
+
+	public static VoxelFilter zero() {
+		return (slice, index, x, y, z) -> getValue(slice, index) == 0;
+	}
+
+	public static VoxelFilter above(final float threshold) {
+		return (slice, index, x, y, z) -> getValue(slice, index) > threshold;
+	}
+
+	private final Object[] slices;
+	private final int width, height;
+	private final VoxelFilter filter;
+	private final int[][] neighborOffsets;
+	/**
+	 * True for neighbors that are also preceding neighbors of the voxel to the left; if the voxel to the left is part
+	 * of a component, those have already been merged with it.
+	 */
+	private final boolean[] coveredByLeftNeighbor;
+
+	private int x0, x1, y0, y1, z0, z1;
+	private int boxWidth, boxHeight, boxDepth;
+
+	/**
+	 * Indexed by position within the box; see {@link #getLabels()}.
+	 */
+	private int[] labels;
+	private int nComponents;
+	private int[] sizes;
+	private int[][] boundingBoxes;
+
+	/**
+	 * @param slices
+	 *            float[], short[] or byte[] pixel arrays, one per slice
+	 * @param width
+	 * @param height
+	 * @param connectivity
+	 *            6 (faces), 18 (faces and edges) or 26 (faces, edges and corners)
+	 * @param filter
+	 */
+	public ConnectedComponents(Object[] slices, int width, int height, int connectivity, VoxelFilter filter) {
+		this.slices = slices;
+		this.width = width;
+		this.height = height;
+		this.filter = filter;
+		neighborOffsets = getPrecedingNeighborOffsets(connectivity);
+		coveredByLeftNeighbor = new boolean[neighborOffsets.length];
+		for (int i = 0; i < neighborOffsets.length; i++) {
+			int[] o = neighborOffsets[i];
+			int dx = o[0] + 1;
+			int l1 = Math.abs(dx) + Math.abs(o[1]) + Math.abs(o[2]);
+			coveredByLeftNeighbor[i] = l1 > 0 && dx <= 1 && l1 <= (connectivity == 6 ? 1 : (connectivity == 18 ? 2 : 3));
+		}
+		setBox(0, width - 1, 0, height - 1, 0, slices.length - 1);
+	}
+
+	/**
+	 * Restrict labeling to a box; voxels outside of it are ignored. Bounds are inclusive.
+	 */
+	public void setBox(int x0, int x1, int y0, int y1, int z0, int z1) {
+		this.x0 = x0;
+		this.x1 = x1;
+		this.y0 = y0;
+		this.y1 = y1;
+		this.z0 = z0;
+		this.z1 = z1;
+		boxWidth = x1 - x0 + 1;
+		boxHeight = y1 - y0 + 1;
+		boxDepth = z1 - z0 + 1;
+		labels = null;
+	}
+
+	/**
+	 * Offsets (dx, dy, dz) of the neighbors of a voxel that come before it in a z, y, x scan.
+	 */
+	private static int[][] getPrecedingNeighborOffsets(int connectivity) {
+		if (connectivity != 6 && connectivity != 18 && connectivity != 26)
+			throw new IllegalArgumentException("Connectivity must be 6, 18 or 26, not " + connectivity);
+		List<int[]> offsets = new ArrayList<>();
+		for (int dz = -1; dz <= 0; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					if (dz == 0 && (dy > 0 || (dy == 0 && dx >= 0)))
+						continue;
+					int nNonZero = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+					if ((connectivity == 6 && nNonZero > 1) || (connectivity == 18 && nNonZero > 2))
+						continue;
+					offsets.add(new int[] { dx, dy, dz });
+				}
+			}
+		}
+		return offsets.toArray(new int[0][]);
+	}
+
+	/**
+	 * Label components within the box.
+	 *
+	 * @param progress
+	 *            Can be null
+	 * @throws InterruptedException
+	 */
+	public void label(ProgressReporter progress) throws InterruptedException {
+		long nVoxels = ((long) boxWidth) * boxHeight * boxDepth;
+		if (nVoxels >= Integer.MAX_VALUE) {
+			throw new PluginRuntimeException("This stack is too large for connected component labeling (must have"
+					+ " less than " + Integer.MAX_VALUE + " points)", true);
+		}
+		// During labeling, parents holds 0 for voxels that are not part of a component, or 1 + index of parent voxel
+		// in the union-find forest; roots point to themselves. Accesses that cannot race with other threads use
+		// lazySet rather than set, which avoids a full fence on every write.
+		final AtomicIntegerArray parents = new AtomicIntegerArray((int) nVoxels);
+		final int nRows = boxHeight * boxDepth;
+		final int nBlocks = Math.min(nRows, 4 * Runtime.getRuntime().availableProcessors());
+		final int[] blockStarts = new int[nBlocks + 1];
+		for (int b = 0; b <= nBlocks; b++) {
+			blockStarts[b] = (int) (((long) nRows) * b / nBlocks);
+		}
+
+		ProgressSubrange progressSubrange = new ProgressSubrange(progress, 3);
+
+		ParFor parFor = new ParFor("Label blocks", 0, nBlocks - 1, progressSubrange, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker((block, threadIndex) -> {
+				int firstRow = blockStarts[block];
+				for (int row = firstRow; row < blockStarts[block + 1]; row++) {
+					labelRow(parents, row, firstRow, true);
+				}
+				return null;
+			});
+		}
+		parFor.run(true);
+
+		// Merge components across block boundaries; only the first rows of each block have neighbors in earlier
+		// blocks
+		final int maxRowsBack = boxDepth > 1 ? boxHeight + 1 : 1;
+		if (nBlocks > 1) {
+			parFor = new ParFor("Merge blocks", 1, nBlocks - 1, null, true);
+			for (int i = 0; i < parFor.getNThreads(); i++) {
+				parFor.addLoopWorker((block, threadIndex) -> {
+					int firstRow = blockStarts[block];
+					int lastRow = Math.min(blockStarts[block + 1], firstRow + maxRowsBack);
+					for (int row = firstRow; row < lastRow; row++) {
+						labelRow(parents, row, firstRow, false);
+					}
+					return null;
+				});
+			}
+			parFor.run(true);
+		}
+		progressSubrange.nextStep();
+
+		// Roots are the first voxels of their components in scan order, so numbering them in order gives labels that
+		// follow the same order. Roots are marked by storing the negated label.
+		final int[] nRoots = new int[nBlocks];
+		parFor = new ParFor("Count components", 0, nBlocks - 1, null, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker((block, threadIndex) -> {
+				int n = 0;
+				for (int v = blockStarts[block] * boxWidth; v < blockStarts[block + 1] * boxWidth; v++) {
+					if (parents.get(v) == v + 1)
+						n++;
+				}
+				nRoots[block] = n;
+				return null;
+			});
+		}
+		parFor.run(true);
+		final int[] firstLabels = new int[nBlocks];
+		int n = 0;
+		for (int b = 0; b < nBlocks; b++) {
+			firstLabels[b] = n + 1;
+			n += nRoots[b];
+		}
+		nComponents = n;
+
+		parFor = new ParFor("Number components", 0, nBlocks - 1, null, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker((block, threadIndex) -> {
+				int label = firstLabels[block];
+				for (int v = blockStarts[block] * boxWidth; v < blockStarts[block + 1] * boxWidth; v++) {
+					if (parents.get(v) == v + 1)
+						parents.lazySet(v, -(label++));
+				}
+				return null;
+			});
+		}
+		parFor.run(true);
+
+		// Store the (negated) label of its root for every voxel. Pointers are also replaced by labels in the forest,
+		// to shorten the paths other threads follow; they might concurrently do the same, which is harmless.
+		final int[] negatedLabels = new int[(int) nVoxels];
+		parFor = new ParFor("Propagate labels", 0, nBlocks - 1, progressSubrange, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker((block, threadIndex) -> {
+				for (int v = blockStarts[block] * boxWidth; v < blockStarts[block + 1] * boxWidth; v++) {
+					int p = parents.get(v);
+					while (p > 0) {
+						p = parents.get(p - 1);
+					}
+					parents.lazySet(v, p);
+					negatedLabels[v] = p;
+				}
+				return null;
+			});
+		}
+		parFor.run(true);
+		progressSubrange.nextStep();
+
+		computeStatistics(negatedLabels, blockStarts, progressSubrange);
+		labels = negatedLabels;
+		progressSubrange.nextStep();
+	}
+
+	/**
+	 * Add the voxels of a row to the union-find forest (if isNewRow), and union them with their accepted neighbors
+	 * that come earlier in scan order. If isNewRow, only neighbors in rows >= firstRow are considered, and the block
+	 * that starts at firstRow must not be accessed by other threads; otherwise, only neighbors in rows < firstRow
+	 * are considered, and unions are safe to perform concurrently with other threads.
+	 */
+	private void labelRow(AtomicIntegerArray parents, int row, int firstRow, boolean isNewRow) {
+		int bz = row / boxHeight;
+		int by = row % boxHeight;
+		int z = bz + z0;
+		int y = by + y0;
+		Object slice = slices[z];
+		int rowStart = row * boxWidth;
+
+		// Offsets to neighbors that are within the box in y and z and in the right range of rows are the same for
+		// the whole row; only x needs checking for each voxel
+		int nNeighbors = 0;
+		int[] deltas = new int[neighborOffsets.length];
+		int[] dxs = new int[neighborOffsets.length];
+		boolean[] covered = new boolean[neighborOffsets.length];
+		for (int o = 0; o < neighborOffsets.length; o++) {
+			int[] offset = neighborOffsets[o];
+			int ny = by + offset[1];
+			int nz = bz + offset[2];
+			if (ny < 0 || ny >= boxHeight || nz < 0)
+				continue;
+			int neighborRow = nz * boxHeight + ny;
+			if ((neighborRow < firstRow) == isNewRow)
+				continue;
+			deltas[nNeighbors] = (neighborRow - row) * boxWidth + offset[0];
+			dxs[nNeighbors] = offset[0];
+			covered[nNeighbors] = coveredByLeftNeighbor[o];
+			nNeighbors++;
+		}
+		if (nNeighbors == 0 && !isNewRow)
+			return;
+
+		int lastX = boxWidth - 1;
+		for (int bx = 0; bx <= lastX; bx++) {
+			int v = rowStart + bx;
+			if (isNewRow) {
+				int x = bx + x0;
+				if (!filter.accept(slice, y * width + x, x, y, z))
+					continue;
+				parents.lazySet(v, v + 1);
+			} else if (parents.get(v) == 0)
+				continue;
+			boolean leftInComponent = bx > 0 && parents.get(v - 1) != 0;
+			int root = v;
+			for (int i = 0; i < nNeighbors; i++) {
+				if ((bx == 0 && dxs[i] < 0) || (bx == lastX && dxs[i] > 0) || (leftInComponent && covered[i]))
+					continue;
+				int neighbor = v + deltas[i];
+				int parent = parents.get(neighbor);
+				if (parent == 0 || parent == root + 1)
+					continue;
+				if (isNewRow) {
+					// root is still a root, since the block is only modified by this thread
+					int neighborRoot = find(parents, neighbor);
+					if (neighborRoot < root) {
+						parents.lazySet(root, neighborRoot + 1);
+						root = neighborRoot;
+					} else if (neighborRoot > root)
+						parents.lazySet(neighborRoot, root + 1);
+				} else
+					concurrentUnion(parents, v, neighbor);
+			}
+		}
+	}
+
+	private static int find(AtomicIntegerArray parents, int v) {
+		// Path halving
+		int parent;
+		while ((parent = parents.get(v)) != v + 1) {
+			int grandParent = parents.get(parent - 1);
+			if (grandParent == parent)
+				return parent - 1;
+			parents.lazySet(v, grandParent);
+			v = grandParent - 1;
+		}
+		return v;
+	}
+
+	private static int concurrentFind(AtomicIntegerArray parents, int v) {
+		int p;
+		while ((p = parents.get(v)) != v + 1) {
+			v = p - 1;
+		}
+		return v;
+	}
+
+	/**
+	 * Link the root with the larger index under the other one, so that each root is the first voxel of its
+	 * component. Safe to call concurrently: a root is only linked under another one if it is still a root, which is
+	 * checked atomically.
+	 */
+	private static void concurrentUnion(AtomicIntegerArray parents, int a, int b) {
+		while (true) {
+			int rootA = concurrentFind(parents, a);
+			int rootB = concurrentFind(parents, b);
+			if (rootA == rootB)
+				return;
+			if (rootA > rootB) {
+				int swap = rootA;
+				rootA = rootB;
+				rootB = swap;
+			}
+			if (parents.compareAndSet(rootB, rootB + 1, rootA + 1))
+				return;
+		}
+	}
+
+	/**
+	 * Replace negated labels by labels, and compute component sizes and bounding boxes. Each worker accumulates
+	 * statistics in its own arrays, unless there are so many components that this would use too much memory.
+	 */
+	private void computeStatistics(final int[] negatedLabels, final int[] blockStarts, ProgressReporter progress)
+			throws InterruptedException {
+		final int nBlocks = blockStarts.length - 1;
+		ParFor parFor = new ParFor("Component statistics", 0, nBlocks - 1, progress, true);
+		if (((long) nComponents) * parFor.getNThreads() > negatedLabels.length)
+			parFor.setNThreads(1);
+		final List<int[]> workerSizes = new ArrayList<>();
+		final List<int[][]> workerBoxes = new ArrayList<>();
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			final int[] s = new int[nComponents + 1];
+			final int[][] boxes = newBoundingBoxes(nComponents);
+			workerSizes.add(s);
+			workerBoxes.add(boxes);
+			parFor.addLoopWorker(new ILoopWorker() {
+				@Override
+				public Object run(int block, int threadIndex) {
+					for (int row = blockStarts[block]; row < blockStarts[block + 1]; row++) {
+						int z = row / boxHeight + z0;
+						int y = row % boxHeight + y0;
+						int rowStart = row * boxWidth;
+						for (int bx = 0; bx < boxWidth; bx++) {
+							int label = -negatedLabels[rowStart + bx];
+							negatedLabels[rowStart + bx] = label;
+							if (label == 0)
+								continue;
+							s[label]++;
+							int x = bx + x0;
+							int[] box = boxes[label];
+							if (x < box[0])
+								box[0] = x;
+							if (x > box[1])
+								box[1] = x;
+							if (y < box[2])
+								box[2] = y;
+							if (y > box[3])
+								box[3] = y;
+							if (z < box[4])
+								box[4] = z;
+							if (z > box[5])
+								box[5] = z;
+						}
+					}
+					return null;
+				}
+			});
+		}
+		parFor.run(true);
+
+		sizes = workerSizes.get(0);
+		boundingBoxes = workerBoxes.get(0);
+		for (int w = 1; w < workerSizes.size(); w++) {
+			int[] s = workerSizes.get(w);
+			int[][] boxes = workerBoxes.get(w);
+			for (int label = 1; label <= nComponents; label++) {
+				if (s[label] == 0)
+					continue;
+				sizes[label] += s[label];
+				int[] box = boundingBoxes[label];
+				int[] other = boxes[label];
+				for (int i = 0; i < 6; i += 2) {
+					box[i] = Math.min(box[i], other[i]);
+					box[i + 1] = Math.max(box[i + 1], other[i + 1]);
+				}
+			}
+		}
+	}
+
+	private static int[][] newBoundingBoxes(int nComponents) {
+		int[][] result = new int[nComponents + 1][];
+		for (int label = 1; label <= nComponents; label++) {
+			result[label] =
+					new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE,
+							Integer.MAX_VALUE, Integer.MIN_VALUE };
+		}
+		return result;
+	}
+
+	private void checkLabeled() {
+		if (labels == null)
+			throw new IllegalStateException("Components have not been labeled");
+	}
+
+	public int getNComponents() {
+		checkLabeled();
+		return nComponents;
+	}
+
+	/**
+	 * @return Component labels, starting at 1 (0 for voxels that are not part of a component), indexed by
+	 *         (z - z0) * boxWidth * boxHeight + (y - y0) * boxWidth + (x - x0), where (x0, y0, z0) is the first
+	 *         corner of the box
+	 */
+	public int[] getLabels() {
+		checkLabeled();
+		return labels;
+	}
+
+	/**
+	 * @return Label of voxel at stack coordinates x, y, z, which must be within the box
+	 */
+	public int getLabel(int x, int y, int z) {
+		checkLabeled();
+		return labels[((z - z0) * boxHeight + (y - y0)) * boxWidth + (x - x0)];
+	}
+
+	/**
+	 * @param label
+	 * @return Number of voxels in component
+	 */
+	public int getSize(int label) {
+		checkLabeled();
+		return sizes[label];
+	}
+
+	/**
+	 * @param label
+	 * @return {minX, maxX, minY, maxY, minZ, maxZ}, inclusive and in stack coordinates
+	 */
+	public int[] getBoundingBox(int label) {
+		checkLabeled();
+		return boundingBoxes[label].clone();
+	}
+}
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Chain of element-wise operations applied to one or more images in a single pass. The chain is put together once
+ * with a {@link Builder} (e.g. "input 0 times input 1, plus offset, divided by input 2, clamped, thresholded"); each
+ * pixel value starts as the value of input 0, and goes through the operations in turn before being stored in the
+ * output. Pixels are processed in blocks small enough to stay in cache: each block of each input is converted to
+ * float according to the type of its slice (byte, short or float), each operation runs as a tight loop over the
+ * block, and the result is converted to the output type. There is therefore no per-pixel dispatch on operation or
+ * pixel type, and no intermediate image between operations.
+ *
+ * Kernels are immutable and can be applied concurrently from several threads. They are cheap to build, and can be
+ * rebuilt whenever a parameter changes.
+ *
+ */
+public final class ElementwiseKernel {
+
+	/**
+	 * How float results are stored into byte or short outputs; float outputs are stored as is.
+	 */
+	public enum Conversion {
+		/**
+		 * Clamp to the range of the output type and round to nearest, as ImageProcessor.putPixelValue does.
+		 */
+		ROUND,
+		/**
+		 * Java narrowing conversion (truncation towards 0 and wrap-around), as IPluginIOStack.setPixelValue does.
+		 */
+		CAST
+	}
+
+	private static final int BLOCK_SIZE = 2048;
+
+	/**
+	 * Operation applied in place to a block of values; inputs holds float versions of the corresponding block of
+	 * each input (only filled for inputs that are used by the kernel).
+	 */
+	@FunctionalInterface
+	private interface Stage {
+		void apply(float[] values, float[][] inputs, int n);
+	}
+
+	private final int nInputs;
+	private final Stage[] stages;
+	/**
+	 * Indices of inputs other than input 0 that are read by at least one stage.
+	 */
+	private final int[] extraInputs;
+	private final Conversion conversion;
+
+	/**
+	 * Per-thread blocks, shared by all kernels so that building a kernel is cheap enough to be done for each slice.
+	 */
+	private static final ThreadLocal<float[][]> buffers = ThreadLocal.withInitial(() -> new float[0][]);
+
+	private ElementwiseKernel(Builder builder) {
+		nInputs = builder.nInputs;
+		stages = builder.stages.toArray(new Stage[0]);
+		extraInputs = builder.usedInputs.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+		conversion = builder.conversion;
+	}
+
+	/**
+	 * @param nInputs
+	 *            Number of images the kernel reads from; pixel values start as the values of input 0
+	 * @return Builder for a kernel with an empty chain of operations
+	 */
+	public static Builder builder(int nInputs) {
+		return new Builder(nInputs);
+	}
+
+	public static final class Builder {
+		private final int nInputs;
+		private final List<Stage> stages = new ArrayList<>();
+		private final List<Integer> usedInputs = new ArrayList<>();
+		private Conversion conversion = Conversion.ROUND;
+
+		private Builder(int nInputs) {
+			if (nInputs < 1)
+				throw new IllegalArgumentException("Kernel must have at least one input");
+			this.nInputs = nInputs;
+		}
+
+		private int useInput(int input) {
+			if (input < 0 || input >= nInputs)
+				throw new IllegalArgumentException("Input " + input + " out of range 0--" + (nInputs - 1));
+			if (input > 0)
+				usedInputs.add(input);
+			return input;
+		}
+
+		/**
+		 * value + c
+		 */
+		public Builder add(final float c) {
+			stages.add((v, in, n) -> {
+				for (int i = 0; i < n; i++)
+					v[i] += c;
+			});
+			return this;
+		}
+
+		/**
+		 * value * c
+		 */
+		public Builder multiply(final float c) {
+			stages.add((v, in, n) -> {
+				for (int i = 0; i < n; i++)
+					v[i] *= c;
+			});
+			return this;
+		}
+
+		/**
+		 * value + weight * input
+		 */
+		public Builder addInput(int input, final float weight) {
+			final int index = useInput(input);
+			stages.add((v, in, n) -> {
+				final float[] a = in[index];
+				for (int i = 0; i < n; i++)
+					v[i] = v[i] + a[i] * weight;
+			});
+			return this;
+		}
+
+		/**
+		 * value * input
+		 */
+		public Builder multiplyByInput(int input) {
+			final int index = useInput(input);
+			stages.add((v, in, n) -> {
+				final float[] a = in[index];
+				for (int i = 0; i < n; i++)
+					v[i] *= a[i];
+			});
+			return this;
+		}
+
+		/**
+		 * value / input
+		 */
+		public Builder divideByInput(int input) {
+			final int index = useInput(input);
+			stages.add((v, in, n) -> {
+				final float[] a = in[index];
+				for (int i = 0; i < n; i++)
+					v[i] /= a[i];
+			});
+			return this;
+		}
+
+		/**
+		 * Math.max(c, value)
+		 */
+		public Builder max(final float c) {
+			stages.add((v, in, n) -> {
+				for (int i = 0; i < n; i++)
+					v[i] = Math.max(c, v[i]);
+			});
+			return this;
+		}
+
+		/**
+		 * Values below low are replaced by valueBelow, and values above high by valueAbove; NaNs are left as they are.
+		 * Replacing by low and high clamps values to the [low, high] range.
+		 */
+		public Builder replaceOutside(final float low, final float high, final float valueBelow,
+				final float valueAbove) {
+			stages.add((v, in, n) -> {
+				for (int i = 0; i < n; i++) {
+					float f = v[i];
+					v[i] = f < low ? valueBelow : (f > high ? valueAbove : f);
+				}
+			});
+			return this;
+		}
+
+		/**
+		 * Values below low or above high are replaced by outside, and other values (including NaNs) by inside.
+		 */
+		public Builder threshold(final float low, final float high, final float inside, final float outside) {
+			stages.add((v, in, n) -> {
+				for (int i = 0; i < n; i++) {
+					float f = v[i];
+					v[i] = (f < low || f > high) ? outside : inside;
+				}
+			});
+			return this;
+		}
+
+		/**
+		 * Defaults to {@link Conversion#ROUND}.
+		 */
+		public Builder conversion(Conversion c) {
+			conversion = c;
+			return this;
+		}
+
+		public ElementwiseKernel build() {
+			return new ElementwiseKernel(this);
+		}
+	}
+
+	/**
+	 * Applies the kernel to pixels from index from (inclusive) to index to (exclusive) of the slices.
+	 *
+	 * @param inputSlices
+	 *            One pixel array (byte[], short[] or float[]) per kernel input
+	 * @param outputSlice
+	 *            Pixel array to write to; can be one of the input slices
+	 */
+	public void apply(Object[] inputSlices, Object outputSlice, int from, int to) {
+		if (inputSlices.length != nInputs)
+			throw new IllegalArgumentException("Expected " + nInputs + " inputs but got " + inputSlices.length);
+		float[][] b = buffers.get();
+		if (b.length < nInputs + 1) {
+			b = new float[nInputs + 1][BLOCK_SIZE];
+			buffers.set(b);
+		}
+		// Index nInputs holds the values being computed
+		final float[] values = b[nInputs];
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int n = Math.min(BLOCK_SIZE, to - start);
+			load(inputSlices[0], start, n, values);
+			for (int input : extraInputs) {
+				load(inputSlices[input], start, n, b[input]);
+			}
+			for (Stage stage : stages) {
+				stage.apply(values, b, n);
+			}
+			store(values, outputSlice, start, n, conversion);
+		}
+	}
+
+	/**
+	 * Applies the kernel to the pixels of the slices that lie within roi.
+	 *
+	 * @param width
+	 *            Width of the slices
+	 */
+	public void apply(Object[] inputSlices, Object outputSlice, int width, Rectangle roi) {
+		if (roi.x == 0 && roi.width == width) {
+			apply(inputSlices, outputSlice, roi.y * width, (roi.y + roi.height) * width);
+			return;
+		}
+		for (int y = roi.y; y < roi.y + roi.height; y++) {
+			apply(inputSlices, outputSlice, y * width + roi.x, y * width + roi.x + roi.width);
+		}
+	}
+
+	/**
+	 * Applies the kernel to whole stacks, in parallel across slices. Inputs that are file-backed are read slice by
+	 * slice; the output must hold its pixels in memory.
+	 *
+	 * @param inputs
+	 *            All inputs must have the same width and height as output, and at least as many slices
+	 * @param output
+	 * @param progress
+	 *            Can be null
+	 * @throws InterruptedException
+	 */
+	public void run(final IPluginIOStack[] inputs, IPluginIOStack output, ProgressReporter progress)
+			throws InterruptedException {
+		if (inputs.length != nInputs)
+			throw new IllegalArgumentException("Expected " + nInputs + " inputs but got " + inputs.length);
+		for (IPluginIOStack input : inputs) {
+			if (input.getWidth() != output.getWidth() || input.getHeight() != output.getHeight()
+					|| input.getDepth() < output.getDepth())
+				throw new IllegalArgumentException("Dimension mismatch between " + input.getName() + " and "
+						+ output.getName());
+		}
+
+		final Object[][] inputArrays = new Object[nInputs][];
+		for (int i = 0; i < nInputs; i++) {
+			if (!(inputs[i] instanceof ImageAccessor)) {
+				inputs[i].computePixelArray();
+				inputArrays[i] = inputs[i].getStackPixelArray();
+			}
+		}
+		output.computePixelArray();
+		final Object[] outputArray = output.getStackPixelArray();
+		final int nPixels = output.getWidth() * output.getHeight();
+
+		ParFor parFor = new ParFor("Element-wise kernel", 0, output.getDepth() - 1, progress, true);
+		for (int i = 0; i < parFor.getNThreads(); i++)
+			parFor.addLoopWorker((z, threadIndex) -> {
+				Object[] slices = new Object[nInputs];
+				for (int input = 0; input < nInputs; input++) {
+					slices[input] =
+							inputArrays[input] != null ? inputArrays[input][z] : readSlice(
+									(ImageAccessor) inputs[input], z);
+				}
+				apply(slices, outputArray[z], 0, nPixels);
+				return null;
+			});
+		parFor.run(true);
+	}
+
+	private static Object readSlice(ImageAccessor accessor, int z) {
+		try {
+			return accessor.getPixelZSliceCopy(z, ImageAccessor.DONT_CACHE_PIXELS);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void load(Object slice, int start, int n, float[] destination) {
+		if (slice instanceof float[]) {
+			System.arraycopy(slice, start, destination, 0, n);
+		} else if (slice instanceof byte[]) {
+			final byte[] pixels = (byte[]) slice;
+			for (int i = 0; i < n; i++)
+				destination[i] = pixels[start + i] & 0xff;
+		} else if (slice instanceof short[]) {
+			final short[] pixels = (short[]) slice;
+			for (int i = 0; i < n; i++)
+				destination[i] = pixels[start + i] & 0xffff;
+		} else
+			throw new IllegalArgumentException("Unsupported pixel array " + slice);
+	}
+
+	private static void store(float[] values, Object slice, int start, int n, Conversion conversion) {
+		if (slice instanceof float[]) {
+			System.arraycopy(values, 0, slice, start, n);
+		} else if (slice instanceof byte[]) {
+			final byte[] pixels = (byte[]) slice;
+			if (conversion == Conversion.ROUND) {
+				for (int i = 0; i < n; i++) {
+					float f = values[i];
+					pixels[start + i] = (byte) ((f > 255f ? 255f : (f < 0f ? 0f : f)) + 0.5);
+				}
+			} else {
+				for (int i = 0; i < n; i++)
+					pixels[start + i] = (byte) values[i];
+			}
+		} else if (slice instanceof short[]) {
+			final short[] pixels = (short[]) slice;
+			if (conversion == Conversion.ROUND) {
+				for (int i = 0; i < n; i++) {
+					float f = values[i];
+					pixels[start + i] = (short) ((f > 65535f ? 65535f : (f < 0f ? 0f : f)) + 0.5);
+				}
+			} else {
+				for (int i = 0; i < n; i++)
+					pixels[start + i] = (short) values[i];
+			}
+		} else
+			throw new IllegalArgumentException("Unsupported pixel array " + slice);
+	}
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing;
+
+import pipeline.GUI_utils.ProgressSubrange;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ILoopWorker;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Exact Euclidean distance transform of a 3D stack, computed in time linear in the number of voxels as a lower envelope
+ * of parabolas along x, then y, then z (Felzenszwalb and Huttenlocher, "Distance Transforms of Sampled Functions").
+ * Slices are processed in parallel for the x and y passes, and rows for the z pass. Voxels can be longer in z than in
+ * x and y, which are assumed to have the same size. Voxels outside the stack are never counted as features.
+ *
+ */
+public class EuclideanDistanceTransform {
+
+	private EuclideanDistanceTransform() {
+	}
+
+	private static final float INF = Float.POSITIVE_INFINITY;
+
+	/**
+	 * Compute the squared distance from each voxel to the nearest feature voxel.
+	 *
+	 * @param slices
+	 *            float[], short[] or byte[] pixel arrays, one per slice
+	 * @param width
+	 * @param height
+	 * @param featuresAreNonZero
+	 *            If true, distances are to the nearest non-0 voxel; otherwise, to the nearest 0 voxel
+	 * @param zSpacing
+	 *            Distance between slices, in units of the distance between pixels in x and y
+	 * @param result
+	 *            One float array of size width*height per slice to store the result in, or null to have them
+	 *            allocated; can be the same arrays as slices if those are float[]
+	 * @param progress
+	 *            Can be null
+	 * @return Squared distances, in units of the pixel size in x and y; voxels with no feature in the whole stack get
+	 *         {@link Float#POSITIVE_INFINITY}
+	 * @throws InterruptedException
+	 */
+	public static float[][] computeSquaredDistances(final Object[] slices, final int width, final int height,
+			final boolean featuresAreNonZero, float zSpacing, float[][] result, ProgressReporter progress)
+			throws InterruptedException {
+		final int depth = slices.length;
+		if (result == null) {
+			result = new float[depth][width * height];
+		}
+		final float[][] distances = result;
+		final double zWeight = zSpacing * zSpacing;
+		final int bufferLength = Math.max(width, Math.max(height, depth));
+
+		ProgressSubrange progressSubrange = new ProgressSubrange(progress, 2);
+
+		ParFor parFor = new ParFor("Distance transform xy", 0, depth - 1, progressSubrange, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker(new ILoopWorker() {
+				final LowerEnvelope envelope = new LowerEnvelope(bufferLength);
+
+				@Override
+				public Object run(int z, int threadIndex) {
+					Object slice = slices[z];
+					float[] d = distances[z];
+					float[] f = envelope.f;
+					for (int y = 0; y < height; y++) {
+						int offset = y * width;
+						for (int x = 0; x < width; x++) {
+							f[x] = isFeature(slice, offset + x, featuresAreNonZero) ? 0 : INF;
+						}
+						envelope.transform(width, 1);
+						System.arraycopy(envelope.d, 0, d, offset, width);
+					}
+					for (int x = 0; x < width; x++) {
+						for (int y = 0; y < height; y++) {
+							f[y] = d[y * width + x];
+						}
+						envelope.transform(height, 1);
+						for (int y = 0; y < height; y++) {
+							d[y * width + x] = envelope.d[y];
+						}
+					}
+					return null;
+				}
+			});
+		}
+		parFor.run(true);
+		progressSubrange.nextStep();
+
+		if (depth > 1) {
+			parFor = new ParFor("Distance transform z", 0, height - 1, progressSubrange, true);
+			for (int i = 0; i < parFor.getNThreads(); i++) {
+				parFor.addLoopWorker(new ILoopWorker() {
+					final LowerEnvelope envelope = new LowerEnvelope(bufferLength);
+
+					@Override
+					public Object run(int y, int threadIndex) {
+						float[] f = envelope.f;
+						int offset = y * width;
+						for (int x = offset; x < offset + width; x++) {
+							for (int z = 0; z < depth; z++) {
+								f[z] = distances[z][x];
+							}
+							envelope.transform(depth, zWeight);
+							for (int z = 0; z < depth; z++) {
+								distances[z][x] = envelope.d[z];
+							}
+						}
+						return null;
+					}
+				});
+			}
+			parFor.run(true);
+		}
+		progressSubrange.nextStep();
+
+		return distances;
+	}
+
+	/**
+	 * @param squaredDistance
+	 * @param maxRadius
+	 * @return Smallest integer radius r >= 1 such that a ball of radius r centered on a voxel reaches a feature at the
+	 *         given squared distance, or maxRadius if that radius is larger than maxRadius (or if there is no feature)
+	 */
+	public static int ballRadius(float squaredDistance, int maxRadius) {
+		int cap = Math.max(1, maxRadius);
+		if (!(squaredDistance <= (float) cap * cap))
+			return cap;
+		int r = Math.max(1, (int) Math.ceil(Math.sqrt(squaredDistance)));
+		// Guard against rounding errors in the square root
+		while (r > 1 && (float) (r - 1) * (r - 1) >= squaredDistance) {
+			r--;
+		}
+		while ((float) r * r < squaredDistance) {
+			r++;
+		}
+		return r;
+	}
+
+	private static boolean isFeature(Object slice, int index, boolean featuresAreNonZero) {
+		boolean nonZero;
+		if (slice instanceof float[])
+			nonZero = ((float[]) slice)[index] != 0;
+		else if (slice instanceof short[])
+			nonZero = ((short[]) slice)[index] != 0;
+		else if (slice instanceof byte[])
+			nonZero = ((byte[]) slice)[index] != 0;
+		else
+			throw new IllegalArgumentException("Unknown slice type " + slice);
+		return nonZero == featuresAreNonZero;
+	}
+
+	/**
+	 * 1D squared distance transform of a sampled function, with per-thread buffers.
+	 */
+	private static final class LowerEnvelope {
+		/**
+		 * Input function.
+		 */
+		final float[] f;
+		/**
+		 * Output: d[q] = min over p of f[p] + weight * (q - p)^2.
+		 */
+		final float[] d;
+		/**
+		 * Locations of the parabolas that make up the lower envelope.
+		 */
+		private final int[] v;
+		/**
+		 * Boundaries between the parabolas of the lower envelope.
+		 */
+		private final double[] boundaries;
+
+		LowerEnvelope(int length) {
+			f = new float[length];
+			d = new float[length];
+			v = new int[length];
+			boundaries = new double[length + 1];
+		}
+
+		void transform(int n, double weight) {
+			int k = -1;
+			for (int q = 0; q < n; q++) {
+				if (f[q] == INF)
+					continue;
+				if (k < 0) {
+					k = 0;
+					v[0] = q;
+					boundaries[0] = Double.NEGATIVE_INFINITY;
+					boundaries[1] = Double.POSITIVE_INFINITY;
+					continue;
+				}
+				double s;
+				while (true) {
+					int p = v[k];
+					s = ((f[q] + weight * q * q) - (f[p] + weight * p * p)) / (2 * weight * (q - p));
+					if (s > boundaries[k])
+						break;
+					// boundaries[0] is -infinity, so k never becomes negative
+					k--;
+				}
+				k++;
+				v[k] = q;
+				boundaries[k] = s;
+				boundaries[k + 1] = Double.POSITIVE_INFINITY;
+			}
+
+			if (k < 0) {
+				for (int q = 0; q < n; q++) {
+					d[q] = INF;
+				}
+				return;
+			}
+			k = 0;
+			for (int q = 0; q < n; q++) {
+				while (boundaries[k + 1] < q) {
+					k++;
+				}
+				int delta = q - v[k];
+				d[q] = (float) (weight * delta * delta + f[v[k]]);
+			}
+		}
+	}
+}
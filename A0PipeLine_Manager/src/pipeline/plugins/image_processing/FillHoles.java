@@ -6,10 +6,6 @@ package pipeline.plugins.image_processing;
 // Minor modifications by Olivier Cinquin
 // Covered by the GPL
 
-import ij.measure.ResultsTable;
-
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,75 +13,17 @@ import pipeline.PreviewType;
 import pipeline.data.IPluginIOStack;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOImage.PixelType;
-import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
-import pipeline.misc_util.Utils;
-import pipeline.misc_util.Utils.LogLevel;
+import pipeline.misc_util.parfor.ParFor;
 import pipeline.plugins.ThreeDPlugin;
 
+/**
+ * Fill all 0 regions except the largest one, which is assumed to be the background. Points on the x and y edges of
+ * the area being processed are treated as 0, so that all regions that touch the edges are part of the background.
+ * Regions are labeled with {@link ConnectedComponents}, using 26-connectivity.
+ */
 public class FillHoles extends ThreeDPlugin {
 
-	/* An inner class to make the results list sortable. */
-	private static final class Region implements Comparable<Object> {
-
-		Region(int value, String materialName, int points, boolean sameValue) {
-			byteImage = true;
-			this.value = value;
-			this.materialName = materialName;
-			this.points = points;
-			this.sameValue = sameValue;
-		}
-
-		Region(int points, boolean sameValue) {
-			byteImage = false;
-			this.points = points;
-			this.sameValue = sameValue;
-		}
-
-		boolean byteImage;
-		int points;
-		String materialName;
-		int value;
-		boolean sameValue;
-
-		@Override
-		public int compareTo(Object otherRegion) {
-			Region o = (Region) otherRegion;
-			return (points < o.points) ? -1 : ((points > o.points) ? 1 : 0);
-		}
-
-		@Override
-		public String toString() {
-			if (byteImage) {
-				String materialBit = "";
-				if (materialName != null) {
-					materialBit = " (" + materialName + ")";
-				}
-				return "Region of value " + value + materialBit + " containing " + points + " points";
-			} else {
-				return "Region containing " + points + " points";
-			}
-		}
-
-		public void addRow(ResultsTable rt) {
-			rt.incrementCounter();
-			if (byteImage) {
-				if (sameValue)
-					rt.addValue("Value in Region", value);
-				rt.addValue("Points In Region", points);
-				if (materialName != null)
-					rt.addLabel("Material Name", materialName);
-			} else {
-				rt.addValue("Points in Region", points);
-			}
-		}
-
-	}
-
-	private static final int IN_QUEUE = -1;
-
-	// private static final int ADDED = 2; REPLACED BY ID OF REGION
-
 	@Override
 	public void runChannel(final IPluginIOStack input, final IPluginIOStack output, ProgressReporter p,
 			PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
@@ -101,393 +39,127 @@ public class FillHoles extends ThreeDPlugin {
 	 */
 	public int fixSlice = -1;
 
-	@SuppressWarnings("unused")
 	public int runChannel(final IPluginIOStack input, final IPluginIOStack output, ProgressReporter p,
-			PreviewType previewType, boolean inputHasChanged, int startX, int stopX, int startY, int stopY)
-			throws InterruptedException {
+			PreviewType previewType, boolean inputHasChanged, final int startX, final int stopX, final int startY,
+			final int stopY) throws InterruptedException {
 		// Find all regions of value 0
 		// For all the regions except the one that has most points, change them to 255
 		// This should fill all the holes
-		// final boolean diagonal = true;
-		final boolean display = true;
-		final boolean showResults = false;
-		final boolean mustHaveSameValue = false;
-		final boolean startFromPointROI = false;
-		boolean autoSubtract = false;
-		double minimumPointsInRegionDouble = 1d;// gd.getNextNumber();
-		int stopAfterNumberOfRegions = 1;// gd.getNextNumber();
-
-		final boolean twoDFilling = fixSlice > -1;
 
 		progressSetIndeterminateThreadSafe(p, true);
 
-		/*
-		 * int type = input.getType();
-		 * 
-		 * if (!(ImagePlus.GRAY8 == type || ImagePlus.COLOR_256 == type || ImagePlus.GRAY32 == type)) {
-		 * Utils.displayError("The image must be either 8 bit or 32 bit for this plugin.");
-		 * return 1;
-		 * }
-		 * 
-		 * 
-		 * if (ImagePlus.GRAY8 == type || ImagePlus.COLOR_256 == type) {
-		 * byteImage = true;
-		 * }
-		 */
-
-		boolean byteImage = input.getPixelType() == PixelType.BYTE_TYPE;
-
-		final boolean startAtMaxValue = false;
-
-		if (true)
-			stopAfterNumberOfRegions = Integer.MAX_VALUE;
-
-		int width = input.getWidth();
-		int height = input.getHeight();
-
-		int depth = input.getDepth();
-
-		if ((((long) width) * height * depth) > Integer.MAX_VALUE) {
-			throw new PluginRuntimeException("This stack is too large for this plugin (must have less than "
-					+ Integer.MAX_VALUE + " points.", true);
-		}
-
-		ArrayList<Region> results = new ArrayList<>();
-
-
-		// Preserve the calibration and colour lookup tables
-		// for generating new images of each individual
-		// region.
-		// Calibration calibration = input.imp.getCalibration();
-
-		/*
-		 * ColorModel cm = null;
-		 * if (ImagePlus.COLOR_256 == type) {
-		 * cm = input.imp.getStack().getColorModel();
-		 * }
-		 */
-
-		ResultsTable rt = ResultsTable.getResultsTable();
-		rt.reset();
-
-		int maxRegionPoints = 0;
-
-		int[] pointState = new int[depth * width * height]; // TODO This uses more memory than necessary as we could
-		// do with just depth * subRegionWidth * subRegionHeight; but we would need to compute indeces to access points
-		// differently than the way the current code does it.
-		int currentRegion = 1;
-		int idOfRegionWithMostPoints = -1;
+		final int width = input.getWidth();
+		final int height = input.getHeight();
 
 		final int minZ = fixSlice > -1 ? fixSlice : 0;
-		final int maxZ = fixSlice > -1 ? fixSlice : (depth - 1);
-
-		while (true) {
-
-			if (Thread.interrupted())
-				throw new InterruptedException();
-
-			/*
-			 * Find one pixel that's above the minimum, or
-			 * find the maximum in the case where we're
-			 * not insisting that all regions are made up
-			 * of the same color. These are set in all
-			 * cases...
-			 */
-
-			int initial_x = -1;
-			int initial_y = -1;
-			int initial_z = -1;
-
-			int foundValue = -1;
-
-			if (byteImage) {
-
-				// Just finding some point in the a region...
-				for (int z = minZ; z <= maxZ && foundValue == -1; ++z) {
-					for (int y = startY; y <= stopY && foundValue == -1; ++y) {
-						for (int x = startX; x <= stopX; ++x) {
-							float value;
-							if (byteImage)
-								value = ((byte[]) input.getStackPixelArray()[z])[y * width + x] & 0xFF;
-							else
-								value = ((float[]) input.getStackPixelArray()[z])[y * width + x];
-							if ((value == 0) && (pointState[width * (z * height + y) + x] == 0)) {
-								initial_x = x;
-								initial_y = y;
-								initial_z = z;
-								foundValue = (int) value;
-								break;
-							}
-						}
-					}
-				}
-
-				if (foundValue == -1) {
-					break;
-				}
-
-			} else {
-
-				// This must be a 32 bit image
-				assert (false);
-
-				for (int z = minZ; z <= maxZ && foundValue == -1; ++z) {
-					for (int y = startY; y <= stopY && foundValue == -1; ++y) {
-						for (int x = startX; x <= stopX; ++x) {
-							float value = ((float[]) input.getStackPixelArray()[z])[y * width + x];
-							if ((value == 0) && (pointState[width * (z * height + y) + x] == 0)) {
-								initial_x = x;
-								initial_y = y;
-								initial_z = z;
-								foundValue = 1;
-								break;
-							}
-						}
+		final int maxZ = fixSlice > -1 ? fixSlice : (input.getDepth() - 1);
+
+		final boolean edgesBlack = makeEdgesBlack;
+		final Object[] inputPixels = input.getStackPixelArray();
+		// With a single slice, 26-connectivity amounts to 8-connectivity within the slice
+		final ConnectedComponents components =
+				new ConnectedComponents(inputPixels, width, height, 26, (slice, index, x, y, z) -> {
+					if (edgesBlack && (x == startX || x == stopX || y == startY || y == stopY))
+						return true;
+					return ConnectedComponents.getValue(slice, index) == 0;
+				});
+		components.setBox(startX, stopX, startY, stopY, minZ, maxZ);
+		components.label(null);
+		int nComponents = components.getNComponents();
+
+		// A region made up only of non-0 edge points was not reached from a 0 point, and is not a region; count
+		// non-0 edge points in each region to find out
+		int[] nonZeroEdgePoints = new int[nComponents + 1];
+		if (edgesBlack) {
+			for (int z = minZ; z <= maxZ; z++) {
+				Object slice = inputPixels[z];
+				for (int y = startY; y <= stopY; y++) {
+					boolean edgeRow = y == startY || y == stopY;
+					for (int x = startX; x <= stopX; x = (edgeRow || x == stopX) ? x + 1 : stopX) {
+						if (ConnectedComponents.getValue(slice, y * width + x) != 0)
+							nonZeroEdgePoints[components.getLabel(x, y, z)]++;
 					}
 				}
-
-				if (foundValue == -1) {
-					break;
-				}
-
 			}
+		}
 
-			int vint = foundValue;
-
-			int pointsInQueue = 0;
-			int queueArrayLength = 1024;
-			int[] queue = new int[queueArrayLength];
-
-			int i = width * (initial_z * height + initial_y) + initial_x;
-			pointState[i] = IN_QUEUE;
-			queue[pointsInQueue++] = i;
-
-			int pointsInThisRegion = 0;
-
-			while (pointsInQueue > 0) {
-
-				if (Thread.interrupted())
-					throw new InterruptedException();
-
-				int nextIndex = queue[--pointsInQueue];
-
-				int currentPointStateIndex = nextIndex;
-				int pz = nextIndex / (width * height);
-				int currentSliceIndex = nextIndex % (width * height);
-				int py = currentSliceIndex / width;
-				int px = currentSliceIndex % width;
-
-				pointState[currentPointStateIndex] = currentRegion;
-
-				// if (byteImage) {
-				// sliceDataBytes[pz][currentSliceIndex] = -1;
-				// } else {
-				// sliceDataFloats[pz][currentSliceIndex] = -1;
-				// }
-				++pointsInThisRegion;
-
-				int x_unchecked_min = px - 1;
-				int y_unchecked_min = py - 1;
-				int z_unchecked_min = pz - 1;
-
-				int x_unchecked_max = px + 1;
-				int y_unchecked_max = py + 1;
-				int z_unchecked_max = pz + 1;
-
-				int x_min = (x_unchecked_min < startX) ? startX : x_unchecked_min;
-				int y_min = (y_unchecked_min < startY) ? startY : y_unchecked_min;
-				int z_min = (z_unchecked_min < 0) ? 0 : z_unchecked_min;
-
-				int x_max = (x_unchecked_max > stopX) ? stopX : x_unchecked_max;
-				int y_max = (y_unchecked_max > stopY) ? stopY : y_unchecked_max;
-				int z_max = (z_unchecked_max >= depth) ? depth - 1 : z_unchecked_max;
-
-				if (twoDFilling)
-					z_min = z_max = pz;
-
-				for (int z = z_min; z <= z_max; ++z) {
-					for (int y = y_min; y <= y_max; ++y) {
-						for (int x = x_min; x <= x_max; ++x) {
-
-							// If we're not including diagonals,
-							// skip those points.
-							// if ((!diagonal) && (x == x_unchecked_min || x == x_unchecked_max) && (y ==
-							// y_unchecked_min || y == y_unchecked_max) && (z == z_unchecked_min || z ==
-							// z_unchecked_max)) {
-							// continue;
-							// }
-							int newSliceIndex = y * width + x;
-							int newPointStateIndex = width * (z * height + y) + x;
-
-							if ((!makeEdgesBlack) || ((x > startX) && (x < stopX) && (y > startY) && (y < stopY))) {
-
-								if (byteImage) {
-
-									int neighbourValue = ((byte[]) input.getStackPixelArray()[z])[newSliceIndex] & 0xFF;
-
-									if (neighbourValue != 0) {
-										continue;
-									}
-								} else {
-
-									float neighbourValue = ((float[]) input.getStackPixelArray()[z])[newSliceIndex];
-
-									if (neighbourValue != 0) {
-										continue;
-									}
-								}
-							}
-
-							if (0 == pointState[newPointStateIndex]) {
-								pointState[newPointStateIndex] = IN_QUEUE;
-								if (pointsInQueue == queueArrayLength) {
-									int newArrayLength = queueArrayLength * 2;
-									int[] newArray = new int[newArrayLength];
-									System.arraycopy(queue, 0, newArray, 0, pointsInQueue);
-									queue = newArray;
-									queueArrayLength = newArrayLength;
-								}
-								queue[pointsInQueue++] = newPointStateIndex;
-							}
-						}
-					}
-				}
-			}
-
-			if (Thread.interrupted())
-				throw new InterruptedException();
-
-			// So now pointState should have no IN_QUEUE
-			// status points...
-			Region region;
-			if (byteImage) {
-				region = new Region(vint, "", pointsInThisRegion, mustHaveSameValue);
-			} else {
-				region = new Region(pointsInThisRegion, mustHaveSameValue);
-			}
-			if (pointsInThisRegion < minimumPointsInRegionDouble) {
-				// System.out.println("Too few points - only " + pointsInThisRegion);
+		// The largest region is left alone; in case of a tie, the region whose first 0 point comes first in a
+		// z, y, x scan wins. Labels are numbered in the order of the first point of each region, which is a 0 point
+		// unless the region contains non-0 edge points.
+		final boolean[] fill = new boolean[nComponents + 1];
+		int largestRegion = -1;
+		int maxRegionPoints = 0;
+		for (int label = 1; label <= nComponents; label++) {
+			int size = components.getSize(label);
+			if (size == nonZeroEdgePoints[label])
 				continue;
+			fill[label] = true;
+			boolean wins = size > maxRegionPoints;
+			if (size == maxRegionPoints && (nonZeroEdgePoints[label] > 0 || nonZeroEdgePoints[largestRegion] > 0))
+				wins =
+						firstZeroPoint(components, inputPixels, width, height, label) < firstZeroPoint(components,
+								inputPixels, width, height, largestRegion);
+			if (wins) {
+				largestRegion = label;
+				maxRegionPoints = size;
 			}
-
-			results.add(region);
-
-			/*
-			 * byte replacementValue;
-			 * if (byteImage) {
-			 * replacementValue = (byte) ( (cm == null) ? 255 : vint );
-			 * } else {
-			 * replacementValue = (byte) 255;
-			 * }
-			 */
-
-			if (true) { // if we're not starting from a ROI, assume we want to output the largest connected region
-				// check if this region has more points that the previous largest region
-				// if it does, save its points so we can output them later
-				if (pointsInThisRegion > maxRegionPoints) {
-					idOfRegionWithMostPoints = currentRegion;
-					maxRegionPoints = pointsInThisRegion;
-				}
-			} else if (true) {
-				// ImageStack newStack = new ImageStack(width, height);
-				// THIS SHOULD BE DEADCODE
-				copyRegionToOutputWithOriginalImageValues(input, output, pointState, idOfRegionWithMostPoints, startX,
-						stopX, startY, stopY, byteImage);
-			}
-
-			if ((stopAfterNumberOfRegions > 0) && (results.size() >= stopAfterNumberOfRegions)) {
-				break;
-			}
-
-			currentRegion++;
-			if (pipelineCallback != null)
-				pipelineCallback.redrawLine(ourRow); // to update the progress indicator
-
 		}
-
-		if ((true))
-			copyRegionToOutputWithOriginalImageValues(input, output, pointState, idOfRegionWithMostPoints, startX,
-					stopX, startY, stopY, byteImage);
-
-		Collections.sort(results, Collections.reverseOrder());
-
-		// System.out.println(r.toString());
-		if (showResults) {
-			results.stream().forEach(r -> {
-				r.addRow(rt);
+		if (largestRegion > 0)
+			fill[largestRegion] = false;
+
+		final int[] labels = components.getLabels();
+		final int boxWidth = stopX - startX + 1;
+		final int boxHeight = stopY - startY + 1;
+		final Object[] outputPixels = output.getStackPixelArray();
+		ParFor parFor = new ParFor("Fill holes", minZ, maxZ, null, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker((z, threadIndex) -> {
+				Object inputSlice = inputPixels[z];
+				Object outputSlice = outputPixels[z];
+				for (int y = startY; y <= stopY; ++y) {
+					int labelIndex = ((z - minZ) * boxHeight + (y - startY)) * boxWidth;
+					for (int x = startX; x <= stopX; ++x, ++labelIndex) {
+						int index = y * width + x;
+						if (fill[labels[labelIndex]])
+							setValue(outputSlice, index, 255);
+						else if (inputSlice instanceof byte[] && outputSlice instanceof byte[])
+							((byte[]) outputSlice)[index] = ((byte[]) inputSlice)[index];
+						else
+							setValue(outputSlice, index, ConnectedComponents.getValue(inputSlice, index));
+					}
+				}
+				return null;
 			});
-			rt.show("Results");
 		}
+		parFor.run(true);
 
 		progressSetIndeterminateThreadSafe(p, false);
 		return 0;
 	}
 
-	void copyRegionToOutputWithOriginalImageValues(IPluginIOStack input, IPluginIOStack output, int[] pointState,
-			int idOfRegionToLeaveAlone, int startX, int stopX, int startY, int stopY, boolean byteImage) {
-		int width = input.getWidth();
-		int height = input.getHeight();
-		int depth = input.getDepth();
-
-		final int minZ = fixSlice > -1 ? fixSlice : 0;
-		final int maxZ = fixSlice > -1 ? fixSlice : (depth - 1);
-
-		if (output.getPixelType() == PixelType.BYTE_TYPE) {
-			for (int z = minZ; z <= maxZ; ++z) {
-				byte[] outputBytes = (byte[]) output.getStackPixelArray()[z];
-
-				for (int y = startY; y <= stopY; ++y) {
-					for (int x = startX; x <= stopX; ++x) {
-
-						int status = pointState[width * (z * height + y) + x];
-
-						if (status == IN_QUEUE) {
-							Utils.log("BUG: point " + x + "," + y + "," + z + " is still marked as IN_QUEUE",
-									LogLevel.ERROR);
-						}
-
-						if ((status > 0) && (status != idOfRegionToLeaveAlone)) {
-							outputBytes[y * width + x] = (byte) 255;
-						} else {
-							if (byteImage)
-								outputBytes[y * width + x] = ((byte[]) input.getStackPixelArray()[z])[y * width + x];
-							else {
-								outputBytes[y * width + x] =
-										(byte) ((float[]) input.getStackPixelArray()[z])[y * width + x];
-							}
-						}
-					}
-				}
-			}
-		} else if (output.getPixelType() == PixelType.FLOAT_TYPE) {
-			for (int z = minZ; z <= maxZ; ++z) {
-				float[] outputFloats = (float[]) output.getStackPixelArray()[z];
-
-				for (int y = startY; y <= stopY; ++y) {
-					for (int x = startX; x <= stopX; ++x) {
-
-						int status = pointState[width * (z * height + y) + x];
-
-						if (status == IN_QUEUE) {
-							Utils.log("BUG: point " + x + "," + y + "," + z + " is still marked as IN_QUEUE",
-									LogLevel.ERROR);
-						}
-
-						if ((status > 0) && (status != idOfRegionToLeaveAlone)) {
-							outputFloats[y * width + x] = 255;
-						} else {
-							if (byteImage)
-								outputFloats[y * width + x] =
-										(((byte[]) input.getStackPixelArray()[z])[y * width + x]) & 0xFF;
-							else {
-								outputFloats[y * width + x] = ((float[]) input.getStackPixelArray()[z])[y * width + x];
-							}
-						}
-					}
+	/**
+	 * @return Rank in a z, y, x scan of the stack of the first 0 point in region label
+	 */
+	private static long firstZeroPoint(ConnectedComponents components, Object[] inputPixels, int width, int height,
+			int label) {
+		int[] box = components.getBoundingBox(label);
+		for (int z = box[4]; z <= box[5]; z++) {
+			for (int y = box[2]; y <= box[3]; y++) {
+				for (int x = box[0]; x <= box[1]; x++) {
+					if (components.getLabel(x, y, z) == label
+							&& ConnectedComponents.getValue(inputPixels[z], y * width + x) == 0)
+						return (((long) z) * height + y) * width + x;
 				}
 			}
 		}
+		return Long.MAX_VALUE;
+	}
 
+	private static void setValue(Object slice, int index, float value) {
+		if (slice instanceof byte[])
+			((byte[]) slice)[index] = (byte) value;
+		else if (slice instanceof float[])
+			((float[]) slice)[index] = value;
 	}
 
 	@Override
@@ -16,53 +16,32 @@ import pipeline.data.PluginIOImage.PixelType;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.plugins.ThreeDPlugin;
 
+/**
+ * Fill holes independently within vertical strips of the image, one strip per processor; holes that straddle strips
+ * are not filled, since each strip edge is treated as background. Labeling of each strip is itself parallelized by
+ * {@link ConnectedComponents}.
+ */
 public class FillHolesMultithreadedOverenthusiastic extends ThreeDPlugin {
 
-	private volatile int returnValue = NO_ERROR; // TODO NOT THREADSAFE
-
 	@Override
 	public void runChannel(final IPluginIOStack input, final IPluginIOStack output, final ProgressReporter p,
 			final PreviewType previewType, final boolean inputHasChanged) throws InterruptedException {
 
-		nCpus = Runtime.getRuntime().availableProcessors();
-		if (input.getWidth() < nCpus)
-			nCpus = input.getWidth();
-
-		threads = new Thread[nCpus];
+		int nBlocks = Runtime.getRuntime().availableProcessors();
+		if (input.getWidth() < nBlocks)
+			nBlocks = input.getWidth();
 
 		final FillHoles plugin = new FillHoles();
-		final int blockWidth = input.getWidth() / nCpus;
+		final int blockWidth = input.getWidth() / nBlocks;
 
 		input.computePixelArray();
 		output.computePixelArray();
 
-		for (int ithread = 0; ithread < nCpus; ithread++) {
-			threads[ithread] = new Thread() {
-				@Override
-				public void run() {
-					int block = slice_registry.getAndIncrement();
-					int startX = block * blockWidth;
-					int stopX = (block == nCpus) ? input.getWidth() - 1 : startX + blockWidth;
-					int result;
-					try {
-						result =
-								plugin.runChannel(input, output, p, previewType, inputHasChanged, startX, stopX, 0,
-										input.getHeight() - 1);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						result = THREAD_INTERRUPTED;
-					}
-					if (result != NO_ERROR)
-						returnValue = result;
-				}
-			};
+		for (int block = 0; block < nBlocks; block++) {
+			int startX = block * blockWidth;
+			int stopX = (block == nBlocks - 1) ? input.getWidth() - 1 : startX + blockWidth;
+			plugin.runChannel(input, output, p, previewType, inputHasChanged, startX, stopX, 0, input.getHeight() - 1);
 		}
-
-		slice_registry.set(0);
-		startAndJoin(threads);
-
-		if (returnValue != NO_ERROR)
-			throw new RuntimeException();
 	}
 
 	@Override
@@ -75,6 +75,7 @@
 package pipeline.plugins.image_processing;
 
 import java.awt.event.ActionEvent;
+import java.util.Arrays;
 
 import pipeline.PreviewType;
 import pipeline.data.IPluginIOStack;
@@ -89,7 +90,6 @@ import pipeline.parameters.ParameterListener;
 import pipeline.parameters.SplitParameter;
 import pipeline.parameters.SplitParameterListener;
 import pipeline.plugins.ThreeDPlugin;
-import processing_utilities.curvature.math3d.JacobiFloat;
 
 public class FindBlobs extends ThreeDPlugin {
 	@Override
@@ -363,189 +363,16 @@ public class FindBlobs extends ThreeDPlugin {
 
 		Utils.log("blurrinxxg " + sigma, LogLevel.DEBUG);
 
-		final float sepX = 1, sepY = 1, sepZ = 1;
-		/*
-		 * if( useCalibration && (calibration!=null) ) {
-		 * sepX = (float)calibration.pixelWidth;
-		 * sepY = (float)calibration.pixelHeight;
-		 * sepZ = (float)calibration.pixelDepth;
-		 * }
-		 */
-		nCpus = Runtime.getRuntime().availableProcessors();
-		if (input.getDepth() < nCpus)
-			nCpus = input.getDepth();
-		threads = new Thread[nCpus];
-
-		input.computePixelArray();
 		output.computePixelArray();
-
-		progressSetValueThreadSafe(p, 0);
-		progressSetIndeterminateThreadSafe(p, false);
-
-		for (int z = 0; z < input.getDepth(); z++)
-			for (int y = 0; y < input.getHeight(); y++)
-				for (int x = 0; x < input.getWidth(); x++)
-					((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] = 0;
-
-		OneDKernel = createGaussianKernel1D(sigma, true);
-
-		for (int ithread = 0; ithread < nCpus; ithread++) {
-			threads[ithread] = new Thread("Directional blurring 1") {
-				@Override
-				public void run() {
-					for (int z = slice_registry.getAndIncrement(); z < input.getDepth() - 1; z =
-							slice_registry.getAndIncrement()) {
-						for (int y = 1; y < input.getHeight() - 1; y++) {
-							for (int x = 1; x < input.getWidth() - 1; x++) {
-								JacobiFloat jacobi =
-										new JacobiFloat(computeHessianMatrix3DFloat(input, x, y, z, sigma, sepX, sepY,
-												sepZ));
-								// float[][] eigenVectors=jacobi.getEigenVectors();
-								float[] eigenValues = jacobi.getEigenValues();
-
-								// int minIndex=Utils.indexOfMin(Utils.arrayAbs(eigenValues));
-								int minIndex = Utils.indexOfMin(eigenValues);
-								// int maxIndex=Utils.indexOfMax(Utils.arrayAbs(eigenValues));
-								// int maxIndex=Utils.indexOfMax(eigenValues);
-
-								/*
-								 * if (maxIndex==-1){
-								 * IJ.log("negative index");
-								 * maxIndex=Utils.indexOfMax(Utils.arrayAbs(eigenValues));
-								 * }
-								 */
-
-								// ((float[])
-								// output.pixelArray[z])[x+y*output.width]=Math.abs((eigenValues[maxIndex]/eigenValues[minIndex]));
-								((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] =
-										(eigenValues[minIndex]);
-								// (eigenValues[maxIndex])*(eigenValues[minIndex]/eigenValues[maxIndex])
-
-							}
-						}
-						progressSetValueThreadSafe(p, (int) (100f * z / input.getDepth()));
-					}
-				}
-			};
+		final Object[] outputSlices = output.getStackPixelArray();
+		for (Object slice : outputSlices) {
+			Arrays.fill((float[]) slice, 0);
 		}
 
-		slice_registry.set(1);
-		startAndJoin(threads);
-
-	}
-
-	// ------------------------------------------------------------------------
-
-	/*
-	 * There are four versions of the this function, for calculating
-	 * the eigenvalues of the Hessian matrix at a particular point in
-	 * the image. There are versions for 2D or 3D and using floats of
-	 * doubles.
-	 */
-
-	public static double[][] computeHessianMatrix3DDouble(IPluginIOStack img, int x, int y, int z, double sigma,
-			float sepX, float sepY, float sepZ) {
-
-		double[][] hessianMatrix = new double[3][3]; // zeile, spalte
-
-		double temp = 2 * img.getDouble(x, y, z);
-
-		// xx
-		hessianMatrix[0][0] = img.getDouble(x + 1, y, z) - temp + img.getDouble(x - 1, y, z);
-
-		// yy
-		hessianMatrix[1][1] = img.getDouble(x, y + 1, z) - temp + img.getDouble(x, y - 1, z);
-
-		// zz
-		hessianMatrix[2][2] = img.getDouble(x, y, z + 1) - temp + img.getDouble(x, y, z - 1);
-
-		// xy
-		hessianMatrix[0][1] =
-				hessianMatrix[1][0] =
-						((img.getDouble(x + 1, y + 1, z) - img.getDouble(x - 1, y + 1, z)) / 2 - (img.getDouble(x + 1,
-								y - 1, z) - img.getDouble(x - 1, y - 1, z)) / 2) / 2;
-
-		// xz
-		hessianMatrix[0][2] =
-				hessianMatrix[2][0] =
-						((img.getDouble(x + 1, y, z + 1) - img.getDouble(x - 1, y, z + 1)) / 2 - (img.getDouble(x + 1,
-								y, z - 1) - img.getDouble(x - 1, y, z - 1)) / 2) / 2;
-
-		// yz
-		hessianMatrix[1][2] =
-				hessianMatrix[2][1] =
-						((img.getDouble(x, y + 1, z + 1) - img.getDouble(x, y - 1, z + 1)) / 2 - (img.getDouble(x,
-								y + 1, z - 1) - img.getDouble(x, y - 1, z - 1)) / 2) / 2;
-
-		// FIXME: get Stephan to remind me why this is needed...
-		for (int i = 0; i < 3; i++)
-			for (int j = 0; j < 3; j++)
-				hessianMatrix[i][j] *= (sigma * sigma);
-
-		return hessianMatrix;
-	}
-
-	/**
-	 * This method computes the Hessian Matrix for the 3x3x3 environment of a certain voxel <br>
-	 * <br>
-	 *
-	 * The 3D Hessian Matrix:<br>
-	 * xx xy xz <br>
-	 * yx yy yz <br>
-	 * zx zy zz <br>
-	 *
-	 * @param img
-	 *            The image as PluginIOStack
-	 * @param x
-	 *            The x-position of the voxel
-	 * @param y
-	 *            The y-position of the voxel
-	 * @param z
-	 *            The z-position of the voxel
-	 * @return float[][] The 3D - Hessian Matrix
-	 *
-	 *         author Stephan Preibisch
-	 */
-	private static float[][] computeHessianMatrix3DFloat(IPluginIOStack img, int x, int y, int z, double sigma,
-			float sepX, float sepY, float sepZ) {
-
-		float[][] hessianMatrix = new float[3][3]; // zeile, spalte
-
-		float temp = 2 * img.getFloat(x, y, z);
-
-		// xx
-		hessianMatrix[0][0] = img.getFloat(x + 1, y, z) - temp + img.getFloat(x - 1, y, z);
-
-		// yy
-		hessianMatrix[1][1] = img.getFloat(x, y + 1, z) - temp + img.getFloat(x, y - 1, z);
-
-		// zz
-		hessianMatrix[2][2] = img.getFloat(x, y, z + 1) - temp + img.getFloat(x, y, z - 1);
-
-		// xy
-		hessianMatrix[0][1] =
-				hessianMatrix[1][0] =
-						((img.getFloat(x + 1, y + 1, z) - img.getFloat(x - 1, y + 1, z)) / 2 - (img.getFloat(x + 1,
-								y - 1, z) - img.getFloat(x - 1, y - 1, z)) / 2) / 2;
-
-		// xz
-		hessianMatrix[0][2] =
-				hessianMatrix[2][0] =
-						((img.getFloat(x + 1, y, z + 1) - img.getFloat(x - 1, y, z + 1)) / 2 - (img.getFloat(x + 1, y,
-								z - 1) - img.getFloat(x - 1, y, z - 1)) / 2) / 2;
-
-		// yz
-		hessianMatrix[1][2] =
-				hessianMatrix[2][1] =
-						((img.getFloat(x, y + 1, z + 1) - img.getFloat(x, y - 1, z + 1)) / 2 - (img.getFloat(x, y + 1,
-								z - 1) - img.getFloat(x, y - 1, z - 1)) / 2) / 2;
-
-		// FIXME: get Stephan to remind me why this is needed...
-		for (int i = 0; i < 3; i++)
-			for (int j = 0; j < 3; j++)
-				hessianMatrix[i][j] *= (sigma * sigma);
+		OneDKernel = createGaussianKernel1D(sigma, true);
 
-		return hessianMatrix;
+		Hessian3D.run(new IPluginIOStack[] { input }, new double[] { sigma * sigma },
+				() -> voxel -> ((float[]) outputSlices[voxel.z])[voxel.index] = voxel.eigenvalues[0][0], p);
 	}
 
 	/**
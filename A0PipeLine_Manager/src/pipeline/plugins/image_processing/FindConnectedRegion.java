@@ -20,7 +20,6 @@ import pipeline.PreviewType;
 import pipeline.data.IPluginIOStack;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOImage.PixelType;
-import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.plugins.ThreeDPlugin;
 
@@ -31,25 +30,13 @@ public class FindConnectedRegion extends ThreeDPlugin {
 	/* An inner class to make the results list sortable. */
 	private static final class Region implements Comparable<Object> {
 
-		Region(int value, String materialName, int points, boolean sameValue) {
-			byteImage = true;
-			this.value = value;
-			this.materialName = materialName;
+		Region(boolean byteImage, int points) {
+			this.byteImage = byteImage;
 			this.points = points;
-			this.sameValue = sameValue;
-		}
-
-		Region(int points, boolean sameValue) {
-			byteImage = false;
-			this.points = points;
-			this.sameValue = sameValue;
 		}
 
 		boolean byteImage;
 		int points;
-		String materialName;
-		int value;
-		boolean sameValue;
 
 		@Override
 		public int compareTo(Object otherRegion) {
@@ -59,25 +46,14 @@ public class FindConnectedRegion extends ThreeDPlugin {
 
 		@Override
 		public String toString() {
-			if (byteImage) {
-				String materialBit = "";
-				if (materialName != null) {
-					materialBit = " (" + materialName + ")";
-				}
-				return "Region of value " + value + materialBit + " containing " + points + " points";
-			} else {
-				return "Region containing " + points + " points";
-			}
+			return "Region containing " + points + " points";
 		}
 
 		public void addRow(ResultsTable rt) {
 			rt.incrementCounter();
 			if (byteImage) {
-				if (sameValue)
-					rt.addValue("Value in Region", value);
 				rt.addValue("Points In Region", points);
-				if (materialName != null)
-					rt.addLabel("Material Name", materialName);
+				rt.addLabel("Material Name", "");
 			} else {
 				rt.addValue("Points in Region", points);
 			}
@@ -85,27 +61,19 @@ public class FindConnectedRegion extends ThreeDPlugin {
 
 	}
 
-	private static final byte IN_QUEUE = 1;
-	private static final byte ADDED = 2;
-
 	@Override
 	public void runChannel(final IPluginIOStack input, final IPluginIOStack output, ProgressReporter p,
 			PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
 		// final boolean diagonal = true;
 		final boolean display = true;
 		final boolean showResults = true;
-		final boolean mustHaveSameValue = false;
 		boolean startFromPointROI = true;
 		boolean roiPresent = true;
 		// boolean autoSubtract = false;
 		double valuesOverDouble = 0.00000001;// gd.getNextNumber();
-		double minimumPointsInRegionDouble = 1d;// gd.getNextNumber();
-		int stopAfterNumberOfRegions = 1;// gd.getNextNumber();
 
 		boolean byteImage = input.getPixelType() == PixelType.BYTE_TYPE;
 
-		boolean startAtMaxValue = true;
-
 		int point_roi_x = -1;
 		int point_roi_y = -1;
 		int point_roi_z = -1;
@@ -150,322 +118,100 @@ public class FindConnectedRegion extends ThreeDPlugin {
 			}
 		}
 
-		if (!startFromPointROI)
-			stopAfterNumberOfRegions = Integer.MAX_VALUE;
-
-		int width = input.getWidth();
-		int height = input.getHeight();
+		final int width = input.getWidth();
+		final int height = input.getHeight();
 		int depth = input.getDepth();
 		input.computePixelArray();
 		output.computePixelArray();
 
-		if (((long) width) * height * depth > Integer.MAX_VALUE) {
-			throw new PluginRuntimeException("This stack is too large for this plugin (must have less than "
-					+ Integer.MAX_VALUE + " points.", true);
-		}
-
-		ArrayList<Region> results = new ArrayList<>();
-
-		// ImageStack stack = imagePlus.getStack();
-
-		byte[][] sliceDataBytes = null;
-		float[][] sliceDataFloats = null;
-
-		if (byteImage) {
-			sliceDataBytes = new byte[depth][];
-			for (int z = 0; z < depth; ++z) {
-				sliceDataBytes[z] = (byte[]) input.getPixelsCopy(z);
-			}
-		} else {
-			sliceDataFloats = new float[depth][];
-			for (int z = 0; z < depth; ++z) {
-				sliceDataFloats[z] = (float[]) input.getPixelsCopy(z);
-			}
-		}
+		final Object[] inputPixels = input.getStackPixelArray();
+		ConnectedComponents components =
+				new ConnectedComponents(inputPixels, width, height, 26, ConnectedComponents
+						.above((float) valuesOverDouble));
+		components.label(p);
+		int nComponents = components.getNComponents();
 
 		ResultsTable rt = ResultsTable.getResultsTable();
 		rt.reset();
 
-		boolean firstTime = true;
-		byte[] largestRegion = null;
-		int maxRegionPoints = 0;
-
-		while (true) {
-
-			if (Thread.interrupted())
-				throw new InterruptedException();
-
-			/*
-			 * Find one pixel that's above the minimum, or
-			 * find the maximum in the case where we're
-			 * not insisting that all regions are made up
-			 * of the same color. These are set in all
-			 * cases...
-			 */
-
-			int initial_x = -1;
-			int initial_y = -1;
-			int initial_z = -1;
-
-			int foundValueInt = -1;
-			float foundValueFloat = Float.MIN_VALUE;
-			int maxValueInt = -1;
-			float maxValueFloat = Float.MIN_VALUE;
-
-			if (firstTime && (startFromPointROI && roiPresent)) {
-
-				initial_x = point_roi_x;
-				initial_y = point_roi_y;
-				initial_z = point_roi_z;
-
-				if (byteImage)
-					foundValueInt = sliceDataBytes[initial_z][initial_y * width + initial_x] & 0xFF;
-				else
-					foundValueFloat = sliceDataFloats[initial_z][initial_y * width + initial_x];
-
-				IJ.log("found value " + foundValueFloat);
-
-			} else if (byteImage && startAtMaxValue) {
+		ArrayList<Region> results = new ArrayList<>();
+		boolean[] inRegion = new boolean[nComponents + 1];
+		int extraPoint = -1;
 
+		if (startFromPointROI) {
+			// Region grown from the point selected by the user or, if there is no usable selection, from the first
+			// point with the highest value
+			int seedX = point_roi_x, seedY = point_roi_y, seedZ = point_roi_z;
+			if (!roiPresent) {
+				float maxValue = Float.NEGATIVE_INFINITY;
 				for (int z = 0; z < depth; ++z) {
-					for (int y = 0; y < height; ++y) {
-						for (int x = 0; x < width; ++x) {
-							int value = sliceDataBytes[z][y * width + x] & 0xFF;
-							if (value > maxValueInt) {
-								initial_x = x;
-								initial_y = y;
-								initial_z = z;
-								maxValueInt = value;
-							}
-						}
-					}
-				}
-
-				foundValueInt = maxValueInt;
-
-				/*
-				 * If the maximum value is below the
-				 * level we care about, we're done.
-				 */
-
-				if (foundValueInt < valuesOverDouble) {
-					break;
-				}
-
-			} else if (byteImage && !startAtMaxValue) {
-
-				// Just finding some point in the a region...
-				for (int z = 0; z < depth && foundValueInt == -1; ++z) {
-					for (int y = 0; y < height && foundValueInt == -1; ++y) {
-						for (int x = 0; x < width; ++x) {
-							float value;
-							if (byteImage)
-								value = sliceDataBytes[z][y * width + x] & 0xFF;
-							else
-								value = sliceDataFloats[z][y * width + x];
-							if (value > valuesOverDouble) {
-								initial_x = x;
-								initial_y = y;
-								initial_z = z;
-								foundValueInt = (int) value;
-								break;
-							}
+					Object slice = inputPixels[z];
+					for (int index = 0; index < width * height; index++) {
+						float value = ConnectedComponents.getValue(slice, index);
+						if (value > maxValue) {
+							maxValue = value;
+							seedX = index % width;
+							seedY = index / width;
+							seedZ = z;
 						}
 					}
 				}
-
-				if (foundValueInt == -1) {
-					break;
-				}
-
+				if (!(maxValue > valuesOverDouble))
+					seedX = -1;
 			} else {
-
-				// This must be a 32 bit image and we're starting at the maximum
-				assert (!byteImage && startAtMaxValue);
-
-				for (int z = 0; z < depth; ++z) {
-					for (int y = 0; y < height; ++y) {
-						for (int x = 0; x < width; ++x) {
-							float value = sliceDataFloats[z][y * width + x];
-							if (value > valuesOverDouble) {
-								if (value > maxValueFloat) {
-									initial_x = x;
-									initial_y = y;
-									initial_z = z;
-									maxValueFloat = value;
-								}
-							}
-						}
-					}
-				}
-
-				foundValueFloat = maxValueFloat;
-
-				if (foundValueFloat == Float.MIN_VALUE) {
-					break;
-
-					// If the maximum value is below the level we
-					// care about, we're done.
-				}
-				if (foundValueFloat < valuesOverDouble) {
-					break;
-				}
-
+				IJ.log("found value " + input.getPixelValue(seedX, seedY, seedZ));
 			}
 
-			firstTime = false;
-
-			int vint = foundValueInt;
-
-			int pointsInQueue = 0;
-			int queueArrayLength = 1024;
-			int[] queue = new int[queueArrayLength];
-
-			byte[] pointState = new byte[depth * width * height];
-			int i = width * (initial_z * height + initial_y) + initial_x;
-			pointState[i] = IN_QUEUE;
-			queue[pointsInQueue++] = i;
-
-			int pointsInThisRegion = 0;
-
-			while (pointsInQueue > 0) {
-
-				if (Thread.interrupted())
-					throw new InterruptedException();
-
-				int nextIndex = queue[--pointsInQueue];
-
-				int currentPointStateIndex = nextIndex;
-				int pz = nextIndex / (width * height);
-				int currentSliceIndex = nextIndex % (width * height);
-				int py = currentSliceIndex / width;
-				int px = currentSliceIndex % width;
-
-				pointState[currentPointStateIndex] = ADDED;
-
-				if (byteImage) {
-					sliceDataBytes[pz][currentSliceIndex] = 0;
+			if (seedX > -1) {
+				int points = 0;
+				int seedLabel = components.getLabel(seedX, seedY, seedZ);
+				if (seedLabel > 0) {
+					inRegion[seedLabel] = true;
+					points = components.getSize(seedLabel);
 				} else {
-					sliceDataFloats[pz][currentSliceIndex] = Float.MIN_VALUE;
-				}
-				++pointsInThisRegion;
-
-				int x_unchecked_min = px - 1;
-				int y_unchecked_min = py - 1;
-				int z_unchecked_min = pz - 1;
-
-				int x_unchecked_max = px + 1;
-				int y_unchecked_max = py + 1;
-				int z_unchecked_max = pz + 1;
-
-				int x_min = (x_unchecked_min < 0) ? 0 : x_unchecked_min;
-				int y_min = (y_unchecked_min < 0) ? 0 : y_unchecked_min;
-				int z_min = (z_unchecked_min < 0) ? 0 : z_unchecked_min;
-
-				int x_max = (x_unchecked_max >= width) ? width - 1 : x_unchecked_max;
-				int y_max = (y_unchecked_max >= height) ? height - 1 : y_unchecked_max;
-				int z_max = (z_unchecked_max >= depth) ? depth - 1 : z_unchecked_max;
-
-				for (int z = z_min; z <= z_max; ++z) {
-					for (int y = y_min; y <= y_max; ++y) {
-						for (int x = x_min; x <= x_max; ++x) {
-
-							// If we're not including diagonals,
-							// skip those points.
-							// if ((!diagonal) && (x == x_unchecked_min || x == x_unchecked_max) && (y ==
-							// y_unchecked_min || y == y_unchecked_max) && (z == z_unchecked_min || z ==
-							// z_unchecked_max)) {
-							// continue;
-							// }
-							int newSliceIndex = y * width + x;
-							int newPointStateIndex = width * (z * height + y) + x;
-
-							if (byteImage) {
-
-								int neighbourValue = sliceDataBytes[z][newSliceIndex] & 0xFF;
-
-								if (mustHaveSameValue) {
-									if (neighbourValue != vint) {
-										continue;
-									}
-								} else {
-									if (neighbourValue <= valuesOverDouble) {
-										continue;
-									}
-								}
-							} else {
-
-								float neighbourValue = sliceDataFloats[z][newSliceIndex];
-
-								if (neighbourValue <= valuesOverDouble) {
-									continue;
-								}
-							}
-
-							if (0 == pointState[newPointStateIndex]) {
-								pointState[newPointStateIndex] = IN_QUEUE;
-								if (pointsInQueue == queueArrayLength) {
-									int newArrayLength = (int) (queueArrayLength * 1.2);
-									int[] newArray = new int[newArrayLength];
-									System.arraycopy(queue, 0, newArray, 0, pointsInQueue);
-									queue = newArray;
-									queueArrayLength = newArrayLength;
+					// The seed itself is included, along with the regions it touches
+					extraPoint = width * (seedZ * height + seedY) + seedX;
+					points = 1;
+					for (int z = Math.max(0, seedZ - 1); z <= Math.min(depth - 1, seedZ + 1); z++) {
+						for (int y = Math.max(0, seedY - 1); y <= Math.min(height - 1, seedY + 1); y++) {
+							for (int x = Math.max(0, seedX - 1); x <= Math.min(width - 1, seedX + 1); x++) {
+								int label = components.getLabel(x, y, z);
+								if (label > 0 && !inRegion[label]) {
+									inRegion[label] = true;
+									points += components.getSize(label);
 								}
-								queue[pointsInQueue++] = newPointStateIndex;
 							}
 						}
 					}
 				}
+				results.add(new Region(byteImage, points));
+				if (display)
+					copyRegionToOutputWithOriginalImageValues(input, output, components, inRegion, extraPoint);
 			}
-
-			if (Thread.interrupted())
-				throw new InterruptedException();
-
-			// So now pointState should have no IN_QUEUE
-			// status points...
-			Region region;
-			if (byteImage) {
-				region = new Region(vint, "", pointsInThisRegion, mustHaveSameValue);
-			} else {
-				region = new Region(pointsInThisRegion, mustHaveSameValue);
-			}
-			if (pointsInThisRegion < minimumPointsInRegionDouble) {
-				// System.out.println("Too few points - only " + pointsInThisRegion);
-				continue;
-			}
-
-			results.add(region);
-
-			/*
-			 * byte replacementValue;
-			 * if (byteImage) {
-			 * replacementValue = (byte) ( (cm == null) ? 255 : vint );
-			 * } else {
-			 * replacementValue = (byte) 255;
-			 * }
-			 */
-
-			if (!startFromPointROI) { // if we're not starting from a ROI, assume we want to output the largest
-										// connected region
-				// check if this region has more points that the previous largest region
-				// if it does, save its points so we can output them later
-				if (pointsInThisRegion > maxRegionPoints) {
-					largestRegion = pointState;
-					maxRegionPoints = pointsInThisRegion;
+		} else {
+			// Output the largest connected region. Regions used to be found one after the other starting from the
+			// first point with the highest value among remaining points, and the first one found wins ties.
+			int largestRegion = -1;
+			for (int label = 1; label <= nComponents; label++) {
+				int size = components.getSize(label);
+				results.add(new Region(byteImage, size));
+				if (largestRegion < 0 || size > components.getSize(largestRegion))
+					largestRegion = label;
+				else if (size == components.getSize(largestRegion)) {
+					long rank = getFirstMaximumRank(components, inputPixels, width, height, label);
+					long largestRank = getFirstMaximumRank(components, inputPixels, width, height, largestRegion);
+					float max = getValue(inputPixels, width, height, rank);
+					float largestMax = getValue(inputPixels, width, height, largestRank);
+					if (max > largestMax || (max == largestMax && rank < largestRank))
+						largestRegion = label;
 				}
-			} else if (display) {
-				// ImageStack newStack = new ImageStack(width, height);
-				copyRegionToOutputWithOriginalImageValues(input, output, pointState, byteImage);
 			}
-
-			if ((stopAfterNumberOfRegions > 0) && (results.size() >= stopAfterNumberOfRegions)) {
-				break;
+			if (largestRegion > 0) {
+				inRegion[largestRegion] = true;
+				copyRegionToOutputWithOriginalImageValues(input, output, components, inRegion, extraPoint);
 			}
 		}
 
-		if ((!startFromPointROI) && (largestRegion != null))
-			copyRegionToOutputWithOriginalImageValues(input, output, largestRegion, byteImage);
-
 		Collections.sort(results, Collections.reverseOrder());
 
 		if (showResults) {
@@ -476,65 +222,73 @@ public class FindConnectedRegion extends ThreeDPlugin {
 		}
 	}
 
-	static void copyRegionToOutputWithOriginalImageValues(IPluginIOStack input, IPluginIOStack output,
-			byte[] pointState, boolean byteImage) {
-		int width = input.getWidth();
-		int height = input.getHeight();
-		int depth = input.getDepth();
-
-		if (output.getPixelType() == PixelType.BYTE_TYPE) {
-			for (int z = 0; z < depth; ++z) {
-				byte[] outputBytes = (byte[]) output.getStackPixelArray()[z];
-
-				for (int y = 0; y < height; ++y) {
-					for (int x = 0; x < width; ++x) {
-
-						byte status = pointState[width * (z * height + y) + x];
-
-						if (status == IN_QUEUE) {
-							IJ.log("BUG: point " + x + "," + y + "," + z + " is still marked as IN_QUEUE");
-						}
-
-						if (status == ADDED) {
-							if (byteImage)
-								outputBytes[y * width + x] = ((byte[]) input.getStackPixelArray()[z])[y * width + x];// was
-																														// replacementValue
-							else {
-								outputBytes[y * width + x] =
-										(byte) ((float[]) input.getStackPixelArray()[z])[y * width + x];
-								// IJ.log(""+sliceDataFloats[z][y*width + x]);
-							}
-						} else
-							outputBytes[y * width + x] = 0;
+	/**
+	 * @return Rank in a z, y, x scan of the stack of the first point of region label that has the highest value in
+	 *         that region
+	 */
+	private static long getFirstMaximumRank(ConnectedComponents components, Object[] inputPixels, int width,
+			int height, int label) {
+		int[] box = components.getBoundingBox(label);
+		float max = Float.NEGATIVE_INFINITY;
+		long result = -1;
+		for (int z = box[4]; z <= box[5]; z++) {
+			for (int y = box[2]; y <= box[3]; y++) {
+				for (int x = box[0]; x <= box[1]; x++) {
+					float value = ConnectedComponents.getValue(inputPixels[z], y * width + x);
+					if (value > max && components.getLabel(x, y, z) == label) {
+						max = value;
+						result = (((long) z) * height + y) * width + x;
 					}
 				}
 			}
-		} else if (output.getPixelType() == PixelType.FLOAT_TYPE) {
-			for (int z = 0; z < depth; ++z) {
-				float[] outputFloats = (float[]) output.getStackPixelArray()[z];
-
-				for (int y = 0; y < height; ++y) {
-					for (int x = 0; x < width; ++x) {
+		}
+		return result;
+	}
 
-						byte status = pointState[width * (z * height + y) + x];
+	private static float getValue(Object[] inputPixels, int width, int height, long rank) {
+		int sliceSize = width * height;
+		return ConnectedComponents.getValue(inputPixels[(int) (rank / sliceSize)], (int) (rank % sliceSize));
+	}
 
-						if (status == IN_QUEUE) {
-							IJ.log("BUG: point " + x + "," + y + "," + z + " is still marked as IN_QUEUE");
-						}
+	/**
+	 * Copy values of points that belong to the selected regions, and set all other points to 0.
+	 * 
+	 * @param inRegion
+	 *            Indexed by component label
+	 * @param extraPoint
+	 *            Index in the stack of a point to copy even though it is not part of a region, or -1
+	 */
+	static void copyRegionToOutputWithOriginalImageValues(IPluginIOStack input, IPluginIOStack output,
+			ConnectedComponents components, boolean[] inRegion, int extraPoint) {
+		int width = input.getWidth();
+		int height = input.getHeight();
+		int depth = input.getDepth();
+		int[] labels = components.getLabels();
+		boolean byteImage = input.getPixelType() == PixelType.BYTE_TYPE;
 
-						if (status == ADDED) {
-							if (byteImage)
-								outputFloats[y * width + x] = ((byte[]) input.getStackPixelArray()[z])[y * width + x];// was
-																														// replacementValue
-							else
-								outputFloats[y * width + x] = ((float[]) input.getStackPixelArray()[z])[y * width + x];
-						} else
-							outputFloats[y * width + x] = 0;
-					}
+		for (int z = 0; z < depth; ++z) {
+			Object inputSlice = input.getStackPixelArray()[z];
+			Object outputSlice = output.getStackPixelArray()[z];
+			for (int index = 0; index < width * height; index++) {
+				int stackIndex = z * width * height + index;
+				boolean copy = inRegion[labels[stackIndex]] || stackIndex == extraPoint;
+				if (output.getPixelType() == PixelType.BYTE_TYPE) {
+					if (!copy)
+						((byte[]) outputSlice)[index] = 0;
+					else if (byteImage)
+						((byte[]) outputSlice)[index] = ((byte[]) inputSlice)[index];
+					else
+						((byte[]) outputSlice)[index] = (byte) ((float[]) inputSlice)[index];
+				} else if (output.getPixelType() == PixelType.FLOAT_TYPE) {
+					if (!copy)
+						((float[]) outputSlice)[index] = 0;
+					else if (byteImage)
+						((float[]) outputSlice)[index] = ((byte[]) inputSlice)[index];
+					else
+						((float[]) outputSlice)[index] = ((float[]) inputSlice)[index];
 				}
 			}
 		}
-
 	}
 
 	@Override
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing;
+
+import java.io.IOException;
+
+import pipeline.GUI_utils.ProgressSubrange;
+import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
+import pipeline.data.PluginIOImage.PixelType;
+import pipeline.data.PluginIOStack;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Hessian matrix and its eigenvalues at every voxel of a float stack that is not on the border of the stack,
+ * computed with central finite differences. Slices of file-backed stacks are processed in contiguous blocks, each
+ * thread going through its block with a ring of 3 slices (the slice being processed and its 2 neighbours), so that
+ * each slice is read from file about once; slices of in-memory stacks are read directly from their pixel arrays, and
+ * are processed one by one so that all threads get work even for shallow stacks. Nothing is allocated per voxel:
+ * results are passed to the {@link VoxelVisitor} of each thread in a {@link Voxel} that is reused from voxel to
+ * voxel.
+ *
+ * Several scales can be processed in a single pass: each scale is given as its own stack (e.g. the input smoothed
+ * with Gaussians of increasing sigma, see {@link #gaussianScaleSpace}) and with a factor by which its Hessian is
+ * multiplied, and visitors get the results for all scales at each voxel.
+ *
+ */
+public class Hessian3D {
+
+	/**
+	 * Number of slices of file-backed stacks processed by a thread in one go; each block reads 2 slices more than it
+	 * processes.
+	 */
+	private static final int SLICES_PER_BLOCK = 16;
+
+	/**
+	 * Results at one voxel, for each scale.
+	 */
+	public static final class Voxel {
+		public int x, y, z;
+		/**
+		 * Index of the voxel in the pixel array of its slice
+		 */
+		public int index;
+		/**
+		 * xx, yy, zz, xy, xz and yz second derivatives, for each scale
+		 */
+		public final float[][] hessian;
+		/**
+		 * Eigenvalues in increasing order, for each scale
+		 */
+		public final float[][] eigenvalues;
+
+		private Voxel(int nScales) {
+			hessian = new float[nScales][6];
+			eigenvalues = new float[nScales][3];
+		}
+
+		/**
+		 * Stores into result a unit eigenvector of the Hessian at given scale, for its eigenvalue of given index.
+		 */
+		public void getEigenvector(int scale, int eigenvalueIndex, float[] result) {
+			float[] h = hessian[scale];
+			eigenvector(h[0], h[1], h[2], h[3], h[4], h[5], eigenvalues[scale][eigenvalueIndex], result);
+		}
+	}
+
+	@FunctionalInterface
+	public interface VoxelVisitor {
+		/**
+		 * @param voxel
+		 *            Only valid for the duration of the call
+		 */
+		void visit(Voxel voxel);
+	}
+
+	@FunctionalInterface
+	public interface VisitorFactory {
+		VoxelVisitor newVisitor() throws InterruptedException;
+	}
+
+	/**
+	 * Calls a visitor for each voxel not on the border of the stacks (voxels on the border are not visited).
+	 *
+	 * @param scales
+	 *            Float stacks, all of the same dimensions
+	 * @param factors
+	 *            Factor by which the Hessian of each scale is multiplied
+	 * @param visitorFactory
+	 *            Called once per thread; each visitor is only called from one thread
+	 * @param progress
+	 *            Can be null
+	 * @throws InterruptedException
+	 */
+	public static void run(final IPluginIOStack[] scales, final double[] factors,
+			final VisitorFactory visitorFactory, ProgressReporter progress) throws InterruptedException {
+		final int nScales = scales.length;
+		if (factors.length != nScales)
+			throw new IllegalArgumentException("Expected " + nScales + " factors but got " + factors.length);
+		final int width = scales[0].getWidth();
+		final int height = scales[0].getHeight();
+		final int depth = scales[0].getDepth();
+		final Object[][] inMemorySlices = new Object[nScales][];
+		boolean allInMemory = true;
+		for (int s = 0; s < nScales; s++) {
+			if (scales[s].getWidth() != width || scales[s].getHeight() != height || scales[s].getDepth() != depth)
+				throw new IllegalArgumentException("Dimension mismatch between " + scales[0].getName() + " and "
+						+ scales[s].getName());
+			if (!(scales[s] instanceof ImageAccessor)) {
+				scales[s].computePixelArray();
+				inMemorySlices[s] = scales[s].getStackPixelArray();
+			} else
+				allInMemory = false;
+		}
+		if (depth < 3 || height < 3 || width < 3)
+			return;
+
+		// There is nothing to be saved by reading neighbouring slices in the same thread if they are all in memory
+		final int slicesPerBlock = allInMemory ? 1 : SLICES_PER_BLOCK;
+		final int nBlocks = (depth - 2 + slicesPerBlock - 1) / slicesPerBlock;
+		ParFor parFor = new ParFor("Hessian", 0, nBlocks - 1, progress, true);
+		final VoxelVisitor[] visitors = new VoxelVisitor[parFor.getNThreads()];
+		final Voxel[] voxels = new Voxel[parFor.getNThreads()];
+		for (int t = 0; t < parFor.getNThreads(); t++)
+			parFor.addLoopWorker((block, threadIndex) -> {
+				if (visitors[threadIndex] == null) {
+					visitors[threadIndex] = visitorFactory.newVisitor();
+					voxels[threadIndex] = new Voxel(nScales);
+				}
+				final VoxelVisitor visitor = visitors[threadIndex];
+				final Voxel voxel = voxels[threadIndex];
+				final int zStart = 1 + block * slicesPerBlock;
+				final int zEnd = Math.min(depth - 1, zStart + slicesPerBlock);
+
+				// ring[s][(z + 1) % 3] is slice z of scale s
+				final float[][][] ring = new float[nScales][3][];
+				for (int s = 0; s < nScales; s++) {
+					ring[s][zStart % 3] = readSlice(scales[s], inMemorySlices[s], zStart - 1);
+					ring[s][(zStart + 1) % 3] = readSlice(scales[s], inMemorySlices[s], zStart);
+				}
+				final float[][] previous = new float[nScales][], current = new float[nScales][], next =
+						new float[nScales][];
+				for (int z = zStart; z < zEnd; z++) {
+					for (int s = 0; s < nScales; s++) {
+						ring[s][(z + 2) % 3] = readSlice(scales[s], inMemorySlices[s], z + 1);
+						previous[s] = ring[s][z % 3];
+						current[s] = ring[s][(z + 1) % 3];
+						next[s] = ring[s][(z + 2) % 3];
+					}
+					voxel.z = z;
+					for (int y = 1; y < height - 1; y++) {
+						voxel.y = y;
+						for (int x = 1; x < width - 1; x++) {
+							final int i = x + y * width;
+							voxel.x = x;
+							voxel.index = i;
+							for (int s = 0; s < nScales; s++) {
+								final float[] p = previous[s], c = current[s], n = next[s];
+								final float[] h = voxel.hessian[s];
+								final double factor = factors[s];
+								final float temp = 2 * c[i];
+								h[0] = (float) ((c[i + 1] - temp + c[i - 1]) * factor);
+								h[1] = (float) ((c[i + width] - temp + c[i - width]) * factor);
+								h[2] = (float) ((n[i] - temp + p[i]) * factor);
+								h[3] =
+										(float) ((((c[i + width + 1] - c[i + width - 1]) / 2 - (c[i - width + 1] - c[i
+												- width - 1]) / 2) / 2) * factor);
+								h[4] = (float) ((((n[i + 1] - n[i - 1]) / 2 - (p[i + 1] - p[i - 1]) / 2) / 2) * factor);
+								h[5] =
+										(float) ((((n[i + width] - n[i - width]) / 2 - (p[i + width] - p[i - width]) / 2) / 2) * factor);
+								eigenvalues(h[0], h[1], h[2], h[3], h[4], h[5], voxel.eigenvalues[s]);
+							}
+							visitor.visit(voxel);
+						}
+					}
+				}
+				return null;
+			});
+		parFor.run(true);
+	}
+
+	private static float[] readSlice(IPluginIOStack stack, Object[] inMemorySlices, int z) {
+		if (inMemorySlices != null)
+			return (float[]) inMemorySlices[z];
+		try {
+			return (float[]) ((ImageAccessor) stack).getPixelZSliceCopy(z, ImageAccessor.DONT_CACHE_PIXELS);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Eigenvalues of a symmetric 3x3 matrix, computed in closed form from the roots of its characteristic polynomial
+	 * (Smith, Commun ACM 4:168, 1961).
+	 *
+	 * @param result
+	 *            Filled with the eigenvalues in increasing order
+	 */
+	public static void eigenvalues(double xx, double yy, double zz, double xy, double xz, double yz, float[] result) {
+		double offDiagonal = xy * xy + xz * xz + yz * yz;
+		if (offDiagonal == 0) {
+			double min = Math.min(xx, Math.min(yy, zz));
+			double max = Math.max(xx, Math.max(yy, zz));
+			result[0] = (float) min;
+			result[1] = (float) (xx + yy + zz - min - max);
+			result[2] = (float) max;
+			return;
+		}
+		double q = (xx + yy + zz) / 3;
+		double dxx = xx - q, dyy = yy - q, dzz = zz - q;
+		double p = Math.sqrt((dxx * dxx + dyy * dyy + dzz * dzz + 2 * offDiagonal) / 6);
+		double det = dxx * (dyy * dzz - yz * yz) - xy * (xy * dzz - yz * xz) + xz * (xy * yz - dyy * xz);
+		double r = det / (2 * p * p * p);
+		double phi = r <= -1 ? Math.PI / 3 : (r >= 1 ? 0 : Math.acos(r) / 3);
+		double largest = q + 2 * p * Math.cos(phi);
+		double smallest = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+		result[0] = (float) smallest;
+		result[1] = (float) (3 * q - largest - smallest);
+		result[2] = (float) largest;
+	}
+
+	/**
+	 * Unit eigenvector of a symmetric 3x3 matrix for a given eigenvalue: cross product of the two rows of the matrix
+	 * minus eigenvalue times identity that are the least collinear.
+	 */
+	public static void eigenvector(double xx, double yy, double zz, double xy, double xz, double yz,
+			double eigenvalue, float[] result) {
+		double a = xx - eigenvalue, b = yy - eigenvalue, c = zz - eigenvalue;
+		// Rows are (a, xy, xz), (xy, b, yz), (xz, yz, c)
+		double x01 = xy * yz - xz * b, y01 = xz * xy - a * yz, z01 = a * b - xy * xy;
+		double x02 = xy * c - xz * yz, y02 = xz * xz - a * c, z02 = a * yz - xy * xz;
+		double x12 = b * c - yz * yz, y12 = yz * xz - xy * c, z12 = xy * yz - b * xz;
+		double n01 = x01 * x01 + y01 * y01 + z01 * z01;
+		double n02 = x02 * x02 + y02 * y02 + z02 * z02;
+		double n12 = x12 * x12 + y12 * y12 + z12 * z12;
+		double vx, vy, vz, norm;
+		if (n01 >= n02 && n01 >= n12) {
+			vx = x01;
+			vy = y01;
+			vz = z01;
+			norm = n01;
+		} else if (n02 >= n12) {
+			vx = x02;
+			vy = y02;
+			vz = z02;
+			norm = n02;
+		} else {
+			vx = x12;
+			vy = y12;
+			vz = z12;
+			norm = n12;
+		}
+		if (norm == 0) {
+			// Repeated eigenvalue: any vector orthogonal to the non-zero rows will do
+			double rx = a, ry = xy, rz = xz;
+			if (b * b + xy * xy + yz * yz > rx * rx + ry * ry + rz * rz) {
+				rx = xy;
+				ry = b;
+				rz = yz;
+			}
+			if (c * c + xz * xz + yz * yz > rx * rx + ry * ry + rz * rz) {
+				rx = xz;
+				ry = yz;
+				rz = c;
+			}
+			if (rx == 0 && ry == 0 && rz == 0) {
+				vx = 1;
+				vy = 0;
+				vz = 0;
+			} else if (Math.abs(rx) <= Math.abs(ry) && Math.abs(rx) <= Math.abs(rz)) {
+				// Cross product with x axis
+				vx = 0;
+				vy = rz;
+				vz = -ry;
+			} else if (Math.abs(ry) <= Math.abs(rz)) {
+				vx = -rz;
+				vy = 0;
+				vz = rx;
+			} else {
+				vx = ry;
+				vy = -rx;
+				vz = 0;
+			}
+			norm = vx * vx + vy * vy + vz * vz;
+		}
+		norm = Math.sqrt(norm);
+		result[0] = (float) (vx / norm);
+		result[1] = (float) (vy / norm);
+		result[2] = (float) (vz / norm);
+	}
+
+	/**
+	 * @param input
+	 *            Float stack
+	 * @param sigmas
+	 *            In pixels
+	 * @param progress
+	 *            Can be null
+	 * @return Copies of input smoothed by a Gaussian of each sigma (pixels outside the stack taking the value of the
+	 *         closest edge pixel)
+	 * @throws InterruptedException
+	 */
+	public static IPluginIOStack[] gaussianScaleSpace(IPluginIOStack input, float[] sigmas, ProgressReporter progress)
+			throws InterruptedException {
+		IPluginIOStack[] result = new IPluginIOStack[sigmas.length];
+		ProgressSubrange progressSubrange = new ProgressSubrange(progress, sigmas.length);
+		for (int i = 0; i < sigmas.length; i++) {
+			result[i] =
+					new PluginIOStack("Scale " + sigmas[i], input.getWidth(), input.getHeight(), input.getDepth(), 1,
+							PixelType.FLOAT_TYPE);
+			SeparableBlur.LineFilter filter = SeparableBlur.gaussian(sigmas[i], SeparableBlur.Boundary.REPLICATE);
+			SeparableBlur.filter3D(input, result[i], filter, filter, filter, progressSubrange);
+			progressSubrange.nextStep();
+		}
+		return result;
+	}
+}
@@ -22,14 +22,12 @@ import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.IntrospectionParameters.ParameterType;
 import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
-import pipeline.misc_util.parfor.ParFor;
 import pipeline.plugins.AuxiliaryInputOutputPlugin;
-import pipeline.plugins.BasePipelinePlugin;
 import pipeline.plugins.ThreeDPlugin;
 
 /**
- * For now does a multiplication in a clunky way, but extend to other types later (and need to deal with proper pairing
- * of inputs and channel selection).
+ * Multiplies, divides, or adds with a weight the input and a second image, in a single pass with an
+ * {@link ElementwiseKernel} (need to deal with proper pairing of inputs and channel selection).
  */
 
 public class ImageMath extends ThreeDPlugin implements AuxiliaryInputOutputPlugin {
@@ -96,49 +94,26 @@ public class ImageMath extends ThreeDPlugin implements AuxiliaryInputOutputPlugi
 			throw new RuntimeException("Dimension mismatch");
 		}
 		
-		progressSetIndeterminateThreadSafe(p, true);
-		progressSetValueThreadSafe(p, 0);
-
-		input.computePixelArray();
-		auxStack.computePixelArray();
-		output.computePixelArray();
-		
-		final Object[] inputSlices = input.getStackPixelArray();
-		final Object[] outputSlices = output.getStackPixelArray();
-		final Object[] auxSlices = auxStack.getStackPixelArray();
-
-		final int depth = input.getDepth();
-
-		ParFor pf = new ParFor(0, depth - 1, null, BasePipelinePlugin.threadPool, true);
-		pf.addLoopWorker((z, workerIndex) -> {
-
-			float[] inputArray = (float[]) inputSlices[z];
-			float[] outputArray = (float[]) outputSlices[z];
-			float[] auxArray = (float[]) auxSlices[z];
-			
-			if (checkName && !auxStack.getName().equals(input.getName())) {
-				throw new RuntimeException();
-			}
-
-			for (int i = 0; i < inputArray.length; i++) {
-				switch (operation) {
-					case "Multiplication":
-						outputArray[i] = inputArray[i] * auxArray[i];
-						break;
-					case "Weighted addition":
-						outputArray[i] = inputArray[i] + auxArray[i] * weight + offset;
-						break;
-					case "Division":
-						outputArray[i] = inputArray[i] / auxArray[i];
-						break;
-					default:
-						throw new IllegalStateException("Unknown opearation " + operation);
-				}
-			}
-			return null;
-			});
-		pf.run(true);
+		if (checkName && !auxStack.getName().equals(input.getName())) {
+			throw new RuntimeException("Channel name mismatch between " + input.getName() + " and "
+					+ auxStack.getName());
+		}
 
+		ElementwiseKernel.Builder kernel = ElementwiseKernel.builder(2);
+		switch (operation) {
+			case "Multiplication":
+				kernel.multiplyByInput(1);
+				break;
+			case "Weighted addition":
+				kernel.addInput(1, weight).add(offset);
+				break;
+			case "Division":
+				kernel.divideByInput(1);
+				break;
+			default:
+				throw new IllegalStateException("Unknown opearation " + operation);
+		}
+		kernel.build().run(new IPluginIOStack[] { input, auxStack }, output, p);
 	}
 
 	@Override
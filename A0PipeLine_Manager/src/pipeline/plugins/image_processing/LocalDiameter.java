@@ -11,19 +11,28 @@ package pipeline.plugins.image_processing;
 import java.util.HashMap;
 import java.util.Map;
 
+import ij.measure.Calibration;
 import pipeline.PreviewType;
+import pipeline.GUI_utils.ProgressSubrange;
 import pipeline.data.IPluginIOStack;
 import pipeline.data.InputOutputDescription;
-import pipeline.data.PixelIterator;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.misc_util.ProgressReporter;
-import pipeline.misc_util.Utils;
+import pipeline.misc_util.parfor.ParFor;
 import pipeline.parameters.AbstractParameter;
 import pipeline.parameters.IntParameter;
 import pipeline.plugins.ThreeDPlugin;
 
 /**
- * Fit balls in non-0 pixel region, and output diameter of largest ball that will fit in non-0 pixels.
+ * Fit balls in non-0 pixel region, and output diameter of largest ball that will fit in non-0 pixels. Specifically,
+ * each non-0 pixel is assigned the smallest integer radius (at least 1, and at most the maximum set by the user) of a
+ * ball centered on it that reaches a 0 pixel, taking into account z calibration; 0 pixels are assigned 0. Radii are
+ * derived from an exact Euclidean distance transform (see {@link EuclideanDistanceTransform}).
+ * 
+ * For compatibility with results produced by earlier versions, which grew balls with
+ * {@link pipeline.data.PluginIOStack#getBallIterator}, balls also stop growing on the high-index side of the stack:
+ * a pixel closer to the last x (resp. y, z) index than to the first is assigned at most 1 + its distance, in pixels,
+ * to that last index. In particular, pixels of the last slice of a stack with more than 1 slice are assigned at most 1.
  */
 
 public class LocalDiameter extends ThreeDPlugin {
@@ -56,88 +65,71 @@ public class LocalDiameter extends ThreeDPlugin {
 		return SAME_AS_FLOAT + ONLY_FLOAT_INPUT + ONE_OUTPUT_CHANNEL_PER_INPUT_CHANNEL;
 	}
 
-	private boolean cancelled;
-
 	@Override
 	public void runChannel(final IPluginIOStack input, final IPluginIOStack output, final ProgressReporter progress,
 			PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
 
 		final int maxRadius = diamParameter.getintValue();
-		cancelled = false;
-
-		progressSetIndeterminateThreadSafe(progress, true);
-		progressSetValueThreadSafe(progress, 0);
-		indeterminateProgress = true;
-
-		nCpus = Runtime.getRuntime().availableProcessors();
-		if (input.getDepth() < nCpus)
-			nCpus = input.getDepth();
 
 		input.computePixelArray();
 		output.computePixelArray();
 
-		slice_registry.set(0);
-		threads = newThreadArray();
+		final int depth = input.getDepth();
+
+		float zSpacing = 1;
+		Calibration cal = input.getCalibration();
+		if (cal != null && cal.pixelWidth > 0 && cal.pixelDepth > 0)
+			zSpacing = (float) (cal.pixelDepth / cal.pixelWidth);
+
+		final Object[] outputPixels = output.getStackPixelArray();
+		final float[][] distances = new float[depth][];
+		for (int z = 0; z < depth; z++) {
+			distances[z] = (float[]) outputPixels[z];
+		}
+
+		ProgressSubrange progressSubrange = new ProgressSubrange(progress, 2);
+		// Squared distance from each pixel to the nearest 0 pixel, computed in place in the output
+		EuclideanDistanceTransform.computeSquaredDistances(input.getStackPixelArray(), input.getWidth(), input
+				.getHeight(), false, zSpacing, distances, progressSubrange);
+		progressSubrange.nextStep();
 
 		final int width = input.getWidth();
 		final int height = input.getHeight();
-		final int depth = input.getDepth();
-
-		for (int ithread = 0; ithread < nCpus; ithread++) {
-			threads[ithread] = new Thread("Local Diameter worker thread") {
-				@Override
-				public void run() {
-					try {
-
-						for (int z = slice_registry.getAndIncrement(); z < depth; z = slice_registry.getAndIncrement()) {
-
-							for (int x = 0; x < width; x++) {
-								for (int y = 0; y < height; y++) {
-									int radius = 0;
-									if (input.getFloat(x, y, z) != 0) {
-										boolean done = false;
-										for (radius = 1; radius < maxRadius; radius++) {
-											PixelIterator ballIterator = input.getBallIterator(x, y, z, radius);
-											if (!ballIterator.hasNext())
-												done = true;
-											while (ballIterator.hasNext()) {
-												float pixelValue = ballIterator.nextFloatValue();
-												if (pixelValue == 0) {
-													done = true;
-													break;
-												}
-											}
-											if (done)
-												break;
-										}
-									}
-									output.setPixelValue(x, y, z, radius);
-								}
-							}
-
-							int our_progress = ((int) (100.0 * ((z)) / (depth)));
-							if (our_progress > progress.getValue())
-								progressSetValueThreadSafe(progress, our_progress); // not perfect but at least does not
-																					// required synchronization
-							if (indeterminateProgress) {
-								progressSetIndeterminateThreadSafe(progress, false);
-								indeterminateProgress = false;
-							}
-							if (Thread.interrupted()) {
-								cancelled = true;
-							}
-							if (cancelled)
-								return;
-						}
-					} catch (Exception e) {
-						Utils.printStack(e);
+		ParFor parFor = new ParFor("Local diameter", 0, depth - 1, progressSubrange, true);
+		for (int i = 0; i < parFor.getNThreads(); i++) {
+			parFor.addLoopWorker((z, threadIndex) -> {
+				float[] slice = distances[z];
+				int zCap = highBorderCap(z, depth);
+				for (int y = 0, j = 0; y < height; y++) {
+					int yzCap = Math.min(zCap, highBorderCap(y, height));
+					for (int x = 0; x < width; x++, j++) {
+						float d = slice[j];
+						if (d != 0)
+							slice[j] =
+									Math.min(EuclideanDistanceTransform.ballRadius(d, maxRadius), Math.min(yzCap,
+											highBorderCap(x, width)));
 					}
 				}
-			};
+				return null;
+			});
 		}
-		startAndJoin(threads);
-		if (cancelled)
-			throw new InterruptedException();
+		parFor.run(true);
+		progressSubrange.nextStep();
+	}
+
+	/**
+	 * The ball iterator earlier versions relied on was empty, which stopped balls from growing, as soon as a ball
+	 * centered on a pixel closer to the last index than to the first along a dimension reached past the last index.
+	 * 
+	 * @param position
+	 *            Index of the pixel along the dimension
+	 * @param size
+	 *            Size of the stack along the dimension
+	 * @return Largest radius the pixel could be assigned because of that dimension
+	 */
+	private static int highBorderCap(int position, int size) {
+		int distanceToLast = size - 1 - position;
+		return distanceToLast < position ? distanceToLast + 1 : Integer.MAX_VALUE;
 	}
 
 	@Override
@@ -74,18 +74,17 @@
 
 package pipeline.plugins.image_processing;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Arrays;
 
 import pipeline.PreviewType;
 import pipeline.data.IPluginIOStack;
+import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
+import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
-import pipeline.parameters.AbstractParameter;
 import pipeline.plugins.ThreeDPlugin;
-import processing_utilities.curvature.math3d.JacobiFloat;
 
-// For some reason this plugin does not appear to be thread-safe; is that because of JacobiFloat?
 public class LowestHessianEigenvalue extends ThreeDPlugin {
 	@Override
 	public String operationName() {
@@ -104,243 +103,53 @@ public class LowestHessianEigenvalue extends ThreeDPlugin {
 
 	private float sigma = 15.0f;
 
-	private AtomicInteger thread_index = new AtomicInteger(0);
+	@ParameterInfo(userDisplayName = "Scales", stringValue = "", noErrorIfMissingOnReload = true,
+			description = "Comma-separated sigmas of Gaussians with which to smooth the image before computing its "
+					+ "Hessian; the output is the lowest eigenvalue over all scales, the Hessian at each scale being "
+					+ "multiplied by sigma squared. If empty, the Hessian of the image itself is used.")
+	private String scales;
 
 	@Override
 	public void runChannel(final IPluginIOStack input, final IPluginIOStack output, final ProgressReporter p,
 			final PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
 
-		Utils.log("blurrinxxg " + sigma, LogLevel.DEBUG);
-
-		final float sepX = 1, sepY = 1, sepZ = 1;
-		/*
-		 * if( useCalibration && (calibration!=null) ) {
-		 * sepX = (float)calibration.pixelWidth;
-		 * sepY = (float)calibration.pixelHeight;
-		 * sepZ = (float)calibration.pixelDepth;
-		 * }
-		 */
-		nCpus = Runtime.getRuntime().availableProcessors();
-		if (input.getDepth() < nCpus)
-			nCpus = input.getDepth();
-		threads = new Thread[nCpus];
-
-		input.computePixelArray();
-		output.computePixelArray();
-
-		progressSetValueThreadSafe(p, 0);
-		progressSetIndeterminateThreadSafe(p, false);
-
-		for (int z = 0; z < input.getDepth(); z++)
-			for (int y = 0; y < input.getHeight(); y++)
-				for (int x = 0; x < input.getWidth(); x++)
-					((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] = 0;
-
-		// OneDKernel=createGaussianKernel1D(sigma, true);
-
-		for (int ithread = 0; ithread < nCpus; ithread++) {
-			threads[ithread] = new Thread("Directional blurring 1") {
-				@Override
-				public void run() {
-					// final int localThreadIndex=thread_index.getAndIncrement();
-					for (int z = slice_registry.getAndIncrement(); z < input.getDepth() - 1; z =
-							slice_registry.getAndIncrement()) {
-						for (int y = 1; y < input.getHeight() - 1; y++) {
-							for (int x = 1; x < input.getWidth() - 1; x++) {
-								JacobiFloat jacobi =
-										new JacobiFloat(computeHessianMatrix3DFloat(input, x, y, z, sigma, sepX, sepY,
-												sepZ));
-								// float[][] eigenVectors=jacobi.getEigenVectors();
-								float[] eigenValues = jacobi.getEigenValues();
-
-								// int minIndex=Utils.indexOfMin(Utils.arrayAbs(eigenValues));
-								int minIndex = Utils.indexOfMin(eigenValues);
-
-
-								((float[]) output.getStackPixelArray()[z])[x + y * output.getWidth()] =
-										(eigenValues[minIndex]);
-
-							}
-						}
-						progressSetValueThreadSafe(p, (int) (100f * z / input.getDepth()));
-					}
+		final IPluginIOStack[] scaleStacks;
+		final double[] factors;
+		if (scales == null || scales.trim().isEmpty()) {
+			scaleStacks = new IPluginIOStack[] { input };
+			factors = new double[] { sigma * sigma };
+		} else {
+			float[] sigmas;
+			try {
+				String[] split = scales.split(",");
+				sigmas = new float[split.length];
+				for (int i = 0; i < split.length; i++) {
+					sigmas[i] = Float.parseFloat(split[i].trim());
 				}
-			};
+			} catch (NumberFormatException e) {
+				throw new PluginRuntimeException("Could not parse scales " + scales, e, true);
+			}
+			Utils.log("Computing Hessian at scales " + Arrays.toString(sigmas), LogLevel.DEBUG);
+			scaleStacks = Hessian3D.gaussianScaleSpace(input, sigmas, null);
+			factors = new double[sigmas.length];
+			for (int i = 0; i < sigmas.length; i++) {
+				factors[i] = sigmas[i] * sigmas[i];
+			}
 		}
 
-		slice_registry.set(1);
-		thread_index.set(0);
-		startAndJoin(threads);
-	}
-
-	// ------------------------------------------------------------------------
-
-	/*
-	 * There are four versions of the this function, for calculating
-	 * the eigenvalues of the Hessian matrix at a particular point in
-	 * the image. There are versions for 2D or 3D and using floats of
-	 * doubles.
-	 */
-
-	public static double[][] computeHessianMatrix3DDouble(IPluginIOStack img, int x, int y, int z, double sigma,
-			float sepX, float sepY, float sepZ) {
-
-		double[][] hessianMatrix = new double[3][3]; // zeile, spalte
-
-		double temp = 2 * img.getDouble(x, y, z);
-
-		// xx
-		hessianMatrix[0][0] = img.getDouble(x + 1, y, z) - temp + img.getDouble(x - 1, y, z);
-
-		// yy
-		hessianMatrix[1][1] = img.getDouble(x, y + 1, z) - temp + img.getDouble(x, y - 1, z);
-
-		// zz
-		hessianMatrix[2][2] = img.getDouble(x, y, z + 1) - temp + img.getDouble(x, y, z - 1);
-
-		// xy
-		hessianMatrix[0][1] =
-				hessianMatrix[1][0] =
-						((img.getDouble(x + 1, y + 1, z) - img.getDouble(x - 1, y + 1, z)) / 2 - (img.getDouble(x + 1,
-								y - 1, z) - img.getDouble(x - 1, y - 1, z)) / 2) / 2;
-
-		// xz
-		hessianMatrix[0][2] =
-				hessianMatrix[2][0] =
-						((img.getDouble(x + 1, y, z + 1) - img.getDouble(x - 1, y, z + 1)) / 2 - (img.getDouble(x + 1,
-								y, z - 1) - img.getDouble(x - 1, y, z - 1)) / 2) / 2;
-
-		// yz
-		hessianMatrix[1][2] =
-				hessianMatrix[2][1] =
-						((img.getDouble(x, y + 1, z + 1) - img.getDouble(x, y - 1, z + 1)) / 2 - (img.getDouble(x,
-								y + 1, z - 1) - img.getDouble(x, y - 1, z - 1)) / 2) / 2;
-
-		// FIXME: get Stephan to remind me why this is needed...
-		for (int i = 0; i < 3; i++)
-			for (int j = 0; j < 3; j++)
-				hessianMatrix[i][j] *= (sigma * sigma);
-
-		return hessianMatrix;
-	}
-
-	/**
-	 * This method computes the Hessian Matrix for the 3x3x3 environment of a certain voxel <br>
-	 * <br>
-	 *
-	 * The 3D Hessian Matrix:<br>
-	 * xx xy xz <br>
-	 * yx yy yz <br>
-	 * zx zy zz <br>
-	 *
-	 * @param img
-	 *            The image as PluginIOStack
-	 * @param x
-	 *            The x-position of the voxel
-	 * @param y
-	 *            The y-position of the voxel
-	 * @param z
-	 *            The z-position of the voxel
-	 * @return float[][] The 3D - Hessian Matrix
-	 *
-	 *         author Stephan Preibisch
-	 */
-	private static float[][] computeHessianMatrix3DFloat(IPluginIOStack img, int x, int y, int z, double sigma,
-			float sepX, float sepY, float sepZ) {
-
-		float[][] hessianMatrix = new float[3][3]; // zeile, spalte
-
-		float temp = 2 * img.getFloat(x, y, z);
-
-		// xx
-		hessianMatrix[0][0] = img.getFloat(x + 1, y, z) - temp + img.getFloat(x - 1, y, z);
-
-		// yy
-		hessianMatrix[1][1] = img.getFloat(x, y + 1, z) - temp + img.getFloat(x, y - 1, z);
-
-		// zz
-		hessianMatrix[2][2] = img.getFloat(x, y, z + 1) - temp + img.getFloat(x, y, z - 1);
-
-		// xy
-		hessianMatrix[0][1] =
-				hessianMatrix[1][0] =
-						((img.getFloat(x + 1, y + 1, z) - img.getFloat(x - 1, y + 1, z)) / 2 - (img.getFloat(x + 1,
-								y - 1, z) - img.getFloat(x - 1, y - 1, z)) / 2) / 2;
-
-		// xz
-		hessianMatrix[0][2] =
-				hessianMatrix[2][0] =
-						((img.getFloat(x + 1, y, z + 1) - img.getFloat(x - 1, y, z + 1)) / 2 - (img.getFloat(x + 1, y,
-								z - 1) - img.getFloat(x - 1, y, z - 1)) / 2) / 2;
-
-		// yz
-		hessianMatrix[1][2] =
-				hessianMatrix[2][1] =
-						((img.getFloat(x, y + 1, z + 1) - img.getFloat(x, y - 1, z + 1)) / 2 - (img.getFloat(x, y + 1,
-								z - 1) - img.getFloat(x, y - 1, z - 1)) / 2) / 2;
-
-		// FIXME: get Stephan to remind me why this is needed...
-		for (int i = 0; i < 3; i++)
-			for (int j = 0; j < 3; j++)
-				hessianMatrix[i][j] *= (sigma * sigma);
-
-		return hessianMatrix;
-	}
-
-	/**
-	 * This method creates a gaussian kernel
-	 *
-	 *
-	 * author Stephan Saalfeld
-	 */
-	/*
-	 * private static final float[] createGaussianKernel1D(float sigma, boolean normalize)
-	 * {
-	 * float[] gaussianKernel;
-	 * 
-	 * if (sigma <= 0) {
-	 * 
-	 * gaussianKernel = new float[3];
-	 * gaussianKernel[1] = 1;
-	 * 
-	 * } else {
-	 * 
-	 * int size = Math.max(3, (int)(2*(int)(3*sigma + 0.5)+1));
-	 * 
-	 * float two_sq_sigma = 2*sigma*sigma;
-	 * gaussianKernel = new float[size];
-	 * 
-	 * for (int x = size/2; x >= 0; --x) {
-	 * 
-	 * float val = (float)Math.exp(-(float)(x*x)/two_sq_sigma);
-	 * 
-	 * gaussianKernel[size/2-x] = val;
-	 * gaussianKernel[size/2+x] = val;
-	 * }
-	 * }
-	 * 
-	 * if (normalize)
-	 * {
-	 * float sum = 0;
-	 * 
-	 * for (int i = 0; i < gaussianKernel.length; i++)
-	 * sum += gaussianKernel[i];
-	 * 
-	 * //for (float value : gaussianKernel)
-	 * //sum += value;
-	 * 
-	 * for (int i = 0; i < gaussianKernel.length; i++)
-	 * gaussianKernel[i] /= sum;
-	 * }
-	 * 
-	 * 
-	 * return gaussianKernel;
-	 * }
-	 */
-
-	@Override
-	public void setParameters(AbstractParameter[] param) {
+		output.computePixelArray();
+		final Object[] outputSlices = output.getStackPixelArray();
+		for (Object slice : outputSlices) {
+			Arrays.fill((float[]) slice, 0);
+		}
 
+		Hessian3D.run(scaleStacks, factors, () -> voxel -> {
+			float lowest = Float.MAX_VALUE;
+			for (float[] eigenvalues : voxel.eigenvalues) {
+				lowest = Math.min(lowest, eigenvalues[0]);
+			}
+			((float[]) outputSlices[voxel.z])[voxel.index] = lowest;
+		}, p);
 	}
 
 }
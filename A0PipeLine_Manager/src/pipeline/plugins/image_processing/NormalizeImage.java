@@ -6,7 +6,6 @@
  ******************************************************************************/
 package pipeline.plugins.image_processing;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -18,6 +17,7 @@ import pipeline.data.PluginIONumber;
 import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.Quantiles;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
 import pipeline.plugins.AuxiliaryInputOutputPlugin;
@@ -53,6 +53,11 @@ public class NormalizeImage extends ThreeDPlugin implements AuxiliaryInputOutput
 			floatValue = 5, permissibleFloatRange = { 0, 100 }, noErrorIfMissingOnReload = true)
 	private float lowPercentile;
 
+	@ParameterInfo(userDisplayName = "Approximate percentiles", stringValue = "FALSE",
+			noErrorIfMissingOnReload = true, description = "Compute percentiles in a single pass over the image; " +
+			"values are then within 0.4% of the exact percentiles")
+	private boolean approximatePercentiles;
+
 	@Override
 	public Map<String, InputOutputDescription> getInputDescriptions() {
 		HashMap<String, InputOutputDescription> result = new HashMap<>();
@@ -73,7 +78,7 @@ public class NormalizeImage extends ThreeDPlugin implements AuxiliaryInputOutput
 
 	@Override
 	public void runChannel(IPluginIOStack input, IPluginIOStack output, ProgressReporter r, PreviewType previewType,
-			boolean inputHasChanged) {
+			boolean inputHasChanged) throws InterruptedException {
 
 		final float offset;
 		final float scalingFactor;
@@ -100,43 +105,20 @@ public class NormalizeImage extends ThreeDPlugin implements AuxiliaryInputOutput
 				throw new PluginRuntimeException("Low percentile is lower than 0: " + highPercentile, true);
 			}
 			
-			long nPixels = input.getDepth() * input.getHeight() * input.getWidth();
-
-			if (nPixels > Integer.MAX_VALUE) {
-				throw new RuntimeException("Too many pixels");
-			}
-
-			float[] pixels = new float[(int) nPixels];
-
-			int index = 0;
+			float[] percentiles =
+					Quantiles.ofStack(input, new double[] { lowPercentile / 100d, highPercentile / 100d },
+							approximatePercentiles ? Quantiles.Mode.APPROXIMATE : Quantiles.Mode.EXACT, r);
 
-			for (int z = 0; z < input.getDepth(); z++) {
-				for (int y = 0; y < input.getHeight(); y++) {
-					for (int x = 0; x < input.getWidth(); x++) {
-						pixels[index++] = input.getFloat(x, y, z);
-					}
-				}
-			}
-
-			Arrays.sort(pixels);
-			int highPercIndex = (int) (((nPixels - 1d) * highPercentile) / 100);
-			int lowPercIndex = (int) (((nPixels - 1d) * lowPercentile) / 100);
-
-			offset = pixels[lowPercIndex];
-			if (offset == pixels[highPercIndex]) {
+			offset = percentiles[0];
+			if (offset == percentiles[1]) {
 				throw new PluginRuntimeException("Ninety-fith percentile is not greater than fifth percentile: " +
-						pixels[highPercIndex] + " vs " + offset, true);
+						percentiles[1] + " vs " + offset, true);
 			}
-			scalingFactor = 1f / (pixels[highPercIndex] - offset);
+			scalingFactor = 1f / (percentiles[1] - offset);
 		}
 
-		for (int z = 0; z < input.getDepth(); z++) {
-			for (int y = 0; y < input.getHeight(); y++) {
-				for (int x = 0; x < input.getWidth(); x++) {
-					output.setPixelValue(x, y, z, (Math.max(0, input.getFloat(x, y, z) - offset)) * scalingFactor);
-				}
-			}
-		}
+		ElementwiseKernel.builder(1).add(-offset).max(0).multiply(scalingFactor)
+				.conversion(ElementwiseKernel.Conversion.CAST).build().run(new IPluginIOStack[] { input }, output, r);
 	}
 
 	@Override
@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing;
+
+import java.io.IOException;
+
+import pipeline.GUI_utils.ProgressSubrange;
+import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ParFor;
+
+/**
+ * Separable filtering of float images, one axis at a time, in place in the output. Lines along the filtered axis are
+ * processed in bundles of adjacent lines: each bundle is copied into a small buffer with one position per row of the
+ * buffer and one line per column, so that the filter runs over contiguous memory whatever the axis, and then copied
+ * back. The Z pass therefore reads short contiguous runs from each slice instead of striding across slices for
+ * each pixel, and working memory is a few such buffers per thread instead of a temporary copy of the stack.
+ *
+ * Gaussians with a large enough sigma are computed with the recursive filter of Young and van Vliet, whose cost does
+ * not depend on sigma; the state of the backward pass at the end of each line is computed exactly for the chosen
+ * boundary condition (Triggs and Sdika), so that lines do not need to be extended.
+ *
+ */
+public class SeparableBlur {
+
+	/**
+	 * How pixels outside the image are treated.
+	 */
+	public enum Boundary {
+		/**
+		 * Pixels outside the image are 0 (so that filtered values darken close to the edges)
+		 */
+		ZERO,
+		/**
+		 * Pixels outside the image have the value of the closest edge pixel
+		 */
+		REPLICATE
+	}
+
+	/**
+	 * Recursive filters only approximate Gaussians well for sigma above ~1 pixel; below this value,
+	 * {@link #gaussian} uses a sampled kernel, which is cheap at that size.
+	 */
+	public static final double MIN_RECURSIVE_SIGMA = 2;
+
+	/**
+	 * Number of adjacent lines filtered together.
+	 */
+	private static final int N_LANES = 32;
+
+	/**
+	 * Filter along one axis, applied in place to bundles of lines.
+	 */
+	public abstract static class LineFilter {
+		final Boundary boundary;
+
+		LineFilter(Boundary boundary) {
+			this.boundary = boundary;
+		}
+
+		/**
+		 * @return Number of positions the filter needs on each side of the lines in the buffers passed to
+		 *         {@link #filter}
+		 */
+		abstract int getMargin();
+
+		/**
+		 * Filters in place nLanes lines of length n; position p of line l is at buffer[(margin + p) * nLanes + l],
+		 * where margin is given by {@link #getMargin}. The margins of buffer and all of scratch can be overwritten.
+		 */
+		abstract void filter(float[] buffer, float[] scratch, int n, int nLanes);
+	}
+
+	/**
+	 * Correlation with a kernel: out[p] = sum over j of in[p + j - kernel.length / 2] * kernel[j], with terms summed
+	 * in order of increasing j.
+	 */
+	private static final class KernelFilter extends LineFilter {
+		private final float[] kernel;
+		private final int half;
+		private final int margin;
+
+		KernelFilter(float[] kernel, Boundary boundary) {
+			super(boundary);
+			this.kernel = kernel.clone();
+			half = kernel.length / 2;
+			margin = Math.max(half, kernel.length - 1 - half);
+		}
+
+		@Override
+		int getMargin() {
+			return margin;
+		}
+
+		@Override
+		void filter(float[] buffer, float[] scratch, int n, int nLanes) {
+			final int first = margin * nLanes;
+			final int last = (margin + n - 1) * nLanes;
+			System.arraycopy(buffer, first, scratch, first, n * nLanes);
+			for (int p = 1; p <= margin; p++) {
+				for (int l = 0; l < nLanes; l++) {
+					float before = boundary == Boundary.ZERO ? 0 : scratch[first + l];
+					float after = boundary == Boundary.ZERO ? 0 : scratch[last + l];
+					scratch[first - p * nLanes + l] = before;
+					scratch[last + p * nLanes + l] = after;
+				}
+			}
+			for (int p = 0; p < n; p++) {
+				final int out = (margin + p) * nLanes;
+				for (int l = 0; l < nLanes; l++) {
+					buffer[out + l] = 0;
+				}
+				for (int j = 0; j < kernel.length; j++) {
+					final float weight = kernel[j];
+					final int in = (margin + p + j - half) * nLanes;
+					for (int l = 0; l < nLanes; l++) {
+						buffer[out + l] += scratch[in + l] * weight;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Third-order recursive approximation of a Gaussian (Young and van Vliet, Signal Processing 44:139, 1995), run
+	 * forward and then backward over each line.
+	 */
+	private static final class RecursiveGaussianFilter extends LineFilter {
+		private final float b, a1, a2, a3;
+		/**
+		 * Maps the last three values of the forward pass, minus the value of the pixels past the end of the line, to
+		 * the first three values of the backward pass past the end of the line, minus that same value (Triggs and
+		 * Sdika, IEEE Trans Signal Process 54:2365, 2006).
+		 */
+		private final double[][] endState = new double[3][3];
+
+		RecursiveGaussianFilter(double sigma, Boundary boundary) {
+			super(boundary);
+			if (sigma < 0.5)
+				throw new IllegalArgumentException("Sigma " + sigma + " too small for recursive filter");
+			double q = sigma >= 2.5 ? 0.98711 * sigma - 0.96330 : 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+			double b0 = 1.57825 + 2.44413 * q + 1.4281 * q * q + 0.422205 * q * q * q;
+			double b1 = 2.44413 * q + 2.85619 * q * q + 1.26661 * q * q * q;
+			double b2 = -(1.4281 * q * q + 1.26661 * q * q * q);
+			double b3 = 0.422205 * q * q * q;
+			double da1 = b1 / b0, da2 = b2 / b0, da3 = b3 / b0;
+			double db = 1 - (da1 + da2 + da3);
+			a1 = (float) da1;
+			a2 = (float) da2;
+			a3 = (float) da3;
+			b = (float) db;
+
+			// With constant input past the end of the line, the deviations from that constant of the forward pass
+			// decay by the homogeneous recursion; run it, and the backward pass over it, long enough for the
+			// contribution of what comes after to be negligible, starting from each unit state in turn
+			int length = (int) (40 * sigma) + 100;
+			double[] forward = new double[length + 3];
+			double[] backward = new double[length + 3];
+			for (int k = 0; k < 3; k++) {
+				java.util.Arrays.fill(forward, 0);
+				java.util.Arrays.fill(backward, 0);
+				// forward[0..2] hold the last three positions of the line, the most recent last
+				forward[2 - k] = 1;
+				for (int i = 3; i < length + 3; i++) {
+					forward[i] = da1 * forward[i - 1] + da2 * forward[i - 2] + da3 * forward[i - 3];
+				}
+				for (int i = length - 1; i >= 3; i--) {
+					backward[i] =
+							db * forward[i] + da1 * backward[i + 1] + da2 * backward[i + 2] + da3 * backward[i + 3];
+				}
+				for (int i = 0; i < 3; i++) {
+					endState[i][k] = backward[3 + i];
+				}
+			}
+		}
+
+		@Override
+		int getMargin() {
+			return 3;
+		}
+
+		@Override
+		void filter(float[] buffer, float[] scratch, int n, int nLanes) {
+			final int first = 3 * nLanes;
+			final int last = (3 + n - 1) * nLanes;
+			final int s1 = nLanes, s2 = 2 * nLanes, s3 = 3 * nLanes;
+
+			// Values past the end of the line; the forward pass overwrites the line
+			for (int l = 0; l < nLanes; l++) {
+				scratch[l] = boundary == Boundary.ZERO ? 0 : buffer[last + l];
+			}
+			// The forward pass has reached its steady state for the constant before the start of the line
+			for (int l = 0; l < nLanes; l++) {
+				float before = boundary == Boundary.ZERO ? 0 : buffer[first + l];
+				buffer[first - s1 + l] = before;
+				buffer[first - s2 + l] = before;
+				buffer[first - s3 + l] = before;
+			}
+			for (int i = first; i < last + nLanes; i++) {
+				buffer[i] = b * buffer[i] + a1 * buffer[i - s1] + a2 * buffer[i - s2] + a3 * buffer[i - s3];
+			}
+
+			for (int l = 0; l < nLanes; l++) {
+				double after = scratch[l];
+				double d1 = buffer[last + l] - after;
+				double d2 = buffer[last - s1 + l] - after;
+				double d3 = buffer[last - s2 + l] - after;
+				for (int i = 0; i < 3; i++) {
+					buffer[last + (i + 1) * nLanes + l] =
+							(float) (after + endState[i][0] * d1 + endState[i][1] * d2 + endState[i][2] * d3);
+				}
+			}
+			for (int i = last + nLanes - 1; i >= first; i--) {
+				buffer[i] = b * buffer[i] + a1 * buffer[i + s1] + a2 * buffer[i + s2] + a3 * buffer[i + s3];
+			}
+		}
+	}
+
+	/**
+	 * @param kernel
+	 *            Weights, centered on kernel.length / 2
+	 * @param boundary
+	 */
+	public static LineFilter kernel(float[] kernel, Boundary boundary) {
+		return new KernelFilter(kernel, boundary);
+	}
+
+	/**
+	 * @param sigma
+	 *            In pixels; must be at least 0.5
+	 * @param boundary
+	 */
+	public static LineFilter recursiveGaussian(double sigma, Boundary boundary) {
+		return new RecursiveGaussianFilter(sigma, boundary);
+	}
+
+	/**
+	 * @param sigma
+	 *            In pixels; the filter is the identity if sigma is not positive
+	 * @param boundary
+	 * @return Recursive filter if sigma is at least {@link #MIN_RECURSIVE_SIGMA}, normalized kernel that extends to 3
+	 *         sigma otherwise
+	 */
+	public static LineFilter gaussian(double sigma, Boundary boundary) {
+		if (sigma >= MIN_RECURSIVE_SIGMA)
+			return recursiveGaussian(sigma, boundary);
+		if (sigma <= 0)
+			return kernel(new float[] { 1 }, boundary);
+		int radius = (int) Math.ceil(3 * sigma);
+		float[] weights = new float[2 * radius + 1];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++) {
+			sum += weights[i + radius] = (float) Math.exp(-i * i / (2 * sigma * sigma));
+		}
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] /= sum;
+		}
+		return kernel(weights, boundary);
+	}
+
+	/**
+	 * Buffers for one thread.
+	 */
+	private static final class Buffers {
+		final float[] buffer, scratch;
+
+		Buffers(int maxLength, int maxMargin) {
+			buffer = new float[(maxLength + 2 * maxMargin) * N_LANES];
+			scratch = new float[buffer.length];
+		}
+	}
+
+	/**
+	 * Filters rows of source into destination, which can be the same array.
+	 */
+	private static void filterX(float[] source, float[] destination, int width, int height, LineFilter filter,
+			Buffers buffers) {
+		final float[] buffer = buffers.buffer;
+		final int margin = filter.getMargin();
+		for (int y0 = 0; y0 < height; y0 += N_LANES) {
+			final int nLanes = Math.min(N_LANES, height - y0);
+			for (int l = 0; l < nLanes; l++) {
+				int row = (y0 + l) * width;
+				for (int x = 0; x < width; x++) {
+					buffer[(margin + x) * nLanes + l] = source[row + x];
+				}
+			}
+			filter.filter(buffer, buffers.scratch, width, nLanes);
+			for (int l = 0; l < nLanes; l++) {
+				int row = (y0 + l) * width;
+				for (int x = 0; x < width; x++) {
+					destination[row + x] = buffer[(margin + x) * nLanes + l];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Filters columns of slice in place.
+	 */
+	private static void filterY(float[] slice, int width, int height, LineFilter filter, Buffers buffers) {
+		final float[] buffer = buffers.buffer;
+		final int margin = filter.getMargin();
+		for (int x0 = 0; x0 < width; x0 += N_LANES) {
+			final int nLanes = Math.min(N_LANES, width - x0);
+			for (int y = 0; y < height; y++) {
+				System.arraycopy(slice, y * width + x0, buffer, (margin + y) * nLanes, nLanes);
+			}
+			filter.filter(buffer, buffers.scratch, height, nLanes);
+			for (int y = 0; y < height; y++) {
+				System.arraycopy(buffer, (margin + y) * nLanes, slice, y * width + x0, nLanes);
+			}
+		}
+	}
+
+	/**
+	 * Filters in place along Z the nLanes pixels starting at offset in each slice.
+	 */
+	private static void filterZ(Object[] slices, int offset, int nLanes, LineFilter filter, Buffers buffers) {
+		final float[] buffer = buffers.buffer;
+		final int margin = filter.getMargin();
+		final int depth = slices.length;
+		for (int z = 0; z < depth; z++) {
+			System.arraycopy(slices[z], offset, buffer, (margin + z) * nLanes, nLanes);
+		}
+		filter.filter(buffer, buffers.scratch, depth, nLanes);
+		for (int z = 0; z < depth; z++) {
+			System.arraycopy(buffer, (margin + z) * nLanes, slices[z], offset, nLanes);
+		}
+	}
+
+	/**
+	 * Filters a single slice along X and Y.
+	 *
+	 * @param source
+	 * @param destination
+	 *            Can be the same array as source
+	 */
+	public static void filter2D(float[] source, float[] destination, int width, int height, LineFilter filterX,
+			LineFilter filterY) {
+		Buffers buffers =
+				new Buffers(Math.max(width, height), Math.max(filterX.getMargin(), filterY.getMargin()));
+		filterX(source, destination, width, height, filterX, buffers);
+		filterY(destination, width, height, filterY, buffers);
+	}
+
+	/**
+	 * Filters a stack along X, Y and Z, in parallel. Input is read one slice at a time (through
+	 * {@link ImageAccessor} if it is file-backed); output must hold its pixels in memory, and is used as working space
+	 * for the filtering.
+	 *
+	 * @param input
+	 *            Float stack
+	 * @param output
+	 *            Float stack with the same dimensions as input; can be the same as input if it is not file-backed
+	 * @param progress
+	 *            Can be null
+	 * @throws InterruptedException
+	 */
+	public static void filter3D(final IPluginIOStack input, IPluginIOStack output, final LineFilter filterX,
+			final LineFilter filterY, final LineFilter filterZ, ProgressReporter progress)
+			throws InterruptedException {
+		final int width = input.getWidth();
+		final int height = input.getHeight();
+		final int depth = input.getDepth();
+		if (output.getWidth() != width || output.getHeight() != height || output.getDepth() != depth)
+			throw new IllegalArgumentException("Dimension mismatch between " + input.getName() + " and "
+					+ output.getName());
+
+		final Object[] inputSlices;
+		if (input instanceof ImageAccessor)
+			inputSlices = null;
+		else {
+			input.computePixelArray();
+			inputSlices = input.getStackPixelArray();
+		}
+		output.computePixelArray();
+		final Object[] outputSlices = output.getStackPixelArray();
+
+		final int maxLength = Math.max(Math.max(width, height), depth);
+		final int maxMargin = Math.max(Math.max(filterX.getMargin(), filterY.getMargin()), filterZ.getMargin());
+		final ProgressSubrange progressSubrange = new ProgressSubrange(progress, 2);
+
+		// X and Y, one slice at a time
+		ParFor parFor = new ParFor("Blur XY", 0, depth - 1, progressSubrange, true);
+		final Buffers[] threadBuffers = new Buffers[parFor.getNThreads()];
+		for (int i = 0; i < parFor.getNThreads(); i++)
+			parFor.addLoopWorker((z, threadIndex) -> {
+				if (threadBuffers[threadIndex] == null)
+					threadBuffers[threadIndex] = new Buffers(maxLength, maxMargin);
+				float[] source;
+				if (inputSlices != null)
+					source = (float[]) inputSlices[z];
+				else {
+					try {
+						source =
+								(float[]) ((ImageAccessor) input).getPixelZSliceCopy(z,
+										ImageAccessor.DONT_CACHE_PIXELS);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				float[] destination = (float[]) outputSlices[z];
+				filterX(source, destination, width, height, filterX, threadBuffers[threadIndex]);
+				filterY(destination, width, height, filterY, threadBuffers[threadIndex]);
+				return null;
+			});
+		parFor.run(true);
+		progressSubrange.nextStep();
+
+		// Z, in blocks of adjacent pixels of the same row
+		final int blocksPerRow = (width + N_LANES - 1) / N_LANES;
+		parFor = new ParFor("Blur Z", 0, height * blocksPerRow - 1, progressSubrange, true);
+		final Buffers[] threadBuffersZ = new Buffers[parFor.getNThreads()];
+		for (int i = 0; i < parFor.getNThreads(); i++)
+			parFor.addLoopWorker((block, threadIndex) -> {
+				if (threadBuffersZ[threadIndex] == null)
+					threadBuffersZ[threadIndex] = new Buffers(maxLength, maxMargin);
+				int y = block / blocksPerRow;
+				int x0 = (block % blocksPerRow) * N_LANES;
+				filterZ(outputSlices, y * width + x0, Math.min(N_LANES, width - x0), filterZ,
+						threadBuffersZ[threadIndex]);
+				return null;
+			});
+		parFor.run(true);
+	}
+}
@@ -0,0 +1,685 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing;
+
+import static processing_utilities.projection.RayFunction.AVG_METHOD;
+import static processing_utilities.projection.RayFunction.AVG_METHOD_NON_0;
+import static processing_utilities.projection.RayFunction.MAX_METHOD;
+import static processing_utilities.projection.RayFunction.MEDIAN_METHOD;
+import static processing_utilities.projection.RayFunction.MEDIAN_METHOD_NON_0;
+import static processing_utilities.projection.RayFunction.MIN_METHOD;
+import static processing_utilities.projection.RayFunction.SD_METHOD;
+import static processing_utilities.projection.RayFunction.SUM_METHOD;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import pipeline.GUI_utils.ProgressSubrange;
+import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
+import pipeline.data.PluginIOImage.PixelType;
+import pipeline.misc_util.PluginRuntimeException;
+import pipeline.misc_util.ProgressReporter;
+import pipeline.misc_util.parfor.ILoopWorker;
+import pipeline.misc_util.parfor.ParFor;
+import pipeline.plugins.BasePipelinePlugin;
+
+/**
+ * Z projection of a range of slices, keeping per-pixel state so that when the range is moved along the stack (e.g.
+ * by the ZProjector movie mode, or by dragging the range slider) only the slices that leave the range are removed and
+ * the slices that enter it are added, instead of the whole range being projected again. The state depends on the
+ * projection method:
+ * <ul>
+ * <li>sum, average, average of non-0 values and standard deviation keep running sums, updated in constant time per
+ * slice;</li>
+ * <li>max and min keep a monotonic deque of the candidate extrema, with the index of the slice they come from, so that
+ * a value is dropped once a later slice dominates it or once it leaves the range; this only works if the range moves
+ * towards the end of the stack;</li>
+ * <li>median and median of non-0 values keep the sorted values of the range, in which values are inserted and removed
+ * by binary search.</li>
+ * </ul>
+ * The projection is recomputed from scratch when the range jumps by more than its length, when it does not fit in the
+ * allocated state, or when it moves backwards for max and min. Sums of float pixels are also recomputed once many
+ * slices have been removed from them, to bound the accumulation of rounding errors.
+ *
+ * Deque and sorted states hold one int and one float, or one float, per pixel and per slice of the range, so they are
+ * only built once the range is actually moved over the same input, and only if they fit in an array and in a fraction
+ * of the heap. Other max and min projections keep a running extremum per pixel, and other median projections gather
+ * the values of each pixel across the range in a per-thread buffer, as one-shot projections always did.
+ *
+ * Non-finite values are ignored (as in the RayFunction projections), and the average and standard deviation are
+ * computed over the number of slices in the range.
+ *
+ * The caller must call {@link #invalidate} whenever the contents of the input may have changed; the state is also
+ * discarded if a different input is passed. An instance must only be used by one thread at a time.
+ *
+ */
+public final class SlidingZProjection {
+
+	/**
+	 * Number of pixels processed at a time by a worker
+	 */
+	private static final int BLOCK_SIZE = 4096;
+	/**
+	 * Number of pixels processed at a time by a worker computing a median projection directly
+	 */
+	private static final int MEDIAN_BLOCK_SIZE = 64;
+	/**
+	 * Number of slices added or removed in one parallel pass over the pixels; virtual input slices are read one
+	 * chunk at a time
+	 */
+	private static final int CHUNK_SIZE = 16;
+	/**
+	 * Float sums are recomputed from scratch once this many times the range length has been removed from them
+	 */
+	private static final int MAX_REMOVALS_PER_RANGE = 64;
+	/**
+	 * Largest number of elements of a Java array
+	 */
+	private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+	/**
+	 * Deque and sorted states are not built if they would take more than this fraction of the maximum heap size
+	 */
+	private static final double MAX_HEAP_FRACTION_FOR_STATE = 0.25;
+
+	private enum StateType {
+		SUMS, DEQUE, SORTED
+	}
+
+	private final int method;
+	private final int width, height, nPixels;
+	private final StateType stateType;
+
+	/**
+	 * Input from which the state was computed, or null if there is no valid state
+	 */
+	private IPluginIOStack stateInput;
+	/**
+	 * 0-based range of slices (inclusive) that the state holds
+	 */
+	private int stateStart, stateStop;
+	/**
+	 * Maximum number of slices the deque or sorted state can hold
+	 */
+	private int capacity;
+	private long removedSinceReset;
+	/**
+	 * True if the deque or sorted state holds the current range; false if the last projection was computed directly,
+	 * without keeping per-slice state
+	 */
+	private boolean hasSlidingState;
+	/**
+	 * Set during a projection computed without deque or sorted state
+	 */
+	private boolean direct;
+
+	/**
+	 * Running max or min of each pixel, for max and min projections computed directly
+	 */
+	private float[] extremum;
+
+	private double[] sum, sum2;
+	private int[] count;
+
+	/**
+	 * Deque of pixel p is a ring buffer stored from index p * capacity, starting at dequeHead[p]; offsets fit in an
+	 * int because nPixels * capacity is checked to be a valid array length before the arrays are allocated
+	 */
+	private int[] dequeHead, dequeLength, dequeSlice;
+	private float[] dequeValue;
+
+	/**
+	 * Sorted values of pixel p are stored from index p * capacity
+	 */
+	private int[] sortedLength;
+	private float[] sorted;
+
+	/**
+	 * @param method
+	 *            One of the RayFunction method constants
+	 * @param width
+	 * @param height
+	 */
+	public SlidingZProjection(int method, int width, int height) {
+		this.method = method;
+		this.width = width;
+		this.height = height;
+		nPixels = width * height;
+		switch (method) {
+			case AVG_METHOD:
+			case SUM_METHOD:
+			case SD_METHOD:
+			case AVG_METHOD_NON_0:
+				stateType = StateType.SUMS;
+				sum = new double[nPixels];
+				if (method == SD_METHOD)
+					sum2 = new double[nPixels];
+				if (method == AVG_METHOD_NON_0)
+					count = new int[nPixels];
+				break;
+			case MAX_METHOD:
+			case MIN_METHOD:
+				stateType = StateType.DEQUE;
+				dequeHead = new int[nPixels];
+				dequeLength = new int[nPixels];
+				break;
+			case MEDIAN_METHOD:
+			case MEDIAN_METHOD_NON_0:
+				stateType = StateType.SORTED;
+				sortedLength = new int[nPixels];
+				break;
+			default:
+				throw new PluginRuntimeException("ZProjection - unknown method " + method, true);
+		}
+	}
+
+	/**
+	 * @return True if this instance computes projections with given method and dimensions
+	 */
+	public boolean accepts(int method, int width, int height) {
+		return this.method == method && this.width == width && this.height == height;
+	}
+
+	/**
+	 * Discards the state, so that the next projection is computed from scratch.
+	 */
+	public void invalidate() {
+		stateInput = null;
+	}
+
+	/**
+	 * Projects slices start to stop of input, reusing the state left by the previous call if possible.
+	 *
+	 * @param input
+	 * @param start
+	 *            0-based index of first slice to project
+	 * @param stop
+	 *            0-based index of last slice to project (inclusive)
+	 * @param output
+	 *            Array of width * height pixels to store the projection into
+	 * @param progress
+	 *            Can be null
+	 * @param maxNThreads
+	 * @throws InterruptedException
+	 */
+	public void project(final IPluginIOStack input, int start, int stop, final float[] output,
+			ProgressReporter progress, int maxNThreads) throws InterruptedException {
+		if (input.getWidth() != width || input.getHeight() != height)
+			throw new IllegalArgumentException("Input " + input.getName() + " does not have dimensions " + width
+					+ "x" + height);
+		if (start < 0 || stop >= input.getDepth() || start > stop)
+			throw new IllegalArgumentException("Invalid slice range " + start + "--" + stop + " for input "
+					+ input.getName());
+		final int rangeLength = stop - start + 1;
+
+		// Slices to remove (in stateStart..stateStop but not in start..stop) and to add, as a list of operations
+		// where a negative entry -(z + 1) means removal of slice z
+		int[] operations;
+		boolean reset = !canMoveTo(input, start, stop);
+		if (reset) {
+			operations = new int[rangeLength];
+			for (int z = start; z <= stop; z++)
+				operations[z - start] = z;
+		} else {
+			int nOperations = 0;
+			operations = new int[(stateStop - stateStart + 1) + rangeLength];
+			if (stateType != StateType.DEQUE) {
+				// Deques drop slices that leave the range based on slice indices
+				for (int z = stateStart; z <= stateStop; z++) {
+					if (z < start || z > stop)
+						operations[nOperations++] = -(z + 1);
+				}
+			}
+			for (int z = start; z <= stop; z++) {
+				if (z < stateStart || z > stateStop)
+					operations[nOperations++] = z;
+			}
+			operations = Arrays.copyOf(operations, nOperations);
+			removedSinceReset += (stateStop - stateStart + 1) - (Math.min(stop, stateStop) - Math.max(start,
+					stateStart) + 1);
+		}
+
+		direct = false;
+		if (reset && stateType != StateType.SUMS) {
+			// Only pay for per-slice state if the range is being moved over the same input, or if the state has
+			// already been allocated
+			boolean slid =
+					stateInput == input && Math.min(stop, stateStop) >= Math.max(start, stateStart);
+			boolean allocated = (dequeSlice != null || sorted != null) && capacity >= rangeLength;
+			if (!slidingStateFits(rangeLength)) {
+				releaseSlidingState();
+				direct = true;
+			} else
+				direct = !slid && !allocated;
+		}
+
+		// If we are interrupted the state is left half-updated
+		stateInput = null;
+		hasSlidingState = false;
+		if (direct && stateType == StateType.SORTED) {
+			projectMedianDirectly(input, start, stop, output, progress, maxNThreads);
+			stateInput = input;
+			stateStart = start;
+			stateStop = stop;
+			return;
+		}
+		if (reset)
+			resetState(rangeLength);
+
+		final boolean isVirtual = input.isVirtual();
+		final ImageAccessor accessor = isVirtual ? input.getImageAccessor() : null;
+		final int nChunks = Math.max(1, (operations.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		final int nBlocks = (nPixels + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ProgressSubrange progressSubrange = new ProgressSubrange(progress, nChunks);
+
+		for (int chunk = 0; chunk < nChunks; chunk++) {
+			final int from = chunk * CHUNK_SIZE;
+			final int to = Math.min(operations.length, from + CHUNK_SIZE);
+			final int[] chunkOperations = Arrays.copyOfRange(operations, from, to);
+			final Object[] slices = new Object[chunkOperations.length];
+			for (int i = 0; i < slices.length; i++) {
+				int z = chunkOperations[i] < 0 ? -chunkOperations[i] - 1 : chunkOperations[i];
+				slices[i] = isVirtual ? readSlice(accessor, z) : input.getPixels(z);
+			}
+			final boolean lastChunk = chunk == nChunks - 1;
+			final int rangeStart = start;
+
+			ParFor parFor =
+					new ParFor(0, nBlocks - 1, progressSubrange, BasePipelinePlugin.threadPool, true, maxNThreads);
+			parFor.setName("Sliding Z projection");
+			for (int i = 0; i < parFor.getNThreads(); i++)
+				parFor.addLoopWorker(new ILoopWorker() {
+					private final float[] values = new float[BLOCK_SIZE];
+
+					@Override
+					public Object run(int block, int threadIndex) {
+						int blockStart = block * BLOCK_SIZE;
+						int n = Math.min(BLOCK_SIZE, nPixels - blockStart);
+						if (stateType == StateType.DEQUE && !direct)
+							expire(blockStart, n, rangeStart);
+						for (int i = 0; i < chunkOperations.length; i++) {
+							load(slices[i], blockStart, n, values);
+							if (chunkOperations[i] >= 0)
+								add(values, blockStart, n, chunkOperations[i]);
+							else
+								remove(values, blockStart, n);
+						}
+						if (lastChunk)
+							store(output, blockStart, n, rangeLength);
+						return null;
+					}
+				});
+			parFor.run(true);
+			progressSubrange.nextStep();
+		}
+
+		stateInput = input;
+		stateStart = start;
+		stateStop = stop;
+		hasSlidingState = !direct;
+	}
+
+	/**
+	 * Median projection that does not keep any state: each worker gathers the values of a few pixels across the
+	 * whole range into its own buffer, and sorts them.
+	 */
+	private void projectMedianDirectly(final IPluginIOStack input, final int start, int stop, final float[] output,
+			ProgressReporter progress, int maxNThreads) throws InterruptedException {
+		final int rangeLength = stop - start + 1;
+		final Object[] slices = new Object[rangeLength];
+		final boolean isVirtual = input.isVirtual();
+		final ImageAccessor accessor = isVirtual ? input.getImageAccessor() : null;
+		for (int z = start; z <= stop; z++)
+			slices[z - start] = isVirtual ? readSlice(accessor, z) : input.getPixels(z);
+
+		final int nBlocks = (nPixels + MEDIAN_BLOCK_SIZE - 1) / MEDIAN_BLOCK_SIZE;
+		ParFor parFor = new ParFor(0, nBlocks - 1, progress, BasePipelinePlugin.threadPool, true, maxNThreads);
+		parFor.setName("Median Z projection");
+		for (int i = 0; i < parFor.getNThreads(); i++)
+			parFor.addLoopWorker(new ILoopWorker() {
+				private final float[] values = new float[MEDIAN_BLOCK_SIZE];
+				/**
+				 * Values of pixel i of the block across the range, from index i * rangeLength
+				 */
+				private final float[] pixelValues = new float[MEDIAN_BLOCK_SIZE * rangeLength];
+
+				@Override
+				public Object run(int block, int threadIndex) {
+					int blockStart = block * MEDIAN_BLOCK_SIZE;
+					int n = Math.min(MEDIAN_BLOCK_SIZE, nPixels - blockStart);
+					for (int z = 0; z < rangeLength; z++) {
+						load(slices[z], blockStart, n, values);
+						for (int i = 0; i < n; i++)
+							pixelValues[i * rangeLength + z] = values[i];
+					}
+					for (int i = 0; i < n; i++) {
+						int offset = i * rangeLength;
+						int length = 0;
+						for (int z = 0; z < rangeLength; z++) {
+							float v = pixelValues[offset + z];
+							if (counts(v))
+								pixelValues[offset + length++] = v;
+						}
+						float result;
+						if (length == 0)
+							result = method == MEDIAN_METHOD ? Float.NaN : 0f;
+						else {
+							Arrays.sort(pixelValues, offset, offset + length);
+							if ((length & 1) == 0)
+								result =
+										(pixelValues[offset + length / 2 - 1] + pixelValues[offset + length / 2]) / 2f;
+							else
+								result = pixelValues[offset + length / 2];
+						}
+						output[blockStart + i] = result;
+					}
+					return null;
+				}
+			});
+		parFor.run(true);
+	}
+
+	/**
+	 * @return True if the state can be updated to hold range start..stop instead of being recomputed
+	 */
+	private boolean canMoveTo(IPluginIOStack input, int start, int stop) {
+		if (stateInput != input)
+			return false;
+		int rangeLength = stop - start + 1;
+		int overlap = Math.min(stop, stateStop) - Math.max(start, stateStart) + 1;
+		if (overlap <= 0)
+			return false;
+		int nChanges = (stateStop - stateStart + 1 - overlap) + (rangeLength - overlap);
+		if (nChanges >= rangeLength)
+			return false;
+		switch (stateType) {
+			case SUMS:
+				if (input.getPixelType() == PixelType.FLOAT_TYPE
+						&& removedSinceReset + nChanges > (long) MAX_REMOVALS_PER_RANGE * rangeLength)
+					return false;
+				return true;
+			case DEQUE:
+				return hasSlidingState && rangeLength <= capacity && start >= stateStart && stop >= stateStop;
+			case SORTED:
+				return hasSlidingState && rangeLength <= capacity;
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * @return True if deque or sorted state for a range of rangeLength slices can be allocated
+	 */
+	private boolean slidingStateFits(int rangeLength) {
+		long length = (long) nPixels * rangeLength;
+		long bytesPerEntry = stateType == StateType.DEQUE ? 8 : 4;
+		return length <= MAX_ARRAY_LENGTH
+				&& length * bytesPerEntry <= Runtime.getRuntime().maxMemory() * MAX_HEAP_FRACTION_FOR_STATE;
+	}
+
+	private void releaseSlidingState() {
+		hasSlidingState = false;
+		capacity = 0;
+		dequeSlice = null;
+		dequeValue = null;
+		sorted = null;
+	}
+
+	private void resetState(int rangeLength) {
+		removedSinceReset = 0;
+		switch (stateType) {
+			case SUMS:
+				Arrays.fill(sum, 0);
+				if (sum2 != null)
+					Arrays.fill(sum2, 0);
+				if (count != null)
+					Arrays.fill(count, 0);
+				break;
+			case DEQUE:
+				if (direct) {
+					if (extremum == null)
+						extremum = new float[nPixels];
+					Arrays.fill(extremum, method == MAX_METHOD ? -Float.MAX_VALUE : Float.MAX_VALUE);
+					break;
+				}
+				if (capacity < rangeLength || dequeSlice == null) {
+					// Release the old arrays before allocating the new ones
+					releaseSlidingState();
+					capacity = rangeLength;
+					dequeSlice = new int[nPixels * capacity];
+					dequeValue = new float[nPixels * capacity];
+				}
+				Arrays.fill(dequeHead, 0);
+				Arrays.fill(dequeLength, 0);
+				break;
+			case SORTED:
+				if (capacity < rangeLength || sorted == null) {
+					releaseSlidingState();
+					capacity = rangeLength;
+					sorted = new float[nPixels * capacity];
+				}
+				Arrays.fill(sortedLength, 0);
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	private static Object readSlice(ImageAccessor accessor, int z) {
+		try {
+			return accessor.getPixelZSliceCopy(z, ImageAccessor.DONT_CACHE_PIXELS);
+		} catch (IOException e) {
+			throw new PluginRuntimeException("Could not read slice " + z, e, true);
+		}
+	}
+
+	private static void load(Object slice, int start, int n, float[] destination) {
+		if (slice instanceof float[]) {
+			System.arraycopy(slice, start, destination, 0, n);
+		} else if (slice instanceof byte[]) {
+			final byte[] pixels = (byte[]) slice;
+			for (int i = 0; i < n; i++)
+				destination[i] = pixels[start + i] & 0xff;
+		} else if (slice instanceof short[]) {
+			final short[] pixels = (short[]) slice;
+			for (int i = 0; i < n; i++)
+				destination[i] = pixels[start + i] & 0xffff;
+		} else
+			throw new IllegalArgumentException("Unsupported pixel array " + slice);
+	}
+
+	private static boolean isFinite(float f) {
+		return f >= -Float.MAX_VALUE && f <= Float.MAX_VALUE;
+	}
+
+	/**
+	 * @return True if value v contributes to the projection
+	 */
+	private boolean counts(float v) {
+		if (method == AVG_METHOD_NON_0 || method == MEDIAN_METHOD_NON_0)
+			return v > 0 && v <= Float.MAX_VALUE;
+		return isFinite(v);
+	}
+
+	private void add(float[] values, int blockStart, int n, int slice) {
+		switch (stateType) {
+			case SUMS:
+				for (int i = 0; i < n; i++) {
+					double v = values[i];
+					if (!counts(values[i]))
+						continue;
+					int p = blockStart + i;
+					sum[p] += v;
+					if (sum2 != null)
+						sum2[p] += v * v;
+					if (count != null)
+						count[p]++;
+				}
+				break;
+			case DEQUE:
+				final boolean max = method == MAX_METHOD;
+				if (direct) {
+					for (int i = 0; i < n; i++) {
+						float v = values[i];
+						int p = blockStart + i;
+						if (counts(v) && (max ? v > extremum[p] : v < extremum[p]))
+							extremum[p] = v;
+					}
+					break;
+				}
+				for (int i = 0; i < n; i++) {
+					float v = values[i];
+					if (!counts(v))
+						continue;
+					int p = blockStart + i;
+					int offset = p * capacity;
+					int head = dequeHead[p];
+					int length = dequeLength[p];
+					// Drop the values that v dominates, starting from the most recent one
+					while (length > 0) {
+						int back = head + length - 1;
+						if (back >= capacity)
+							back -= capacity;
+						float b = dequeValue[offset + back];
+						if (max ? b > v : b < v)
+							break;
+						length--;
+					}
+					int back = head + length;
+					if (back >= capacity)
+						back -= capacity;
+					dequeValue[offset + back] = v;
+					dequeSlice[offset + back] = slice;
+					dequeLength[p] = length + 1;
+				}
+				break;
+			case SORTED:
+				for (int i = 0; i < n; i++) {
+					float v = values[i];
+					if (!counts(v))
+						continue;
+					int p = blockStart + i;
+					int offset = p * capacity;
+					int length = sortedLength[p];
+					int index = Arrays.binarySearch(sorted, offset, offset + length, v);
+					if (index < 0)
+						index = -index - 1;
+					System.arraycopy(sorted, index, sorted, index + 1, offset + length - index);
+					sorted[index] = v;
+					sortedLength[p] = length + 1;
+				}
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	private void remove(float[] values, int blockStart, int n) {
+		switch (stateType) {
+			case SUMS:
+				for (int i = 0; i < n; i++) {
+					double v = values[i];
+					if (!counts(values[i]))
+						continue;
+					int p = blockStart + i;
+					sum[p] -= v;
+					if (sum2 != null)
+						sum2[p] -= v * v;
+					if (count != null)
+						count[p]--;
+				}
+				break;
+			case SORTED:
+				for (int i = 0; i < n; i++) {
+					float v = values[i];
+					if (!counts(v))
+						continue;
+					int p = blockStart + i;
+					int offset = p * capacity;
+					int length = sortedLength[p];
+					int index = Arrays.binarySearch(sorted, offset, offset + length, v);
+					if (index < 0)
+						throw new IllegalStateException("Value " + v + " missing from sliding projection state");
+					System.arraycopy(sorted, index + 1, sorted, index, offset + length - index - 1);
+					sortedLength[p] = length - 1;
+				}
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Drops from the deques the values that come from slices before start.
+	 */
+	private void expire(int blockStart, int n, int start) {
+		for (int p = blockStart; p < blockStart + n; p++) {
+			int offset = p * capacity;
+			int head = dequeHead[p];
+			int length = dequeLength[p];
+			while (length > 0 && dequeSlice[offset + head] < start) {
+				head++;
+				if (head == capacity)
+					head = 0;
+				length--;
+			}
+			dequeHead[p] = head;
+			dequeLength[p] = length;
+		}
+	}
+
+	private void store(float[] output, int blockStart, int n, int rangeLength) {
+		for (int p = blockStart; p < blockStart + n; p++) {
+			float result;
+			switch (method) {
+				case AVG_METHOD:
+					result = (float) (sum[p] / rangeLength);
+					break;
+				case SUM_METHOD:
+					result = (float) sum[p];
+					break;
+				case AVG_METHOD_NON_0:
+					result = count[p] > 0 ? (float) (sum[p] / count[p]) : 0f;
+					break;
+				case SD_METHOD:
+					result = 0f;
+					if (rangeLength > 1) {
+						double variance = (rangeLength * sum2[p] - sum[p] * sum[p]) / rangeLength;
+						if (variance > 0)
+							result = (float) Math.sqrt(variance / (rangeLength - 1.0));
+					}
+					break;
+				case MAX_METHOD:
+					if (direct)
+						result = extremum[p];
+					else
+						result = dequeLength[p] > 0 ? dequeValue[p * capacity + dequeHead[p]] : -Float.MAX_VALUE;
+					break;
+				case MIN_METHOD:
+					if (direct)
+						result = extremum[p];
+					else
+						result = dequeLength[p] > 0 ? dequeValue[p * capacity + dequeHead[p]] : Float.MAX_VALUE;
+					break;
+				case MEDIAN_METHOD:
+				case MEDIAN_METHOD_NON_0:
+					int length = sortedLength[p];
+					int offset = p * capacity;
+					if (length == 0)
+						result = method == MEDIAN_METHOD ? Float.NaN : 0f;
+					else if ((length & 1) == 0)
+						result = (sorted[offset + length / 2 - 1] + sorted[offset + length / 2]) / 2f;
+					else
+						result = sorted[offset + length / 2];
+					break;
+				default:
+					throw new IllegalStateException();
+			}
+			output[p] = result;
+		}
+	}
+}
@@ -6,15 +6,11 @@
  ******************************************************************************/
 package pipeline.plugins.image_processing;
 
-import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.util.HashMap;
 import java.util.Map;
 
-import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 import pipeline.PreviewType;
 import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOHyperstack;
@@ -148,43 +144,8 @@ public class Threshold extends TwoDPlugin {
 
 	@Override
 	public void runSlice(ImageProcessor ip, ImageProcessor dest, PreviewType previewType) {
-
-		int width = ip.getWidth();
-		Rectangle roi = ip.getRoi();
-
-		if (ip instanceof FloatProcessor) {
-			float[] fp_pixels = (float[]) ip.getPixels();
-			float[] output_pixels = (float[]) dest.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					if (fp_pixels[p] < minThreshold) {
-						output_pixels[p] = minThreshold;
-					} else if (fp_pixels[p] > maxThreshold) {
-						output_pixels[p] = maxThreshold;
-					} else
-						output_pixels[p] = fp_pixels[p];
-
-		} else if (ip instanceof ByteProcessor) {
-			byte[] byte_pixels = (byte[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					if ((byte_pixels[p] & 0xff) < minThreshold) {
-						dest.putPixelValue(x, y, minThreshold);
-					} else if ((byte_pixels[p] & 0xff) > maxThreshold) {
-						dest.putPixelValue(x, y, maxThreshold);
-					} else
-						dest.putPixelValue(x, y, byte_pixels[p] & 0xff);
-		} else if (ip instanceof ShortProcessor) {
-			short[] short_pixels = (short[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					if ((short_pixels[p] & 0xffff) < minThreshold) {
-						dest.putPixelValue(x, y, minThreshold);
-					} else if ((short_pixels[p] & 0xffff) > maxThreshold) {
-						dest.putPixelValue(x, y, maxThreshold);
-					} else
-						dest.putPixelValue(x, y, short_pixels[p] & 0xffff);
-		}
+		ElementwiseKernel.builder(1).replaceOutside(minThreshold, maxThreshold, minThreshold, maxThreshold).build()
+				.apply(new Object[] { ip.getPixels() }, dest.getPixels(), ip.getWidth(), ip.getRoi());
 	}
 
 	@Override
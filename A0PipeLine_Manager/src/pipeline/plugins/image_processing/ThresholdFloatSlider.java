@@ -6,12 +6,8 @@
  ******************************************************************************/
 package pipeline.plugins.image_processing;
 
-import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 
-import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.util.HashMap;
 import java.util.Map;
@@ -155,35 +151,12 @@ public class ThresholdFloatSlider extends TwoDPlugin {
 
 	@Override
 	public void runSlice(ImageProcessor ip, ImageProcessor dest, PreviewType previewType) {
-
-		int width = ip.getWidth();
-		Rectangle roi = ip.getRoi();
-
 		float minValue = clipTo0 ? 0 : minThreshold;
 		float maxValue = clipTo0 ? 0 : maxThreshold;
 
-		if (ip instanceof FloatProcessor) {
-			float[] float_pixels = (float[]) ip.getPixels();
-			// float [] output_pixels=(float[]) dest.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					dest.putPixelValue(x, y,
-							(operation(float_pixels[p], minThreshold, maxThreshold, minValue, maxValue)));
-
-		} else if (ip instanceof ByteProcessor) {
-			byte[] byte_pixels = (byte[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-
-					dest.putPixelValue(x, y, ((byte) operation(byte_pixels[p] & 0xff, minThreshold, maxThreshold,
-							minValue, maxValue)) & 0xff);
-		} else if (ip instanceof ShortProcessor) {
-			short[] short_pixels = (short[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					dest.putPixelValue(x, y, ((short) operation(short_pixels[p] & 0xffff, minThreshold, maxThreshold,
-							minValue, maxValue)) & 0xffff);
-		}
+		ElementwiseKernel.Builder kernel = ElementwiseKernel.builder(1).conversion(ElementwiseKernel.Conversion.CAST);
+		addOperation(kernel, minThreshold, maxThreshold, minValue, maxValue);
+		kernel.build().apply(new Object[] { ip.getPixels() }, dest.getPixels(), ip.getWidth(), ip.getRoi());
 	}
 
 	@Override
@@ -204,14 +177,13 @@ public class ThresholdFloatSlider extends TwoDPlugin {
 		return result;
 	}
 
+	/**
+	 * Adds to kernel the operation applied to each pixel.
+	 */
 	@SuppressWarnings("static-method")
-	float operation(float pixelValue, float lowThreshold, float highThreshold, float minValue, float maxValue) {
-		if (pixelValue < lowThreshold) {
-			return minValue;
-		} else if (pixelValue > highThreshold) {
-			return maxValue;
-		} else
-			return pixelValue;
+	protected void addOperation(ElementwiseKernel.Builder kernel, float lowThreshold, float highThreshold,
+			float minValue, float maxValue) {
+		kernel.replaceOutside(lowThreshold, highThreshold, minValue, maxValue);
 	}
 
 }
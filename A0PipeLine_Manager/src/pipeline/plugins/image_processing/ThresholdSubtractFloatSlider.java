@@ -13,7 +13,8 @@ public class ThresholdSubtractFloatSlider extends ThresholdFloatSlider {
 	}
 
 	@Override
-	protected float operation(float pixelValue, float lowThreshold, float highThreshold, float a, float b) {
-		return Math.max(pixelValue - lowThreshold, 0);
+	protected void addOperation(ElementwiseKernel.Builder kernel, float lowThreshold, float highThreshold, float a,
+			float b) {
+		kernel.add(-lowThreshold).max(0);
 	}
 }
@@ -6,15 +6,11 @@
  ******************************************************************************/
 package pipeline.plugins.image_processing;
 
-import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.util.HashMap;
 import java.util.Map;
 
-import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
 import pipeline.PreviewType;
 import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOHyperstack;
@@ -145,44 +141,8 @@ public class ThresholdToBinaryFloatSlider extends TwoDPlugin {
 
 	@Override
 	public void runSlice(ImageProcessor ip, ImageProcessor dest, PreviewType previewType) {
-
-		int width = ip.getWidth();
-		Rectangle roi = ip.getRoi();
-
-		if (ip instanceof FloatProcessor) {
-			float[] fp_pixels = (float[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					if (fp_pixels[p] < minThreshold) {
-						dest.putPixelValue(x, y, 0);
-					} else if (fp_pixels[p] > maxThreshold) {
-						dest.putPixelValue(x, y, 0);
-					} else
-						dest.putPixelValue(x, y, 255);
-
-		} else if (ip instanceof ByteProcessor) {
-			byte[] fp_pixels = (byte[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++) {
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++) {
-					if ((fp_pixels[p] & 0xff) < minThreshold) {
-						dest.putPixelValue(x, y, 0);
-					} else if ((fp_pixels[p] & 0xff) > maxThreshold) {
-						dest.putPixelValue(x, y, 0);
-					} else
-						dest.putPixelValue(x, y, 255);
-				}
-			}
-		} else if (ip instanceof ShortProcessor) {
-			short[] fp_pixels = (short[]) ip.getPixels();
-			for (int y = roi.y; y < roi.y + roi.height; y++)
-				for (int x = roi.x, p = width * y + x; x < roi.x + roi.width; x++, p++)
-					if ((fp_pixels[p] & 0xffff) < minThreshold) {
-						dest.putPixelValue(x, y, 0);
-					} else if ((fp_pixels[p] & 0xffff) > maxThreshold) {
-						dest.putPixelValue(x, y, 0f);
-					} else
-						dest.putPixelValue(x, y, 255);
-		}
+		ElementwiseKernel.builder(1).threshold(minThreshold, maxThreshold, 255, 0).build()
+				.apply(new Object[] { ip.getPixels() }, dest.getPixels(), ip.getWidth(), ip.getRoi());
 	}
 
 	@Override
@@ -2,7 +2,6 @@
 package pipeline.plugins.image_processing;
 
 import ij.plugin.filter.GaussianBlur;
-import ij.process.Blitter;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
@@ -15,6 +14,7 @@ import pipeline.misc_util.ParameterListenerWeakRef;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
 import pipeline.parameters.AbstractParameter;
+import pipeline.parameters.BooleanParameter;
 import pipeline.parameters.FloatParameter;
 import pipeline.parameters.ParameterListener;
 import pipeline.parameters.ParameterListenerAdapter;
@@ -29,6 +29,10 @@ import pipeline.plugins.TwoDPlugin;
  * "Radius (Sigma)" is the standard deviation (blur radius) of the Gaussian blur that
  * is subtracted. "Mask Weight" determines the strength of filtering, where "Mask Weight"=1
  * would be an infinite weight of the high-pass filtered image that is added.
+ * The blur uses the same kernel and edge handling as ImageJ's GaussianBlur, applied with {@link SeparableBlur};
+ * results are the same up to rounding, except for sigmas above 8.5 pixels, for which GaussianBlur approximates the
+ * kernel by downscaling the image. "Fast approximate Gaussian" switches sigmas of at least 2 pixels to a recursive
+ * filter whose cost does not depend on sigma, at the price of slightly different results.
  */
 public class UnsharpMask extends TwoDPlugin {
 
@@ -79,14 +83,33 @@ public class UnsharpMask extends TwoDPlugin {
 	private AbstractParameter weight_param = new FloatParameter("Weight", "Sets the strength of the effect.", 0.9f,
 			0.0f, 1.0f, true, true, true, weightListener1);
 
+	private class FastGaussianListener extends ParameterListenerAdapter {
+
+		@Override
+		public void parameterValueChanged(boolean stillChanging, AbstractParameter parameterWhoseValueChanged,
+				boolean keepQuiet) {
+			if (fastGaussian_param.getBooleanValue() != fastGaussian) {
+				fastGaussian = fastGaussian_param.getBooleanValue();
+				pipelineCallback.parameterValueChanged(ourRow, null, false);
+			}
+		}
+	}
+
+	private ParameterListener fastGaussianListener0 = new FastGaussianListener();
+	private ParameterListener fastGaussianListener1 = new ParameterListenerWeakRef(fastGaussianListener0);
+
+	private BooleanParameter fastGaussian_param = new BooleanParameter("Fast approximate Gaussian",
+			"Approximate Gaussians of sigma 2 pixels or more with a recursive filter; much faster for large sigmas, "
+					+ "but results differ slightly from the exact kernel", false, true, fastGaussianListener1);
+
 	@Override
 	public ParameterListener[] getParameterListeners() {
-		return new ParameterListener[] { sigmaListener1, weightListener1 };
+		return new ParameterListener[] { sigmaListener1, weightListener1, fastGaussianListener1 };
 	}
 
 	@Override
 	public AbstractParameter[] getParameters() {
-		AbstractParameter[] paramArray = { sigma_param, weight_param };
+		AbstractParameter[] paramArray = { sigma_param, weight_param, fastGaussian_param };
 		return paramArray;
 	}
 
@@ -94,8 +117,12 @@ public class UnsharpMask extends TwoDPlugin {
 	public void setParameters(AbstractParameter[] param) {
 		sigma_param = param[0];
 		weight_param = param[1];
+		// Tables saved before the parameter was added do not have it
+		if (param.length > 2 && param[2] instanceof BooleanParameter)
+			fastGaussian_param = (BooleanParameter) param[2];
 		sigma = ((float[]) sigma_param.getValue())[0];
 		weight = ((float[]) weight_param.getValue())[0];
+		fastGaussian = fastGaussian_param.getBooleanValue();
 	}
 
 	@Override
@@ -124,7 +151,12 @@ public class UnsharpMask extends TwoDPlugin {
 
 	private double sigma = 1.0; // standard deviation of the Gaussian
 	private double weight = 0.9; // weight of the mask
+	private boolean fastGaussian = false;
 	private GaussianBlur gb;
+	private SeparableBlur.LineFilter filterX, filterY;
+	private double filterSigma = -1;
+	private boolean filterFast;
+	private int filterWidth, filterHeight;
 	private FloatProcessor tempFloatProcessor = null;
 
 	private int lastWidth = 0;
@@ -149,19 +181,48 @@ public class UnsharpMask extends TwoDPlugin {
 		sharpenFloat(ip, sigma, (float) weight);
 	}
 
-	/** Unsharp Mask filtering of a float image. */
-	public void sharpenFloat(ImageProcessor fp, double sigma, float weight) {
+	/**
+	 * Gaussian of given sigma over lines of given length, with the kernel ImageJ's GaussianBlur uses at accuracy
+	 * 0.01 and the same edge handling.
+	 */
+	private SeparableBlur.LineFilter createFilter(double sigma, int length, boolean fast) {
+		if (fast && sigma >= SeparableBlur.MIN_RECURSIVE_SIGMA)
+			return SeparableBlur.recursiveGaussian(sigma, SeparableBlur.Boundary.REPLICATE);
+		if (sigma <= 0)
+			return SeparableBlur.kernel(new float[] { 1 }, SeparableBlur.Boundary.REPLICATE);
 		if (gb == null)
 			gb = new GaussianBlur();
+		// One-sided kernel, starting at the center
+		float[] halfKernel = gb.makeGaussianKernel(sigma, 0.01, length)[0];
+		int radius = halfKernel.length - 1;
+		float[] kernel = new float[2 * radius + 1];
+		for (int i = 0; i <= radius; i++) {
+			kernel[radius + i] = halfKernel[i];
+			kernel[radius - i] = halfKernel[i];
+		}
+		return SeparableBlur.kernel(kernel, SeparableBlur.Boundary.REPLICATE);
+	}
+
+	/** Unsharp Mask filtering of a float image. */
+	public void sharpenFloat(ImageProcessor fp, double sigma, float weight) {
 		int width = fp.getWidth();
+		int height = fp.getHeight();
 		Rectangle roi = fp.getRoi();
-		if (fp instanceof FloatProcessor)
-			tempFloatProcessor.copyBits(fp, 0, 0, Blitter.COPY);
-		else {
+		if (!(fp instanceof FloatProcessor)) {
 			Utils.log("Our unsharp plugin is lazy and only takes float as input", LogLevel.ERROR);
 			throw new IllegalArgumentException();
 		}
-		gb.blurGaussian(tempFloatProcessor, sigma, sigma, 0.01);
+		if (filterX == null || filterSigma != sigma || filterFast != fastGaussian || filterWidth != width
+				|| filterHeight != height) {
+			filterX = createFilter(sigma, width, fastGaussian);
+			filterY = createFilter(sigma, height, fastGaussian);
+			filterSigma = sigma;
+			filterFast = fastGaussian;
+			filterWidth = width;
+			filterHeight = height;
+		}
+		SeparableBlur.filter2D((float[]) fp.getPixels(), (float[]) tempFloatProcessor.getPixels(), width, height,
+				filterX, filterY);
 		float[] blurred_pixels = (float[]) tempFloatProcessor.getPixels();
 		float[] output_pixels = (float[]) destination_processor.getPixels();
 		float[] fp_pixels = (float[]) fp.getPixels();
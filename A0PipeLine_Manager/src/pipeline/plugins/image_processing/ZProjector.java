@@ -18,12 +18,7 @@
 package pipeline.plugins.image_processing;
 
 import static processing_utilities.projection.RayFunction.MAX_METHOD;
-import static processing_utilities.projection.RayFunction.MEDIAN_METHOD;
-import static processing_utilities.projection.RayFunction.MEDIAN_METHOD_NON_0;
 import static processing_utilities.projection.RayFunction.METHODS;
-import static processing_utilities.projection.RayFunction.SD_METHOD;
-import static processing_utilities.projection.RayFunction.SUM_METHOD;
-import static processing_utilities.projection.RayFunction.projectSlice;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
@@ -31,9 +26,6 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -45,10 +37,8 @@ import pipeline.GUI_utils.image_with_toolbar.ActiveContourToolbar;
 import pipeline.GUI_utils.image_with_toolbar.ImageCanvasWithAnnotations;
 import pipeline.GUI_utils.image_with_toolbar.StackWindowWithToolbar;
 import pipeline.data.IPluginIOStack;
-import pipeline.data.ImageAccessor;
 import pipeline.data.InputOutputDescription;
 import pipeline.data.PluginIOImage.PixelType;
-import pipeline.data.SliceAccessor;
 import pipeline.data.video.MissingMagicNumber;
 import pipeline.data.video.VideoFrameInfo;
 import pipeline.misc_util.Pair;
@@ -66,7 +56,6 @@ import pipeline.parameters.ParameterListenerAdapter;
 import pipeline.parameters.SplitParameter;
 import pipeline.parameters.SplitParameterListener;
 import pipeline.plugins.ThreeDPlugin;
-import processing_utilities.projection.RayFunction;
 
 public class ZProjector extends ThreeDPlugin {
 
@@ -229,7 +218,7 @@ public class ZProjector extends ThreeDPlugin {
 			}
 			preferredStartSlice = ((int[]) intRangeParam.getValue())[0];
 			preferredStopSlice = ((int[]) intRangeParam.getValue())[1];
-			final int sliceInterval = preferredStopSlice - preferredStartSlice + 1;
+			final int sliceInterval = getSliceStep();
 			startButton.setStillChanging(true);
 			final int[] currentSettings = (int[]) intRangeParam.getValue();
 
@@ -346,7 +335,7 @@ public class ZProjector extends ThreeDPlugin {
 				return;
 			preferredStartSlice = ((int[]) intRangeParam.getValue())[0];
 			preferredStopSlice = ((int[]) intRangeParam.getValue())[1];
-			int sliceInterval = preferredStopSlice - preferredStartSlice + 1;
+			int sliceInterval = getSliceStep();
 
 			if ((event != null) && ((event.getModifiers() & ActionEvent.SHIFT_MASK) != 0)) {
 				sliceInterval = sliceInterval * -1;
@@ -363,6 +352,15 @@ public class ZProjector extends ThreeDPlugin {
 		}
 	}
 
+	/**
+	 * @return Number of slices by which the range moves at each animation frame or step: as set by the user, or the
+	 *         length of the range (so that successive frames do not overlap) if set to 0
+	 */
+	private int getSliceStep() {
+		int step = movieStep.getintValue();
+		return step > 0 ? step : preferredStopSlice - preferredStartSlice + 1;
+	}
+
 	private ParameterListener stepListener0 = new StepListener();
 	private ParameterListener stepListener1 = new ParameterListenerWeakRef(stepListener0);
 
@@ -454,7 +452,13 @@ public class ZProjector extends ThreeDPlugin {
 			stopButton.addPluginListener(stopListener1);
 			stepButton = (ActionParameter) params[4];
 			stepButton.addPluginListener(stepListener1);
-			splitRangeMovie = split;
+			if (params.length > 5) {
+				movieStep = (IntParameter) params[5];
+				splitRangeMovie = split;
+			} else
+				splitRangeMovie =
+						new SplitParameter(new Object[] { intRangeParam, movieFrameInterval, startButton,
+								stopButton, stepButton, movieStep });
 		}
 
 		frameInterval = movieFrameInterval.getintValue();
@@ -482,9 +486,13 @@ public class ZProjector extends ThreeDPlugin {
 	private ActionParameter startButton = new ActionParameter("Start animation", "", true, startListener1);
 	private ActionParameter stopButton = new ActionParameter("Stop animation", "", true, stopListener1);
 	private ActionParameter stepButton = new ActionParameter("Animation step", "", true, stepListener1);
+	private IntParameter movieStep = new IntParameter("Slices per step",
+			"Number of slices by which the range moves at each animation frame or step; 0 to move by the length of "
+					+ "the range. Small steps are computed incrementally from the previous frame.", 0, 0, 20, true,
+			true, null);
 
 	private SplitParameter splitRangeMovie = new SplitParameter(new Object[] { intRangeParam, movieFrameInterval,
-			startButton, stopButton, stepButton });
+			startButton, stopButton, stepButton, movieStep });
 
 	@Override
 	public AbstractParameter[] getParameters() {
@@ -514,9 +522,6 @@ public class ZProjector extends ThreeDPlugin {
 	public int startSlice = 1;
 	public int stopSlice = 1;
 
-	private int increment = 1;
-	private int sliceCount;
-
 	public int method = MAX_METHOD;
 
 	public void setMethod(int projMethod) {
@@ -550,23 +555,21 @@ public class ZProjector extends ThreeDPlugin {
 
 	public int numberOfThreadsToUse = 8;
 
-	private transient float[][] outputArrays = new float[numberOfThreadsToUse][];
-	private transient RayFunction[] rayFuncArray = new RayFunction[numberOfThreadsToUse];
-	private transient Runnable[] tasks = new Runnable[numberOfThreadsToUse];
-	private transient Future<?>[] futures = new Future[numberOfThreadsToUse];
-
-	private transient AtomicInteger sliceRegistry = new AtomicInteger();
-	private transient AtomicInteger threadId = new AtomicInteger();
-
-	private volatile boolean abort;
+	/**
+	 * Kept between calls so that when only the slice range changes (movie mode, range slider) the projection is
+	 * updated incrementally
+	 */
+	private transient SlidingZProjection slidingProjection;
 
 	/**
 	 * Performs actual projection using specified method.
+	 * 
+	 * @param inputHasChanged
+	 *            If false, the contents of input are assumed to be the same as in the previous call, and the
+	 *            projection is updated by only adding and removing the slices that entered or left the range
 	 */
 	public void doProjection(final IPluginIOStack input, IPluginIOStack output, final ProgressReporter progress,
 			PreviewType previewType, boolean inputHasChanged) throws InterruptedException {
-		sliceCount = 0;
-
 		if (progress != null) {
 			if (progress.isIndeterminate())
 				progressSetIndeterminateThreadSafe(progress, false);
@@ -575,231 +578,14 @@ public class ZProjector extends ThreeDPlugin {
 				progressSetValueThreadSafe(progress, 0);
 		}
 
-		final PixelType pType = input.getPixelType();
-
-		for (int slice = startSlice; slice <= stopSlice; slice += increment)
-			sliceCount++;
-		if (method == MEDIAN_METHOD) {
-			doMedianProjection(input, output);
-			return;
-		}
-		if (method == MEDIAN_METHOD_NON_0) {
-			doMedianProjection_non_0(input, output);
-			return;
-		}
-
-		int arrayLength = ((float[]) output.getPixels(0)).length;
-		for (int i = 0; i < numberOfThreadsToUse; i++) {
-			if ((outputArrays[i] == null) || (outputArrays[i].length != arrayLength)) {
-				outputArrays[i] = new float[arrayLength];
-			}
-			rayFuncArray[i] =
-					RayFunction.getRayFunction(method, outputArrays[i], sliceCount, -Float.MAX_VALUE, Float.MAX_VALUE);
-			rayFuncArray[i].preProcess();
-		}
-		RayFunction rayFunc =
-				RayFunction.getRayFunction(method, (float[]) output.getPixels(0), sliceCount, -Float.MAX_VALUE,
-						Float.MAX_VALUE);
-
-		rayFunc.preProcess();
-
-		threadId.set(0);
-		sliceRegistry.set(startSlice);
-
-		abort = false;
-		final float progressMultiplyingFactor = 100.0f / ((float) stopSlice - startSlice);
-
-		final boolean isVirtual = input.isVirtual();
-		final ImageAccessor imageAccessor = isVirtual ? input.getImageAccessor() : null;
-
-		for (int i = 0; i < numberOfThreadsToUse; i++) {
-			tasks[i] =
-					() -> {
-						try {
-							int ourId = threadId.getAndIncrement();
-							int sliceModulo10 = 0;
-
-							float[] floatPixels = null;
-							byte[] bytePixels = null;
-							short[] shortPixels = null;
-							SliceAccessor sliceAccessor = null;
-							if (isVirtual) {
-								if (pType == PixelType.FLOAT_TYPE) {
-									floatPixels = new float[input.getWidth() * input.getHeight()];
-								} else if (pType == PixelType.BYTE_TYPE) {
-									bytePixels = new byte[input.getWidth() * input.getHeight()];
-								} else if (pType == PixelType.SHORT_TYPE) {
-									shortPixels = new short[input.getWidth() * input.getHeight()];
-								}
-								sliceAccessor = imageAccessor.getSlicesAccessor();
-							}
-
-							for (int n = sliceRegistry.getAndAdd(increment); n <= stopSlice; n =
-									sliceRegistry.getAndAdd(increment)) {
-
-								if (isVirtual) {
-									if (pType == PixelType.FLOAT_TYPE) {
-										sliceAccessor.copyPixelSliceIntoArray(n - 1, ImageAccessor.DONT_CACHE_PIXELS,
-												floatPixels);
-										projectSlice(floatPixels, rayFuncArray[ourId], pType);
-									} else if (pType == PixelType.BYTE_TYPE) {
-										sliceAccessor.copyPixelSliceIntoArray(n - 1, ImageAccessor.DONT_CACHE_PIXELS,
-												bytePixels);
-										projectSlice(bytePixels, rayFuncArray[ourId], pType);
-									} else if (pType == PixelType.SHORT_TYPE) {
-										sliceAccessor.copyPixelSliceIntoArray(n - 1, ImageAccessor.DONT_CACHE_PIXELS,
-												shortPixels);
-										projectSlice(shortPixels, rayFuncArray[ourId], pType);
-									}
-								} else
-									projectSlice(input.getPixels(n - 1), rayFuncArray[ourId], pType);
-
-								if (abort)
-									return;
-								if ((progress != null) && (sliceModulo10++ == 10)) {
-									if (Thread.interrupted()) {
-										returnValue = THREAD_INTERRUPTED;
-										return;
-									}
-									int ourProgress = (int) ((n - startSlice) * progressMultiplyingFactor);
-									if (ourProgress > progress.getValue())
-										progressSetValueThreadSafe(progress, ourProgress); // not perfect but at least
-																							// does not require
-																							// synchronization
-									sliceModulo10 = 0;
-								}
-							}
-						} catch (Exception e) {
-							abort = true;
-							returnValue = 1;
-							Utils.printStack(e);
-						}
-					};
-			futures[i] = threadPool.submit(tasks[i], 0);
-		}
-
-		for (int i = 0; i < numberOfThreadsToUse; i++) {
-			try {
-				futures[i].get();
-			} catch (InterruptedException e) {
-				abort = true;
-				Utils.printStack(e);
-				i--;// Wait for all the tasks to complete (should be quick since we set the abort flag)
-			} catch (ExecutionException e) {
-				abort = true;
-				returnValue = 1;
-				Utils.printStack(e);
-			}
-		}
-
-		if (abort)
-			throw new InterruptedException();
+		int projectionMethod = method < 0 ? MAX_METHOD : method;
+		if (slidingProjection == null
+				|| !slidingProjection.accepts(projectionMethod, input.getWidth(), input.getHeight()))
+			slidingProjection = new SlidingZProjection(projectionMethod, input.getWidth(), input.getHeight());
+		else if (inputHasChanged)
+			slidingProjection.invalidate();
 
-		// Finish up projection.
-		if (method == SUM_METHOD) {
-		} else if (method == SD_METHOD) {
-			for (int i = 0; i < numberOfThreadsToUse; i++) {
-				rayFuncArray[i].postProcess();
-			}
-		} else {
-			for (int i = 0; i < numberOfThreadsToUse; i++) {
-				rayFuncArray[i].postProcess();
-			}
-		}
-
-		// Now project the projections
-
-		for (int i = 0; i < numberOfThreadsToUse; i++) {
-			projectSlice(outputArrays[i], rayFunc, PixelType.FLOAT_TYPE);
-		}
-
-		// Finish up projection.
-		if (method == SUM_METHOD) {
-		} else if (method == SD_METHOD) {
-			rayFunc.postProcess();
-		} else {
-			rayFunc.postProcess();
-		}
-
-	}
-
-	private void doMedianProjection(IPluginIOStack input, IPluginIOStack output) {
-		float[] values = new float[sliceCount];
-		for (int y = 0; y < input.getHeight(); y++) {
-			for (int x = 0; x < input.getWidth(); x++) {
-				for (int i = 0; i < sliceCount; i++)
-					values[i] = input.getPixelValue(x, y, i);
-				output.setPixelValue(x, y, 0, median(values));
-			}
-		}
-	}
-
-	private void doMedianProjection_non_0(IPluginIOStack input, IPluginIOStack output) {
-		float[] values = new float[sliceCount];
-		for (int y = 0; y < input.getHeight(); y++) {
-			for (int x = 0; x < input.getWidth(); x++) {
-				int value_count = 0;
-				for (int i = 0; i < sliceCount; i++) {
-					float v = input.getPixelValue(x, y, i);
-					if (v > 0.0) {
-						values[value_count++] = v;
-					}
-				}
-				if (value_count > 0) {
-					float[] new_array = new float[value_count];
-					System.arraycopy(values, 0, new_array, 0, value_count);
-					output.setPixelValue(x, y, 0, median(new_array));
-				}// 0 was 1
-				else {
-					output.setPixelValue(x, y, 0, 0.0f);// 0 was 1
-				}
-			}
-		}
-	}
-
-	private float median(float[] a) {
-		sort(a);
-		int length = a.length;
-		if ((length & 1) == 0)
-			return (a[length / 2 - 1] + a[length / 2]) / 2f; // even
-		else
-			return a[length / 2]; // odd
-	}
-
-	private void sort(float[] a) {
-		if (!alreadySorted(a))
-			sort(a, 0, a.length - 1);
-	}
-
-	private void sort(float[] a, int from, int to) {
-		int i = from, j = to;
-		float center = a[(from + to) / 2];
-		do {
-			while (i < to && center > a[i])
-				i++;
-			while (j > from && center < a[j])
-				j--;
-			if (i < j) {
-				float temp = a[i];
-				a[i] = a[j];
-				a[j] = temp;
-			}
-			if (i <= j) {
-				i++;
-				j--;
-			}
-		} while (i <= j);
-		if (from < j)
-			sort(a, from, j);
-		if (i < to)
-			sort(a, i, to);
-	}
-
-	private static boolean alreadySorted(float[] a) {
-		for (int i = 1; i < a.length; i++) {
-			if (a[i] < a[i - 1])
-				return false;
-		}
-		return true;
+		slidingProjection.project(input, startSlice - 1, stopSlice - 1, (float[]) output.getPixels(0), progress,
+				numberOfThreadsToUse);
 	}
 }
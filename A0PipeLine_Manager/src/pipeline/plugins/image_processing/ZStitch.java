@@ -8,7 +8,10 @@ package pipeline.plugins.image_processing;
 
 import ij.measure.Calibration;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 
@@ -20,9 +23,14 @@ import pipeline.GUI_utils.image_with_toolbar.PluginIOHyperstackWithToolbar;
 import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOHyperstack;
 import pipeline.data.IPluginIOStack;
+import pipeline.data.ImageAccessor;
 import pipeline.data.PluginIOHyperstack;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.data.PluginIOStack;
+import pipeline.data.tiff_read_write.TIFFFileAccessor;
+import pipeline.misc_util.FileNameUtils;
+import pipeline.misc_util.FormatException;
+import pipeline.misc_util.IntrospectionParameters.ParameterInfo;
 import pipeline.misc_util.PluginRuntimeException;
 import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
@@ -35,7 +43,9 @@ import pipeline.plugins.SpecialDimPlugin;
 import pipeline.plugins.input_output.MergeFiles;
 
 /**
- * Concatenate TIFF stacks whose path is given a path that can contain wildcards.
+ * Concatenate TIFF stacks whose path is given a path that can contain wildcards. By default the result is held in RAM;
+ * in streaming mode, source stacks are opened one at a time and their slices are written as they are read to a
+ * temporary TIFF file, which downstream plugins read as a virtual stack.
  *
  */
 public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryInputOutputPlugin {
@@ -43,9 +53,14 @@ public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryIn
 	@Override
 	public String getToolTip() {
 		return "Concatenate stacks whose path is given a path that can contain wildcards. "
-				+ "At this point result must fit in RAM";
+				+ "Unless streaming to file, result must fit in RAM (and only 8-bit images are supported)";
 	}
 
+	@ParameterInfo(userDisplayName = "Stream to file", stringValue = "FALSE", noErrorIfMissingOnReload = true,
+			changeTriggersLiveUpdates = false, description = "Write the result slice by slice to a temporary file "
+					+ "instead of holding it in RAM; sources are read one at a time")
+	private boolean streamToFile;
+
 	@Override
 	public String operationName() {
 		return "ZStitch";
@@ -57,16 +72,40 @@ public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryIn
 	}
 
 	private int depth, width, height;
+	private PixelType pixelType;
+	private Calibration calibration;
 
 	private void computeDimensions() throws InterruptedException {
-
-		List<IPluginIO> stacks = openInputFiles(null);
-		int[] stackIndices = checkSelection(selectedFiles, stacks.size());
-
 		depth = 0;
 		width = 0;
 		height = 0;
 
+		if (streamToFile) {
+			pixelType = null;
+			calibration = null;
+			// Only keep one source open at a time
+			for (String fileName : getSortedSelectedPaths()) {
+				TIFFFileAccessor stack = openStack(fileName);
+				try {
+					if (pixelType == null) {
+						pixelType = stack.getPixelType();
+						calibration = stack.getCalibration();
+					}
+					if (stack.getWidth() > width)
+						width = stack.getWidth();
+					if (stack.getHeight() > height)
+						height = stack.getHeight();
+					depth += countReadableSlices(stack);
+				} finally {
+					closeStack(stack);
+				}
+			}
+			return;
+		}
+
+		List<IPluginIO> stacks = openInputFiles(null);
+		int[] stackIndices = checkSelection(selectedFiles, stacks.size());
+
 		for (int stackIndex : stackIndices) {
 			IPluginIOStack stack = (IPluginIOStack) stacks.get(stackIndex);
 			if (stack.getWidth() > width)
@@ -84,6 +123,82 @@ public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryIn
 		}
 	}
 
+	/**
+	 * Stacks can be truncated (e.g. if acquisition was interrupted); in the common case where the last slice can be
+	 * read, avoid reading all the other ones.
+	 */
+	private static int countReadableSlices(TIFFFileAccessor stack) {
+		if (stack.getDepth() == 0 || canReadSlice(stack, stack.getDepth() - 1))
+			return stack.getDepth();
+		int result = 0;
+		while (result < stack.getDepth() - 1 && canReadSlice(stack, result))
+			result++;
+		return result;
+	}
+
+	private static boolean canReadSlice(TIFFFileAccessor stack, int z) {
+		try {
+			copySlice(stack, z, allocateSlice(stack.getPixelType(), stack.getWidth() * stack.getHeight()));
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static Object allocateSlice(PixelType pType, int size) {
+		switch (pType) {
+			case BYTE_TYPE:
+				return new byte[size];
+			case SHORT_TYPE:
+				return new short[size];
+			case FLOAT_TYPE:
+				return new float[size];
+			default:
+				throw new PluginRuntimeException("Unsupported pixel type " + pType, true);
+		}
+	}
+
+	private static void copySlice(TIFFFileAccessor stack, int z, Object destination) throws IOException {
+		if (destination instanceof byte[])
+			stack.copyPixelSliceIntoArray(z, ImageAccessor.DONT_CACHE_PIXELS, (byte[]) destination);
+		else if (destination instanceof short[])
+			stack.copyPixelSliceIntoArray(z, ImageAccessor.DONT_CACHE_PIXELS, (short[]) destination);
+		else
+			stack.copyPixelSliceIntoArray(z, ImageAccessor.DONT_CACHE_PIXELS, (float[]) destination);
+	}
+
+	/**
+	 * @return Expanded paths of selected files, in the same order as used by {@link #openInputFiles}
+	 */
+	private List<String> getSortedSelectedPaths() {
+		List<String> result = new ArrayList<>();
+		for (String fileName : getSelectedFileNames()) {
+			result.add(FileNameUtils.expandPath(fileName));
+		}
+		result.sort(Comparator.comparing(p -> new File(p).getAbsolutePath()));
+		return result;
+	}
+
+	private static TIFFFileAccessor openStack(String path) {
+		try {
+			IPluginIO result = openInputFile(path);
+			if (!(result instanceof TIFFFileAccessor))
+				throw new PluginRuntimeException("ZStitch can only stream TIFF files; cannot handle "
+						+ FileNameUtils.compactPath(path), true);
+			return (TIFFFileAccessor) result;
+		} catch (IOException | FormatException e) {
+			throw new PluginRuntimeException("Could not open file " + FileNameUtils.compactPath(path), e, true);
+		}
+	}
+
+	private static void closeStack(TIFFFileAccessor stack) {
+		try {
+			stack.close();
+		} catch (IOException e) {
+			Utils.printStack(e);
+		}
+	}
+
 	@Override
 	public int getOutputDepth(IPluginIO input) {
 		return depth;
@@ -122,6 +237,11 @@ public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryIn
 			PreviewType previewType, boolean inputHasChanged, AbstractParameter parameterWhoseValueChanged,
 			boolean stayInCoreLoop) throws InterruptedException {
 
+		if (streamToFile) {
+			streamSlices(r);
+			return;
+		}
+
 		IPluginIOHyperstack destination = (IPluginIOStack) getOutput();
 		int z = 0;
 
@@ -175,12 +295,90 @@ public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryIn
 		}
 	}
 
+	/**
+	 * Copies slices from the sources to the destination file one at a time, so that only one source is open and only
+	 * two slices are held in memory at any point (the writer may hold a few more while they are being written out).
+	 */
+	private void streamSlices(ProgressReporter r) throws InterruptedException {
+		TIFFFileAccessor destination = (TIFFFileAccessor) getOutput();
+		List<String> paths = getSortedSelectedPaths();
+		Object globalSlice = null;
+		Object localSlice;
+		int z = 0;
+
+		r.setMin(0);
+		r.setMax(paths.size());
+		int loopIndex = 0;
+		try {
+			for (String path : paths) {
+				TIFFFileAccessor stack = openStack(path);
+				try {
+					if (stack.getPixelType() != pixelType)
+						throw new PluginRuntimeException("Pixel type " + stack.getPixelType() + " of "
+								+ FileNameUtils.compactPath(path) + " does not match type " + pixelType
+								+ " of first stack", true);
+					int localWidth = stack.getWidth();
+					int localHeight = stack.getHeight();
+					localSlice = allocateSlice(pixelType, localWidth * localHeight);
+					if (localWidth != width || localHeight != height) {
+						// Fresh array so that the padding is zero and not left over from a previous stack
+						globalSlice = allocateSlice(pixelType, width * height);
+					}
+					int nSlices = countReadableSlices(stack);
+					for (int localZ = 0; localZ < nSlices; localZ++) {
+						if (z == depth)
+							throw new PluginRuntimeException("Sources have more slices than when output was created",
+									true);
+						copySlice(stack, localZ, localSlice);
+						if (localWidth == width && localHeight == height)
+							destination.copyPixelsIntoZSlice(localSlice, z, ImageAccessor.DONT_CACHE_PIXELS);
+						else {
+							for (int y = 0; y < localHeight; y++) {
+								System.arraycopy(localSlice, y * localWidth, globalSlice, y * width, localWidth);
+							}
+							destination.copyPixelsIntoZSlice(globalSlice, z, ImageAccessor.DONT_CACHE_PIXELS);
+						}
+						z++;
+					}
+				} finally {
+					closeStack(stack);
+				}
+				loopIndex++;
+				r.setValue(loopIndex);
+			}
+		} catch (IOException | FormatException e) {
+			throw new PluginRuntimeException("Error while streaming Z stitch result to file", e, true);
+		}
+		if (z < depth)
+			throw new PluginRuntimeException("Sources have fewer slices (" + z + ") than when output was created ("
+					+ depth + ")", true);
+	}
+
 	@Override
 	public List<PluginIOView> createOutput(String outputName, PluginIOHyperstackViewWithImagePlus impForDisplay,
 			Map<String, IPluginIO> linkedOutputs) throws InterruptedException {
 
 		computeDimensions();
 
+		if (streamToFile) {
+			if (pixelType == null)
+				throw new PluginRuntimeException("No files selected", true);
+			Calibration cal = calibration != null ? (Calibration) calibration.clone() : null;
+			try {
+				File f = File.createTempFile("storage_for_output_ZStitch", ".tiff");
+				f.deleteOnExit();
+				TIFFFileAccessor createdOutput = new TIFFFileAccessor(f, "Z stitch", pixelType, cal, true);
+				createdOutput.setDimensions(width, height, depth, 1, 1);
+				setOutput("Default destination", createdOutput, true);
+				Utils.log("Z stitch: streaming " + width + "x" + height + "x" + depth + " result to "
+						+ f.getAbsolutePath(), LogLevel.INFO);
+			} catch (IOException e) {
+				throw new PluginRuntimeException("Could not create file to stream Z stitch result to", e, true);
+			}
+			// Result cannot be displayed before it has been written
+			return new ArrayList<>();
+		}
+
 		PluginIOHyperstack createdOutput =
 				new PluginIOStack("Z sitch", width, height, depth, 1, getOutputPixelType(null));
 
@@ -212,6 +410,17 @@ public class ZStitch extends MergeFiles implements SpecialDimPlugin, AuxiliaryIn
 
 	@Override
 	public PixelType getOutputPixelType(IPluginIOStack input) throws InterruptedException {
+		if (streamToFile) {
+			List<String> paths = getSortedSelectedPaths();
+			if (paths.isEmpty())
+				throw new PluginRuntimeException("No files selected", true);
+			TIFFFileAccessor stack = openStack(paths.get(0));
+			try {
+				return stack.getPixelType();
+			} finally {
+				closeStack(stack);
+			}
+		}
 		return ((IPluginIOStack) openInputFiles(null).get(0)).getPixelType();
 	}
 
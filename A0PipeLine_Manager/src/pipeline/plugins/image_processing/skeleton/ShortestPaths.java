@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing.skeleton;
+
+import java.util.Arrays;
+
+/**
+ * Single-source shortest paths in sparse graphs: Dijkstra's algorithm with a binary heap of node indices for weighted
+ * graphs, and breadth-first search for unweighted ones. Memory use is linear in the number of nodes, instead of
+ * quadratic as for all-pairs algorithms such as Floyd-Warshall.
+ *
+ */
+public class ShortestPaths {
+
+	/**
+	 * Graph whose nodes are numbered from 0 to size() - 1. Adjacency can be computed on the fly (see
+	 * {@link VoxelGraph}).
+	 */
+	public interface Graph {
+		int size();
+
+		/**
+		 * Calls consumer once for each edge leaving node.
+		 */
+		void forEachNeighbor(int node, NeighborConsumer consumer);
+	}
+
+	@FunctionalInterface
+	public interface NeighborConsumer {
+		void accept(int neighbor, double weight);
+	}
+
+	/**
+	 * Shortest paths from a source node.
+	 */
+	public static final class Result {
+		public final int source;
+		/**
+		 * Distance from source, or Double.POSITIVE_INFINITY for nodes that are not reachable (or that were not reached
+		 * before the search was stopped).
+		 */
+		public final double[] distance;
+		/**
+		 * Node that precedes each node on its shortest path from source, or -1 for source and unreached nodes.
+		 */
+		public final int[] predecessor;
+
+		Result(int source, int size) {
+			this.source = source;
+			distance = new double[size];
+			Arrays.fill(distance, Double.POSITIVE_INFINITY);
+			predecessor = new int[size];
+			Arrays.fill(predecessor, -1);
+			distance[source] = 0;
+		}
+
+		/**
+		 * @param target
+		 * @return Nodes of shortest path, from source to target inclusive; empty if target was not reached
+		 */
+		public int[] getPathTo(int target) {
+			if (distance[target] == Double.POSITIVE_INFINITY)
+				return new int[0];
+			int length = 1;
+			for (int node = target; node != source; node = predecessor[node])
+				length++;
+			int[] path = new int[length];
+			for (int node = target; length > 0; node = predecessor[node])
+				path[--length] = node;
+			return path;
+		}
+	}
+
+	/**
+	 * @param graph
+	 *            Edge weights must not be negative
+	 * @param source
+	 * @param target
+	 *            Search stops once the shortest path to this node is known; -1 to compute paths to all nodes
+	 * @return Shortest paths from source
+	 */
+	public static Result dijkstra(Graph graph, int source, int target) {
+		final Result result = new Result(source, graph.size());
+		final double[] distance = result.distance;
+		final int[] predecessor = result.predecessor;
+		final boolean[] settled = new boolean[graph.size()];
+		final Heap heap = new Heap(distance);
+		heap.insert(source);
+
+		while (!heap.isEmpty()) {
+			if (Thread.interrupted())
+				throw new RuntimeException("Interrupted");
+			final int node = heap.removeMin();
+			settled[node] = true;
+			if (node == target)
+				break;
+			final double nodeDistance = distance[node];
+			graph.forEachNeighbor(node, (neighbor, weight) -> {
+				if (settled[neighbor])
+					return;
+				double d = nodeDistance + weight;
+				if (d < distance[neighbor]) {
+					boolean inHeap = distance[neighbor] != Double.POSITIVE_INFINITY;
+					distance[neighbor] = d;
+					predecessor[neighbor] = node;
+					if (inHeap)
+						heap.decreased(neighbor);
+					else
+						heap.insert(neighbor);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Shortest paths in number of edges, ignoring edge weights.
+	 *
+	 * @param graph
+	 * @param source
+	 * @param target
+	 *            Search stops once this node is reached; -1 to compute paths to all nodes
+	 * @return Shortest paths from source, with distances counted in number of edges
+	 */
+	public static Result bfs(Graph graph, int source, int target) {
+		final Result result = new Result(source, graph.size());
+		final double[] distance = result.distance;
+		final int[] predecessor = result.predecessor;
+		final int[] queue = new int[graph.size()];
+		int head = 0, tail = 0;
+		queue[tail++] = source;
+		while (head < tail) {
+			final int node = queue[head++];
+			if (node == target)
+				break;
+			final double nodeDistance = distance[node];
+			final int[] tailHolder = { tail };
+			graph.forEachNeighbor(node, (neighbor, weight) -> {
+				if (distance[neighbor] != Double.POSITIVE_INFINITY)
+					return;
+				distance[neighbor] = nodeDistance + 1;
+				predecessor[neighbor] = node;
+				queue[tailHolder[0]++] = neighbor;
+			});
+			tail = tailHolder[0];
+		}
+		return result;
+	}
+
+	/**
+	 * @param size
+	 *            Number of nodes
+	 * @param from
+	 * @param to
+	 * @param weights
+	 * @return Undirected graph with edges from[i]--to[i] of weight weights[i]; several edges may link the same pair
+	 *         of nodes
+	 */
+	public static Graph fromEdges(final int size, int[] from, int[] to, double[] weights) {
+		// Compressed adjacency lists
+		final int[] firstEdge = new int[size + 1];
+		for (int i = 0; i < from.length; i++) {
+			firstEdge[from[i] + 1]++;
+			firstEdge[to[i] + 1]++;
+		}
+		for (int i = 0; i < size; i++) {
+			firstEdge[i + 1] += firstEdge[i];
+		}
+		final int[] neighbors = new int[2 * from.length];
+		final double[] edgeWeights = new double[2 * from.length];
+		int[] next = Arrays.copyOf(firstEdge, size);
+		for (int i = 0; i < from.length; i++) {
+			neighbors[next[from[i]]] = to[i];
+			edgeWeights[next[from[i]]++] = weights[i];
+			neighbors[next[to[i]]] = from[i];
+			edgeWeights[next[to[i]]++] = weights[i];
+		}
+
+		return new Graph() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public void forEachNeighbor(int node, NeighborConsumer consumer) {
+				for (int i = firstEdge[node]; i < firstEdge[node + 1]; i++) {
+					consumer.accept(neighbors[i], edgeWeights[i]);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Binary min-heap of node indices, ordered by their current distance. Keeps track of the position of each node so
+	 * that its key can be decreased in place.
+	 */
+	private static final class Heap {
+		private final double[] keys;
+		private final int[] nodes;
+		private final int[] positions;
+		private int size;
+
+		Heap(double[] keys) {
+			this.keys = keys;
+			nodes = new int[keys.length];
+			positions = new int[keys.length];
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void insert(int node) {
+			nodes[size] = node;
+			positions[node] = size;
+			siftUp(size++);
+		}
+
+		void decreased(int node) {
+			siftUp(positions[node]);
+		}
+
+		int removeMin() {
+			int min = nodes[0];
+			size--;
+			if (size > 0) {
+				nodes[0] = nodes[size];
+				positions[nodes[0]] = 0;
+				siftDown(0);
+			}
+			return min;
+		}
+
+		private void siftUp(int i) {
+			int node = nodes[i];
+			double key = keys[node];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				int parentNode = nodes[parent];
+				if (keys[parentNode] <= key)
+					break;
+				nodes[i] = parentNode;
+				positions[parentNode] = i;
+				i = parent;
+			}
+			nodes[i] = node;
+			positions[node] = i;
+		}
+
+		private void siftDown(int i) {
+			int node = nodes[i];
+			double key = keys[node];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size)
+					break;
+				if (child + 1 < size && keys[nodes[child + 1]] < keys[nodes[child]])
+					child++;
+				int childNode = nodes[child];
+				if (keys[childNode] >= key)
+					break;
+				nodes[i] = childNode;
+				positions[childNode] = i;
+				i = child;
+			}
+			nodes[i] = node;
+			positions[node] = i;
+		}
+	}
+}
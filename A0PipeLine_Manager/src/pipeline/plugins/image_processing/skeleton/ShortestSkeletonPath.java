@@ -5,10 +5,11 @@ import ij.IJ;
 import ij.measure.Calibration;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
 import pipeline.PreviewType;
@@ -32,8 +33,6 @@ import pipeline.parameters.MultiListParameter;
 import pipeline.parameters.TableParameter;
 import pipeline.plugins.AuxiliaryInputOutputPlugin;
 import pipeline.plugins.FourDPlugin;
-import processing_utilities.floyd_warshall.FWEdge;
-import processing_utilities.floyd_warshall.FloydWarshall;
 import processing_utilities.skeleton.Edge;
 import processing_utilities.skeleton.SkeletonGraph;
 import processing_utilities.skeleton.SkeletonPoint;
@@ -105,7 +104,7 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 		stack.clearPixels();
 
 		for (SkeletonGraph s : (IPluginIOList<SkeletonGraph>) pluginInputs.get("Cells")) {
-			warshallAlgorithm(s, stack, (PluginIOCells) pluginOutputs.get("Cells"));
+			longestShortestPath(s, stack, (PluginIOCells) pluginOutputs.get("Cells"));
 		}
 
 	}
@@ -161,166 +160,83 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 	}
 
 	/**
-	 * Determine the longest shortest path using the APSP (all pairs shortest path)
-	 * warshall algorithm
+	 * Determine the longest shortest path between two vertices, running Dijkstra's algorithm from each vertex
 	 * 
 	 * @param graph
 	 *            the graph of a tree
 	 * @return longest shortest path length
 	 * @author Huub Hovens
 	 */
-	private static double
-			warshallAlgorithm(SkeletonGraph graph, IPluginIOStack outputImage, PluginIOCells outputPoints) {
-		// local fields
-		/** vertex 1 of an edge */
-		Vertex v1 = null;
-		/** vertex 2 of an edge */
-		Vertex v2 = null;
-		/** the equivalent of row in a matrix */
-		int row = 0;
-		/** the equivalent of column in a matrix */
-		int column = 0;
+	private static double longestShortestPath(SkeletonGraph graph, IPluginIOStack outputImage,
+			PluginIOCells outputPoints) {
 		/** the value of the longest shortest path */
 		double maxPath = 0;
-		/** row that contains the longest shortest path value */
-		int a = 0;
-		/** column that contains the longest shortest path value */
+		/** index of the vertex the longest shortest path ends at */
 		int b = 0;
+		/** shortest paths from the vertex the longest shortest path starts at */
+		ShortestPaths.Result pathsFromA = null;
 
 		ArrayList<Edge> edgeList = graph.getEdges();
 		ArrayList<Vertex> vertexList = graph.getVertices();
 
-		// create empty adjacency and predecessor matrix
-
-		/** the matrix that contains the length of the shortest path from vertex a to vertex b */
-		double[][] adjacencyMatrix = new double[vertexList.size()][vertexList.size()];
-		/** the matrix that contains the predecessor vertex of vertex b in the shortest path from vertex a to b */
-		int[][] predecessorMatrix = new int[vertexList.size()][vertexList.size()];
-
-		// initial conditions for both matrices
-		/*
-		 * create 2D-adjacency array with the distance between the nodes.
-		 * distance i --> i = 0
-		 * distance i -/> j = infinite (edge does not exist)
-		 * distance i --> j = length of branch
-		 */
-
-		/*
-		 * create 2D-predecessor array using interconnected vertices.
-		 * the predecessor matrix contains the predecessor of j in a path from node i to j.
-		 * distance i --> i = NIL (there is no edge between a single vertex)
-		 * distance i -/> j = NIL (there is no edge between the vertices)
-		 * distance i --> j = i (the initial matrix only contains paths with a single edge)
-		 * 
-		 * I'm using -1 as NIL since it cannot refer to an index (and thus a vertex)
-		 */
-
-		// applying initial conditions
+		Map<Vertex, Integer> vertexIndices = new IdentityHashMap<>();
 		for (int i = 0; i < vertexList.size(); i++) {
-			for (int j = 0; j < vertexList.size(); j++) {
-				adjacencyMatrix[i][j] = Double.POSITIVE_INFINITY;
-				predecessorMatrix[i][j] = -1;
-			}
+			vertexIndices.putIfAbsent(vertexList.get(i), i);
 		}
 
+		int[] from = new int[edgeList.size()];
+		int[] to = new int[edgeList.size()];
+		double[] lengths = new double[edgeList.size()];
+		int nEdges = 0;
 		for (Edge edge : edgeList) {
-			if (Thread.interrupted())
-				throw new RuntimeException("Interrupted");
-
-			v1 = edge.getV1();
-			v2 = edge.getV2();
-			// use the index of the vertices as the index in the matrix
-			row = vertexList.indexOf(v1);
-			if (row == -1) {
-				IJ.log("Vertex " + v1.getPoints().get(0) + " not found in the list of vertices!");
+			Integer row = vertexIndices.get(edge.getV1());
+			if (row == null) {
+				IJ.log("Vertex " + edge.getV1().getPoints().get(0) + " not found in the list of vertices!");
 				continue;
 			}
-
-			column = vertexList.indexOf(v2);
-			if (column == -1) {
-				IJ.log("Vertex " + v2.getPoints().get(0) + " not found in the list of vertices!");
+			Integer column = vertexIndices.get(edge.getV2());
+			if (column == null) {
+				IJ.log("Vertex " + edge.getV2().getPoints().get(0) + " not found in the list of vertices!");
 				continue;
 			}
-
-			/*
-			 * the diagonal is 0.
-			 * 
-			 * Because not every vertex is a 'v1 vertex'
-			 * the [column][column] statement is needed as well.
-			 * 
-			 * in an undirected graph the adjacencyMatrix is symmetric
-			 * thus A = Transpose(A)
-			 */
-			adjacencyMatrix[row][row] = 0;
-			adjacencyMatrix[column][column] = 0;
-			adjacencyMatrix[row][column] = edge.getLength();
-			adjacencyMatrix[column][row] = edge.getLength();
-
-			/*
-			 * the diagonal remains -1.
-			 * for the rest I use the index of the vertex so I can later refer to the vertexList
-			 * for the correct information
-			 * 
-			 * Determining what belongs where requires careful consideration of the definition
-			 * 
-			 * the array contains the predecessor of "column" in a path from "row" to "column"
-			 * therefore in the other statement it is the other way around.
-			 */
-			predecessorMatrix[row][row] = -1;
-			predecessorMatrix[column][column] = -1;
-			predecessorMatrix[row][column] = row;
-			predecessorMatrix[column][row] = column;
+			from[nEdges] = row;
+			to[nEdges] = column;
+			lengths[nEdges] = edge.getLength();
+			nEdges++;
 		}
-		// matrices now have their initial conditions
-
-		// the warshall algorithm with k as candidate vertex and i and j walk through the adjacencyMatrix
-		// the predecessor matrix is updated at the same time.
 
-		int size = vertexList.size();
-		for (int k = 0; k < size; k++) {
-			if (Thread.interrupted())
-				throw new RuntimeException("Interrupted");
-			for (int i = 0; i < size; i++) {
-				for (int j = 0; j < size; j++) {
-					if (adjacencyMatrix[i][k] + adjacencyMatrix[k][j] < adjacencyMatrix[i][j]) {
-						adjacencyMatrix[i][j] = adjacencyMatrix[i][k] + adjacencyMatrix[k][j];
-						predecessorMatrix[i][j] = predecessorMatrix[k][j];
-
-					}
-				}
-			}
-		}
+		ShortestPaths.Graph vertexGraph =
+				ShortestPaths.fromEdges(vertexList.size(), Arrays.copyOf(from, nEdges), Arrays.copyOf(to, nEdges),
+						Arrays.copyOf(lengths, nEdges));
 
 		// find the maximum of all shortest paths
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				// sometimes infinities still remain
-				if (adjacencyMatrix[i][j] > maxPath && adjacencyMatrix[i][j] != Double.POSITIVE_INFINITY) {
-					maxPath = adjacencyMatrix[i][j];
-					a = i;
+		for (int i = 0; i < vertexList.size(); i++) {
+			ShortestPaths.Result paths = ShortestPaths.dijkstra(vertexGraph, i, -1);
+			for (int j = 0; j < vertexList.size(); j++) {
+				// unreachable vertices are at infinite distance
+				if (paths.distance[j] > maxPath && paths.distance[j] != Double.POSITIVE_INFINITY) {
+					maxPath = paths.distance[j];
+					pathsFromA = paths;
 					b = j;
-
 				}
 			}
 		}
 
 		// !important return maxPath;
-		reconstructPath(predecessorMatrix, a, b, edgeList, vertexList, outputPoints, outputImage);
+		reconstructPath(pathsFromA, b, edgeList, vertexList, outputPoints, outputImage);
 		return maxPath;
 
 	}
 
-	// end method warshallAlgorithm
+	// end method longestShortestPath
 
 	/**
-	 * Reconstruction and visualisation of the longest shortest path found by the APSP warshall algorithm
+	 * Reconstruction and visualisation of the longest shortest path
 	 * 
-	 * @param predecessorMatrix
-	 *            the Matrix which contains the predecessor of vertex b in the shortest path from a to b
-	 * @param startIndex
-	 *            the index of the row which contains the longest shortest path
+	 * @param pathsFromStart
+	 *            shortest paths from the vertex the longest shortest path starts at; null if there is no path
 	 * @param endIndex
-	 *            the index of the column which contains the longest shortest path
+	 *            the index of the vertex the longest shortest path ends at
 	 * @param edgeList
 	 *            the list of edges
 	 * @param vertexList
@@ -328,8 +244,7 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 	 * 
 	 * @author Huub Hovens
 	 */
-	private static void reconstructPath(int[][] predecessorMatrix, int startIndex, int endIndex,
-			ArrayList<Edge> edgeList, ArrayList<Vertex> vertexList, PluginIOCells outputPoints,
+	private static void reconstructPath(ShortestPaths.Result pathsFromStart, int endIndex, ArrayList<Edge> edgeList, ArrayList<Vertex> vertexList, PluginIOCells outputPoints,
 			IPluginIOStack outputImage) {
 		/** contains points of the longest shortest path for each graph */
 		if (outputPoints != null)
@@ -338,11 +253,11 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 		List<SkeletonPoint> allPoints = new ArrayList<>(1000);
 
 		// We know the first and last vertex of the longest shortest path, namely a and b
-		// using the predecessor matrix we can now determine the path that is taken from a to b
+		// using the predecessors we can now determine the path that is taken from a to b
 		// remember a and b are indices and not the actual vertices.
 
 		int b = endIndex;
-		int a = startIndex;
+		int a = pathsFromStart != null ? pathsFromStart.source : endIndex;
 
 		Edge previousShortestEdge = null;
 
@@ -350,7 +265,7 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 			Utils.log("Shortest path identification: " + a + ", " + b, LogLevel.DEBUG);
 			if (Thread.interrupted())
 				throw new RuntimeException("Interrupted");
-			Vertex predecessor = vertexList.get(predecessorMatrix[a][b]);
+			Vertex predecessor = vertexList.get(pathsFromStart.predecessor[b]);
 			Vertex endvertex = vertexList.get(b);
 			ArrayList<Edge> sp_edgeslist = new ArrayList<>();
 			Double lengthtest = Double.POSITIVE_INFINITY;
@@ -393,7 +308,7 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 
 			// now make the index of the endvertex the index of the predecessor so that the path now goes from
 			// a to predecessor and repeat cycle
-			b = predecessorMatrix[a][b];
+			b = pathsFromStart.predecessor[b];
 			previousShortestEdge = shortestEdge;
 		}
 
@@ -513,54 +428,6 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 			p.owner = 0;
 		}
 
-		List<FWEdge> edges = new ArrayList<>(200);
-
-		Utils.log("Creating edges in findShortestPath", LogLevel.DEBUG);
-
-		// Create edges
-		for (Entry<Point3D, SkeletonPoint> p : points.entrySet()) {
-			int x = p.getKey().x;
-			int y = p.getKey().y;
-			int z = p.getKey().z;
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y - 1, z - 1));
-			checkAddEdge(points, edges, p, new Point3D(x, y - 1, z - 1));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y - 1, z - 1));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y, z - 1));
-			checkAddEdge(points, edges, p, new Point3D(x, y, z - 1));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y, z - 1));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y + 1, z - 1));
-			checkAddEdge(points, edges, p, new Point3D(x, y + 1, z - 1));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y + 1, z - 1));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y - 1, z));
-			checkAddEdge(points, edges, p, new Point3D(x, y - 1, z));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y - 1, z));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y, z));
-			checkAddEdge(points, edges, p, new Point3D(x, y, z));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y, z));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y + 1, z));
-			checkAddEdge(points, edges, p, new Point3D(x, y + 1, z));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y + 1, z));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y - 1, z + 1));
-			checkAddEdge(points, edges, p, new Point3D(x, y - 1, z + 1));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y - 1, z + 1));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y, z + 1));
-			checkAddEdge(points, edges, p, new Point3D(x, y, z + 1));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y, z + 1));
-
-			checkAddEdge(points, edges, p, new Point3D(x - 1, y + 1, z + 1));
-			checkAddEdge(points, edges, p, new Point3D(x, y + 1, z + 1));
-			checkAddEdge(points, edges, p, new Point3D(x + 1, y + 1, z + 1));
-
-		}
-
 		SkeletonPoint[] pointArray = new SkeletonPoint[points.size()];
 		int i = 0;
 		for (SkeletonPoint p : points.values()) {
@@ -569,32 +436,23 @@ public class ShortestSkeletonPath extends FourDPlugin implements AuxiliaryInputO
 			i++;
 		}
 
-		FloydWarshall fw = new FloydWarshall();
+		VoxelGraph graph = new VoxelGraph(Arrays.asList(pointArray));
 
 		Utils.log("Calculating shortest path", LogLevel.DEBUG);
 
-		fw.calcShortestPaths(pointArray, edges.toArray(new FWEdge[] {}));
+		int source = graph.indexOf(slabs1.get(0).x, slabs1.get(0).y, slabs1.get(0).z);
+		int target = graph.indexOf(slabs2.get(0).x, slabs2.get(0).y, slabs2.get(0).z);
+		int[] path = ShortestPaths.dijkstra(graph, source, target).getPathTo(target);
 
 		Utils.log("Done with shortest path", LogLevel.DEBUG);
-		connectingPoints.addAll(fw.getShortestPath(slabs1.get(0), slabs2.get(0)).stream().filter(
-				pointIndex -> pointArray[pointIndex.getIndex()].owner == VERTEX_POINT).map(
-				pointIndex -> pointArray[pointIndex.getIndex()]).collect(Collectors.toList()));
+		for (int pointIndex : path) {
+			if (pointArray[pointIndex].owner == VERTEX_POINT)
+				connectingPoints.add(pointArray[pointIndex]);
+		}
 		Utils.log("Returning shortest path", LogLevel.DEBUG);
 		return connectingPoints;
 	}
 
-	private static void checkAddEdge(Map<Point3D, SkeletonPoint> points, List<FWEdge> edges,
-			Entry<Point3D, SkeletonPoint> ps, Point3D point3D) {
-		SkeletonPoint q = points.get(point3D);
-		if (q == null)
-			return;
-		double distance = ps.getKey().distanceTo(point3D);
-		if (distance == 0)
-			return;
-		SkeletonPoint p = ps.getValue();
-		edges.add(new FWEdge(p, q, distance));
-	}
-
 	private static void addPoints(List<SkeletonPoint> skeletonPoints, IPluginIOStack outputImage) {
 		/*
 		 * if (outputPoints!=null){
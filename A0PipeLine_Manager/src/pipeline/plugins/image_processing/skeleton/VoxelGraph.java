@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Parismi v0.1
+ * Copyright (c) 2009-2015 Cinquin Lab.
+ * All rights reserved. This code is made available under a dual license:
+ * the two-clause BSD license or the GNU Public License v2.
+ ******************************************************************************/
+package pipeline.plugins.image_processing.skeleton;
+
+import java.util.Arrays;
+import java.util.List;
+
+import processing_utilities.skeleton.SkeletonPoint;
+
+/**
+ * Graph whose nodes are a set of voxels, each linked to the voxels of the set that are in its 26-neighbourhood by an
+ * edge weighted by the Euclidean distance between the two. Neighbours are looked up on the fly in an open-addressing
+ * table of voxel coordinates, so no edge list is stored.
+ *
+ */
+public class VoxelGraph implements ShortestPaths.Graph {
+
+	private static final double[] OFFSET_LENGTHS = { 0, 1, Math.sqrt(2), Math.sqrt(3) };
+
+	private final int[] x, y, z;
+	private final long[] tableKeys;
+	private final int[] tableValues;
+	private final int mask;
+
+	/**
+	 * @param points
+	 *            Node i corresponds to points.get(i); points must be distinct
+	 */
+	public VoxelGraph(List<? extends SkeletonPoint> points) {
+		int n = points.size();
+		x = new int[n];
+		y = new int[n];
+		z = new int[n];
+		int capacity = 4;
+		while (capacity < 2 * n)
+			capacity *= 2;
+		tableKeys = new long[capacity];
+		tableValues = new int[capacity];
+		Arrays.fill(tableValues, -1);
+		mask = capacity - 1;
+		for (int i = 0; i < n; i++) {
+			SkeletonPoint p = points.get(i);
+			x[i] = p.x;
+			y[i] = p.y;
+			z[i] = p.z;
+			long key = key(p.x, p.y, p.z);
+			int slot = slot(key);
+			while (tableValues[slot] != -1) {
+				if (tableKeys[slot] == key)
+					throw new IllegalArgumentException("Duplicate point " + p);
+				slot = (slot + 1) & mask;
+			}
+			tableKeys[slot] = key;
+			tableValues[slot] = i;
+		}
+	}
+
+	private static long key(int x, int y, int z) {
+		// Coordinates are shifted by 1 so that neighbours of voxels at 0 have non-negative coordinates
+		return ((long) (x + 1) << 42) | ((long) (y + 1) << 21) | (z + 1);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	/**
+	 * @return Index of node at given coordinates, or -1 if there is none
+	 */
+	public int indexOf(int x, int y, int z) {
+		if (x < -1 || y < -1 || z < -1)
+			return -1;
+		long key = key(x, y, z);
+		int slot = slot(key);
+		while (tableValues[slot] != -1) {
+			if (tableKeys[slot] == key)
+				return tableValues[slot];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return x.length;
+	}
+
+	@Override
+	public void forEachNeighbor(int node, ShortestPaths.NeighborConsumer consumer) {
+		int px = x[node], py = y[node], pz = z[node];
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					int nOffsets = (dx != 0 ? 1 : 0) + (dy != 0 ? 1 : 0) + (dz != 0 ? 1 : 0);
+					if (nOffsets == 0)
+						continue;
+					int neighbor = indexOf(px + dx, py + dy, pz + dz);
+					if (neighbor >= 0)
+						consumer.accept(neighbor, OFFSET_LENGTHS[nOffsets]);
+				}
+			}
+		}
+	}
+}
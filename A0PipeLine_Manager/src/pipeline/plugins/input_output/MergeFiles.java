@@ -110,7 +110,7 @@ public abstract class MergeFiles extends FourDPlugin implements AuxiliaryInputOu
 	}
 
 	@SuppressWarnings("null")
-	static IPluginIO openInputFile(@NonNull String path) throws IOException, FormatException {
+	protected static IPluginIO openInputFile(@NonNull String path) throws IOException, FormatException {
 		if (path.endsWith(".tif") || path.endsWith(".tiff")) {
 			TIFFFileAccessor tiffReader;
 			File file = new File(path);
@@ -138,14 +138,21 @@ public abstract class MergeFiles extends FourDPlugin implements AuxiliaryInputOu
 
 	}
 
+	/**
+	 * @return Names of the files matched by the path and selected by the user, before expansion by
+	 *         {@link FileNameUtils#expandPath}
+	 */
 	@SuppressWarnings("null")
-	protected List<IPluginIO> openInputFiles(ProgressReporter prog) throws InterruptedException {
-		List<IPluginIO> result = new ArrayList<>();
+	protected @NonNull String @NonNull [] getSelectedFileNames() {
 		final List<String> paths = FileNameUtils.getPathExpansions(path, false);
 		((MultiListParameter) getParameter("selectedFiles")).setChoices(paths.toArray(new String[] {}));
+		return ((MultiListParameter) getParameter("selectedFiles")).getSelectionString();
+	}
 
-		final @NonNull String @NonNull [] fileNames = 
-				((MultiListParameter) getParameter("selectedFiles")).getSelectionString();
+	@SuppressWarnings("null")
+	protected List<IPluginIO> openInputFiles(ProgressReporter prog) throws InterruptedException {
+		List<IPluginIO> result = new ArrayList<>();
+		final @NonNull String @NonNull [] fileNames = getSelectedFileNames();
 
 		/*
 		 * prog.setMin(0);
@@ -16,6 +16,7 @@ import pipeline.data.IPluginIO;
 import pipeline.data.IPluginIOImage;
 import pipeline.data.IPluginIOList;
 import pipeline.data.InputOutputDescription;
+import pipeline.data.PluginIOHyperstack;
 import pipeline.data.PluginIOImage.PixelType;
 import pipeline.data.PluginIOString;
 import pipeline.misc_util.FileNameUtils;
@@ -78,6 +79,20 @@ public class SaveHyperstackToTIFFV2 extends FourDPlugin implements AuxiliaryInpu
 			compactDisplay = true)
 	private String userPrefix;
 
+	@ParameterInfo(userDisplayName = "Tile size", description = "0 to store slices as strips; otherwise width and "
+			+ "height of square tiles (rounded down to a multiple of 16), which lets plugins read regions of the saved "
+			+ "image without reading whole slices (files are saved as BigTIFF, which ImageJ cannot open whether or "
+			+ "not they are tiled)", floatValue = 0, permissibleFloatRange = { 0, 1024 },
+			changeTriggersUpdate = false, changeTriggersLiveUpdates = false, noErrorIfMissingOnReload = true)
+	private int tileSize;
+
+	private void save(IPluginIOImage image, File f, int tiles) throws IOException, InterruptedException {
+		if (image instanceof PluginIOHyperstack)
+			((PluginIOHyperstack) image).asFile(f, true, tiles);
+		else
+			image.asFile(f, true);
+	}
+
 	@Override
 	public String operationName() {
 		return "SaveHyperstackToTIFFV2";
@@ -134,13 +149,14 @@ public class SaveHyperstackToTIFFV2 extends FourDPlugin implements AuxiliaryInpu
 		if (!fileNameString.endsWith(".tif") && !fileNameString.endsWith(".tiff"))
 			fileNameString = fileNameString + ".tiff";
 
+		int tiles = (tileSize / 16) * 16;
 		try {
 			if (imageList != null) {
 				for (IPluginIOImage image : imageList) {
-					image.asFile(new File(directory + "/" + image.getName()), true);
+					save(image, new File(directory + "/" + image.getName()), tiles);
 				}
 			} else
-				getImageInput().asFile(new File(fileNameString), true);
+				save(getImageInput(), new File(fileNameString), tiles);
 		} catch (IOException e1) {
 			throw new PluginRuntimeException("IO error while saving channel to TIFF", e1, true);
 		}
@@ -25,6 +25,7 @@ import pipeline.misc_util.ProgressReporter;
 import pipeline.misc_util.Utils;
 import pipeline.misc_util.Utils.LogLevel;
 import pipeline.parameters.AbstractParameter;
+import pipeline.parameters.BooleanParameter;
 import pipeline.parameters.DirectoryParameter;
 import pipeline.parameters.FileNameParameter;
 import pipeline.parameters.MultiListParameter;
@@ -35,6 +36,8 @@ import pipeline.plugins.FourDPlugin;
 
 /**
  * Saves input as an XML object by serializing it. Don't use on images as it will be very inefficient.
+ * Cells are saved as protobuf files instead; their segmentations are written as coordinate arrays, as by earlier
+ * versions, unless run-length encoding is turned on.
  *
  */
 public class SaveObjectsToXML extends FourDPlugin implements AuxiliaryInputOutputPlugin {
@@ -60,12 +63,16 @@ public class SaveObjectsToXML extends FourDPlugin implements AuxiliaryInputOutpu
 
 	private AbstractParameter splitDirectoryAndFile = null;
 
+	private BooleanParameter runLengthEncode = new BooleanParameter("Run-length encode segmentations",
+			"Store cell segmentations as runs instead of coordinate arrays; files are much smaller but cannot be "
+					+ "read by versions that predate run-length encoding, nor by native plugins", false, true, null);
+
 	@Override
 	public AbstractParameter[] getParameters() {
 		if (splitDirectoryAndFile == null) {
 			splitDirectoryAndFile = new SplitParameter(new Object[] { fileName, workingDirectory });
 		}
-		AbstractParameter[] paramArray = { splitDirectoryAndFile, null };
+		AbstractParameter[] paramArray = { splitDirectoryAndFile, runLengthEncode };
 		return paramArray;
 	}
 
@@ -74,6 +81,9 @@ public class SaveObjectsToXML extends FourDPlugin implements AuxiliaryInputOutpu
 		Object[] splitParameters = (Object[]) param[0].getValue();
 		fileName = (AbstractParameter) splitParameters[0];
 		workingDirectory = (AbstractParameter) splitParameters[1];
+		// Tables saved before the parameter was added do not have it
+		if (param.length > 1 && param[1] instanceof BooleanParameter)
+			runLengthEncode = (BooleanParameter) param[1];
 	}
 
 	@Override
@@ -143,7 +153,9 @@ public class SaveObjectsToXML extends FourDPlugin implements AuxiliaryInputOutpu
 				if (!fileNameString.contains(".proto"))
 					fileNameString += ".proto";
 				try (FileOutputStream fos = new FileOutputStream(fileNameString)) {
-					fos.write(source.getValue().asProtobufBytes());
+					PluginIOCells cells = (PluginIOCells) source.getValue();
+					fos.write(runLengthEncode.getBooleanValue() ? cells.asProtobufBytes(true) : cells
+							.asProtobufBytes());
 				} catch (IOException e) {
 					throw new PluginRuntimeException("Could not write protobuf file", e, true);
 				}